@@ -266,6 +266,15 @@ public interface Message {
    */
   public boolean hasResource(String key);
 
+  /**
+   * Removes a transient resource, if it is present.
+   *
+   * @param key
+   *          Name of resource.
+   * @return this message
+   */
+  public Message removeResource(String key);
+
   /**
    * Copies a transient resource to this message from the specified message.
    *
@@ -300,6 +300,14 @@ public class CommandMessage implements Message {
     return this.resources != null && this.resources.containsKey(key);
   }
 
+  @Override
+  public Message removeResource(String key) {
+    if (this.resources != null) {
+      this.resources.remove(key);
+    }
+    return this;
+  }
+
   @Override
   public void addResources(Map<String, ?> resources) {
     if (this.resources == null) {
@@ -144,6 +144,11 @@ class ConversationMessageWrapper implements Message {
     return newMessage.hasResource(key);
   }
 
+  public Message removeResource(String key) {
+    newMessage.removeResource(key);
+    return this;
+  }
+
   public Message copyResource(String key, Message m) {
     newMessage.copyResource(key, m);
     return this;
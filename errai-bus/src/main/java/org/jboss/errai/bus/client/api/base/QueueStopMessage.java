@@ -142,6 +142,10 @@ public class QueueStopMessage implements Message {
     return false;
   }
 
+  public Message removeResource(String key) {
+    return null;
+  }
+
   public Message copyResource(String key, Message m) {
     return null;
   }
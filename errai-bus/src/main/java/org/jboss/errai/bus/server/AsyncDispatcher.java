@@ -19,10 +19,12 @@ package org.jboss.errai.bus.server;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import org.jboss.errai.bus.client.api.Message;
-import org.jboss.errai.bus.client.framework.RequestDispatcher;
 import org.jboss.errai.common.client.protocols.MessageParts;
+import org.jboss.errai.bus.server.api.BatchRequestDispatcher;
 import org.jboss.errai.bus.server.service.ErraiService;
 
+import java.util.List;
+
 /**
  * The <tt>AsyncDispatcher</tt> provides asynchronous message delivery into the bus.  This means that incoming remote
  * requests do not block, and processing of the request continues even after the incoming network conversation has
@@ -35,7 +37,7 @@ import org.jboss.errai.bus.server.service.ErraiService;
  * @author Mike Brock
  */
 @Singleton
-public class AsyncDispatcher implements RequestDispatcher {
+public class AsyncDispatcher implements BatchRequestDispatcher {
   private WorkerFactory workerFactory;
   private ErraiService service;
 
@@ -86,6 +88,25 @@ public class AsyncDispatcher implements RequestDispatcher {
     }
   }
 
+  /**
+   * Sends the batch of messages globally through the <tt>workerFactory</tt>, as a single unit of work. If any of the
+   * messages has the <tt>PriorityProcessing</tt> flag set, the messages are dispatched one at a time instead.
+   *
+   * @param messages - the messages to dispatch globally
+   */
+  public void dispatchGlobal(final List<Message> messages) throws InterruptedException {
+    for (Message message : messages) {
+      if (message.hasPart(MessageParts.PriorityProcessing)) {
+        for (Message m : messages) {
+          dispatchGlobal(m);
+        }
+        return;
+      }
+    }
+
+    workerFactory.deliverGlobal(messages);
+  }
+
   /**
    * @param message - a message to dispatch
    */
@@ -19,9 +19,9 @@ package org.jboss.errai.bus.server;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.http.HttpSession;
 
@@ -50,7 +50,13 @@ public class HttpSessionProvider implements SessionProvider<HttpSession> {
   public QueueSession getSession(final HttpSession externSessRef, final String remoteQueueID) {
     SessionsContainer sc = (SessionsContainer) externSessRef.getAttribute(HTTP_SESS);
     if (sc == null) {
-      externSessRef.setAttribute(HTTP_SESS, sc = new SessionsContainer());
+      // concurrent requests for a new http session must agree on a single container.
+      synchronized (externSessRef) {
+        sc = (SessionsContainer) externSessRef.getAttribute(HTTP_SESS);
+        if (sc == null) {
+          externSessRef.setAttribute(HTTP_SESS, sc = new SessionsContainer());
+        }
+      }
     }
 
     QueueSession qs = sc.getSession(remoteQueueID);
@@ -67,13 +73,17 @@ public class HttpSessionProvider implements SessionProvider<HttpSession> {
     /**
      * Share these attributes across all the sub-sessions
      */
-    private final Map<String, Object> sharedAttributes = new HashMap<String, Object>();
-    private final Map<String, QueueSession> queueSessions = new HashMap<String, QueueSession>();
+    private final ConcurrentMap<String, Object> sharedAttributes = new ConcurrentHashMap<String, Object>();
+    private final ConcurrentMap<String, QueueSession> queueSessions = new ConcurrentHashMap<String, QueueSession>();
 
+    /**
+     * Creates the session for the remote queue, unless a concurrent request has already created it, in which case
+     * that session is returned.
+     */
     public QueueSession createSession(final String httpSessionId, final String remoteQueueId) {
       final QueueSession qs = new HttpSessionWrapper(this, httpSessionId, remoteQueueId);
-      queueSessions.put(remoteQueueId, qs);
-      return qs;
+      final QueueSession existing = queueSessions.putIfAbsent(remoteQueueId, qs);
+      return existing == null ? qs : existing;
     }
 
     public QueueSession getSession(final String remoteQueueId) {
@@ -102,8 +112,7 @@ public class HttpSessionProvider implements SessionProvider<HttpSession> {
       this.container = container;
       this.remoteQueueID = remoteQueueID;
       this.parentSessionId = httpSessionId;
-      this.sessionId = SecureHashUtil.nextSecureHash("SHA-256",
-              httpSessionId.getBytes(), remoteQueueID.getBytes());
+      this.sessionId = SecureHashUtil.nextSecureId();
     }
 
     public String getSessionId() {
@@ -127,7 +136,12 @@ public class HttpSessionProvider implements SessionProvider<HttpSession> {
     }
 
     public void setAttribute(final String attribute, final Object value) {
-      container.sharedAttributes.put(attribute, value);
+      if (value == null) {
+        container.sharedAttributes.remove(attribute);
+      }
+      else {
+        container.sharedAttributes.put(attribute, value);
+      }
     }
 
     public <T> T getAttribute(final Class<T> type, final String attribute) {
@@ -20,29 +20,25 @@ import org.jboss.errai.bus.client.api.Message;
 import org.jboss.errai.bus.client.api.QueueSession;
 import org.jboss.errai.bus.server.api.MessageQueue;
 import org.jboss.errai.bus.server.api.QueueActivationCallback;
+import org.jboss.errai.bus.server.io.BatchingQueueChannel;
 import org.jboss.errai.bus.server.io.BufferHelper;
 import org.jboss.errai.bus.server.io.QueueChannel;
-import org.jboss.errai.bus.server.io.buffers.BufferCallback;
 import org.jboss.errai.bus.server.io.buffers.BufferColor;
 import org.jboss.errai.bus.server.io.buffers.TransmissionBuffer;
+import org.jboss.errai.bus.server.io.paging.PageFile;
+import org.jboss.errai.bus.server.io.paging.PageFileStore;
 import org.jboss.errai.bus.server.util.LocalContext;
 import org.jboss.errai.bus.server.util.MarkedOutputStream;
-import org.jboss.errai.bus.server.util.ServerBusTools;
 import org.jboss.errai.marshalling.server.util.UnwrappedByteArrayOutputStream;
 import org.slf4j.Logger;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
 
 import static java.lang.System.nanoTime;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -60,6 +56,20 @@ public class MessageQueueImpl implements MessageQueue {
   private static final long DOWNGRADE_THRESHOLD = Boolean.getBoolean("org.jboss.errai.debugmode") ?
           secs(1600) : secs(10);
 
+  /**
+   * How often a queue which has been paged out is paged again, to move any broadcast messages written to the shared
+   * buffer since it was last paged.
+   */
+  private static final long REPAGE_INTERVAL = secs(8);
+
+  /**
+   * The maximum number of paged messages returned by a single poll.
+   */
+  private static final int PAGE_DRAIN_LIMIT = 500;
+
+  private static final PageFileStore pageFileStore
+          = new PageFileStore(new File(System.getProperty("java.io.tmpdir"), "queueCache"));
+
   private final QueueSession session;
 
   private boolean initLock = true;
@@ -75,6 +85,12 @@ public class MessageQueueImpl implements MessageQueue {
   private volatile boolean useDirectSocketChannel = false;
   private QueueChannel directSocketChannel;
 
+  /**
+   * Set while messages for the direct socket channel are being held in the buffer, because the channel stopped
+   * accepting writes. Cleared when the queue is woken after the channel has drained.
+   */
+  private volatile boolean directChannelBacklogged = false;
+
   private final Object activationLock = new Object();
   private final AtomicInteger messageCount = new AtomicInteger();
 
@@ -85,7 +101,7 @@ public class MessageQueueImpl implements MessageQueue {
     this.session = session;
     this.bufferColor = BufferColor.getNewColorFromHead(buffer);
 
-
+    buffer.registerColor(bufferColor);
   }
 
   /**
@@ -107,7 +123,7 @@ public class MessageQueueImpl implements MessageQueue {
     if (pagedOut) {
       synchronized (pageLock) {
         if (pagedOut) {
-          readInPageFile(outstream, new BufferHelper.MultiMessageHandlerCallback());
+          readInPageFile(outstream);
           return false;
         }
       }
@@ -149,9 +165,21 @@ public class MessageQueueImpl implements MessageQueue {
       throw new QueueUnavailableException("queue is not available");
     }
 
-    if (useDirectSocketChannel && directSocketChannel.isConnected()) {
+    final boolean direct = isDirectChannelOpen();
+    if (direct && !directChannelBacklogged && !isDirectChannelWritable()) {
+      // the client is not keeping up. hold its messages in the buffer until the channel drains.
+      directChannelBacklogged = true;
+    }
+
+    if (direct && !directChannelBacklogged) {
       try {
-        directSocketChannel.write("[" + ServerBusTools.encodeMessage(message) + "]");
+        final QueueChannel channel = directSocketChannel;
+        if (channel instanceof BatchingQueueChannel) {
+          ((BatchingQueueChannel) channel).writeMessage(BufferHelper.getEncodedPayload(message));
+        }
+        else {
+          channel.write("[" + BufferHelper.getEncodedPayload(message) + "]");
+        }
       }
       catch (Throwable e) {
         log.info("error writing to socket for queue " + session.getSessionId());
@@ -167,32 +195,31 @@ public class MessageQueueImpl implements MessageQueue {
           try {
             synchronized (pageLock) {
               if (pagedOut) {
-                writeToPageFile(ServerBusTools.encodeMessageToByteArrayInputStream(message), true);
+                writeToPageFile(BufferHelper.getEncodedPayload(message));
                 return true;
               }
             }
           }
           finally {
-            ReentrantLock lock = bufferColor.getLock();
-            lock.lock();
-            try {
-              bufferColor.wake();
-            }
-            finally {
-              lock.unlock();
-            }
+            bufferColor.wake();
           }
         }
 
         BufferHelper.encodeAndWrite(buffer, bufferColor, message);
 
-        if (messageCount.incrementAndGet() > 5 && !lastTransmissionWithin(secs(3))) {
+        if (!direct && messageCount.incrementAndGet() > 5 && !lastTransmissionWithin(secs(3))) {
           // disconnect this client
           stopQueue();
         }
       }
       finally {
-        activateActivationCallback();
+        if (direct && isDirectChannelWritable()) {
+          // the channel drained while the message was being buffered, so nothing else will wake the queue.
+          wake();
+        }
+        else {
+          activateActivationCallback();
+        }
       }
     }
 
@@ -201,16 +228,21 @@ public class MessageQueueImpl implements MessageQueue {
 
   private final Object pageLock = new Object();
 
+  /**
+   * The page file holding this queue's paged out messages. Guarded by the {@link #pageLock}.
+   */
+  private PageFile pageFile;
+
   @Override
   public boolean pageWaitingToDisk() {
     synchronized (pageLock) {
       try {
         boolean alreadyPaged = pagedOut;
 
-        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(getOrCreatePageFile(), alreadyPaged));
-        buffer.read(outputStream, bufferColor);
-        outputStream.flush();
-        outputStream.close();
+        if (pageFile == null) {
+          pageFile = pageFileStore.acquire();
+        }
+        buffer.readChunks(pageFile, bufferColor);
 
         pagedOut = true;
 
@@ -222,56 +254,31 @@ public class MessageQueueImpl implements MessageQueue {
     }
   }
 
-  private void writeToPageFile(InputStream inputStream, boolean append) {
-
+  private void writeToPageFile(String payload) {
     try {
-      OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(getOrCreatePageFile(), append));
-
-      int read;
-      while ((read = inputStream.read()) != -1) outputStream.write(read);
-
-      outputStream.flush();
-      outputStream.close();
-
+      final byte[] bytes = payload.getBytes("UTF-8");
+      pageFile.append(bytes, 0, bytes.length);
     }
     catch (IOException e) {
       throw new RuntimeException("paging error", e);
     }
   }
 
-  private File getOrCreatePageFile() throws IOException {
-    File pageFile = new File(getPageFileName());
-    if (!pageFile.exists()) {
-      pageFile.getParentFile().mkdirs();
-      pageFile.createNewFile();
-      pageFile.deleteOnExit();
-    }
-    return pageFile;
-  }
-
-  private void readInPageFile(OutputStream outputStream, BufferCallback callback) {
+  /**
+   * Drains up to {@link #PAGE_DRAIN_LIMIT} paged messages to the output stream, and releases the page file once
+   * it has been fully drained.
+   */
+  private void readInPageFile(OutputStream outputStream) {
     synchronized (pageLock) {
       try {
         if (pagedOut) {
-          File pageFile = new File(getPageFileName());
-          if (!pageFile.exists()) {
-            pagedOut = false;
-            return;
-          }
+          outputStream.write('[');
+          pageFile.drainTo(Channels.newChannel(outputStream), PAGE_DRAIN_LIMIT, (byte) ',');
+          outputStream.write(']');
 
-          InputStream inputStream = new BufferedInputStream(new FileInputStream(pageFile));
-
-          callback.before(outputStream);
-
-          int read;
-          while ((read = inputStream.read()) != -1) {
-            outputStream.write(callback.each(read, outputStream));
+          if (pageFile.isDrained()) {
+            releasePageFile();
           }
-          inputStream.close();
-
-          callback.after(outputStream);
-
-          pagedOut = false;
         }
       }
       catch (IOException e) {
@@ -280,10 +287,12 @@ public class MessageQueueImpl implements MessageQueue {
     }
   }
 
-  private static final String tempDir = System.getProperty("java.io.tmpdir");
-
-  private String getPageFileName() {
-    return tempDir + "/queueCache/" + session.getSessionId().replaceAll("\\-", "_");
+  private void releasePageFile() {
+    if (pageFile != null) {
+      pageFileStore.release(pageFile);
+      pageFile = null;
+    }
+    pagedOut = false;
   }
 
   @Override
@@ -291,16 +300,34 @@ public class MessageQueueImpl implements MessageQueue {
     return bufferColor.getSequence().get();
   }
 
+  @Override
+  public long getBufferLag() {
+    return buffer.getLag(bufferColor);
+  }
+
+  public BufferColor getBufferColor() {
+    return bufferColor;
+  }
+
   @Override
   public void wake() {
     if (!queueRunning) return;
 
     try {
       if (isDirectChannelOpen()) {
-        UnwrappedByteArrayOutputStream outputStream = new UnwrappedByteArrayOutputStream();
-        buffer.read(outputStream, bufferColor, new BufferHelper.MultiMessageHandlerCallback());
-        // directSocketChannel.write(new TextWebSocketFrame(new String(outputStream.toByteArray(), 0, outputStream.size())));
-        directSocketChannel.write(new String(outputStream.toByteArray(), 0, outputStream.size()));
+        if (!isDirectChannelWritable()) {
+          // leave the messages in the buffer. the queue is woken again once the channel has drained.
+          directChannelBacklogged = true;
+          return;
+        }
+
+        flushToDirectChannel();
+        if (directChannelBacklogged) {
+          directChannelBacklogged = false;
+
+          // pick up anything offered to the buffer while the backlog was being flushed.
+          flushToDirectChannel();
+        }
       }
       else {
         BufferHelper.encodeAndWriteNoop(buffer, bufferColor);
@@ -314,6 +341,34 @@ public class MessageQueueImpl implements MessageQueue {
     }
   }
 
+  /**
+   * Writes any paged and buffered messages for this queue to the direct socket channel.
+   */
+  private void flushToDirectChannel() throws IOException {
+    while (pagedOut) {
+      final UnwrappedByteArrayOutputStream outputStream = new UnwrappedByteArrayOutputStream();
+      readInPageFile(outputStream);
+      writeToDirectChannel(outputStream);
+    }
+
+    final UnwrappedByteArrayOutputStream outputStream = new UnwrappedByteArrayOutputStream();
+    buffer.read(outputStream, bufferColor, new BufferHelper.MultiMessageHandlerCallback());
+    writeToDirectChannel(outputStream);
+  }
+
+  private void writeToDirectChannel(final UnwrappedByteArrayOutputStream outputStream) throws IOException {
+    // an empty read still produces the enclosing brackets.
+    if (outputStream.size() <= 2) return;
+
+    final QueueChannel channel = directSocketChannel;
+    if (channel instanceof BatchingQueueChannel) {
+      ((BatchingQueueChannel) channel).write(outputStream.toByteArray(), 0, outputStream.size());
+    }
+    else {
+      channel.write(new String(outputStream.toByteArray(), 0, outputStream.size(), "UTF-8"));
+    }
+  }
+
   private boolean lastTransmissionWithin(long nanos) {
     return (nanoTime() - lastTransmission) < nanos;
   }
@@ -376,6 +431,22 @@ public class MessageQueueImpl implements MessageQueue {
     return !isDirectChannelOpen() && ((nanoTime() - lastTransmission) > DOWNGRADE_THRESHOLD);
   }
 
+  @Override
+  public long getNextHousekeepingTime() {
+    if (!queueRunning) {
+      return nanoTime();
+    }
+    else if (isDirectChannelOpen()) {
+      return nanoTime() + DOWNGRADE_THRESHOLD;
+    }
+    else if (pagedOut) {
+      return Math.min(lastTransmission + TIMEOUT, nanoTime() + REPAGE_INTERVAL);
+    }
+    else {
+      return lastTransmission + DOWNGRADE_THRESHOLD;
+    }
+  }
+
   public boolean isInitialized() {
     return !initLock;
   }
@@ -389,6 +460,11 @@ public class MessageQueueImpl implements MessageQueue {
     return useDirectSocketChannel && directSocketChannel.isConnected();
   }
 
+  private boolean isDirectChannelWritable() {
+    final QueueChannel channel = directSocketChannel;
+    return !(channel instanceof BatchingQueueChannel) || ((BatchingQueueChannel) channel).isWritable();
+  }
+
   /**
    * Fakes a transmission, shows life with a heartbeat
    */
@@ -409,11 +485,9 @@ public class MessageQueueImpl implements MessageQueue {
   @Override
   public void discard() {
     queueRunning = false;
-    if (pagedOut) {
-      File pageFile = new File(getPageFileName());
-      if (pageFile.exists()) {
-        pageFile.delete();
-      }
+    buffer.unregisterColor(bufferColor);
+    synchronized (pageLock) {
+      releasePageFile();
     }
   }
 
@@ -423,6 +497,7 @@ public class MessageQueueImpl implements MessageQueue {
   public void stopQueue() {
     try {
       queueRunning = false;
+      buffer.unregisterColor(bufferColor);
 
       /**
        * we write a single byte to the buffer, with the color for this queue. this is to knock any
@@ -448,6 +523,7 @@ public class MessageQueueImpl implements MessageQueue {
   public void setDirectSocketChannel(final QueueChannel channel) {
     this.directSocketChannel = channel;
     this.useDirectSocketChannel = channel != null;
+    this.directChannelBacklogged = false;
 
     if (useDirectSocketChannel) {
       log.debug("queue " + getSession().getSessionId() + " transitioned to direct channel mode.");
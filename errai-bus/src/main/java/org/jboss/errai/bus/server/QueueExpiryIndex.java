@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import org.jboss.errai.bus.server.api.MessageQueue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A time-ordered index of message queues, keyed by the time at which the bus housekeeper next needs to look at each
+ * of them (see {@link MessageQueue#getNextHousekeepingTime()}). The housekeeper takes only the queues which have
+ * come due, rather than sweeping every queue on the bus, and puts each one back with its new due time once it has
+ * been checked.
+ * <p/>
+ * Queues are kept in buckets of about a second, so the index holds one entry per second of the housekeeping horizon,
+ * however many queues there are.
+ */
+class QueueExpiryIndex {
+  /**
+   * Due times are bucketed by shifting out the low bits of the nanosecond clock, giving buckets of ~1.07 seconds.
+   */
+  private static final int BUCKET_SHIFT = 30;
+
+  private final TreeMap<Long, List<MessageQueue>> buckets = new TreeMap<Long, List<MessageQueue>>();
+  private int size;
+
+  /**
+   * Adds the queue to the index.
+   *
+   * @param queue   the queue.
+   * @param dueTime the time, as given by {@link System#nanoTime()}, after which the queue should be checked.
+   */
+  public synchronized void schedule(final MessageQueue queue, final long dueTime) {
+    final Long bucket = dueTime >> BUCKET_SHIFT;
+    List<MessageQueue> queues = buckets.get(bucket);
+    if (queues == null) {
+      buckets.put(bucket, queues = new ArrayList<MessageQueue>());
+    }
+    queues.add(queue);
+    size++;
+  }
+
+  /**
+   * Removes and returns every queue which has come due.
+   *
+   * @param now the current time, as given by {@link System#nanoTime()}.
+   * @return the queues which were due, which may be empty.
+   */
+  public synchronized List<MessageQueue> pollDue(final long now) {
+    final Map<Long, List<MessageQueue>> due = buckets.headMap(now >> BUCKET_SHIFT, true);
+    if (due.isEmpty()) {
+      return new ArrayList<MessageQueue>(0);
+    }
+
+    final List<MessageQueue> queues = new ArrayList<MessageQueue>();
+    final Iterator<List<MessageQueue>> iter = due.values().iterator();
+    while (iter.hasNext()) {
+      queues.addAll(iter.next());
+      iter.remove();
+    }
+    size -= queues.size();
+    return queues;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public synchronized void clear() {
+    buckets.clear();
+    size = 0;
+  }
+}
@@ -43,6 +43,8 @@ import org.jboss.errai.bus.server.api.QueueCloseEvent;
 import org.jboss.errai.bus.server.api.QueueClosedListener;
 import org.jboss.errai.bus.server.api.ServerMessageBus;
 import org.jboss.errai.bus.server.io.BufferHelper;
+import org.jboss.errai.bus.server.io.buffers.BackpressureHandler;
+import org.jboss.errai.bus.server.io.buffers.Buffer;
 import org.jboss.errai.bus.server.io.buffers.BufferColor;
 import org.jboss.errai.bus.server.io.buffers.TransmissionBuffer;
 import org.jboss.errai.bus.server.io.websockets.WebSocketServer;
@@ -61,7 +63,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -74,10 +75,12 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import static org.jboss.errai.bus.client.api.base.MessageBuilder.createConversation;
 import static org.jboss.errai.bus.client.protocols.SecurityCommands.MessageNotDelivered;
 import static org.jboss.errai.bus.client.util.ErrorHelper.handleMessageDeliveryFailure;
+import static java.lang.System.nanoTime;
 import static org.jboss.errai.bus.server.io.websockets.WebSocketTokenManager.verifyOneTimeToken;
 import static org.jboss.errai.common.client.protocols.MessageParts.ReplyTo;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -100,6 +103,23 @@ public class ServerMessageBusImpl implements ServerMessageBus {
 
   private final Map<QueueSession, MessageQueue> messageQueues = new ConcurrentHashMap<QueueSession, MessageQueue>();
 
+  /**
+   * The queues by the color they read from the transmission buffer, so that the backpressure handler can find the
+   * queue holding back the buffer without visiting every queue.
+   */
+  private final Map<BufferColor, MessageQueue> queuesByColor = new ConcurrentHashMap<BufferColor, MessageQueue>();
+
+  /**
+   * The subjects each queue is remotely subscribed to: the reverse of {@link #remoteSubscriptions}, so that a queue
+   * can be torn down without visiting every remote subscription on the bus.
+   */
+  private final Map<MessageQueue, Set<String>> queueSubscriptions = new ConcurrentHashMap<MessageQueue, Set<String>>();
+
+  /**
+   * The queues ordered by when the housekeeper next needs to check them for staleness or paging.
+   */
+  private final QueueExpiryIndex queueExpiry = new QueueExpiryIndex();
+
   private final Map<MessageQueue, List<Message>> deferredQueue = new ConcurrentHashMap<MessageQueue, List<Message>>();
   private final Map<String, QueueSession> sessionLookup = new ConcurrentHashMap<String, QueueSession>();
 
@@ -109,6 +129,16 @@ public class ServerMessageBusImpl implements ServerMessageBus {
 
   private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
+  /**
+   * How often the housekeeper checks for queues which have come due, in nanoseconds.
+   */
+  private static final long HOUSEKEEPING_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * The number of housekeeper runs between reports of the buffer status.
+   */
+  private static final int BUFFER_STATUS_RUNS = 8;
+
   private static final Logger log = getLogger(ServerMessageBus.class);
 
   private BusMonitor busMonitor;
@@ -201,6 +231,21 @@ public class ServerMessageBusImpl implements ServerMessageBus {
 
     transmissionbuffer = buffer;
 
+    String backpressurePolicy = ErraiConfigAttribs.BUS_BUFFER_BACKPRESSURE_POLICY.get(config);
+    Integer highWaterMark = ErraiConfigAttribs.BUS_BUFFER_HIGH_WATER_MARK.getInt(config);
+    Integer blockTimeout = ErraiConfigAttribs.BUS_BUFFER_BLOCK_TIMEOUT.getInt(config);
+
+    if (!"none".equals(backpressurePolicy)) {
+      if (!"page".equals(backpressurePolicy) && !"drop".equals(backpressurePolicy)
+              && !"block".equals(backpressurePolicy)) {
+        throw new ErraiBootstrapFailure("unrecognized option for property: "
+                + ErraiConfigAttribs.BUS_BUFFER_BACKPRESSURE_POLICY.getAttributeName());
+      }
+
+      transmissionbuffer.setBackpressureHandler(new QueueBackpressureHandler(backpressurePolicy,
+              TimeUnit.MILLISECONDS.toNanos(blockTimeout)), highWaterMark / 100f);
+    }
+
     /**
      * Define the default ServerBus service used for intrabus communication.
      */
@@ -413,32 +458,27 @@ public class ServerMessageBusImpl implements ServerMessageBus {
       @Override
       public void run() {
         runCount++;
-        boolean houseKeepingPerformed = false;
-        List<MessageQueue> endSessions = new LinkedList<MessageQueue>();
+        final long now = System.nanoTime();
+        final List<MessageQueue> endSessions = new ArrayList<MessageQueue>();
 
         int paged = 0, killed = 0;
 
-        while (!houseKeepingPerformed) {
-          try {
-            Iterator<MessageQueue> iter = ServerMessageBusImpl.this.messageQueues.values().iterator();
-            MessageQueue q;
-            while (iter.hasNext()) {
-              if ((q = iter.next()).isStale()) {
-                iter.remove();
-                endSessions.add(q);
-                killed++;
-              }
-              else if (q.isDowngradeCandidate()) {
-                if (!q.pageWaitingToDisk()) {
-                  paged++;
-                }
-              }
-            }
-
-            houseKeepingPerformed = true;
+        // only the queues which have come due are visited, and each is put back with its next due time.
+        for (MessageQueue q : queueExpiry.pollDue(now)) {
+          if (getQueue(q.getSession()) != q) {
+            // the queue was closed, or replaced by a new queue for the same session.
+            if (!q.isStale()) continue;
+            releaseRemoteSubscriptions(q);
           }
-          catch (ConcurrentModificationException cme) {
-            // fall-through and try again.
+          else if (q.isStale()) {
+            endSessions.add(q);
+            killed++;
+          }
+          else {
+            if (q.isDowngradeCandidate() && !q.pageWaitingToDisk()) {
+              paged++;
+            }
+            queueExpiry.schedule(q, Math.max(q.getNextHousekeepingTime(), now + HOUSEKEEPING_INTERVAL));
           }
         }
 
@@ -446,10 +486,12 @@ public class ServerMessageBusImpl implements ServerMessageBus {
           log.debug("[bus] killed " + killed + " sessions and paged out " + paged + " queues");
         }
 
-
         for (MessageQueue ref : endSessions) {
-          for (String subject : new HashSet<String>(ServerMessageBusImpl.this.remoteSubscriptions.keySet())) {
-            ServerMessageBusImpl.this.remoteUnsubscribe(ref.getSession(), ref, subject);
+          final Set<String> subjects = queueSubscriptions.get(ref);
+          if (subjects != null) {
+            for (String subject : subjects.toArray(new String[subjects.size()])) {
+              ServerMessageBusImpl.this.remoteUnsubscribe(ref.getSession(), ref, subject);
+            }
           }
 
           ServerMessageBusImpl.this.closeQueue(ref);
@@ -458,6 +500,11 @@ public class ServerMessageBusImpl implements ServerMessageBus {
           ref.discard();
         }
 
+        // the buffer status is only logged every few runs.
+        if (runCount % BUFFER_STATUS_RUNS != 0) {
+          return;
+        }
+
         final BufferStatus stat = bufferStatus();
         if (stat.getFree() == 1.0f) {
           if (lastWasEmpty) {
@@ -476,7 +523,9 @@ public class ServerMessageBusImpl implements ServerMessageBus {
                 + stat.getActiveTails() + "]");
 
         if (stat.getFree() < 0.50f) {
-          log.debug("[bus] high load condition detected!");
+          final BufferColor slowest = transmissionbuffer.getSlowestColor();
+          log.debug("[bus] high load condition detected! (slowest queue lag: "
+                  + (slowest == null ? 0 : transmissionbuffer.getLag(slowest)) + " segments)");
         }
 
       }
@@ -485,7 +534,7 @@ public class ServerMessageBusImpl implements ServerMessageBus {
       public String toString() {
         return "Bus Housekeeper";
       }
-    }, 8, 8, TimeUnit.SECONDS);
+    }, HOUSEKEEPING_INTERVAL, HOUSEKEEPING_INTERVAL, TimeUnit.NANOSECONDS);
   }
 
   private static class BufferStatus {
@@ -564,9 +613,64 @@ public class ServerMessageBusImpl implements ServerMessageBus {
     return new BufferStatus(free, (int) (highSegBytes - lowSegBytes), activeTails, ((float) free) / bufSize);
   }
 
+  /**
+   * Applies the configured backpressure policy to the queue which owns the slowest color in the buffer.
+   */
+  private class QueueBackpressureHandler implements BackpressureHandler {
+    private final String policy;
+    private final long blockTimeout;
+
+    private QueueBackpressureHandler(final String policy, final long blockTimeout) {
+      this.policy = policy;
+      this.blockTimeout = blockTimeout;
+    }
+
+    @Override
+    public void onHighWaterMark(final Buffer buffer, final BufferColor slowestColor, final BufferColor writeColor,
+                                final long lag) throws IOException {
+      final MessageQueue queue = getQueueByBufferColor(slowestColor);
+      if (queue == null) {
+        // the color is not owned by any live queue, so it should not hold back the buffer.
+        buffer.unregisterColor(slowestColor);
+        return;
+      }
+
+      // a broadcast is not held up for every client by the slowest one, so it pages the slow queue instead of blocking.
+      if ("page".equals(policy) || ("block".equals(policy) && writeColor == BufferColor.getAllBuffersColor())) {
+        log.debug("[bus] paging slow queue to disk: " + queue.getSession().getSessionId() + " (lag: " + lag + ")");
+        queue.pageWaitingToDisk();
+      }
+      else if ("drop".equals(policy)) {
+        log.warn("[bus] dropping slow queue: " + queue.getSession().getSessionId() + " (lag: " + lag + ")");
+        queue.stopQueue();
+        closeQueue(queue);
+      }
+      else {
+        final long tail = slowestColor.getSequence().get();
+        final long deadline = nanoTime() + blockTimeout;
+
+        while (slowestColor.getSequence().get() == tail) {
+          if (nanoTime() > deadline) {
+            throw new IOException("buffer capacity exhausted by slow queue: " + queue.getSession().getSessionId()
+                    + " (lag: " + lag + "); message shed");
+          }
+          LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+      }
+    }
+  }
+
+  private MessageQueue getQueueByBufferColor(final BufferColor bufferColor) {
+    return queuesByColor.get(bufferColor);
+  }
+
   private void addQueue(final QueueSession session, final MessageQueue queue) {
     messageQueues.put(session, queue);
+    if (queue instanceof MessageQueueImpl) {
+      queuesByColor.put(((MessageQueueImpl) queue).getBufferColor(), queue);
+    }
     sessionLookup.put(session.getSessionId(), session);
+    queueExpiry.schedule(queue, queue.getNextHousekeepingTime());
   }
 
   /**
@@ -599,6 +703,83 @@ public class ServerMessageBusImpl implements ServerMessageBus {
       return;
     }
 
+    if (!prepareForDelivery(message, subject)) {
+      return;
+    }
+
+    if (subscriptions.containsKey(subject)) {
+      subscriptions.get(subject).deliver(message);
+    }
+    else if (subscriptions.containsKey("local:".concat(subject))) {
+      subscriptions.get("local:".concat(subject)).deliver(message);
+    }
+  }
+
+  /**
+   * Sends a batch of messages globally, in order. The delivery plan is looked up once for each run of consecutive
+   * messages with the same subject, rather than once for every message. A failure to deliver one message is
+   * reported for that message, and does not prevent delivery of the rest of the batch.
+   *
+   * @param messages - The messages to be sent.
+   */
+  @Override
+  public void sendGlobal(final List<Message> messages) {
+    String runSubject = null;
+    DeliveryPlan runPlan = null;
+
+    for (final Message message : messages) {
+      try {
+        message.commit();
+        final String subject = message.getSubject();
+
+        if (runSubject == null || !runSubject.equals(subject)) {
+          runSubject = subject;
+          runPlan = getDeliveryPlan(subject);
+        }
+
+        if (runPlan == null) {
+          // nothing to deliver to: take the normal path, which delays or fails the message.
+          sendGlobal(message);
+        }
+        else if (prepareForDelivery(message, subject)) {
+          runPlan.deliver(message);
+        }
+      }
+      catch (QueueUnavailableException e) {
+        handleMessageDeliveryFailure(this, message, "Queue is not available", e, true);
+      }
+      catch (Throwable e) {
+        message.setResource("Exception", e.getCause());
+        handleMessageDeliveryFailure(this, message, "Error calling remote service: " + message.getSubject(), e, false);
+      }
+    }
+  }
+
+  /**
+   * Resolves the delivery plan for a subject the same way {@link #sendGlobal(Message)} does: a <tt>local:</tt>
+   * subscription is only used when the subject is known to the bus, so local-only services are never reached by a
+   * subject which has no global subscription.
+   *
+   * @return the plan, or null if the message must take the single message path.
+   */
+  private DeliveryPlan getDeliveryPlan(final String subject) {
+    if (subject == null || (!subscriptions.containsKey(subject) && !remoteSubscriptions.containsKey(subject))) {
+      return null;
+    }
+
+    final DeliveryPlan plan = subscriptions.get(subject);
+    if (plan != null) {
+      return plan;
+    }
+    return subscriptions.get("local:".concat(subject));
+  }
+
+  /**
+   * Fires the global message listeners, and notifies the bus monitor, for a message which is about to be delivered.
+   *
+   * @return false if a listener vetoed the delivery of the message.
+   */
+  private boolean prepareForDelivery(final Message message, final String subject) {
     if (!fireGlobalMessageListeners(message)) {
       if (message.hasPart(ReplyTo) && message.hasResource(Resources.Session.name())) {
         /**
@@ -616,7 +797,7 @@ public class ServerMessageBusImpl implements ServerMessageBus {
         }
       }
 
-      return;
+      return false;
     }
 
     if (isMonitor()) {
@@ -631,12 +812,7 @@ public class ServerMessageBusImpl implements ServerMessageBus {
       }
     }
 
-    if (subscriptions.containsKey(subject)) {
-      subscriptions.get(subject).deliver(message);
-    }
-    else if (subscriptions.containsKey("local:".concat(subject))) {
-      subscriptions.get("local:".concat(subject)).deliver(message);
-    }
+    return true;
   }
 
   private void delayOrFail(final Message message, final Runnable deliveryTaskRunnable) {
@@ -711,11 +887,7 @@ public class ServerMessageBusImpl implements ServerMessageBus {
   private void send(final MessageQueue queue, final Message message, final boolean fireListeners) {
     try {
       if (fireListeners && !fireGlobalMessageListeners(message)) {
-        if (message.hasPart(ReplyTo)) {
-          Map<String, Object> rawMsg = new HashMap<String, Object>();
-          rawMsg.put(MessageParts.CommandType.name(), MessageNotDelivered.name());
-          enqueueForDelivery(queue, CommandMessage.createWithParts(rawMsg));
-        }
+        notifyNotDelivered(queue, message);
         return;
       }
 
@@ -731,6 +903,17 @@ public class ServerMessageBusImpl implements ServerMessageBus {
     }
   }
 
+  /**
+   * Tells the sender of a message which a global message listener refused that it was not delivered.
+   */
+  private void notifyNotDelivered(final MessageQueue queue, final Message message) {
+    if (message.hasPart(ReplyTo)) {
+      Map<String, Object> rawMsg = new HashMap<String, Object>();
+      rawMsg.put(MessageParts.CommandType.name(), MessageNotDelivered.name());
+      enqueueForDelivery(queue, CommandMessage.createWithParts(rawMsg));
+    }
+  }
+
   private void enqueueForDelivery(final MessageQueue queue, final Message message) {
     try {
       if (queue != null && isAnyoneListening(queue, message.getSubject())) {
@@ -823,16 +1006,38 @@ public class ServerMessageBusImpl implements ServerMessageBus {
    */
   @Override
   public void closeQueue(final MessageQueue queue) {
-    messageQueues.values().remove(queue);
-    sessionLookup.values().remove(queue.getSession());
-
-    for (RemoteMessageCallback cb : remoteSubscriptions.values()) {
-      cb.removeQueue(queue);
+    final QueueSession session = queue.getSession();
+    if (!messageQueues.remove(session, queue)) {
+      // the queue may only be reachable through a session associated with it.
+      messageQueues.values().remove(queue);
+    }
+    if (!sessionLookup.remove(session.getSessionId(), session)) {
+      sessionLookup.values().remove(session);
     }
+    if (queue instanceof MessageQueueImpl) {
+      queuesByColor.remove(((MessageQueueImpl) queue).getBufferColor(), queue);
+    }
+
+    releaseRemoteSubscriptions(queue);
 
     fireQueueCloseListeners(new QueueCloseEvent(queue));
   }
 
+  /**
+   * Removes the queue from each of the remote subscriptions it holds, without firing any unsubscribe events.
+   */
+  private void releaseRemoteSubscriptions(final MessageQueue queue) {
+    final Set<String> subjects = queueSubscriptions.remove(queue);
+    if (subjects == null) return;
+
+    for (String subject : subjects) {
+      final RemoteMessageCallback cb = remoteSubscriptions.get(subject);
+      if (cb != null) {
+        cb.removeQueue(queue);
+      }
+    }
+  }
+
   /**
    * Adds a rule for a specific subscription. The <tt>BooleanRoutingRule</tt> determines if a message should
    * be routed based on the already specified rules or not.
@@ -973,6 +1178,12 @@ public class ServerMessageBusImpl implements ServerMessageBus {
       else if (!rmc.contains(queue)) {
         rmc.addQueue(queue);
       }
+
+      Set<String> subjects = queueSubscriptions.get(queue);
+      if (subjects == null) {
+        queueSubscriptions.put(queue, subjects = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+      }
+      subjects.add(subject);
     }
 
     fireSubscribeListeners(new SubscriptionEvent(true, sessionContext.getSessionId(), rmc.getQueueCount(), isNew, subject));
@@ -1012,6 +1223,26 @@ public class ServerMessageBusImpl implements ServerMessageBus {
           throw new RuntimeException("transmission error", e);
         }
       }
+      else if (queues.size() > 1) {
+        // run the listeners once for the whole fan-out, then encode the message once, with whatever they changed,
+        // rather than once for each queue it is delivered to.
+        if (!fireGlobalMessageListeners(message)) {
+          for (MessageQueue q : queues) {
+            notifyNotDelivered(q, message);
+          }
+          return;
+        }
+
+        BufferHelper.cacheEncodedPayload(message);
+        try {
+          for (MessageQueue q : queues) {
+            send(q, message, false);
+          }
+        }
+        finally {
+          BufferHelper.clearEncodedPayload(message);
+        }
+      }
       else {
         for (MessageQueue q : queues) {
           send(q, message, true);
@@ -1055,6 +1286,11 @@ public class ServerMessageBusImpl implements ServerMessageBus {
     RemoteMessageCallback rmc = remoteSubscriptions.get(subject);
     rmc.removeQueue(queue);
 
+    final Set<String> subjects = queueSubscriptions.get(queue);
+    if (subjects != null) {
+      subjects.remove(subject);
+    }
+
     try {
       fireUnsubscribeListeners(new SubscriptionEvent(true, rmc.getQueueCount() == 0, false, false, rmc.getQueueCount(),
               sessionContext.getSessionId(), subject));
@@ -1314,6 +1550,9 @@ public class ServerMessageBusImpl implements ServerMessageBus {
     transmissionbuffer.clear();
     subscriptions.clear();
     remoteSubscriptions.clear();
+    queueSubscriptions.clear();
+    queuesByColor.clear();
+    queueExpiry.clear();
     deferredQueue.clear();
     sessionLookup.clear();
   }
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import org.jboss.errai.bus.client.api.Message;
+import org.jboss.errai.bus.client.api.QueueSession;
+import org.jboss.errai.common.client.protocols.Resources;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A delivery queue for the {@link WorkerFactory} which shards messages by session (or subject) across a fixed set
+ * of lanes, rather than funneling every message through a single shared queue.
+ * <p/>
+ * Every message with the same key is placed in the same lane, and a lane is only ever held by one worker at a time,
+ * so messages from the same session are delivered in the order they were received. Each lane has a home worker,
+ * whose run queue it is scheduled on when it has messages waiting. A worker takes up to a batch of messages from a
+ * lane before releasing it, and a worker with nothing to do steals waiting lanes from the tail of the other workers'
+ * run queues.
+ */
+public class ShardedDispatchQueue {
+  public enum ShardKey {
+    Session, Subject
+  }
+
+  private static final int LANES_PER_WORKER = 8;
+
+  private final ShardKey shardKey;
+  private final int batchSize;
+
+  private final Lane[] lanes;
+  private final LinkedBlockingDeque<Lane>[] runQueues;
+  private final Thread[] workers;
+  private final Queue<Thread> idleWorkers = new ConcurrentLinkedQueue<Thread>();
+
+  /**
+   * Bounds the total number of messages waiting in the lanes.
+   */
+  private final Semaphore capacity;
+  private final int maxCapacity;
+
+  @SuppressWarnings("unchecked")
+  public ShardedDispatchQueue(final int workerCount, final int capacity, final int batchSize,
+                              final ShardKey shardKey) {
+    this.shardKey = shardKey;
+    this.batchSize = batchSize;
+    this.capacity = new Semaphore(capacity);
+    this.maxCapacity = capacity;
+
+    this.workers = new Thread[workerCount];
+    this.runQueues = new LinkedBlockingDeque[workerCount];
+    for (int i = 0; i < workerCount; i++) {
+      runQueues[i] = new LinkedBlockingDeque<Lane>();
+    }
+
+    this.lanes = new Lane[workerCount * LANES_PER_WORKER];
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new Lane(i % workerCount);
+    }
+  }
+
+  /**
+   * Attaches the worker thread which owns the run queue with the specified index, so it can be woken when lanes
+   * are scheduled on its queue.
+   *
+   * @param index  the index of the worker.
+   * @param worker the worker thread.
+   */
+  public void attach(final int index, final Thread worker) {
+    workers[index] = worker;
+  }
+
+  /**
+   * Inserts a message into its lane, waiting up to the specified time for space to become available.
+   *
+   * @param message the message to insert.
+   * @param timeout how long to wait for space.
+   * @param unit    the unit of the timeout.
+   * @return true if the message was inserted, false if the queue remained full.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean offer(final Message message, final long timeout, final TimeUnit unit) throws InterruptedException {
+    if (!capacity.tryAcquire(timeout, unit)) {
+      return false;
+    }
+
+    final Lane lane = lanes[(getKey(message).hashCode() & Integer.MAX_VALUE) % lanes.length];
+    lane.messages.offer(message);
+    if (lane.scheduled.compareAndSet(false, true)) {
+      schedule(lane);
+    }
+    return true;
+  }
+
+  /**
+   * Inserts a batch of messages into their lanes, reserving space for the whole batch at once, and waiting up to the
+   * specified time for it to become available. Each lane is scheduled once for every run of consecutive messages
+   * placed in it, rather than once for every message.
+   *
+   * @param batch   the messages to insert.
+   * @param timeout how long to wait for space.
+   * @param unit    the unit of the timeout.
+   * @return true if the messages were inserted, false if the queue remained full.
+   * @throws InterruptedException if interrupted while waiting.
+   * @throws IllegalArgumentException if the batch is larger than the capacity of the queue.
+   */
+  public boolean offer(final List<Message> batch, final long timeout, final TimeUnit unit)
+          throws InterruptedException {
+    if (batch.size() > maxCapacity) {
+      throw new IllegalArgumentException("batch of " + batch.size() + " exceeds queue capacity of " + maxCapacity);
+    }
+
+    if (!capacity.tryAcquire(batch.size(), timeout, unit)) {
+      return false;
+    }
+
+    Lane last = null;
+    for (Message message : batch) {
+      final Lane lane = lanes[(getKey(message).hashCode() & Integer.MAX_VALUE) % lanes.length];
+      if (last != null && last != lane && last.scheduled.compareAndSet(false, true)) {
+        schedule(last);
+      }
+      lane.messages.offer(message);
+      last = lane;
+    }
+    if (last != null && last.scheduled.compareAndSet(false, true)) {
+      schedule(last);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of messages waiting in the lanes.
+   *
+   * @return the number of waiting messages.
+   */
+  public int size() {
+    int size = 0;
+    for (Lane lane : lanes) {
+      size += lane.messages.size();
+    }
+    return size;
+  }
+
+  /**
+   * Creates a new cursor, through which the worker with the specified index takes messages from the lanes.
+   *
+   * @param index the index of the worker.
+   * @return a new cursor.
+   */
+  public Cursor newCursor(final int index) {
+    return new Cursor(index);
+  }
+
+  private Object getKey(final Message message) {
+    if (shardKey == ShardKey.Session) {
+      final QueueSession session = message.getResource(QueueSession.class, Resources.Session.name());
+      if (session != null) {
+        return session.getSessionId();
+      }
+    }
+
+    final String subject = message.getSubject();
+    return subject == null ? "" : subject;
+  }
+
+  private void schedule(final Lane lane) {
+    runQueues[lane.home].offerLast(lane);
+
+    // wake the lane's home worker, and an idle worker to steal the lane if the home worker is busy.
+    final Thread home = workers[lane.home];
+    if (home != null) {
+      LockSupport.unpark(home);
+    }
+    final Thread idle = idleWorkers.poll();
+    if (idle != null && idle != home) {
+      LockSupport.unpark(idle);
+    }
+  }
+
+  private void release(final Lane lane) {
+    lane.scheduled.set(false);
+    if (!lane.messages.isEmpty() && lane.scheduled.compareAndSet(false, true)) {
+      schedule(lane);
+    }
+  }
+
+  private Lane nextLane(final int index) {
+    final Lane lane = runQueues[index].pollFirst();
+    if (lane != null) {
+      return lane;
+    }
+
+    for (int i = 1; i < runQueues.length; i++) {
+      final Lane stolen = runQueues[(index + i) % runQueues.length].pollLast();
+      if (stolen != null) {
+        return stolen;
+      }
+    }
+    return null;
+  }
+
+  private static class Lane {
+    private final int home;
+    private final Queue<Message> messages = new ConcurrentLinkedQueue<Message>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private Lane(final int home) {
+      this.home = home;
+    }
+  }
+
+  /**
+   * A worker's position in the queue: the lane it currently holds, and how many messages it has taken from it.
+   * A cursor must only be used by the worker thread it was created for.
+   */
+  public class Cursor {
+    private final int index;
+    private Lane lane;
+    private int taken;
+
+    private Cursor(final int index) {
+      this.index = index;
+    }
+
+    /**
+     * Takes the next message, waiting up to the specified time if there are none.
+     *
+     * @param timeout how long to wait.
+     * @param unit    the unit of the timeout.
+     * @return the next message, or null if none became available.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public Message poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+      if (lane != null) {
+        if (taken < batchSize) {
+          final Message message = take();
+          if (message != null) {
+            return message;
+          }
+        }
+        release(lane);
+        lane = null;
+      }
+
+      final Thread current = Thread.currentThread();
+      final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+      while ((lane = nextLane(index)) == null) {
+        idleWorkers.add(current);
+
+        // check again, in case a lane was scheduled before we were visible as idle.
+        if ((lane = nextLane(index)) != null) {
+          idleWorkers.remove(current);
+          break;
+        }
+
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          idleWorkers.remove(current);
+          return null;
+        }
+
+        LockSupport.parkNanos(this, remaining);
+        idleWorkers.remove(current);
+
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+
+      taken = 0;
+      final Message message = take();
+      if (message == null) {
+        release(lane);
+        lane = null;
+      }
+      return message;
+    }
+
+    private Message take() {
+      final Message message = lane.messages.poll();
+      if (message != null) {
+        taken++;
+        capacity.release();
+      }
+      return message;
+    }
+  }
+}
@@ -19,21 +19,23 @@ package org.jboss.errai.bus.server;
 import static org.jboss.errai.bus.client.util.ErrorHelper.handleMessageDeliveryFailure;
 
 import org.jboss.errai.bus.client.api.Message;
-import org.jboss.errai.bus.client.framework.MessageBus;
-import org.jboss.errai.bus.client.framework.RequestDispatcher;
+import org.jboss.errai.bus.server.api.BatchRequestDispatcher;
+import org.jboss.errai.bus.server.api.ServerMessageBus;
 import org.jboss.errai.bus.server.service.ErraiService;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
+import java.util.List;
+
 /**
  * Simple request dispatcher implementation.
  *
  * @see org.jboss.errai.bus.server.AsyncDispatcher
  */
 @Singleton
-public class SimpleDispatcher implements RequestDispatcher {
-  private MessageBus bus;
+public class SimpleDispatcher implements BatchRequestDispatcher {
+  private ServerMessageBus bus;
 
   @Inject
   public SimpleDispatcher(ErraiService svc) {
@@ -54,6 +56,11 @@ public class SimpleDispatcher implements RequestDispatcher {
     }
   }
 
+  @Override
+  public void dispatchGlobal(List<Message> messages) {
+    bus.sendGlobal(messages);
+  }
+
   @Override
   public void dispatch(Message message) {
     try {
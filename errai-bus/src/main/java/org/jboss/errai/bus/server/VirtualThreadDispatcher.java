@@ -0,0 +1,212 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import org.jboss.errai.bus.client.api.Message;
+import org.jboss.errai.bus.server.api.ServerMessageBus;
+import org.jboss.errai.bus.server.async.VirtualThreads;
+import org.slf4j.Logger;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.System.currentTimeMillis;
+import static org.jboss.errai.bus.client.util.ErrorHelper.handleMessageDeliveryFailure;
+import static org.jboss.errai.bus.client.util.ErrorHelper.sendClientError;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Delivers each message for the {@link WorkerFactory} on its own virtual thread, in place of a fixed pool of
+ * {@link Worker} threads, so that service callbacks which block do not tie up a scarce platform thread. The number
+ * of deliveries in flight is bounded, and deliveries which exceed the worker timeout are interrupted, as they are
+ * for pooled workers.
+ */
+public class VirtualThreadDispatcher {
+  private final ServerMessageBus bus;
+  private final long timeout;
+  private final Semaphore permits;
+
+  private final ConcurrentMap<Thread, InFlight> inFlight = new ConcurrentHashMap<Thread, InFlight>();
+
+  private volatile boolean active = true;
+
+  private final Logger log = getLogger(this.getClass());
+
+  public VirtualThreadDispatcher(final ServerMessageBus bus, final int maxInFlight, final long timeout) {
+    this.bus = bus;
+    this.timeout = timeout;
+    this.permits = new Semaphore(maxInFlight);
+  }
+
+  /**
+   * Starts delivering the message on a new virtual thread, waiting up to the specified time if the maximum number
+   * of deliveries are already in flight.
+   *
+   * @param message the message to deliver.
+   * @param time    how long to wait.
+   * @param unit    the unit of the time.
+   * @return true if delivery was started, false if too many deliveries remained in flight.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean dispatch(final Message message, final long time, final TimeUnit unit) throws InterruptedException {
+    if (!active || !permits.tryAcquire(time, unit)) {
+      return false;
+    }
+
+    return start(new Delivery(Collections.singletonList(message)));
+  }
+
+  /**
+   * Starts delivering the batch of messages, in order, on a single new virtual thread, waiting up to the specified
+   * time if the maximum number of deliveries are already in flight.
+   *
+   * @param batch the messages to deliver.
+   * @param time  how long to wait.
+   * @param unit  the unit of the time.
+   * @return true if delivery was started, false if too many deliveries remained in flight.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean dispatch(final List<Message> batch, final long time, final TimeUnit unit)
+          throws InterruptedException {
+    if (!active || !permits.tryAcquire(time, unit)) {
+      return false;
+    }
+
+    return start(new Delivery(batch));
+  }
+
+  private boolean start(final Delivery delivery) {
+    try {
+      newThread(delivery).start();
+    }
+    catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+    return true;
+  }
+
+  /**
+   * Creates the thread which runs a delivery.
+   *
+   * @param delivery the delivery to run.
+   * @return a new, unstarted virtual thread.
+   * @throws UnsupportedOperationException if this JVM does not support virtual threads.
+   */
+  protected Thread newThread(final Runnable delivery) {
+    return VirtualThreads.newVirtualThread(delivery, "Dispatch Worker Thread");
+  }
+
+  /**
+   * Interrupts any deliveries which have exceeded the worker timeout, and reports the timeout to the client.
+   */
+  public void interruptExpired() {
+    final long now = currentTimeMillis();
+    for (Map.Entry<Thread, InFlight> entry : inFlight.entrySet()) {
+      final InFlight delivery = entry.getValue();
+      if (now > delivery.expiry && inFlight.remove(entry.getKey(), delivery)) {
+        log.warn("Terminating worker.  Process exceeds maximum time to live.");
+        entry.getKey().interrupt();
+        sendClientError(bus, delivery.message,
+                "Request for '" + delivery.message.getSubject() + "' timed out.",
+                "The process was terminated because it exceed the maximum timeout.");
+      }
+    }
+  }
+
+  /**
+   * Stops accepting deliveries and interrupts the deliveries in flight.
+   */
+  public void stop() {
+    active = false;
+    for (Thread thread : inFlight.keySet()) {
+      thread.interrupt();
+    }
+  }
+
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  /**
+   * Delivers its messages in order. Each message has its own expiry time, so a timeout or an error is reported
+   * against the message which caused it, and an interrupt for a timeout does not carry over to the next message.
+   */
+  private class Delivery implements Runnable {
+    private final List<Message> messages;
+
+    private Delivery(final List<Message> messages) {
+      this.messages = messages;
+    }
+
+    @Override
+    public void run() {
+      final Thread current = Thread.currentThread();
+      try {
+        for (Message m : messages) {
+          if (!active) {
+            return;
+          }
+          deliver(current, m);
+        }
+      }
+      finally {
+        permits.release();
+      }
+    }
+
+    private void deliver(final Thread current, final Message m) {
+      final InFlight entry = new InFlight(m, currentTimeMillis() + timeout);
+      inFlight.put(current, entry);
+      try {
+        Worker.deliverToBus(bus, m);
+      }
+      catch (QueueUnavailableException e) {
+        log.debug("queue not available", e);
+      }
+      catch (Throwable e) {
+        if (inFlight.get(current) == entry) {
+          m.setResource("Exception", e.getCause());
+          handleMessageDeliveryFailure(bus,
+                  m, "Error calling remote service: " + m.getSubject(), e, false);
+        }
+      }
+      finally {
+        inFlight.remove(current, entry);
+        Thread.interrupted();
+      }
+    }
+  }
+
+  /**
+   * A message being delivered, and the time by which its delivery must finish.
+   */
+  private static class InFlight {
+    private final Message message;
+    private final long expiry;
+
+    private InFlight(final Message message, final long expiry) {
+      this.message = message;
+      this.expiry = expiry;
+    }
+  }
+}
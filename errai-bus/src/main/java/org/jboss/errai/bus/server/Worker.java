@@ -19,9 +19,11 @@ package org.jboss.errai.bus.server;
 import org.jboss.errai.bus.client.api.Message;
 import org.jboss.errai.bus.client.framework.MessageBus;
 import org.jboss.errai.bus.client.framework.RoutingFlag;
+import org.jboss.errai.bus.server.api.ServerMessageBus;
 import org.jboss.errai.bus.server.service.ErraiService;
 import org.slf4j.Logger;
 
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -34,8 +36,9 @@ import static org.slf4j.LoggerFactory.getLogger;
  * A <tt>Worker</tt> is a specialized thread made to work with the messages and services of Errai
  */
 public class Worker extends Thread {
-  private MessageBus bus;
-  private BlockingQueue<Message> messages;
+  private ServerMessageBus bus;
+  private BlockingQueue<Object> messages;
+  private ShardedDispatchQueue.Cursor cursor;
   private long timeout;
 
   private volatile boolean active = true;
@@ -60,6 +63,19 @@ public class Worker extends Thread {
     setDaemon(true);
   }
 
+  /**
+   * Initializes the thread to take its messages from the lanes of a {@link ShardedDispatchQueue}, through the
+   * specified cursor, rather than from the factory's shared queue.
+   *
+   * @param factory - the factory this worker thread will belong to
+   * @param svc     - the service the thread is attached to
+   * @param cursor  - the cursor for this worker on the sharded queue
+   */
+  public Worker(WorkerFactory factory, ErraiService svc, ShardedDispatchQueue.Cursor cursor) {
+    this(factory, svc);
+    this.cursor = cursor;
+  }
+
   /**
    * Sets the <tt>Worker</tt> to an active or inactive state
    *
@@ -100,16 +116,24 @@ public class Worker extends Thread {
    * Runs the thread, setting the expiry time, and sends the messages associated with this thread
    */
   @Override
+  @SuppressWarnings("unchecked")
   public void run() {
     while (true) {
       try {
         // looping inside a catch block is cheaper than entering and leaving it
         // every time.
         while (true) {
-          if ((message = messages.poll(60, TimeUnit.SECONDS)) != null) {
-            workExpiry = currentTimeMillis() + timeout;
-            deliverToBus(bus, message);
-            workExpiry = 0;
+          final Object next = nextMessage();
+          if (next instanceof List) {
+            for (Message m : (List<Message>) next) {
+              deliver(m);
+              if (!active) {
+                break;
+              }
+            }
+          }
+          else if (next != null) {
+            deliver((Message) next);
           }
           if (!active) {
             exited = true;
@@ -123,20 +147,40 @@ public class Worker extends Thread {
           return;
         }
       }
-      catch (QueueUnavailableException e) {
-        log.debug("queue not available", e);
-      }
-      catch (Throwable e) {
-        message.setResource("Exception", e.getCause());
-        handleMessageDeliveryFailure(bus,
-                message, "Error calling remote service: " + message.getSubject(), e, false);
-      }
-      finally {
-        workExpiry = 0;
-      }
     }
   }
 
+  /**
+   * Delivers a single message, with its own expiry time. Each message of a batch is delivered this way, so a
+   * timeout or an error is reported against the message which caused it, and does not carry over to the next one.
+   */
+  private void deliver(final Message m) {
+    message = m;
+    workExpiry = currentTimeMillis() + timeout;
+    try {
+      deliverToBus(bus, m);
+    }
+    catch (QueueUnavailableException e) {
+      log.debug("queue not available", e);
+    }
+    catch (Throwable e) {
+      m.setResource("Exception", e.getCause());
+      handleMessageDeliveryFailure(bus,
+              m, "Error calling remote service: " + m.getSubject(), e, false);
+    }
+    finally {
+      workExpiry = 0;
+      // a timeout interrupt is meant for this message only.
+      Thread.interrupted();
+    }
+  }
+
+  private Object nextMessage() throws InterruptedException {
+    if (cursor != null) {
+      return cursor.poll(60, TimeUnit.SECONDS);
+    }
+    return messages.poll(60, TimeUnit.SECONDS);
+  }
 
   public static void deliverToBus(MessageBus bus, Message message) {
     if (message.isFlagSet(RoutingFlag.NonGlobalRouting)) {
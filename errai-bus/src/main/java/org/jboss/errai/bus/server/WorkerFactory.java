@@ -17,6 +17,7 @@
 package org.jboss.errai.bus.server;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -28,6 +29,7 @@ import org.jboss.errai.bus.client.api.base.CommandMessage;
 import org.jboss.errai.bus.client.api.base.MessageDeliveryFailure;
 import org.jboss.errai.bus.client.framework.RoutingFlag;
 import org.jboss.errai.bus.client.util.ErrorHelper;
+import org.jboss.errai.bus.server.async.VirtualThreads;
 import org.jboss.errai.bus.server.service.ErraiService;
 import org.jboss.errai.bus.server.service.ErraiServiceConfigurator;
 import org.slf4j.Logger;
@@ -43,6 +45,13 @@ public class WorkerFactory {
   private static final String CONFIG_ASYNC_THREAD_POOL_SIZE = "errai.async.thread_pool_size";
   private static final String CONFIG_ASYNC_WORKER_TIMEOUT = "errai.async.worker.timeout";
   private static final String CONFIG_ASYNC_DELIVERY_QUEUE_SIZE = "errai.async.delivery.queue_size";
+  private static final String CONFIG_ASYNC_DISPATCH_QUEUE = "errai.async.dispatch_queue";
+  private static final String CONFIG_ASYNC_SHARD_KEY = "errai.async.dispatch_queue.shard_key";
+  private static final String CONFIG_ASYNC_BATCH_SIZE = "errai.async.dispatch_queue.batch_size";
+  private static final String CONFIG_ASYNC_MAX_IN_FLIGHT = "errai.async.dispatch_queue.max_in_flight";
+
+  private static final int DEFAULT_BATCH_SIZE = 32;
+  private static final int DEFAULT_MAX_IN_FLIGHT = 1000;
 
   private Worker[] workerPool;
 
@@ -50,11 +59,25 @@ public class WorkerFactory {
 
   private SaturationPolicy saturationPolicy = SaturationPolicy.CallerRuns;
 
-  private BlockingQueue<Message> messages;
+  /**
+   * The shared delivery queue. Each element is either a single {@link Message}, or a <tt>List</tt> of messages
+   * which were dispatched together as a batch.
+   */
+  private BlockingQueue<Object> messages;
+
+  /**
+   * The sharded queue used in place of {@link #messages}, if the <tt>sharded</tt> dispatch queue is configured.
+   */
+  private ShardedDispatchQueue shardedMessages;
+
+  /**
+   * Delivers each message on its own virtual thread, if the <tt>virtual</tt> dispatch queue is configured.
+   */
+  private VirtualThreadDispatcher virtualDispatcher;
 
   private int poolSize = DEFAULT_THREAD_POOL_SIZE;
   private int deliveryQueueSize = DEFAULT_DELIVERY_QUEUE_SIZE;
-  private long workerTimeout = Boolean.getBoolean("org.jboss.errai.debugmode") ? seconds(360) : seconds(30);
+  private long workerTimeout;
 
   private Logger log = LoggerFactory.getLogger(this.getClass());
 
@@ -76,18 +99,64 @@ public class WorkerFactory {
       poolSize = Integer.parseInt(cfg.getProperty(CONFIG_ASYNC_THREAD_POOL_SIZE));
     }
 
-    if (cfg.hasProperty(CONFIG_ASYNC_WORKER_TIMEOUT)) {
-      workerTimeout = seconds(Integer.parseInt(cfg.getProperty(CONFIG_ASYNC_WORKER_TIMEOUT)));
+    workerTimeout = getWorkerTimeout(cfg);
+
+    String dispatchQueue = cfg.hasProperty(CONFIG_ASYNC_DISPATCH_QUEUE)
+            ? cfg.getProperty(CONFIG_ASYNC_DISPATCH_QUEUE) : (VirtualThreads.isEnabled() ? "virtual" : "shared");
+
+    if ("virtual".equals(dispatchQueue) && !VirtualThreads.isSupported()) {
+      log.warn("virtual threads are not supported by this JVM. using the shared dispatch queue.");
+      dispatchQueue = "shared";
     }
 
-    this.messages = new ArrayBlockingQueue<Message>(deliveryQueueSize);
+    log.debug("initializing async worker pools (poolSize: " + poolSize + "; workerTimeout: " + workerTimeout
+            + "; dispatchQueue: " + dispatchQueue + ")");
 
-    log.debug("initializing async worker pools (poolSize: " + poolSize + "; workerTimeout: " + workerTimeout + ")");
+    if ("virtual".equals(dispatchQueue)) {
+      int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+      if (cfg.hasProperty(CONFIG_ASYNC_MAX_IN_FLIGHT)) {
+        maxInFlight = Integer.parseInt(cfg.getProperty(CONFIG_ASYNC_MAX_IN_FLIGHT));
+      }
 
-    this.workerPool = new Worker[poolSize];
+      this.virtualDispatcher = new VirtualThreadDispatcher(svc.getBus(), maxInFlight, workerTimeout);
+      this.workerPool = new Worker[0];
+    }
+    else if ("sharded".equals(dispatchQueue)) {
+      this.workerPool = new Worker[poolSize];
+
+      ShardedDispatchQueue.ShardKey shardKey = ShardedDispatchQueue.ShardKey.Session;
+      if (cfg.hasProperty(CONFIG_ASYNC_SHARD_KEY)) {
+        final String key = cfg.getProperty(CONFIG_ASYNC_SHARD_KEY);
+        if ("subject".equals(key)) {
+          shardKey = ShardedDispatchQueue.ShardKey.Subject;
+        }
+        else if (!"session".equals(key)) {
+          throw new ErraiBootstrapFailure("unknown value for " + CONFIG_ASYNC_SHARD_KEY + ": " + key);
+        }
+      }
+
+      int batchSize = DEFAULT_BATCH_SIZE;
+      if (cfg.hasProperty(CONFIG_ASYNC_BATCH_SIZE)) {
+        batchSize = Integer.parseInt(cfg.getProperty(CONFIG_ASYNC_BATCH_SIZE));
+      }
+
+      this.shardedMessages = new ShardedDispatchQueue(poolSize, deliveryQueueSize, batchSize, shardKey);
 
-    for (int i = 0; i < poolSize; i++) {
-      workerPool[i] = new Worker(this, svc);
+      for (int i = 0; i < poolSize; i++) {
+        workerPool[i] = new Worker(this, svc, shardedMessages.newCursor(i));
+        shardedMessages.attach(i, workerPool[i]);
+      }
+    }
+    else if ("shared".equals(dispatchQueue)) {
+      this.workerPool = new Worker[poolSize];
+      this.messages = new ArrayBlockingQueue<Object>(deliveryQueueSize);
+
+      for (int i = 0; i < poolSize; i++) {
+        workerPool[i] = new Worker(this, svc);
+      }
+    }
+    else {
+      throw new ErraiBootstrapFailure("unknown value for " + CONFIG_ASYNC_DISPATCH_QUEUE + ": " + dispatchQueue);
     }
 
     if (svc.getBus() instanceof ServerMessageBusImpl) {
@@ -105,6 +174,10 @@ public class WorkerFactory {
               w.timeoutInterrupt();
             }
           }
+
+          if (virtualDispatcher != null) {
+            virtualDispatcher.interruptExpired();
+          }
         }
 
         @Override
@@ -123,7 +196,7 @@ public class WorkerFactory {
    * @param m - message to be delivered
    */
   public void deliverGlobal(Message m) throws InterruptedException {
-    if (messages.offer(m, 30, java.util.concurrent.TimeUnit.SECONDS)) {
+    if (offer(m)) {
       return;
     }
     else {
@@ -138,6 +211,28 @@ public class WorkerFactory {
     }
   }
 
+  /**
+   * Attempts to deliver the specified batch of messages globally, handing the whole batch off to the workers at once.
+   * A batch larger than the delivery queue is handed off in parts.
+   *
+   * @param batch - messages to be delivered
+   */
+  public void deliverGlobal(List<Message> batch) throws InterruptedException {
+    for (int i = 0; i < batch.size(); i += deliveryQueueSize) {
+      final List<Message> part = batch.subList(i, Math.min(batch.size(), i + deliveryQueueSize));
+      if (!offer(part)) {
+        switch (saturationPolicy) {
+          case CallerRuns:
+            svc.getBus().sendGlobal(part);
+            break;
+          case Fail:
+            sendDeliveryFailure(part.get(0));
+            throw new RuntimeException("delivery queue is overloaded!");
+        }
+      }
+    }
+  }
+
   /**
    * Attempts to send the message
    *
@@ -145,7 +240,7 @@ public class WorkerFactory {
    */
   public void deliver(Message m) throws InterruptedException {
     m.setFlag(RoutingFlag.NonGlobalRouting);
-    if (messages.offer(m, 30, java.util.concurrent.TimeUnit.SECONDS)) {
+    if (offer(m)) {
       return;
     }
     else {
@@ -160,6 +255,26 @@ public class WorkerFactory {
     }
   }
 
+  private boolean offer(Message m) throws InterruptedException {
+    if (virtualDispatcher != null) {
+      return virtualDispatcher.dispatch(m, 30, TimeUnit.SECONDS);
+    }
+    else if (shardedMessages != null) {
+      return shardedMessages.offer(m, 30, TimeUnit.SECONDS);
+    }
+    return messages.offer(m, 30, TimeUnit.SECONDS);
+  }
+
+  private boolean offer(List<Message> batch) throws InterruptedException {
+    if (virtualDispatcher != null) {
+      return virtualDispatcher.dispatch(batch, 30, TimeUnit.SECONDS);
+    }
+    else if (shardedMessages != null) {
+      return shardedMessages.offer(batch, 30, TimeUnit.SECONDS);
+    }
+    return messages.offer(batch, 30, TimeUnit.SECONDS);
+  }
+
   private void sendDeliveryFailure(Message m) {
     MessageDeliveryFailure mdf
             = new MessageDeliveryFailure("could not deliver message because the outgoing queue is full");
@@ -175,7 +290,7 @@ public class WorkerFactory {
    *
    * @return the messages in the queue
    */
-  protected BlockingQueue<Message> getMessages() {
+  protected BlockingQueue<Object> getMessages() {
     return messages;
   }
 
@@ -188,13 +303,37 @@ public class WorkerFactory {
     return workerTimeout;
   }
 
+  /**
+   * Gets the worker timeout configured by <tt>errai.async.worker.timeout</tt>, which also limits how long a deferred
+   * RPC reply may remain pending.
+   *
+   * @param cfg - the configuration of the service
+   * @return the timeout, in milliseconds
+   */
+  public static long getWorkerTimeout(ErraiServiceConfigurator cfg) {
+    if (cfg.hasProperty(CONFIG_ASYNC_WORKER_TIMEOUT)) {
+      return seconds(Integer.parseInt(cfg.getProperty(CONFIG_ASYNC_WORKER_TIMEOUT)));
+    }
+    return getDefaultWorkerTimeout();
+  }
+
+  /**
+   * Gets the worker timeout used when <tt>errai.async.worker.timeout</tt> is not configured, which is longer in debug
+   * mode.
+   *
+   * @return the timeout, in milliseconds
+   */
+  public static long getDefaultWorkerTimeout() {
+    return Boolean.getBoolean("org.jboss.errai.debugmode") ? seconds(360) : seconds(30);
+  }
+
   /**
    * Starts execution of all the threads in the pool of threads
    */
   public void startPool() {
     log.debug("starting worker pool.");
-    for (int i = 0; i < poolSize; i++) {
-      workerPool[i].start();
+    for (Worker worker : workerPool) {
+      worker.start();
     }
   }
 
@@ -202,9 +341,13 @@ public class WorkerFactory {
     synchronized (this) {
 
       log.info("stopping worker pool.");
-      for (int i = 0; i < poolSize; i++) {
-        workerPool[i].setActive(false);
-        workerPool[i].interrupt();
+      for (Worker worker : workerPool) {
+        worker.setActive(false);
+        worker.interrupt();
+      }
+
+      if (virtualDispatcher != null) {
+        virtualDispatcher.stop();
       }
 
       Thread shutdownThread = new Thread() {
@@ -243,7 +386,7 @@ public class WorkerFactory {
 
   }
 
-  private long seconds(int seconds) {
+  private static long seconds(int seconds) {
     return seconds * 1000;
   }
 
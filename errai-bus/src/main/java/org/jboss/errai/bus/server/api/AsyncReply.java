@@ -0,0 +1,49 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.api;
+
+/**
+ * The reply to an RPC call, which an endpoint can take over with {@link RpcContext#deferReply()} so that it can
+ * return without a result, and send the reply later from another thread, for example once a call to a slow
+ * backend has completed. The worker which delivered the call is freed as soon as the endpoint returns.
+ * <p/>
+ * Only the first call to {@link #send(Object)} or {@link #fail(Throwable)} has any effect. If neither is called
+ * before the reply times out, the client is sent an error instead.
+ *
+ * @see RpcContext#deferReply()
+ */
+public interface AsyncReply {
+  /**
+   * Sends the return value of the call to the client. The value is ignored if the endpoint method is
+   * <tt>void</tt>.
+   *
+   * @param value the return value.
+   */
+  public void send(Object value);
+
+  /**
+   * Reports that the call failed with the specified exception, as if it had been thrown by the endpoint method.
+   *
+   * @param t the exception.
+   */
+  public void fail(Throwable t);
+
+  /**
+   * @return true if the reply has been sent, has failed, or has timed out.
+   */
+  public boolean isDone();
+}
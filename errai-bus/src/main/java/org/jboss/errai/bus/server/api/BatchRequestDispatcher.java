@@ -0,0 +1,35 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.api;
+
+import org.jboss.errai.bus.client.api.Message;
+import org.jboss.errai.bus.client.framework.RequestDispatcher;
+
+import java.util.List;
+
+/**
+ * A {@link RequestDispatcher} which can dispatch all the messages decoded from a single request as one batch, so
+ * that they are handed off together instead of one at a time.
+ */
+public interface BatchRequestDispatcher extends RequestDispatcher {
+  /**
+   * Dispatches a batch of messages globally, preserving their order.
+   *
+   * @param messages - the messages to dispatch
+   */
+  public void dispatchGlobal(List<Message> messages) throws Exception;
+}
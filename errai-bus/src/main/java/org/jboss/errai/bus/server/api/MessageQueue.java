@@ -38,6 +38,12 @@ public interface MessageQueue {
    */
   long getCurrentBufferSequenceNumber();
 
+  /**
+   * Get the number of buffer segments this queue is behind the head of the buffer.
+   * @return
+   */
+  long getBufferLag();
+
   /**
    * Wake up any waiting thread n this queue.
    */
@@ -75,6 +81,17 @@ public interface MessageQueue {
    */
   boolean pageWaitingToDisk();
 
+  /**
+   * Returns the time, as given by {@link System#nanoTime()}, at which the bus housekeeper should next check whether
+   * this queue is stale or should be paged to disk.
+   *
+   * @return the deadline of the next check, in {@link System#nanoTime()} nanoseconds (not epoch milliseconds), so it
+   *         can only be compared with other values of <tt>nanoTime()</tt>. A queue which has stopped returns the
+   *         current time, as it is due for housekeeping at once. There is no sentinel for a queue with no
+   *         housekeeping due: it returns the time at which it could next become a downgrade candidate.
+   */
+  long getNextHousekeepingTime();
+
   boolean isInitialized();
 
   void heartBeat();
@@ -29,8 +29,23 @@ import org.jboss.errai.bus.client.api.QueueSession;
  * @author Christian Sadilek <csadilek@redhat.com>
  */
 public class RpcContext {
-  private static final ThreadLocal<HttpSession> threadLocalHttpSession = new ThreadLocal<HttpSession>();
-  private static final ThreadLocal<ServletRequest> threadLocalServletRequest = new ThreadLocal<ServletRequest>();
+  private static final ThreadLocal<Call> threadLocalCall = new ThreadLocal<Call>();
+
+  /**
+   * The resources of one call. Calls made from within another call on the same thread get their own, which hands
+   * the outer call's resources back when it is removed.
+   */
+  private static class Call {
+    private final Call outer;
+    private HttpSession session;
+    private ServletRequest request;
+    private AsyncReply reply;
+    private boolean replyDeferred;
+
+    private Call(Call outer) {
+      this.outer = outer;
+    }
+  }
 
   /**
    * Reads resources from the provided {@link Message} and stores them in {@link ThreadLocal}s.
@@ -38,41 +53,83 @@ public class RpcContext {
    * @param message
    */
   public static void set(Message message) {
+    Call call = new Call(threadLocalCall.get());
+    threadLocalCall.set(call);
+
     QueueSession queueSession = message.getResource(QueueSession.class, "Session");
     if (queueSession != null) {
-      HttpSession session =
-            queueSession.getAttribute(HttpSession.class, HttpSession.class.getName());
+      call.session = queueSession.getAttribute(HttpSession.class, HttpSession.class.getName());
+    }
 
-      if (session != null) {
-        threadLocalHttpSession.set(session);
-      }
+    call.request = message.getResource(HttpServletRequest.class, HttpServletRequest.class.getName());
+  }
+
+  /**
+   * Associates the reply to the RPC call being invoked with the current thread, so the endpoint can defer it.
+   *
+   * @param reply
+   */
+  public static void setReply(AsyncReply reply) {
+    Call call = threadLocalCall.get();
+    if (call == null) {
+      call = new Call(null);
+      threadLocalCall.set(call);
     }
+    call.reply = reply;
+    call.replyDeferred = false;
+  }
 
-    HttpServletRequest request = message.getResource(HttpServletRequest.class, HttpServletRequest.class.getName());
-    if (request != null) {
-      threadLocalServletRequest.set(request);
+  /**
+   * Takes over the reply to the RPC call being invoked on this thread. The value returned by the endpoint method
+   * is then ignored, and the reply is sent when {@link AsyncReply#send(Object)} is called instead.
+   *
+   * @return the reply to the current call.
+   * @throws IllegalStateException if no RPC call is being invoked on this thread, or its reply was already deferred.
+   */
+  public static AsyncReply deferReply() {
+    Call call = threadLocalCall.get();
+    if (call == null || call.reply == null || call.replyDeferred) {
+      throw new IllegalStateException("no RPC call with a reply to defer is in progress on this thread");
     }
+    call.replyDeferred = true;
+    return call.reply;
+  }
+
+  /**
+   * @return true if the reply to the RPC call being invoked on this thread has been deferred by the endpoint.
+   */
+  public static boolean isReplyDeferred() {
+    Call call = threadLocalCall.get();
+    return call != null && call.replyDeferred;
   }
 
   /**
-   * Removes the resources associated with the current thread.
+   * Removes the resources associated with the current thread. If the call was made from within another call, the
+   * resources of the outer call are restored.
    */
   public static void remove() {
-    threadLocalHttpSession.remove();
-    threadLocalServletRequest.remove();
+    Call call = threadLocalCall.get();
+    if (call != null && call.outer != null) {
+      threadLocalCall.set(call.outer);
+    }
+    else {
+      threadLocalCall.remove();
+    }
   }
   
   /**
    * @return the HTTP session object associated with this {@see Thread}
    */
   public static HttpSession getHttpSession() {
-    return threadLocalHttpSession.get();
+    Call call = threadLocalCall.get();
+    return call != null ? call.session : null;
   }
 
   /**
    * @return the servlet request instance associated with this {@see Thread}
    */
   public static ServletRequest getServletRequest() {
-    return threadLocalServletRequest.get();
+    Call call = threadLocalCall.get();
+    return call != null ? call.request : null;
   }
 }
\ No newline at end of file
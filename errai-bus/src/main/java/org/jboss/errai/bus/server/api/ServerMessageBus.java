@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 
+import org.jboss.errai.bus.client.api.Message;
 import org.jboss.errai.bus.client.api.MessageCallback;
 import org.jboss.errai.bus.client.api.QueueSession;
 import org.jboss.errai.bus.client.framework.BooleanRoutingRule;
@@ -34,6 +35,13 @@ import org.jboss.errai.bus.server.service.ErraiServiceConfigurator;
  */
 public interface ServerMessageBus extends MessageBus {
 
+  /**
+   * Sends a batch of messages globally, in order. Failures are reported for each message individually, and do not
+   * prevent delivery of the rest of the batch.
+   *
+   * @param messages - the messages to send
+   */
+  public void sendGlobal(List<Message> messages);
 
   /**
    * Gets the queue containing the messages that are waiting to be transmitted
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.async;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates the threads used by the bus' worker pools, using virtual threads when they are enabled with the
+ * <tt>errai.async.virtual_threads</tt> system property and the JVM supports them (Java 21 and later, or Java 19 and
+ * 20 with preview features enabled). Virtual threads are created reflectively, so the bus still builds and runs on
+ * older JVMs, where platform threads are always used.
+ */
+public final class VirtualThreads {
+  public static final String VIRTUAL_THREADS_PROPERTY = "errai.async.virtual_threads";
+
+  private static final Method OF_VIRTUAL;
+  private static final Method BUILDER_NAME;
+  private static final Method BUILDER_UNSTARTED;
+
+  static {
+    Method ofVirtual = null;
+    Method builderName = null;
+    Method builderUnstarted = null;
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builderName = builderClass.getMethod("name", String.class);
+      builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+
+      // Java 19 and 20 have the methods, but refuse to create a virtual thread unless preview features are enabled;
+      // so make sure one can actually be created.
+      builderUnstarted.invoke(builderName.invoke(ofVirtual.invoke(null), "errai-virtual-thread-probe"),
+          new Runnable() {
+            @Override
+            public void run() {
+            }
+          });
+    }
+    catch (Exception e) {
+      // virtual threads are not supported by this JVM.
+      ofVirtual = null;
+    }
+
+    OF_VIRTUAL = ofVirtual;
+    BUILDER_NAME = builderName;
+    BUILDER_UNSTARTED = builderUnstarted;
+  }
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * Returns true if this JVM supports virtual threads.
+   */
+  public static boolean isSupported() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Returns true if virtual threads have been enabled, and this JVM supports them.
+   */
+  public static boolean isEnabled() {
+    return isSupported() && Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+  }
+
+  /**
+   * Creates a new, unstarted daemon thread: a virtual thread if they are enabled, otherwise a platform thread.
+   *
+   * @param runnable the task for the thread to run.
+   * @param name     the name of the thread.
+   * @return the new thread.
+   */
+  public static Thread newThread(final Runnable runnable, final String name) {
+    if (isEnabled()) {
+      return newVirtualThread(runnable, name);
+    }
+
+    final Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * Creates a new, unstarted virtual thread.
+   *
+   * @param runnable the task for the thread to run.
+   * @param name     the name of the thread.
+   * @return the new virtual thread.
+   * @throws UnsupportedOperationException if this JVM does not support virtual threads.
+   */
+  public static Thread newVirtualThread(final Runnable runnable, final String name) {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException("virtual threads are not supported by this JVM");
+    }
+
+    try {
+      final Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+      return (Thread) BUILDER_UNSTARTED.invoke(builder, runnable);
+    }
+    catch (Exception e) {
+      throw new RuntimeException("could not create virtual thread", e);
+    }
+  }
+}
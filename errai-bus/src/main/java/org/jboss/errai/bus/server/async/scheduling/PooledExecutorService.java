@@ -16,12 +16,8 @@
 
 package org.jboss.errai.bus.server.async.scheduling;
 
-import static java.lang.System.currentTimeMillis;
-import static java.util.concurrent.locks.LockSupport.parkUntil;
-
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.jboss.errai.common.client.api.tasks.AsyncTask;
@@ -31,21 +27,26 @@ import org.jboss.errai.bus.server.async.InterruptHandle;
 import org.jboss.errai.bus.server.async.TimedTask;
 
 public class PooledExecutorService implements TaskProvider {
-  private final BlockingQueue<TimedTask> queue;
+  /**
+   * The resolution of the timer wheel which holds delayed and repeating tasks, in milliseconds.
+   */
+  private static final long TICK_MILLIS = 10;
+  private static final int WHEEL_SIZE = 512;
+
+  /**
+   * Tasks which are ready to run, stamped with the time they were queued so the pool can measure the queue latency.
+   */
+  private final BlockingQueue<QueuedTask> queue;
 
   /**
-   * this *must* be an ordered Set. The narrower type is to accomodate wrapping with
-   * Collections.synchronizedSet();
+   * Holds delayed and repeating tasks until they are due, then queues them to run.
    */
-  private final BlockingQueue<TimedTask> scheduledTasks;
+  private final TimerWheel scheduledTasks;
   private final ThreadWorkerPool pool;
 
   private boolean stopped = false;
 
-  private final SchedulerThread schedulerThread;
-
-  private final ReentrantLock mutex = new ReentrantLock(true);
-  private final int maxQueueSize;
+  private final ReentrantLock mutex = new ReentrantLock();
 
   private final SaturationPolicy saturationPolicy;
 
@@ -94,12 +95,26 @@ public class PooledExecutorService implements TaskProvider {
   }
 
   public PooledExecutorService(int queueSize, SaturationPolicy saturationPolicy) {
-    maxQueueSize = queueSize;
-    queue = new ArrayBlockingQueue<TimedTask>(queueSize);
+    queue = new ArrayBlockingQueue<QueuedTask>(queueSize);
     pool = new ThreadWorkerPool(this);
 
-    scheduledTasks = new PriorityBlockingQueue<TimedTask>();
-    schedulerThread = new SchedulerThread();
+    scheduledTasks = new TimerWheel(TICK_MILLIS, WHEEL_SIZE) {
+      @Override
+      protected void expired(TimedTask task) throws InterruptedException {
+        checkLoad();
+
+        /**
+         * Schedule the task for execution.
+         */
+        if (!queue.offer(new QueuedTask(task), 5, java.util.concurrent.TimeUnit.SECONDS)) {
+          PooledExecutorService.this.saturationPolicy.dealWith(task);
+        }
+
+        if (task.calculateNextRuntime()) {
+          schedule(task);
+        }
+      }
+    };
     this.saturationPolicy = saturationPolicy;
   }
 
@@ -112,7 +127,7 @@ public class PooledExecutorService implements TaskProvider {
    */
   public void execute(final Runnable runnable) throws InterruptedException {
     checkLoad();
-    if (!queue.offer(new SingleFireTask(runnable))) {
+    if (!queue.offer(new QueuedTask(new SingleFireTask(runnable)))) {
       saturationPolicy.dealWith(runnable);
     }
 
@@ -120,31 +135,17 @@ public class PooledExecutorService implements TaskProvider {
   }
 
   public AsyncTask schedule(final Runnable runnable, TimeUnit unit, long interval) {
-    checkLoad();
-    mutex.lock();
-    try {
-      TimedTask task;
-      scheduledTasks.offer(task = new DelayedTask(runnable, unit.toMillis(interval)));
+    TimedTask task;
+    scheduledTasks.schedule(task = new DelayedTask(runnable, unit.toMillis(interval)));
 
-      return task;
-    }
-    finally {
-      mutex.unlock();
-    }
+    return task;
   }
 
   public AsyncTask scheduleRepeating(final Runnable runnable, final TimeUnit unit, final long initial, final long interval) {
-    checkLoad();
-    mutex.lock();
-    try {
-      TimedTask task;
-      scheduledTasks.offer(task = new RepeatingTimedTask(runnable, unit.toMillis(initial), unit.toMillis(interval)));
+    TimedTask task;
+    scheduledTasks.schedule(task = new RepeatingTimedTask(runnable, unit.toMillis(initial), unit.toMillis(interval)));
 
-      return task;
-    }
-    finally {
-      mutex.unlock();
-    }
+    return task;
   }
 
   public void start() {
@@ -154,7 +155,7 @@ public class PooledExecutorService implements TaskProvider {
         throw new IllegalStateException("work queue cannot be started after it's been stopped");
       }
 
-      schedulerThread.start();
+      scheduledTasks.start();
 
       pool.startPool();
     }
@@ -166,7 +167,7 @@ public class PooledExecutorService implements TaskProvider {
   public void shutdown() {
     mutex.lock();
     try {
-      schedulerThread.requestStop();
+      scheduledTasks.stop();
       queue.clear();
       stopped = true;
     }
@@ -175,44 +176,14 @@ public class PooledExecutorService implements TaskProvider {
     }
   }
 
-  private long runAllDue() throws InterruptedException {
-    long nextRunTime = 0;
-    TimedTask task;
-
-    while ((task = scheduledTasks.poll(60, java.util.concurrent.TimeUnit.SECONDS)) != null) {
-      if (!task.isDue(currentTimeMillis())) {
-        parkUntil(task.nextRuntime());
-      }
-
-      /**
-       * Sechedule the task for execution.
-       */
-      if (!queue.offer(task, 5, java.util.concurrent.TimeUnit.SECONDS)) {
-        saturationPolicy.dealWith(task);
-      }
-
-      if (task.calculateNextRuntime()) {
-        scheduledTasks.offer(task);
-      }
-    }
-
-    return nextRunTime;
-
-  }
-
-  private volatile int idleCount = 0;
-
+  /**
+   * Samples the latency of the task at the head of the queue, so that the pool can grow when tasks are being left
+   * waiting.
+   */
   private void checkLoad() {
-    int queueSize = queue.size();
-
-    if (queueSize == 0) return;
-    else if (queueSize > (0.80d * maxQueueSize)) {
-      pool.addWorker();
-    }
-
-    if (idleCount > 100) {
-      idleCount = 0;
-      pool.removeWorker();
+    QueuedTask head = queue.peek();
+    if (head != null) {
+      pool.sampleLatency(System.nanoTime() - head.queuedAt);
     }
   }
 
@@ -224,10 +195,33 @@ public class PooledExecutorService implements TaskProvider {
    */
   @Override
   public TimedTask getNextTask() throws InterruptedException {
-    if (queue != null)
-      return queue.poll(1, java.util.concurrent.TimeUnit.SECONDS);
-    else
+    if (queue == null)
       return null; // It's yet unclear how this happens. See https://jira.jboss.org/browse/ERRAI-104
+
+    QueuedTask next = queue.poll(1, java.util.concurrent.TimeUnit.SECONDS);
+    if (next == null) {
+      pool.workerIdle();
+      return null;
+    }
+
+    pool.sampleLatency(System.nanoTime() - next.queuedAt);
+    return next.task;
+  }
+
+  /**
+   * @return the number of delayed and repeating tasks waiting to fall due.
+   */
+  public int getScheduledTaskCount() {
+    return scheduledTasks.size();
+  }
+
+  private static final class QueuedTask {
+    private final TimedTask task;
+    private final long queuedAt = System.nanoTime();
+
+    private QueuedTask(TimedTask task) {
+      this.task = task;
+    }
   }
 
   private static class SingleFireTask extends TimedTask {
@@ -361,42 +355,6 @@ public class PooledExecutorService implements TaskProvider {
     }
   }
 
-  private class SchedulerThread extends Thread {
-    private volatile boolean running = false;
-
-    private SchedulerThread() {
-    }
-
-    @Override
-    public void run() {
-      while (running) {
-        try {
-          while (running) {
-            runAllDue();
-          }
-        }
-        catch (InterruptedException e) {
-          e.printStackTrace();
-          // just fall through.
-        }
-        catch (Throwable t) {
-          t.printStackTrace();
-        }
-      }
-    }
-
-    @Override
-    public void start() {
-      running = true;
-      super.start();
-    }
-
-    public void requestStop() {
-      running = false;
-      interrupt();
-    }
-  }
-
   public void requestStop() {
     stopped = true;
     pool.requestStopAll();
@@ -18,6 +18,7 @@ package org.jboss.errai.bus.server.async.scheduling;
 
 import org.jboss.errai.bus.client.api.ErrorCallback;
 import org.jboss.errai.bus.server.async.TimedTask;
+import org.jboss.errai.bus.server.async.VirtualThreads;
 
 public class ThreadWorker implements Runnable {
   private final Thread thread;
@@ -28,15 +29,13 @@ public class ThreadWorker implements Runnable {
   private volatile boolean isStopped = false;
 
   public ThreadWorker(TaskProvider pool) {
-    this.thread = new Thread(this, "ExecutorPoolWorker");
-    this.thread.setDaemon(true);
+    this.thread = VirtualThreads.newThread(this, "ExecutorPoolWorker");
     this.pool = pool;
     this.errorCallback = null;
   }
 
   public ThreadWorker(ErrorCallback errorCallback, TaskProvider pool) {
-    this.thread = new Thread(this);
-    this.thread.setDaemon(true);
+    this.thread = VirtualThreads.newThread(this, "ExecutorPoolWorker");
     this.errorCallback = errorCallback;
     this.pool = pool;
   }
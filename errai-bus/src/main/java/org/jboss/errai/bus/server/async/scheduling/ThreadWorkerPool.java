@@ -19,6 +19,7 @@ package org.jboss.errai.bus.server.async.scheduling;
 import javax.swing.plaf.metal.MetalBorders;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
 
 public class ThreadWorkerPool {
@@ -32,6 +33,29 @@ public class ThreadWorkerPool {
 
   private volatile boolean stop = false;
 
+  /**
+   * A worker is added when tasks wait longer than this in the queue, on average.
+   */
+  private static final long GROW_LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+  /**
+   * A worker which finds nothing to do is retired only if tasks wait less than this in the queue, on average.
+   */
+  private static final long SHRINK_LATENCY = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * The minimum time between resizes of the pool, so that a new worker can take effect before the latency is judged
+   * again.
+   */
+  private static final long RESIZE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /**
+   * A moving average of the time tasks wait in the queue before a worker takes them, in nanoseconds. It is updated
+   * without synchronization, so an occasional lost sample is tolerated.
+   */
+  private volatile long averageLatency;
+  private volatile long lastResize = System.nanoTime();
+
   public ThreadWorkerPool(TaskProvider provider) {
     this.workers = new CopyOnWriteArrayList<ThreadWorker>();
     this.provider = provider;
@@ -71,6 +95,53 @@ public class ThreadWorkerPool {
     }
   }
 
+  /**
+   * Records how long a task waited in the queue, and adds a worker if tasks are being kept waiting.
+   *
+   * @param latencyNanos the time the task waited, in nanoseconds.
+   */
+  public void sampleLatency(long latencyNanos) {
+    long average = averageLatency;
+    average += (latencyNanos - average) / 8;
+    averageLatency = average;
+
+    if (average > GROW_LATENCY && resizeDue()) {
+      addWorker();
+    }
+  }
+
+  /**
+   * Called by a worker which waited for a task and found none. The worker is retired if the rest of the pool is
+   * keeping up.
+   */
+  public void workerIdle() {
+    sampleLatency(0);
+
+    if (averageLatency < SHRINK_LATENCY && workers.size() > 1 && resizeDue()) {
+      removeWorker();
+    }
+  }
+
+  /**
+   * @return the moving average of the time tasks wait in the queue, in nanoseconds.
+   */
+  public long getAverageLatency() {
+    return averageLatency;
+  }
+
+  public int getPoolSize() {
+    return workers.size();
+  }
+
+  private boolean resizeDue() {
+    long now = System.nanoTime();
+    if (now - lastResize < RESIZE_INTERVAL) {
+      return false;
+    }
+    lastResize = now;
+    return true;
+  }
+
   public void startPool() {
     addWorker();
   }
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.async.scheduling;
+
+import static java.lang.System.currentTimeMillis;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jboss.errai.bus.server.async.TimedTask;
+
+/**
+ * A hashed timing wheel which holds the delayed and repeating tasks of a {@link PooledExecutorService} until they
+ * are due. Time is divided into ticks, and each task is hashed into the bucket for the tick in which it falls due,
+ * so scheduling a task costs the same however many tasks are pending. Tasks are queued for the wheel's thread
+ * without taking a lock, and a cancelled task is simply dropped the next time its bucket comes round.
+ * <p/>
+ * On every tick the wheel's thread takes all of the tasks that have fallen due from the current bucket in one pass,
+ * and hands them to {@link #expired(TimedTask)}. A task is run at most one tick late. The thread sleeps while the
+ * wheel is empty.
+ */
+abstract class TimerWheel {
+  private final long tickMillis;
+  private final Entry[] buckets;
+  private final int mask;
+
+  private final Queue<TimedTask> pending = new ConcurrentLinkedQueue<TimedTask>();
+  private final AtomicInteger size = new AtomicInteger();
+
+  private final long startTime = currentTimeMillis();
+  private long processedTick;
+
+  private final WheelThread thread = new WheelThread();
+  private volatile boolean sleeping;
+
+  /**
+   * @param tickMillis the length of a tick, in milliseconds.
+   * @param wheelSize  the number of buckets in the wheel, which is rounded up to a power of two.
+   */
+  TimerWheel(final long tickMillis, final int wheelSize) {
+    if (tickMillis <= 0) {
+      throw new IllegalArgumentException("tick must be positive: " + tickMillis);
+    }
+
+    int n = 1;
+    while (n < wheelSize) n <<= 1;
+
+    this.tickMillis = tickMillis;
+    this.buckets = new Entry[n];
+    this.mask = n - 1;
+  }
+
+  /**
+   * Called on the wheel's thread for each task that has fallen due.
+   *
+   * @param task the task.
+   * @throws InterruptedException if interrupted while handing off the task.
+   */
+  protected abstract void expired(TimedTask task) throws InterruptedException;
+
+  /**
+   * Adds the task to the wheel, to be expired at its {@link TimedTask#nextRuntime()}.
+   *
+   * @param task the task to schedule.
+   */
+  void schedule(final TimedTask task) {
+    size.incrementAndGet();
+    pending.offer(task);
+
+    if (sleeping) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /**
+   * @return the number of tasks in the wheel, including any that have been cancelled but not yet dropped.
+   */
+  int size() {
+    return size.get();
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  void stop() {
+    thread.requestStop();
+  }
+
+  private long tickOf(final long time) {
+    return (time - startTime) / tickMillis;
+  }
+
+  private void transferPending() {
+    TimedTask task;
+    while ((task = pending.poll()) != null) {
+      if (task.isCancelled()) {
+        size.decrementAndGet();
+        continue;
+      }
+
+      // round up, so that a task never fires before it is due.
+      long deadlineTick = (task.nextRuntime() - startTime + tickMillis - 1) / tickMillis;
+      if (deadlineTick <= processedTick) {
+        deadlineTick = processedTick + 1;
+      }
+
+      final int bucket = (int) (deadlineTick & mask);
+      buckets[bucket] = new Entry(task, deadlineTick, buckets[bucket]);
+    }
+  }
+
+  /**
+   * Expires every task in the bucket that is due by the specified tick.
+   */
+  private void expireBucket(final int bucket, final long tick) throws InterruptedException {
+    Entry prev = null;
+    Entry entry = buckets[bucket];
+
+    while (entry != null) {
+      final Entry next = entry.next;
+
+      if (entry.task.isCancelled() || entry.deadlineTick <= tick) {
+        if (prev == null) {
+          buckets[bucket] = next;
+        }
+        else {
+          prev.next = next;
+        }
+        size.decrementAndGet();
+
+        if (!entry.task.isCancelled()) {
+          expired(entry.task);
+        }
+      }
+      else {
+        prev = entry;
+      }
+      entry = next;
+    }
+  }
+
+  private void advance() throws InterruptedException {
+    final long currentTick = tickOf(currentTimeMillis());
+
+    long tick = processedTick + 1;
+    if (currentTick - tick >= buckets.length) {
+      // we have fallen more than a full turn behind, so every bucket only needs visiting once.
+      tick = currentTick - buckets.length + 1;
+    }
+
+    for (; tick <= currentTick; tick++) {
+      expireBucket((int) (tick & mask), currentTick);
+    }
+
+    if (currentTick > processedTick) {
+      processedTick = currentTick;
+    }
+  }
+
+  private static final class Entry {
+    private final TimedTask task;
+    private final long deadlineTick;
+    private Entry next;
+
+    private Entry(final TimedTask task, final long deadlineTick, final Entry next) {
+      this.task = task;
+      this.deadlineTick = deadlineTick;
+      this.next = next;
+    }
+  }
+
+  private class WheelThread extends Thread {
+    private volatile boolean running = false;
+
+    private WheelThread() {
+      super("TimerWheel");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          transferPending();
+
+          if (size.get() == 0) {
+            sleeping = true;
+            if (pending.isEmpty() && running) {
+              LockSupport.park(this);
+            }
+            sleeping = false;
+
+            // nothing was waiting while we slept, so there are no missed ticks to catch up on.
+            processedTick = tickOf(currentTimeMillis());
+            continue;
+          }
+
+          final long nextTickTime = startTime + (processedTick + 1) * tickMillis;
+          final long now = currentTimeMillis();
+          if (now < nextTickTime) {
+            LockSupport.parkUntil(this, nextTickTime);
+            if (currentTimeMillis() < nextTickTime) {
+              // woken early, probably to take a newly scheduled task.
+              continue;
+            }
+          }
+
+          transferPending();
+          advance();
+        }
+        catch (InterruptedException e) {
+          // just fall through.
+        }
+        catch (Throwable t) {
+          t.printStackTrace();
+        }
+      }
+    }
+
+    @Override
+    public void start() {
+      running = true;
+      super.start();
+    }
+
+    public void requestStop() {
+      running = false;
+      interrupt();
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.io;
+
+import java.io.IOException;
+
+/**
+ * A {@link QueueChannel} which takes encoded messages one at a time, and is free to coalesce messages written in
+ * quick succession into a single frame, rather than the queue wrapping each message in a frame of its own.
+ */
+public interface BatchingQueueChannel extends QueueChannel {
+  /**
+   * Writes a single message. The message may be sent in a frame along with other messages written around the same
+   * time, but messages are always sent in the order in which they were written.
+   *
+   * @param payload the encoded JSON message, without the enclosing array.
+   * @throws IOException if the message cannot be written.
+   */
+  public void writeMessage(String payload) throws IOException;
+
+  /**
+   * Writes a frame which has already been assembled, such as the contents of the transmission buffer.
+   *
+   * @param data   the JSON array of messages, encoded as UTF-8.
+   * @param offset the offset of the frame in the array.
+   * @param length the length of the frame.
+   * @throws IOException if the frame cannot be written.
+   */
+  public void write(byte[] data, int offset, int length) throws IOException;
+
+  /**
+   * Returns false while the channel has more data waiting to be sent than it is willing to hold, in which case the
+   * queue holds its messages in the buffer until the channel has drained and the queue is woken.
+   *
+   * @return true if the channel is accepting writes.
+   */
+  public boolean isWritable();
+}
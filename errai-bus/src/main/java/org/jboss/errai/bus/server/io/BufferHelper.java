@@ -20,6 +20,7 @@ import org.jboss.errai.bus.client.api.Message;
 import org.jboss.errai.bus.server.io.buffers.Buffer;
 import org.jboss.errai.bus.server.io.buffers.BufferCallback;
 import org.jboss.errai.bus.server.io.buffers.BufferColor;
+import org.jboss.errai.common.client.protocols.Resources;
 import org.jboss.errai.marshalling.server.protocol.ErraiProtocolServer;
 
 import java.io.ByteArrayInputStream;
@@ -68,8 +69,50 @@ public final class BufferHelper {
     }
   }
 
+  /**
+   * Encodes the message and writes it to the buffer. The encoded JSON is written as UTF-8 straight into the space
+   * reserved for it in the buffer, rather than being copied through an intermediate byte array and stream.
+   */
   public static void encodeAndWrite(Buffer buffer, BufferColor bufferColor, Message message) throws IOException {
-    buffer.write(ErraiProtocolServer.encodePayloadToByteArrayInputStream(message.getParts()), bufferColor);
+    buffer.write(getEncodedPayload(message), bufferColor);
+  }
+
+  /**
+   * Encodes the message once and caches the encoded payload on the message as a resource, so that delivering the
+   * same message to many queues does not marshal it again for each queue. The message must be committed, since any
+   * change made to its parts afterwards will not be reflected in the cached payload.
+   *
+   * @param message the committed message to encode.
+   */
+  public static void cacheEncodedPayload(Message message) {
+    if (!message.hasResource(Resources.EncodedPayload.name())) {
+      message.setResource(Resources.EncodedPayload.name(), ErraiProtocolServer.encodePayload(message.getParts()));
+    }
+  }
+
+  /**
+   * Drops the payload cached by {@link #cacheEncodedPayload(Message)}, once the message has been delivered to every
+   * queue it was encoded for, so that the encoding is not kept alive for as long as the message is.
+   *
+   * @param message the message to clear.
+   */
+  public static void clearEncodedPayload(Message message) {
+    message.removeResource(Resources.EncodedPayload.name());
+  }
+
+  /**
+   * Returns the encoded payload of the message, using the payload cached by {@link #cacheEncodedPayload(Message)}
+   * if there is one.
+   *
+   * @param message the message to encode.
+   * @return the encoded JSON payload.
+   */
+  public static String getEncodedPayload(Message message) {
+    final String encoded = message.getResource(String.class, Resources.EncodedPayload.name());
+    if (encoded != null) {
+      return encoded;
+    }
+    return ErraiProtocolServer.encodePayload(message.getParts());
   }
 
   private static final byte[] NOOP_ARRAY = new byte[0];
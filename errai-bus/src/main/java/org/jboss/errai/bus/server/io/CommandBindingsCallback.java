@@ -83,11 +83,11 @@ public class CommandBindingsCallback implements MessageCallback {
 
   private abstract class MethodDispatcher {
     protected Object delegate;
-    protected Method method;
+    protected EndpointInvoker invoker;
 
     protected MethodDispatcher(Object delegate, Method method) {
       this.delegate = delegate;
-      this.method = method;
+      this.invoker = EndpointInvoker.forMethod(method);
     }
 
     abstract void dispatch(Message m) throws Exception;
@@ -100,7 +100,7 @@ public class CommandBindingsCallback implements MessageCallback {
 
     @Override
     void dispatch(Message m) throws Exception {
-      method.invoke(delegate);
+      invoker.invoke(delegate, EndpointInvoker.NO_ARGUMENTS);
     }
   }
 
@@ -111,7 +111,7 @@ public class CommandBindingsCallback implements MessageCallback {
 
     @Override
     void dispatch(Message m) throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {
-      method.invoke(delegate, m);
+      invoker.invoke(delegate, new Object[] { m });
     }
   }
 
@@ -16,29 +16,26 @@
 
 package org.jboss.errai.bus.server.io;
 
-import static org.jboss.errai.bus.client.api.base.MessageBuilder.createConversation;
-import static org.mvel2.DataConversion.canConvert;
-import static org.mvel2.DataConversion.convert;
-
-import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Collection;
 
 import org.jboss.errai.bus.client.api.Message;
 import org.jboss.errai.bus.client.api.MessageCallback;
 import org.jboss.errai.bus.client.api.base.MessageDeliveryFailure;
 import org.jboss.errai.bus.client.framework.MessageBus;
+import org.jboss.errai.bus.server.WorkerFactory;
 import org.jboss.errai.bus.server.api.RpcContext;
 
 /**
- * <tt>ConversationalEndpointCallback</tt> creates a conversation that invokes an endpoint function
+ * <tt>ConversationalEndpointCallback</tt> creates a conversation that invokes an endpoint function. The endpoint can
+ * defer its reply with {@link RpcContext#deferReply()}, in which case the reply is sent when it is completed, or an
+ * error is sent to the client if it is not completed within the reply timeout.
  */
 public class ConversationalEndpointCallback implements MessageCallback {
   private ServiceInstanceProvider serviceProvider;
-  private Class[] targetTypes;
-  private Method method;
+  private EndpointInvoker invoker;
   private MessageBus bus;
+  private volatile long replyTimeout = WorkerFactory.getDefaultWorkerTimeout();
 
   /**
    * Initializes the service, method and bus
@@ -51,84 +48,72 @@ public class ConversationalEndpointCallback implements MessageCallback {
    *          - the bus to send the messages on
    */
   public ConversationalEndpointCallback(ServiceInstanceProvider genericSvc, Method method, MessageBus bus) {
+    this(genericSvc, EndpointInvoker.forMethod(method), bus);
+  }
+
+  /**
+   * Initializes the service, the invoker for the endpoint function and bus
+   *
+   * @param genericSvc
+   *          - the service the bus is subscribed to
+   * @param invoker
+   *          - the invoker for the endpoint function
+   * @param bus
+   *          - the bus to send the messages on
+   */
+  public ConversationalEndpointCallback(ServiceInstanceProvider genericSvc, EndpointInvoker invoker, MessageBus bus) {
     this.serviceProvider = genericSvc;
-    this.targetTypes = (this.method = method).getParameterTypes();
+    this.invoker = invoker;
     this.bus = bus;
   }
 
+  /**
+   * Sets how long a deferred reply may remain pending before the call is reported to the client as timed out. It
+   * defaults to the default worker timeout.
+   *
+   * @param replyTimeout
+   *          - the timeout, in milliseconds
+   */
+  public void setReplyTimeout(long replyTimeout) {
+    this.replyTimeout = replyTimeout;
+  }
+
   /**
    * Callback function. Creates the conversation and invokes the endpoint using the message specified
    * 
    * @param message
    *          - the message to initiate the conversation
    */
-  @SuppressWarnings({ "unchecked" })
   public void callback(Message message) {
-    Object[] parms = message.get(Object[].class, "MethodParms");
-
-    if ((parms == null && targetTypes.length != 0) || (parms.length != targetTypes.length)) {
-      throw new MessageDeliveryFailure("wrong number of arguments sent to endpoint. (received: "
-              + (parms == null ? 0 : parms.length) + "; required: " + targetTypes.length + ")");
-    }
-    for (int i = 0; i < parms.length; i++) {
-      if (parms[i] != null && !targetTypes[i].isAssignableFrom(parms[i].getClass())) {
-        if (canConvert(targetTypes[i], parms[i].getClass())) {
-          parms[i] = convert(parms[i], targetTypes[i]);
-        }
-        else if (targetTypes[i].isArray()) {
-          if (parms[i] instanceof Collection) {
-            Collection c = (Collection) parms[i];
-            parms[i] = c.toArray((Object[]) Array.newInstance(targetTypes[i].getComponentType(), c.size()));
-
-          }
-          else if (parms[i].getClass().isArray()) {
-
-            int length = Array.getLength(parms[i]);
-            Class toComponentType = parms[i].getClass().getComponentType();
-            Object parmValue = parms[i];
-            Object newArray = Array.newInstance(targetTypes[i].getComponentType(), length);
-
-            for (int x = 0; x < length; x++) {
-              Array.set(newArray, x, convert(Array.get(parmValue, x), toComponentType));
-            }
-
-            parms[i] = newArray;
-          }
-
-        }
-        else {
-          throw new MessageDeliveryFailure("type mismatch in method parameters");
-        }
-      }
-    }
+    Object[] parms = invoker.coerceArguments(message.get(Object[].class, "MethodParms"));
 
+    PendingReply reply = new PendingReply(message, bus, invoker.returnsVoid());
     try {
       RpcContext.set(message);
-      Object methReply = method.invoke(serviceProvider.get(message), parms);
+      RpcContext.setReply(reply);
+      Object methReply = invoker.invoke(serviceProvider.get(message), parms);
 
-      if (method.getReturnType().equals(void.class)) {
-        createConversation(message)
-            .subjectProvided()
-            .noErrorHandling().sendNowWith(bus);
+      if (RpcContext.isReplyDeferred()) {
+        reply.startTimeout(replyTimeout);
       }
       else {
-        createConversation(message)
-              .subjectProvided()
-              .with("MethodReply", methReply)
-              .noErrorHandling().sendNowWith(bus);
+        reply.send(methReply);
       }
     }
     catch (MessageDeliveryFailure e) {
+      reply.cancel();
       throw e;
     }
     catch (InvocationTargetException e) {
+      reply.cancel();
       throw new MessageDeliveryFailure("error invoking endpoint", e.getCause());
     }
     catch (Exception e) {
+      reply.cancel();
       throw new MessageDeliveryFailure("error invoking endpoint", e);
     } 
     finally {
       RpcContext.remove();
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.io;
+
+/**
+ * Calls one endpoint method directly. Implementations are generated by {@link EndpointCallCompiler}, which is why
+ * this type has to be public.
+ */
+public abstract class EndpointCall {
+  /**
+   * @param target    the service instance.
+   * @param arguments the arguments, already converted to the method's parameter types (or their wrappers, if the
+   *                  parameters are primitive).
+   * @return the return value of the method, boxed if it is primitive, or null if the method is void.
+   * @throws Throwable whatever the method throws.
+   */
+  public abstract Object call(Object target, Object[] arguments) throws Throwable;
+}
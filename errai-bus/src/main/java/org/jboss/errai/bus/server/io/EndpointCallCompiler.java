@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.io;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import org.slf4j.Logger;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Compiles an {@link EndpointCall} for an endpoint method. The call is generated with javassist and defined straight
+ * from memory, so no source is generated and nothing is written to disk.
+ * <p/>
+ * Bytecode can only reach public methods of public classes, since the call is defined by its own class loader. For
+ * anything else, and anything javassist fails to compile, no call is returned and the method is invoked through
+ * reflection instead.
+ */
+final class EndpointCallCompiler {
+  private static final Logger log = getLogger(EndpointCallCompiler.class);
+
+  private static final String CALL_PACKAGE = "org.jboss.errai.bus.server.io.calls.";
+  private static final AtomicInteger counter = new AtomicInteger();
+
+  private EndpointCallCompiler() {
+  }
+
+  /**
+   * @return a direct call to the method, or null if the method has to be invoked through reflection.
+   */
+  static EndpointCall compile(final Method method) {
+    if (!isAccessible(method)) {
+      return null;
+    }
+
+    final Class<?> type = method.getDeclaringClass();
+    final ClassLoader typeLoader = type.getClassLoader() != null
+            ? type.getClassLoader() : EndpointCallCompiler.class.getClassLoader();
+
+    final String call = "((" + typeName(type) + ") $1)." + method.getName() + arguments(method.getParameterTypes());
+    final String body = method.getReturnType() == void.class
+            ? "{ " + call + "; return null; }"
+            : "{ return ($w) " + call + "; }";
+
+    final String className = CALL_PACKAGE + type.getSimpleName() + "_" + method.getName() + "_"
+            + counter.incrementAndGet();
+
+    try {
+      final ClassPool pool = new ClassPool(false);
+      pool.appendClassPath(new ClassClassPath(EndpointCall.class));
+      pool.appendClassPath(new LoaderClassPath(typeLoader));
+      pool.appendSystemPath();
+
+      final CtClass ctClass = pool.makeClass(className, pool.get(EndpointCall.class.getName()));
+      ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
+      ctClass.addMethod(CtNewMethod.make(
+              "public Object call(Object target, Object[] arguments) throws Throwable " + body, ctClass));
+
+      final byte[] bytecode = ctClass.toBytecode();
+      ctClass.detach();
+
+      return new CallLoader(typeLoader).define(className, bytecode).asSubclass(EndpointCall.class).newInstance();
+    }
+    catch (Exception e) {
+      log.debug("could not compile call to " + method + "; using reflection", e);
+      return null;
+    }
+    catch (LinkageError e) {
+      log.debug("could not load call to " + method + "; using reflection", e);
+      return null;
+    }
+  }
+
+  private static boolean isAccessible(final Method method) {
+    if (!Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers())
+            || !isAccessible(method.getDeclaringClass()) || !isAccessible(method.getReturnType())) {
+      return false;
+    }
+    for (final Class<?> type : method.getParameterTypes()) {
+      if (!isAccessible(type)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isAccessible(Class<?> type) {
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+    for (Class<?> c = type; c != null; c = c.getDeclaringClass()) {
+      if (!c.isPrimitive() && !Modifier.isPublic(c.getModifiers())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String arguments(final Class<?>[] parameterTypes) {
+    final StringBuilder buf = new StringBuilder("(");
+    for (int i = 0; i < parameterTypes.length; i++) {
+      if (i != 0) {
+        buf.append(", ");
+      }
+      buf.append(unwrap(parameterTypes[i], "$2[" + i + "]"));
+    }
+    return buf.append(')').toString();
+  }
+
+  /**
+   * @return an expression which casts {@code expr} to {@code type}, unboxing it if the type is primitive.
+   */
+  private static String unwrap(final Class<?> type, final String expr) {
+    if (!type.isPrimitive()) {
+      return "(" + typeName(type) + ") " + expr;
+    }
+
+    final String wrapper;
+    if (type == boolean.class) wrapper = "Boolean";
+    else if (type == char.class) wrapper = "Character";
+    else if (type == byte.class) wrapper = "Byte";
+    else if (type == short.class) wrapper = "Short";
+    else if (type == int.class) wrapper = "Integer";
+    else if (type == long.class) wrapper = "Long";
+    else if (type == float.class) wrapper = "Float";
+    else wrapper = "Double";
+
+    return "((java.lang." + wrapper + ") " + expr + ")." + type.getName() + "Value()";
+  }
+
+  private static String typeName(final Class<?> type) {
+    return type.isArray() ? typeName(type.getComponentType()) + "[]" : type.getName();
+  }
+
+  /**
+   * Defines a generated call on top of the endpoint class's loader. The call's base type always comes from this
+   * module's loader, even where the endpoint class's loader cannot see it.
+   */
+  private static final class CallLoader extends ClassLoader {
+    private CallLoader(final ClassLoader parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+      if (name.equals(EndpointCall.class.getName())) {
+        return EndpointCall.class;
+      }
+      return super.loadClass(name, resolve);
+    }
+
+    private Class<?> define(final String name, final byte[] bytecode) {
+      return defineClass(name, bytecode, 0, bytecode.length);
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.io;
+
+import org.jboss.errai.bus.client.api.base.MessageDeliveryFailure;
+import org.mvel2.DataConversion;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+
+/**
+ * Invokes an endpoint method with the arguments decoded from a message. Everything that can be known about the
+ * method is worked out once, when the endpoint is bound: each parameter gets a {@link Coercion} chosen for its
+ * declared type, so delivering a message only has to check each argument against the type it expects.
+ * <p/>
+ * Public methods of public classes are called through an {@link EndpointCall} generated for the method, so a delivery
+ * is a plain method call. Any other method is invoked through reflection, with its access check suppressed up front
+ * rather than repeated on every call.
+ */
+public class EndpointInvoker {
+  static final Object[] NO_ARGUMENTS = new Object[0];
+
+  private final Method method;
+  private final EndpointCall call;
+  private final Coercion[] coercions;
+  private final int[] primitiveParameters;
+  private final boolean returnsVoid;
+
+  private EndpointInvoker(final Method method) {
+    this.method = method;
+    this.returnsVoid = method.getReturnType() == void.class;
+
+    final Class<?>[] parameterTypes = method.getParameterTypes();
+    this.coercions = new Coercion[parameterTypes.length];
+    int primitives = 0;
+    for (int i = 0; i < parameterTypes.length; i++) {
+      coercions[i] = coercionFor(parameterTypes[i]);
+      if (parameterTypes[i].isPrimitive()) {
+        primitives++;
+      }
+    }
+
+    this.primitiveParameters = new int[primitives];
+    for (int i = 0, p = 0; i < parameterTypes.length; i++) {
+      if (parameterTypes[i].isPrimitive()) {
+        primitiveParameters[p++] = i;
+      }
+    }
+
+    this.call = EndpointCallCompiler.compile(method);
+    if (call == null) {
+      try {
+        method.setAccessible(true);
+      }
+      catch (SecurityException e) {
+        // a security manager is in place: invoke the method with the usual access checks.
+      }
+    }
+  }
+
+  /**
+   * Creates an invoker for the specified endpoint method.
+   *
+   * @param method the endpoint method.
+   * @return the invoker.
+   */
+  public static EndpointInvoker forMethod(final Method method) {
+    return new EndpointInvoker(method);
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  public boolean returnsVoid() {
+    return returnsVoid;
+  }
+
+  /**
+   * Checks the number of arguments, and converts any arguments that are not already of the type of their
+   * parameter. The array is converted in place.
+   *
+   * @param arguments the arguments decoded from the message, which may be null if there are none.
+   * @return the arguments to invoke the method with.
+   * @throws MessageDeliveryFailure if the arguments do not match the method's parameters.
+   */
+  public Object[] coerceArguments(final Object[] arguments) {
+    final Object[] parms = arguments == null ? NO_ARGUMENTS : arguments;
+
+    if (parms.length != coercions.length) {
+      throw new MessageDeliveryFailure("wrong number of arguments sent to endpoint. (received: "
+              + parms.length + "; required: " + coercions.length + ")");
+    }
+
+    for (int i = 0; i < parms.length; i++) {
+      if (parms[i] != null) {
+        parms[i] = coercions[i].coerce(parms[i]);
+      }
+    }
+    return parms;
+  }
+
+  /**
+   * Invokes the method on the target with arguments that have already been coerced.
+   *
+   * @param target    the service instance.
+   * @param arguments the arguments returned by {@link #coerceArguments(Object[])}.
+   * @return the return value of the method.
+   * @throws IllegalArgumentException  if a primitive parameter is passed null.
+   * @throws InvocationTargetException if the method throws an exception.
+   */
+  public Object invoke(final Object target, final Object[] arguments)
+          throws IllegalAccessException, InvocationTargetException {
+    if (call == null) {
+      return method.invoke(target, arguments);
+    }
+
+    // reflection refuses a null for a primitive parameter before calling the method, and so does this.
+    for (int i : primitiveParameters) {
+      if (arguments[i] == null) {
+        throw new IllegalArgumentException("null passed for primitive parameter " + i + " of " + method);
+      }
+    }
+
+    try {
+      return call.call(target, arguments);
+    }
+    catch (Throwable t) {
+      throw new InvocationTargetException(t);
+    }
+  }
+
+  /**
+   * Converts an argument to the type of the parameter it is passed for.
+   */
+  abstract static class Coercion {
+    final Class<?> targetType;
+
+    Coercion(final Class<?> targetType) {
+      this.targetType = targetType;
+    }
+
+    /**
+     * @param value a non-null argument.
+     * @return the argument, converted to the target type if necessary.
+     */
+    abstract Object coerce(Object value);
+
+    Object convert(final Object value) {
+      if (DataConversion.canConvert(targetType, value.getClass())) {
+        return DataConversion.convert(value, targetType);
+      }
+      throw new MessageDeliveryFailure("type mismatch in method parameters");
+    }
+  }
+
+  static Coercion coercionFor(final Class<?> type) {
+    if (type == Object.class) {
+      return new Coercion(type) {
+        @Override
+        Object coerce(final Object value) {
+          return value;
+        }
+      };
+    }
+    else if (type.isPrimitive()) {
+      // reflection unboxes the wrapper itself, so only a value of some other type needs converting.
+      final Class<?> wrapperType = wrapperFor(type);
+      return new Coercion(type) {
+        @Override
+        Object coerce(final Object value) {
+          return value.getClass() == wrapperType ? value : convert(value);
+        }
+      };
+    }
+    else if (type.isArray()) {
+      return new ArrayCoercion(type);
+    }
+    else {
+      return new Coercion(type) {
+        @Override
+        Object coerce(final Object value) {
+          return targetType.isInstance(value) ? value : convert(value);
+        }
+      };
+    }
+  }
+
+  /**
+   * Arrays usually arrive as a collection, or as an array of some other component type, and are copied into an
+   * array of the parameter's type.
+   */
+  private static class ArrayCoercion extends Coercion {
+    private final Class<?> componentType;
+    private final Class<?> elementType;
+
+    ArrayCoercion(final Class<?> targetType) {
+      super(targetType);
+      this.componentType = targetType.getComponentType();
+      this.elementType = wrapperFor(componentType);
+    }
+
+    private Object coerceElement(final Object element) {
+      if (element == null || elementType.isInstance(element)) {
+        return element;
+      }
+      return DataConversion.convert(element, componentType);
+    }
+
+    @Override
+    Object coerce(final Object value) {
+      if (targetType.isInstance(value)) {
+        return value;
+      }
+      else if (DataConversion.canConvert(targetType, value.getClass())) {
+        return DataConversion.convert(value, targetType);
+      }
+      else if (value instanceof Collection) {
+        final Collection<?> c = (Collection<?>) value;
+        final Object newArray = Array.newInstance(componentType, c.size());
+        int i = 0;
+        for (Object element : c) {
+          Array.set(newArray, i++, coerceElement(element));
+        }
+        return newArray;
+      }
+      else if (value.getClass().isArray()) {
+        final int length = Array.getLength(value);
+        final Object newArray = Array.newInstance(componentType, length);
+        for (int i = 0; i < length; i++) {
+          Array.set(newArray, i, coerceElement(Array.get(value, i)));
+        }
+        return newArray;
+      }
+      throw new MessageDeliveryFailure("type mismatch in method parameters");
+    }
+  }
+
+  private static Class<?> wrapperFor(final Class<?> type) {
+    if (!type.isPrimitive()) return type;
+    if (type == int.class) return Integer.class;
+    if (type == long.class) return Long.class;
+    if (type == boolean.class) return Boolean.class;
+    if (type == double.class) return Double.class;
+    if (type == float.class) return Float.class;
+    if (type == short.class) return Short.class;
+    if (type == byte.class) return Byte.class;
+    if (type == char.class) return Character.class;
+    return Void.class;
+  }
+}
@@ -26,7 +26,7 @@ import org.jboss.errai.marshalling.client.marshallers.ErraiProtocolEnvelopeMarsh
 import org.jboss.errai.marshalling.client.marshallers.MapMarshaller;
 import org.jboss.errai.marshalling.server.DecodingSession;
 import org.jboss.errai.marshalling.server.JSONDecoder;
-import org.jboss.errai.marshalling.server.JSONStreamDecoder;
+import org.jboss.errai.marshalling.server.JSONByteDecoder;
 import org.jboss.errai.marshalling.server.MappingContextSingleton;
 
 import javax.servlet.http.HttpServletRequest;
@@ -88,7 +88,7 @@ public class MessageFactory {
 
 
   public static List<Message> createCommandMessage(QueueSession session, HttpServletRequest request) throws IOException {
-    EJValue value = JSONStreamDecoder.decode(request.getInputStream());
+    EJValue value = JSONByteDecoder.decode(request.getInputStream());
     if (value.isObject() != null) {
       return Collections.singletonList(from(getParts(value), session, request));
     }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.io;
+
+import static org.jboss.errai.bus.client.api.base.MessageBuilder.createConversation;
+import static org.jboss.errai.bus.client.util.ErrorHelper.handleMessageDeliveryFailure;
+import static org.jboss.errai.bus.client.util.ErrorHelper.sendClientError;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.errai.bus.client.api.Message;
+import org.jboss.errai.bus.client.api.base.MessageDeliveryFailure;
+import org.jboss.errai.bus.client.framework.MessageBus;
+import org.jboss.errai.bus.server.api.AsyncReply;
+import org.jboss.errai.bus.server.api.ServerMessageBus;
+
+/**
+ * The reply to a call on a {@link ConversationalEndpointCallback}. It is sent straight away when the endpoint
+ * returns, unless the endpoint has deferred it, in which case it is sent when the endpoint completes it, or an error
+ * is sent to the client when the reply timeout expires first.
+ */
+class PendingReply implements AsyncReply {
+  private final Message message;
+  private final MessageBus bus;
+  private final boolean returnsVoid;
+  private final AtomicBoolean done = new AtomicBoolean();
+
+  private volatile Future<?> timeout;
+
+  PendingReply(final Message message, final MessageBus bus, final boolean returnsVoid) {
+    this.message = message;
+    this.bus = bus;
+    this.returnsVoid = returnsVoid;
+  }
+
+  @Override
+  public void send(final Object value) {
+    if (!done.compareAndSet(false, true)) return;
+    cancelTimeout();
+
+    if (returnsVoid) {
+      createConversation(message)
+          .subjectProvided()
+          .noErrorHandling().sendNowWith(bus);
+    }
+    else {
+      createConversation(message)
+          .subjectProvided()
+          .with("MethodReply", value)
+          .noErrorHandling().sendNowWith(bus);
+    }
+  }
+
+  @Override
+  public void fail(final Throwable t) {
+    if (!done.compareAndSet(false, true)) return;
+    cancelTimeout();
+
+    message.setResource("Exception", t);
+    handleMessageDeliveryFailure(bus, message, "Error calling remote service: " + message.getSubject(),
+        new MessageDeliveryFailure("error invoking endpoint", t), false);
+  }
+
+  @Override
+  public boolean isDone() {
+    return done.get();
+  }
+
+  /**
+   * Marks the reply as done without sending anything, because the failure of the call is being reported by the
+   * worker that invoked it.
+   */
+  void cancel() {
+    if (done.compareAndSet(false, true)) {
+      cancelTimeout();
+    }
+  }
+
+  /**
+   * Starts the timeout on a deferred reply. If the bus has no scheduler to run the timeout on, the reply waits
+   * indefinitely.
+   *
+   * @param millis the time to wait for the reply, in milliseconds.
+   */
+  void startTimeout(final long millis) {
+    if (!(bus instanceof ServerMessageBus)) return;
+
+    final ExecutorService scheduler = ((ServerMessageBus) bus).getScheduler();
+    if (!(scheduler instanceof ScheduledExecutorService)) return;
+
+    timeout = ((ScheduledExecutorService) scheduler).schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (done.compareAndSet(false, true)) {
+          sendClientError(bus, message,
+              "Request for '" + message.getSubject() + "' timed out.",
+              "The reply was not sent within the maximum timeout.");
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "ReplyTimeout";
+      }
+    }, millis, TimeUnit.MILLISECONDS);
+
+    // the reply may have been completed while the timeout was being scheduled.
+    if (done.get()) {
+      cancelTimeout();
+    }
+  }
+
+  private void cancelTimeout() {
+    final Future<?> t = timeout;
+    if (t != null) {
+      t.cancel(false);
+    }
+  }
+}
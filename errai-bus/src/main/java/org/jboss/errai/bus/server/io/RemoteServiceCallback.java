@@ -20,7 +20,7 @@ import org.jboss.errai.bus.client.api.Message;
 import org.jboss.errai.bus.client.api.MessageCallback;
 import org.jboss.errai.bus.client.api.base.MessageDeliveryFailure;
 
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -39,7 +39,7 @@ public class RemoteServiceCallback implements MessageCallback {
    * @param endpoints - Map of endpoints to their callback function
    */
   public RemoteServiceCallback(Map<String, MessageCallback> endpoints) {
-    this.endpoints = Collections.unmodifiableMap(endpoints);
+    this.endpoints = new HashMap<String, MessageCallback>(endpoints);
   }
 
   /**
@@ -48,10 +48,11 @@ public class RemoteServiceCallback implements MessageCallback {
    * @param message - the message in question
    */
   public void callback(Message message) {
-    if (!endpoints.containsKey(message.getCommandType())) {
+    final MessageCallback endpoint = endpoints.get(message.getCommandType());
+    if (endpoint == null) {
       throw new MessageDeliveryFailure("no such endpoint '" + message.getCommandType() + "' in service: " + message.getSubject());
     }
-    endpoints.get(message.getCommandType()).callback(message);
+    endpoint.callback(message);
   }
 
   public Set<String> getEndpoints() {
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.io.buffers;
+
+import java.io.IOException;
+
+/**
+ * A handler which is called by a {@link Buffer} when a write would move the head of the buffer past its high water
+ * mark, relative to the tail of the slowest registered {@link BufferColor}. The handler is expected to relieve the
+ * pressure before the buffer wraps around onto unread data: by consuming the slowest color's data elsewhere, by
+ * unregistering the color, or by waiting for the color to catch up.
+ * <p/>
+ * The handler is called on the writing thread. If the slowest color has not advanced when the handler returns, the
+ * write proceeds regardless. A handler may refuse the write by throwing an <tt>IOException</tt>.
+ */
+public interface BackpressureHandler {
+  /**
+   * @param buffer       the buffer being written to.
+   * @param slowestColor the color whose unread data is holding back the buffer.
+   * @param writeColor   the color of the data about to be written.
+   * @param lag          the number of segments the slowest color is behind the head of the buffer.
+   * @throws IOException to refuse the write.
+   */
+  public void onHighWaterMark(Buffer buffer, BufferColor slowestColor, BufferColor writeColor, long lag)
+          throws IOException;
+}
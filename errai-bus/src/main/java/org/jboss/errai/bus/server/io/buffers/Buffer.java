@@ -19,6 +19,8 @@ package org.jboss.errai.bus.server.io.buffers;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -29,13 +31,22 @@ public interface Buffer {
 
   public void write(int writeSize, InputStream inputStream, BufferColor bufferColor) throws IOException;
 
+  public void write(byte[] bytes, int offset, int length, BufferColor bufferColor) throws IOException;
+
+  public void write(ByteBuffer data, BufferColor bufferColor) throws IOException;
+
+  public void write(CharSequence data, BufferColor bufferColor) throws IOException;
+
   public boolean read(OutputStream outputStream, BufferColor bufferColor) throws IOException;
 
   public boolean read(OutputStream outputStream, BufferColor bufferColor, BufferCallback callback) throws IOException;
 
   public boolean read(OutputStream outputStream, BufferColor bufferColor, BufferCallback callback, long sequence)
           throws IOException;
-  
+
+  public boolean read(WritableByteChannel channel, BufferColor bufferColor) throws IOException;
+
+  public boolean readChunks(WritableByteChannel channel, BufferColor bufferColor) throws IOException;
 
   public boolean readWait(OutputStream outputStream, BufferColor bufferColor)
           throws IOException, InterruptedException;
@@ -49,6 +60,16 @@ public interface Buffer {
   public boolean readWait(TimeUnit unit, long time, OutputStream outputStream, BufferColor bufferColor,
                           BufferCallback callback) throws IOException, InterruptedException;
 
+  public void registerColor(BufferColor bufferColor);
+
+  public void unregisterColor(BufferColor bufferColor);
+
+  public long getLag(BufferColor bufferColor);
+
+  public BufferColor getSlowestColor();
+
+  public void setBackpressureHandler(BackpressureHandler handler, float highWaterMark);
+
   public long getHeadSequence();
   
   public int getHeadPositionBytes();
@@ -16,9 +16,11 @@
 
 package org.jboss.errai.bus.server.io.buffers;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -29,6 +31,11 @@ public class BufferColor {
   private static final AtomicInteger bufferColorCounter = new AtomicInteger();
   private static final BufferColor allBuffersColor = new BufferColor(Short.MIN_VALUE);
 
+  /**
+   * The color of segments whose data was never completely written. No reader has this color, so they are skipped.
+   */
+  static final short DISCARDED_COLOR = Short.MIN_VALUE + 1;
+
   /**
    * The current tail position for this buffer color.
    */
@@ -40,14 +47,14 @@ public class BufferColor {
   final short color;
 
   /**
-   * Lock for reads and writes on this buffer color.
+   * Lock for reads on this buffer color. Writers never acquire this lock.
    */
   final ReentrantLock lock = new ReentrantLock(false);
 
   /**
-   * Condition used for notifying waiting read locks when new data is available.
+   * Reader threads currently parked waiting for data of this color to become available.
    */
-  final Condition dataWaiting = lock.newCondition();
+  private final Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
 
   public short getColor() {
     return color;
@@ -57,8 +64,57 @@ public class BufferColor {
     return sequence;
   }
 
+  /**
+   * Wakes any readers parked waiting for data of this color. This method does not require the caller to hold the
+   * lock for this color.
+   */
   public void wake() {
-    dataWaiting.signalAll();
+    if (waiters.isEmpty()) return;
+
+    for (Thread thread : waiters) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /**
+   * Parks the calling thread until it is woken by a writer, the specified time elapses, or the head of the buffer
+   * has moved beyond the head sequence last seen by the caller. The caller must hold the lock for this color, which
+   * is released while parked and re-acquired before returning.
+   *
+   * @param buffer   the buffer being waited on.
+   * @param seenHead the head sequence of the buffer which was last read up to by the caller.
+   * @param nanos    the maximum time to wait in nanoseconds, or a negative number to wait indefinitely.
+   * @return the remaining time to wait in nanoseconds.
+   * @throws InterruptedException thrown if the thread is interrupted while waiting.
+   */
+  long await(final Buffer buffer, final long seenHead, final long nanos) throws InterruptedException {
+    final Thread thread = Thread.currentThread();
+    long remaining = nanos;
+
+    waiters.add(thread);
+    lock.unlock();
+    try {
+      // the head is re-checked after registering, so that a concurrent writer either sees us or we see its data.
+      if (buffer.getHeadSequence() == seenHead) {
+        if (nanos < 0) {
+          LockSupport.park(this);
+        }
+        else {
+          final long deadline = System.nanoTime() + nanos;
+          LockSupport.parkNanos(this, nanos);
+          remaining = deadline - System.nanoTime();
+        }
+      }
+    }
+    finally {
+      waiters.remove(thread);
+      lock.lock();
+    }
+
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    return remaining;
   }
 
   public ReentrantLock getLock() {
@@ -79,8 +135,8 @@ public class BufferColor {
     short val = (short) bufferColorCounter.incrementAndGet();
 
     // in a long-running system, do not allow it to recycle over the global
-    // color.
-    if (val == Short.MIN_VALUE) {
+    // color, or the color of discarded data.
+    while (val == Short.MIN_VALUE || val == DISCARDED_COLOR) {
       val = (short) bufferColorCounter.incrementAndGet();
     }
 
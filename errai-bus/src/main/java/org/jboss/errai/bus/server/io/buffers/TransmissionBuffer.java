@@ -16,15 +16,24 @@
 
 package org.jboss.errai.bus.server.io.buffers;
 
+import org.jboss.errai.marshalling.server.util.UTF8Encoder;
+
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -52,6 +61,10 @@ public class TransmissionBuffer implements Buffer {
 
   public static int SEGMENT_HEADER_SIZE = 4;                      /* to accomodate a 32-bit integer  */
 
+  private static final int COPY_CHUNK_SIZE = 1024 * 4;            /* staging size for copies to/from direct memory */
+  private static final int PUBLISH_SPIN_TRIES = 100;              /* busy spins before parking while publishing */
+  private static final long PUBLISH_WAIT_NANOS = 10000000L;       /* longest wait for earlier writers to publish */
+
   /**
    * The main buffer where the data is stored
    */
@@ -99,7 +112,47 @@ public class TransmissionBuffer implements Buffer {
   /**
    * The visible head sequence number seen by the readers.
    */
-  private volatile long headSequence = STARTING_SEQUENCE;
+  private final AtomicLong headSequence = new AtomicLong(STARTING_SEQUENCE);
+
+  /**
+   * The starting sequence of the last chunk published at each segment. A chunk is visible to readers only once
+   * every chunk before it has been published.
+   */
+  private final AtomicLongArray publishedSequences;
+
+  /**
+   * The number of segments allocated to the chunk starting at each segment. Written before the chunk is published.
+   */
+  private final int[] allocSizes;
+
+  /**
+   * The color of the chunk starting at each segment. Written before the chunk is published, so that whichever writer
+   * moves the head over the chunk can wake its readers.
+   */
+  private final BufferColor[] chunkColors;
+
+  /**
+   * The colors actively reading from this buffer, used to find the slowest tail.
+   */
+  private final Set<BufferColor> activeColors
+          = Collections.newSetFromMap(new ConcurrentHashMap<BufferColor, Boolean>());
+
+  /**
+   * The handler called when a write would move the head past the high water mark, or null if none.
+   */
+  private volatile BackpressureHandler backpressureHandler;
+
+  /**
+   * The maximum distance in segments permitted between the write head and the slowest tail before the
+   * {@link #backpressureHandler} is called.
+   */
+  private volatile int highWaterSegments;
+
+  /**
+   * The last observed minimum tail of the active colors. Tails only move forward, so this is always a lower bound
+   * and is only recalculated when a write appears to cross the high water mark.
+   */
+  private volatile long cachedMinimumTail = STARTING_SEQUENCE;
 
   private TransmissionBuffer(boolean directBuffer, int segmentSize, int segments) {
     this.segmentSize = segmentSize;
@@ -117,6 +170,13 @@ public class TransmissionBuffer implements Buffer {
 
     segmentMap = new short[segments];
     writeSeg(0, (short) 0);
+
+    allocSizes = new int[segments];
+    chunkColors = new BufferColor[segments];
+    publishedSequences = new AtomicLongArray(segments);
+    for (int i = 0; i < segments; i++) {
+      publishedSequences.set(i, -1);
+    }
   }
 
   /**
@@ -181,54 +241,281 @@ public class TransmissionBuffer implements Buffer {
    * @param writeSize   the size in bytes to be allocated.
    * @param inputStream the input stream to read into the buffer.
    * @param bufferColor the color of the data to be inserted.
+   * @throws EOFException if the stream ends before {@param writeSize} bytes have been read, in which case
+   *                      nothing is written.
    * @throws IOException
    */
   @Override
   public void write(final int writeSize, final InputStream inputStream, final BufferColor bufferColor) throws IOException {
-    if (writeSize > bufferSize) {
-      throw new IOException("write size larger than buffer can fit");
+    checkWriteSize(writeSize);
+
+    final long writeHead = allocate(writeSize, bufferColor);
+    try {
+      final int writeCursor = ((int) writeHead % segments) * segmentSize + SEGMENT_HEADER_SIZE;
+      final int end = writeCursor + writeSize;
+
+      if (end > bufferSize) {
+        readFully(inputStream, writeCursor, bufferSize - writeCursor);
+        readFully(inputStream, 0, end - bufferSize);
+      }
+      else {
+        readFully(inputStream, writeCursor, writeSize);
+      }
+    }
+    catch (IOException e) {
+      // the space is already claimed, so it is published with its segments discarded rather than handed back.
+      discard(writeHead);
+      throw e;
     }
+    finally {
+      publish(writeHead);
+    }
+  }
 
-    final ReentrantLock lock = bufferColor.lock;
-    lock.lock();
+  /**
+   * Writes the specified range of a byte array into the buffer. The data is copied into the buffer in at most two
+   * bulk operations (one if the write does not wrap around the end of the buffer).
+   *
+   * @param bytes       the byte array to copy from.
+   * @param offset      the offset in the array to start copying from.
+   * @param length      the number of bytes to copy.
+   * @param bufferColor the color of the data to be inserted.
+   * @throws IOException
+   */
+  @Override
+  public void write(final byte[] bytes, final int offset, final int length, final BufferColor bufferColor)
+          throws IOException {
+    checkWriteSize(length);
+
+    final long writeHead = allocate(length, bufferColor);
     try {
-      final int allocSize = ((writeSize + SEGMENT_HEADER_SIZE) / segmentSize) + 1;
-      final long writeHead = writeSequenceNumber.getAndAdd(allocSize);
-      final int seq = (int) writeHead % segments;
+      final int writeCursor = ((int) writeHead % segments) * segmentSize + SEGMENT_HEADER_SIZE;
+      final int end = writeCursor + length;
 
-      int writeCursor = seq * segmentSize;
+      if (end > bufferSize) {
+        final int initialWrite = bufferSize - writeCursor;
+        putBytes(writeCursor, bytes, offset, initialWrite);
+        putBytes(0, bytes, offset + initialWrite, end - bufferSize);
+      }
+      else {
+        putBytes(writeCursor, bytes, offset, length);
+      }
+    }
+    finally {
+      publish(writeHead);
+    }
+  }
 
-      // write the chunk size header for the data we're about to write
-      writeChunkSize(writeCursor, writeSize);
+  /**
+   * Writes the remaining contents of the specified <tt>ByteBuffer</tt> into the buffer. Upon return, the position
+   * of the source buffer will be advanced to its limit.
+   *
+   * @param data        the <tt>ByteBuffer</tt> to copy from.
+   * @param bufferColor the color of the data to be inserted.
+   * @throws IOException
+   */
+  @Override
+  public void write(final ByteBuffer data, final BufferColor bufferColor) throws IOException {
+    if (data.hasArray()) {
+      final int length = data.remaining();
+      write(data.array(), data.arrayOffset() + data.position(), length, bufferColor);
+      data.position(data.position() + length);
+      return;
+    }
 
-      writeCursor += SEGMENT_HEADER_SIZE;
+    final int writeSize = data.remaining();
+    checkWriteSize(writeSize);
 
+    final long writeHead = allocate(writeSize, bufferColor);
+    try {
+      final int writeCursor = ((int) writeHead % segments) * segmentSize + SEGMENT_HEADER_SIZE;
       final int end = writeCursor + writeSize;
-      final int initialRead = end > bufferSize ? bufferSize : end;
-      final long newHead = writeHead + allocSize;
-
-      /*
-      * Allocate the segments to the this color
-      */
-      for (int i = 0; i < allocSize; i++) {
-        writeSeg((seq + i) % segments, bufferColor.color);
+
+      if (end > bufferSize) {
+        putBytes(writeCursor, data, bufferSize - writeCursor);
+        putBytes(0, data, end - bufferSize);
       }
+      else {
+        putBytes(writeCursor, data, writeSize);
+      }
+    }
+    finally {
+      publish(writeHead);
+    }
+  }
 
-      for (; writeCursor < initialRead; writeCursor++) {
-        writeBuf(writeCursor, (byte) inputStream.read());
+  /**
+   * Encodes the specified characters as UTF-8 directly into a region reserved in the buffer, without an
+   * intermediate byte array. The encoded length is measured up front, so the region can be claimed before encoding.
+   *
+   * @param data        the characters to encode.
+   * @param bufferColor the color of the data to be inserted.
+   * @throws IOException
+   */
+  @Override
+  public void write(final CharSequence data, final BufferColor bufferColor) throws IOException {
+    final int writeSize = UTF8Encoder.encodedLength(data);
+    checkWriteSize(writeSize);
+
+    final long writeHead = allocate(writeSize, bufferColor);
+    try {
+      final int writeCursor = ((int) writeHead % segments) * segmentSize + SEGMENT_HEADER_SIZE;
+      final int end = writeCursor + writeSize;
+
+      if (end > bufferSize) {
+        // the region wraps around the end of the buffer, which the encoder can't follow; so encode aside and copy.
+        final byte[] bytes = new byte[writeSize];
+        UTF8Encoder.encode(data, ByteBuffer.wrap(bytes));
+
+        final int initialWrite = bufferSize - writeCursor;
+        putBytes(writeCursor, bytes, 0, initialWrite);
+        putBytes(0, bytes, initialWrite, end - bufferSize);
       }
+      else {
+        final ByteBuffer region = _buffer.duplicate();
+        region.clear();
+        region.position(writeCursor);
+        region.limit(end);
+        UTF8Encoder.encode(data, region);
+      }
+    }
+    finally {
+      publish(writeHead);
+    }
+  }
 
-      if (writeCursor < end) {
-        for (int i = 0; i < end - bufferSize; i++) {
-          writeBuf(i, (byte) inputStream.read());
-        }
+  private void checkWriteSize(final int writeSize) throws IOException {
+    if (writeSize > bufferSize) {
+      throw new IOException("write size larger than buffer can fit");
+    }
+  }
+
+  private int getAllocSize(final int writeSize) {
+    return ((writeSize + SEGMENT_HEADER_SIZE) / segmentSize) + 1;
+  }
+
+  /**
+   * Claims the segments needed for a write of the specified size to the specified color, and writes the chunk
+   * size header. The claim is a single atomic increment of the write sequence, so any number of writers may
+   * allocate concurrently without locking.
+   *
+   * @param writeSize   the size in bytes to be allocated.
+   * @param bufferColor the color of the data to be inserted.
+   * @return the sequence number of the first allocated segment.
+   */
+  private long allocate(final int writeSize, final BufferColor bufferColor) throws IOException {
+    final int allocSize = getAllocSize(writeSize);
+    checkCapacity(allocSize, bufferColor);
+
+    final long writeHead = writeSequenceNumber.getAndAdd(allocSize);
+    final int seq = (int) writeHead % segments;
+
+    // write the chunk size header for the data we're about to write
+    writeChunkSize(seq * segmentSize, writeSize);
+
+    /*
+    * Allocate the segments to the this color
+    */
+    for (int i = 0; i < allocSize; i++) {
+      writeSeg((seq + i) % segments, bufferColor.color);
+    }
+
+    allocSizes[seq] = allocSize;
+    chunkColors[seq] = bufferColor;
+
+    return writeHead;
+  }
+
+  /**
+   * Checks that a write of the specified number of segments will not move the head past the high water mark
+   * relative to the slowest active color, calling the {@link BackpressureHandler} for the slowest color until
+   * it does not, or the handler fails to make progress.
+   *
+   * @param allocSize   the number of segments about to be claimed.
+   * @param bufferColor the color of the data about to be written.
+   * @throws IOException thrown by the handler if it refuses the write.
+   */
+  private void checkCapacity(final int allocSize, final BufferColor bufferColor) throws IOException {
+    final BackpressureHandler handler = backpressureHandler;
+    if (handler == null || writeSequenceNumber.get() + allocSize - cachedMinimumTail <= highWaterSegments) {
+      return;
+    }
+
+    BufferColor lastHandled = null;
+    long lastHandledTail = -1;
+
+    for (; ; ) {
+      final BufferColor slowest = getSlowestColor();
+      if (slowest == null) {
+        cachedMinimumTail = headSequence.get();
+        return;
       }
 
-      headSequence = newHead;
+      final long tail = slowest.sequence.get();
+      cachedMinimumTail = tail;
+
+      if (writeSequenceNumber.get() + allocSize - tail <= highWaterSegments
+              || (slowest == lastHandled && tail == lastHandledTail)) {
+        return;
+      }
+
+      handler.onHighWaterMark(this, slowest, bufferColor, headSequence.get() - tail);
+
+      lastHandled = slowest;
+      lastHandledTail = tail;
     }
-    finally {
-      bufferColor.wake();
-      lock.unlock();
+  }
+
+  /**
+   * Marks the chunk starting at the specified sequence as published, and advances the head of the buffer over it.
+   * Chunks may be published out of order by concurrent writers; the head only ever advances over a contiguous run of
+   * published chunks, and whichever writer completes the run moves the head for all of them.
+   * <p/>
+   * If a writer ahead of this one has not published yet, this waits for it, so that the chunk is visible to a read
+   * made as soon as the write returns: first spinning, then parking, for at most {@link #PUBLISH_WAIT_NANOS}. If
+   * the writer ahead is still not done by then, this gives up waiting. The chunk then becomes visible, and its
+   * waiting readers are woken, when that writer publishes and moves the head over it. So a stalled writer holds back
+   * the readers behind it for as long as it stalls, but the other writers for no longer than the wait.
+   *
+   * @param writeHead the sequence number of the first segment of the chunk.
+   */
+  private void publish(final long writeHead) {
+    final int seq = (int) writeHead % segments;
+    final long end = writeHead + allocSizes[seq];
+
+    publishedSequences.set(seq, writeHead);
+    advanceHead();
+
+    int spins = 0;
+    long deadline = 0;
+    while (headSequence.get() < end) {
+      if (++spins <= PUBLISH_SPIN_TRIES) continue;
+
+      final long now = System.nanoTime();
+      if (deadline == 0) {
+        deadline = now + PUBLISH_WAIT_NANOS;
+      }
+      else if (now - deadline >= 0) {
+        return;
+      }
+      LockSupport.parkNanos(1000);
+    }
+  }
+
+  /**
+   * Moves the head over the published chunks at the head, waking the readers of each chunk it moves over. The head
+   * is only moved once the chunk is visible to readers, so they find its data when they wake.
+   */
+  private void advanceHead() {
+    long head;
+    while ((head = headSequence.get()) < writeSequenceNumber.get()) {
+      final int seq = (int) head % segments;
+      if (publishedSequences.get(seq) != head) return;
+
+      final BufferColor color = chunkColors[seq];
+      if (headSequence.compareAndSet(head, head + allocSizes[seq])) {
+        color.wake();
+      }
     }
   }
 
@@ -247,7 +534,7 @@ public class TransmissionBuffer implements Buffer {
     bufferColor.lock.lock();
 
     // get the current head position.
-    final long writeHead = headSequence;
+    final long writeHead = headSequence.get();
 
     // get the tail position for the color.
     long read = bufferColor.sequence.get();
@@ -283,7 +570,7 @@ public class TransmissionBuffer implements Buffer {
    */
   @Override
   public boolean read(final OutputStream outputStream, final BufferColor bufferColor, final BufferCallback callback) throws IOException {
-    return read(outputStream, bufferColor, callback, (int) headSequence % segments);
+    return read(outputStream, bufferColor, callback, (int) headSequence.get() % segments);
   }
 
   /**
@@ -304,7 +591,7 @@ public class TransmissionBuffer implements Buffer {
 
       try {
         // get the current head position.
-        final long writeHead = headSequence;
+        final long writeHead = headSequence.get();
 
         // get the current tail position for this color.
         long read = bufferColor.sequence.get();
@@ -335,6 +622,62 @@ public class TransmissionBuffer implements Buffer {
     return false;
   }
 
+  /**
+   * Reads all the available data of the specified color from the buffer into the provided
+   * <tt>WritableByteChannel</tt>. Each chunk is transferred to the channel as a contiguous view of the underlying
+   * buffer, without intermediate copying.
+   *
+   * @param channel     the <tt>WritableByteChannel</tt> to drain into.
+   * @param bufferColor the buffer color
+   * @return returns a boolean indicating whether or not the cursor advanced.
+   * @throws IOException
+   */
+  @Override
+  public boolean read(final WritableByteChannel channel, final BufferColor bufferColor) throws IOException {
+    return read(channel, bufferColor, false);
+  }
+
+  /**
+   * Reads all the available data of the specified color from the buffer into the provided
+   * <tt>WritableByteChannel</tt>, preserving the chunk framing of the buffer: each chunk is preceded by its size as a
+   * 4-byte big-endian integer, as it is stored in the buffer. This allows the boundaries of the individual writes to
+   * be recovered from the output.
+   *
+   * @param channel     the <tt>WritableByteChannel</tt> to drain into.
+   * @param bufferColor the buffer color
+   * @return returns a boolean indicating whether or not the cursor advanced.
+   * @throws IOException
+   */
+  @Override
+  public boolean readChunks(final WritableByteChannel channel, final BufferColor bufferColor) throws IOException {
+    return read(channel, bufferColor, true);
+  }
+
+  private boolean read(final WritableByteChannel channel, final BufferColor bufferColor, final boolean framed)
+          throws IOException {
+    bufferColor.lock.lock();
+
+    try {
+      final long writeHead = headSequence.get();
+
+      long read = bufferColor.sequence.get();
+      long lastSeq = read;
+
+      checkOverflow(read);
+
+      while ((read = readNextChunk(writeHead, read, bufferColor, channel, framed)) != -1)
+        lastSeq = read;
+
+      if (lastSeq != -1)
+        bufferColor.sequence.set(lastSeq);
+
+      return lastSeq != read;
+    }
+    finally {
+      bufferColor.lock.unlock();
+    }
+  }
+
   /**
    * Reads from the buffer into the provided <tt>OutputStream</tt>, waiting indefinitely for data to arrive that is
    * relavent to the specified {@link BufferColor}
@@ -352,11 +695,12 @@ public class TransmissionBuffer implements Buffer {
 
     try {
       for (; ; ) {
+        final long head = headSequence.get();
         long read = bufferColor.sequence.get();
         checkOverflow(read);
         long lastRead = -1;
 
-        while ((read = readNextChunk(headSequence, read, bufferColor, outputStream, null)) != -1) {
+        while ((read = readNextChunk(head, read, bufferColor, outputStream, null)) != -1) {
           lastRead = read;
         }
 
@@ -365,15 +709,8 @@ public class TransmissionBuffer implements Buffer {
           return true;
         }
 
-        try {
-          // lets wait for some data to come available
-          bufferColor.dataWaiting.await();
-        }
-        catch (InterruptedException e) {
-          // if there's another reader contending, they should probably know about this.
-          bufferColor.dataWaiting.signal();
-          throw e;
-        }
+        // lets wait for some data to come available
+        bufferColor.await(this, head, -1);
       }
     }
     finally {
@@ -406,11 +743,12 @@ public class TransmissionBuffer implements Buffer {
     try {
 
       for (; ; ) {
+        final long head = headSequence.get();
         long read = bufferColor.sequence.get();
         checkOverflow(read);
         long lastRead = -1;
 
-        while ((read = readNextChunk(headSequence, read, bufferColor, outputStream, null)) != -1) {
+        while ((read = readNextChunk(head, read, bufferColor, outputStream, null)) != -1) {
           lastRead = read;
         }
 
@@ -422,14 +760,8 @@ public class TransmissionBuffer implements Buffer {
           return lastRead != read;
         }
 
-        try {
-          // wait around for some data.
-          nanos = bufferColor.dataWaiting.awaitNanos(nanos);
-        }
-        catch (InterruptedException e) {
-          bufferColor.dataWaiting.signal();
-          throw e;
-        }
+        // wait around for some data.
+        nanos = bufferColor.await(this, head, nanos);
       }
     }
     finally {
@@ -477,10 +809,11 @@ public class TransmissionBuffer implements Buffer {
       callback.before(outputStream);
 
       for (; ; ) {
+        final long head = headSequence.get();
         long read = bufferColor.sequence.get();
         checkOverflow(read);
         long lastRead = -1;
-        while ((read = readNextChunk(headSequence, read, bufferColor, outputStream, callback)) != -1) {
+        while ((read = readNextChunk(head, read, bufferColor, outputStream, callback)) != -1) {
           lastRead = read;
         }
 
@@ -493,13 +826,7 @@ public class TransmissionBuffer implements Buffer {
           return lastRead != read;
         }
 
-        try {
-          nanos = bufferColor.dataWaiting.awaitNanos(nanos);
-        }
-        catch (InterruptedException e) {
-          bufferColor.dataWaiting.signal();
-          throw e;
-        }
+        nanos = bufferColor.await(this, head, nanos);
       }
     }
     finally {
@@ -507,14 +834,79 @@ public class TransmissionBuffer implements Buffer {
     }
   }
 
+  /**
+   * Registers a color as actively reading from this buffer. The tails of registered colors are tracked to
+   * determine the slowest reader for the purposes of applying backpressure.
+   *
+   * @param bufferColor the buffer color
+   */
+  @Override
+  public void registerColor(final BufferColor bufferColor) {
+    activeColors.add(bufferColor);
+  }
+
+  /**
+   * Unregisters a color, so it is no longer considered when determining the slowest reader.
+   *
+   * @param bufferColor the buffer color
+   */
+  @Override
+  public void unregisterColor(final BufferColor bufferColor) {
+    activeColors.remove(bufferColor);
+  }
+
+  /**
+   * Returns the number of segments the specified color's tail is behind the head of the buffer.
+   *
+   * @param bufferColor the buffer color
+   * @return the lag in segments.
+   */
+  @Override
+  public long getLag(final BufferColor bufferColor) {
+    return headSequence.get() - bufferColor.sequence.get();
+  }
+
+  /**
+   * Returns the registered color with the oldest tail, or null if there are no registered colors.
+   *
+   * @return the slowest registered color.
+   */
+  @Override
+  public BufferColor getSlowestColor() {
+    BufferColor slowest = null;
+    long minimumTail = Long.MAX_VALUE;
+
+    for (BufferColor color : activeColors) {
+      final long tail = color.sequence.get();
+      if (tail < minimumTail) {
+        minimumTail = tail;
+        slowest = color;
+      }
+    }
+    return slowest;
+  }
+
+  /**
+   * Sets the handler to be called when a write would move the head of the buffer more than the specified fraction
+   * of the buffer ahead of the slowest registered color.
+   *
+   * @param handler       the handler, or null to disable backpressure.
+   * @param highWaterMark the fraction of the buffer (0.0 - 1.0) which may be occupied by unread data.
+   */
+  @Override
+  public void setBackpressureHandler(final BackpressureHandler handler, final float highWaterMark) {
+    this.highWaterSegments = (int) (segments * highWaterMark);
+    this.backpressureHandler = handler;
+  }
+
   @Override
   public long getHeadSequence() {
-    return headSequence;
+    return headSequence.get();
   }
 
   @Override
   public int getHeadPositionBytes() {
-    return ((int) headSequence % segments) * segmentSize;
+    return ((int) headSequence.get() % segments) * segmentSize;
   }
 
   @Override
@@ -591,15 +983,10 @@ public class TransmissionBuffer implements Buffer {
       }
 
       if (callback == null) {
-        for (; readCursor < maxInitialRead; readCursor++) {
-          outputStream.write(getBuf(readCursor));
-        }
+        writeRange(outputStream, readCursor, maxInitialRead - readCursor);
 
-        if (readCursor < endRead) {
-          int remaining = endRead - bufferSize;
-          for (int i = 0; i < remaining; i++) {
-            outputStream.write(getBuf(i));
-          }
+        if (maxInitialRead < endRead) {
+          writeRange(outputStream, 0, endRead - bufferSize);
         }
       }
       else {
@@ -621,6 +1008,43 @@ public class TransmissionBuffer implements Buffer {
     }
   }
 
+  /**
+   * Read in the next data chunk up to the specified {@param head} position, from the specified {@param sequence},
+   * for the specifed {@param color} into the provided <tt>WritableByteChannel</tt>.
+   *
+   * @param head     the head position to seek to.
+   * @param sequence the sequence position to seek from
+   * @param color    the data color for the buffer.
+   * @param channel  the <tt>WritableByteChannel</tt> to drain into.
+   * @param framed   if true, the chunk size header is written to the channel ahead of the data.
+   * @return returns the segment position after reading + 1.
+   * @throws IOException thrown if data cannot be read from the buffer or written to the channel.
+   */
+  private long readNextChunk(final long head, final long sequence, final BufferColor color,
+                             final WritableByteChannel channel, final boolean framed) throws IOException {
+
+    final long sequenceToRead = getNextSegment(color, head, sequence);
+    if (sequenceToRead != -1) {
+      final int readCursor = ((int) sequenceToRead % segments) * segmentSize;
+      final int readSize = readChunkSize(readCursor);
+      final int startRead = framed ? readCursor : readCursor + SEGMENT_HEADER_SIZE;
+      final int endRead = readCursor + SEGMENT_HEADER_SIZE + readSize;
+
+      if (endRead > bufferSize) {
+        drainRange(channel, startRead, bufferSize - startRead);
+        drainRange(channel, 0, endRead - bufferSize);
+      }
+      else {
+        drainRange(channel, startRead, endRead - startRead);
+      }
+
+      return sequenceToRead + ((readSize + SEGMENT_HEADER_SIZE) / segmentSize) + 1;
+    }
+    else {
+      return -1;
+    }
+  }
+
   /**
    * Read in the size of the chunk.
    *
@@ -628,17 +1052,11 @@ public class TransmissionBuffer implements Buffer {
    * @return the size in bytes.
    */
   private int readChunkSize(int position) {
-    return ((((int) getBuf(position + 3)) & 0xFF)) +
-            ((((int) getBuf(position + 2)) & 0xFF) << 8) +
-            ((((int) getBuf(position + 1)) & 0xFF) << 16) +
-            ((((int) getBuf(position)) & 0xFF) << 24);
+    return _buffer.getInt(position);
   }
 
   private void writeChunkSize(int position, int size) {
-    writeBuf(position, (byte) ((size >> 24) & 0xFF));
-    writeBuf(position + 1, (byte) ((size >> 16) & 0xFF));
-    writeBuf(position + 2, (byte) ((size >> 8) & 0xFF));
-    writeBuf(position + 3, (byte) (size & 0xFF));
+    _buffer.putInt(position, size);
   }
 
   private byte getBuf(int idx) {
@@ -649,6 +1067,113 @@ public class TransmissionBuffer implements Buffer {
     _buffer.put(idx, v);
   }
 
+  /**
+   * Reads exactly {@param length} bytes from the <tt>InputStream</tt> into the buffer at the specified position.
+   *
+   * @throws EOFException if the stream ends first.
+   */
+  private void readFully(final InputStream inputStream, final int position, final int length) throws IOException {
+    if (_buffer.hasArray()) {
+      final byte[] array = _buffer.array();
+      final int offset = _buffer.arrayOffset() + position;
+
+      int read = 0;
+      int r;
+      while (read < length && (r = inputStream.read(array, offset + read, length - read)) != -1) {
+        read += r;
+      }
+      checkEndOfStream(read, length);
+    }
+    else {
+      final byte[] chunk = new byte[length < COPY_CHUNK_SIZE ? length : COPY_CHUNK_SIZE];
+      final ByteBuffer dupBuf = _buffer.duplicate();
+      dupBuf.clear();
+      dupBuf.position(position);
+
+      int read = 0;
+      int r;
+      while (read < length
+              && (r = inputStream.read(chunk, 0, Math.min(chunk.length, length - read))) != -1) {
+        dupBuf.put(chunk, 0, r);
+        read += r;
+      }
+      checkEndOfStream(read, length);
+    }
+  }
+
+  private static void checkEndOfStream(final int read, final int length) throws EOFException {
+    if (read < length) {
+      throw new EOFException("stream ended after " + read + " of " + length + " bytes");
+    }
+  }
+
+  /**
+   * Marks the segments of a chunk which could not be completely written as discarded, so that no reader reads them.
+   *
+   * @param writeHead the sequence number of the first segment of the chunk.
+   */
+  private void discard(final long writeHead) {
+    final int seq = (int) writeHead % segments;
+    for (int i = 0; i < allocSizes[seq]; i++) {
+      writeSeg((seq + i) % segments, BufferColor.DISCARDED_COLOR);
+    }
+  }
+
+  private void putBytes(final int position, final byte[] src, final int offset, final int length) {
+    if (_buffer.hasArray()) {
+      System.arraycopy(src, offset, _buffer.array(), _buffer.arrayOffset() + position, length);
+    }
+    else {
+      final ByteBuffer dupBuf = _buffer.duplicate();
+      dupBuf.clear();
+      dupBuf.position(position);
+      dupBuf.put(src, offset, length);
+    }
+  }
+
+  private void putBytes(final int position, final ByteBuffer src, final int length) {
+    final ByteBuffer slice = src.duplicate();
+    slice.limit(slice.position() + length);
+
+    final ByteBuffer dupBuf = _buffer.duplicate();
+    dupBuf.clear();
+    dupBuf.position(position);
+    dupBuf.put(slice);
+
+    src.position(src.position() + length);
+  }
+
+  private void writeRange(final OutputStream outputStream, final int position, final int length) throws IOException {
+    if (_buffer.hasArray()) {
+      outputStream.write(_buffer.array(), _buffer.arrayOffset() + position, length);
+    }
+    else {
+      final byte[] chunk = new byte[length < COPY_CHUNK_SIZE ? length : COPY_CHUNK_SIZE];
+      final ByteBuffer dupBuf = _buffer.duplicate();
+      dupBuf.clear();
+      dupBuf.position(position);
+
+      int remaining = length;
+      while (remaining > 0) {
+        final int len = remaining < chunk.length ? remaining : chunk.length;
+        dupBuf.get(chunk, 0, len);
+        outputStream.write(chunk, 0, len);
+        remaining -= len;
+      }
+    }
+  }
+
+  private void drainRange(final WritableByteChannel channel, final int position, final int length) throws IOException {
+    final ByteBuffer slice = _buffer.duplicate();
+    slice.clear();
+    slice.position(position);
+    slice.limit(position + length);
+
+    while (slice.hasRemaining()) {
+      channel.write(slice);
+    }
+  }
+
   private short getSeg(int idx) {
     return segmentMap[idx];
   }
@@ -668,7 +1193,7 @@ public class TransmissionBuffer implements Buffer {
    * @throws IOException
    */
   private void checkOverflow(long colorSeq) throws IOException {
-    if (headSequence - segments > colorSeq) {
+    if (headSequence.get() - segments > colorSeq) {
       throw new IOException("buffer overflow");
     }
   }
@@ -677,7 +1202,7 @@ public class TransmissionBuffer implements Buffer {
     writer.println();
     writer.println("SEGMENT DUMP");
 
-    for (int i = 0; i < segmentMap.length && i < headSequence; i++) {
+    for (int i = 0; i < segmentMap.length && i < headSequence.get(); i++) {
       StringBuilder build = new StringBuilder();
       int pos = i * segmentSize;
       int length = readChunkSize(pos);
@@ -689,7 +1214,7 @@ public class TransmissionBuffer implements Buffer {
 
       ByteBuffer dupBuf = _buffer.duplicate();
       dupBuf.position(pos);
-      dupBuf.put(buf, 0, length);
+      dupBuf.get(buf, 0, length);
 
       build.append("::'").append(new String(buf)).append("'");
       length += SEGMENT_HEADER_SIZE;
@@ -708,7 +1233,7 @@ public class TransmissionBuffer implements Buffer {
   public List<String> dumpSegmentsAsList() {
     List<String> list = new ArrayList<String>();
 
-    for (int i = 0; i < segmentMap.length && i < headSequence; i++) {
+    for (int i = 0; i < segmentMap.length && i < headSequence.get(); i++) {
       int pos = i * segmentSize;
       int length = readChunkSize(pos);
 
@@ -718,7 +1243,7 @@ public class TransmissionBuffer implements Buffer {
 
       ByteBuffer dupBuf = _buffer.duplicate();
       dupBuf.position(pos);
-      dupBuf.put(buf, 0, length);
+      dupBuf.get(buf, 0, length);
 
       list.add(new String(buf));
 
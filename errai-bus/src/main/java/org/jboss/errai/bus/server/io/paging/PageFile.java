@@ -0,0 +1,441 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.io.paging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only file of length-prefixed records, accessed through memory-mapped regions. Each record is framed
+ * the same way as a chunk in the {@link org.jboss.errai.bus.server.io.buffers.TransmissionBuffer}: a 4-byte
+ * big-endian size followed by the data, so data drained from the buffer with
+ * {@link org.jboss.errai.bus.server.io.buffers.Buffer#readChunks(WritableByteChannel,
+ * org.jboss.errai.bus.server.io.buffers.BufferColor)} can be written to this file directly (this class is itself a
+ * <tt>WritableByteChannel</tt> which appends to the file).
+ * <p/>
+ * The boundaries of the records are indexed as they are appended, which allows records to be drained in part, and
+ * transferred to a channel in bulk. Once all the records have been drained, the file may be {@link #reset()} and
+ * reused, retaining its first mapped region. A file which is never fully drained is compacted instead, once the
+ * drained records at the start of it fill a region, so it does not grow for as long as it is written to.
+ * <p/>
+ * Regions which are no longer needed are unmapped straight away, rather than when they are garbage collected, so the
+ * memory and the disk space they hold are released with them.
+ * <p/>
+ * This class is not thread-safe. Callers must provide their own synchronization.
+ */
+public class PageFile implements WritableByteChannel {
+  private static final int HEADER_SIZE = 4;
+
+  private static final Method unsafeInvokeCleaner;
+  private static final Object unsafe;
+
+  static {
+    Method invokeCleaner = null;
+    Object theUnsafe = null;
+    try {
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      final Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      theUnsafe = field.get(null);
+    }
+    catch (Throwable t) {
+      // before Java 9, mappings are unmapped through their cleaner instead.
+      invokeCleaner = null;
+    }
+    unsafeInvokeCleaner = invokeCleaner;
+    unsafe = theUnsafe;
+  }
+
+  private final File file;
+  private final RandomAccessFile randomAccessFile;
+  private final FileChannel fileChannel;
+
+  /**
+   * The size in bytes of each mapped region of the file.
+   */
+  private final int regionSize;
+
+  private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+
+  /**
+   * The position in the file after the last byte appended.
+   */
+  private long writePosition = 0;
+
+  /**
+   * The position in the file after the last complete record which has been indexed.
+   */
+  private long indexedPosition = 0;
+
+  /**
+   * The starting positions of the indexed records.
+   */
+  private long[] recordPositions = new long[64];
+  private int recordCount = 0;
+
+  /**
+   * The index of the next record to be drained.
+   */
+  private int readRecord = 0;
+
+  private boolean open = true;
+
+  public PageFile(final File file, final int regionSize) throws IOException {
+    this.file = file;
+    this.regionSize = regionSize;
+
+    if (!file.exists()) {
+      file.getParentFile().mkdirs();
+      file.createNewFile();
+      file.deleteOnExit();
+    }
+
+    this.randomAccessFile = new RandomAccessFile(file, "rw");
+    this.fileChannel = randomAccessFile.getChannel();
+  }
+
+  /**
+   * Appends raw bytes to the end of the file. The bytes are expected to be framed records, although they may be
+   * written across multiple calls; records are indexed as soon as they are complete.
+   *
+   * @param src the bytes to append.
+   * @return the number of bytes appended.
+   * @throws IOException
+   */
+  @Override
+  public int write(final ByteBuffer src) throws IOException {
+    final int length = src.remaining();
+    put(writePosition, src);
+    writePosition += length;
+    index();
+    return length;
+  }
+
+  /**
+   * Appends a single record with the specified data to the end of the file.
+   *
+   * @param bytes  the byte array containing the data.
+   * @param offset the offset of the data in the array.
+   * @param length the length of the data.
+   * @throws IOException
+   */
+  public void append(final byte[] bytes, final int offset, final int length) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(0, length);
+
+    put(writePosition, header);
+    put(writePosition + HEADER_SIZE, ByteBuffer.wrap(bytes, offset, length));
+    writePosition += HEADER_SIZE + length;
+    index();
+  }
+
+  /**
+   * Appends a single record with the available contents of the specified <tt>InputStream</tt>.
+   *
+   * @param inputStream the input stream to read the data from.
+   * @throws IOException
+   */
+  public void append(final InputStream inputStream) throws IOException {
+    final byte[] bytes = new byte[inputStream.available()];
+
+    int read = 0;
+    int r;
+    while (read < bytes.length && (r = inputStream.read(bytes, read, bytes.length - read)) != -1) {
+      read += r;
+    }
+
+    append(bytes, 0, read);
+  }
+
+  /**
+   * Drains up to the specified number of records to the channel, writing the delimiter between the data of
+   * each non-empty record. The data is transferred directly from the mapped regions of the file.
+   *
+   * @param channel    the channel to drain to.
+   * @param maxRecords the maximum number of records to drain.
+   * @param delimiter  the delimiter to write between records.
+   * @return the number of non-empty records written to the channel.
+   * @throws IOException
+   */
+  public int drainTo(final WritableByteChannel channel, final int maxRecords, final byte delimiter)
+          throws IOException {
+    final ByteBuffer delimiterBuffer = ByteBuffer.wrap(new byte[]{delimiter});
+
+    int written = 0;
+    for (int i = 0; i < maxRecords && readRecord < recordCount; i++) {
+      final long position = recordPositions[readRecord++];
+      final int length = getInt(position);
+
+      if (length == 0) continue;
+
+      if (written++ > 0) {
+        delimiterBuffer.rewind();
+        while (delimiterBuffer.hasRemaining()) {
+          channel.write(delimiterBuffer);
+        }
+      }
+      transfer(position + HEADER_SIZE, length, channel);
+    }
+
+    if (readRecord == recordCount && indexedPosition == writePosition) {
+      reset();
+    }
+    else {
+      compact();
+    }
+
+    return written;
+  }
+
+  /**
+   * Returns true if there are no records waiting to be drained.
+   *
+   * @return true if the file is drained.
+   */
+  public boolean isDrained() {
+    return readRecord == recordCount;
+  }
+
+  /**
+   * Returns the number of records waiting to be drained.
+   *
+   * @return the number of records.
+   */
+  public int getRecordCount() {
+    return recordCount - readRecord;
+  }
+
+  /**
+   * Returns the number of regions of the file which are currently mapped.
+   *
+   * @return the number of mapped regions.
+   */
+  public int getMappedRegionCount() {
+    return regions.size();
+  }
+
+  /**
+   * Discards all the records in this file, so it may be written from the beginning again. The file and its first
+   * mapped region are retained.
+   */
+  public void reset() {
+    writePosition = 0;
+    indexedPosition = 0;
+    recordCount = 0;
+    readRecord = 0;
+
+    if (open) {
+      releaseRegionsFrom(1);
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public void close() throws IOException {
+    open = false;
+    for (MappedByteBuffer region : regions) {
+      unmap(region);
+    }
+    regions.clear();
+    fileChannel.close();
+    randomAccessFile.close();
+  }
+
+  /**
+   * Closes and deletes the underlying file.
+   */
+  public void delete() {
+    try {
+      close();
+    }
+    catch (IOException e) {
+      // we're deleting it anyway.
+    }
+    file.delete();
+  }
+
+  private void index() throws IOException {
+    while (writePosition - indexedPosition >= HEADER_SIZE) {
+      final long end = indexedPosition + HEADER_SIZE + getInt(indexedPosition);
+      if (end > writePosition) return;
+
+      if (recordCount == recordPositions.length) {
+        final long[] newPositions = new long[recordPositions.length * 2];
+        System.arraycopy(recordPositions, 0, newPositions, 0, recordCount);
+        recordPositions = newPositions;
+      }
+
+      recordPositions[recordCount++] = indexedPosition;
+      indexedPosition = end;
+    }
+  }
+
+  /**
+   * Moves the records which have not been drained to the start of the file, once the drained records before them
+   * fill at least a region. The records are only moved when they fit in the space already drained, so they are never
+   * copied over themselves, and each byte is moved at most once for every byte drained before it.
+   */
+  private void compact() throws IOException {
+    final long readPosition = readRecord < recordCount ? recordPositions[readRecord] : indexedPosition;
+    final long remaining = writePosition - readPosition;
+    if (readPosition < regionSize || remaining > readPosition) return;
+
+    copy(readPosition, 0, remaining);
+
+    recordCount -= readRecord;
+    for (int i = 0; i < recordCount; i++) {
+      recordPositions[i] = recordPositions[i + readRecord] - readPosition;
+    }
+    readRecord = 0;
+    indexedPosition -= readPosition;
+    writePosition = remaining;
+
+    releaseRegionsFrom(Math.max(1, (int) ((writePosition + regionSize - 1) / regionSize)));
+  }
+
+  private void copy(long from, long to, long length) throws IOException {
+    while (length > 0) {
+      final ByteBuffer source = getRegion((int) (from / regionSize)).duplicate();
+      final int offset = (int) (from % regionSize);
+      final int chunk = (int) Math.min(Math.min(regionSize - offset, regionSize - to % regionSize), length);
+
+      source.clear();
+      source.position(offset);
+      source.limit(offset + chunk);
+      put(to, source);
+
+      from += chunk;
+      to += chunk;
+      length -= chunk;
+    }
+  }
+
+  /**
+   * Unmaps the regions from the specified index onwards, and truncates the file to the regions that are left.
+   */
+  private void releaseRegionsFrom(final int index) {
+    if (regions.size() <= index) return;
+
+    while (regions.size() > index) {
+      unmap(regions.remove(regions.size() - 1));
+    }
+
+    try {
+      fileChannel.truncate((long) index * regionSize);
+    }
+    catch (IOException e) {
+      // the space is reclaimed when the file is next truncated or deleted.
+    }
+  }
+
+  private MappedByteBuffer getRegion(final int index) throws IOException {
+    while (regions.size() <= index) {
+      regions.add(fileChannel.map(FileChannel.MapMode.READ_WRITE, (long) regions.size() * regionSize, regionSize));
+    }
+    return regions.get(index);
+  }
+
+  private void put(long position, final ByteBuffer src) throws IOException {
+    while (src.hasRemaining()) {
+      final ByteBuffer region = getRegion((int) (position / regionSize)).duplicate();
+      final int offset = (int) (position % regionSize);
+      final int length = Math.min(regionSize - offset, src.remaining());
+
+      final ByteBuffer slice = src.duplicate();
+      slice.limit(slice.position() + length);
+
+      region.clear();
+      region.position(offset);
+      region.put(slice);
+
+      src.position(src.position() + length);
+      position += length;
+    }
+  }
+
+  private void transfer(long position, int length, final WritableByteChannel channel) throws IOException {
+    while (length > 0) {
+      final ByteBuffer region = getRegion((int) (position / regionSize)).duplicate();
+      final int offset = (int) (position % regionSize);
+      final int toWrite = Math.min(regionSize - offset, length);
+
+      region.clear();
+      region.position(offset);
+      region.limit(offset + toWrite);
+
+      while (region.hasRemaining()) {
+        channel.write(region);
+      }
+
+      length -= toWrite;
+      position += toWrite;
+    }
+  }
+
+  private int getInt(final long position) throws IOException {
+    final int offset = (int) (position % regionSize);
+    if (regionSize - offset >= HEADER_SIZE) {
+      return getRegion((int) (position / regionSize)).getInt(offset);
+    }
+
+    // the header straddles two regions.
+    int value = 0;
+    for (int i = 0; i < HEADER_SIZE; i++) {
+      final long p = position + i;
+      value = (value << 8) | (getRegion((int) (p / regionSize)).get((int) (p % regionSize)) & 0xFF);
+    }
+    return value;
+  }
+
+  /**
+   * Unmaps the region. If the JVM offers no way to do that, the region is left to be unmapped when it is garbage
+   * collected. The region must not be used afterwards.
+   */
+  private static void unmap(final MappedByteBuffer region) {
+    try {
+      if (unsafeInvokeCleaner != null) {
+        unsafeInvokeCleaner.invoke(unsafe, region);
+      }
+      else {
+        final Method cleanerMethod = region.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        final Object cleaner = cleanerMethod.invoke(region);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+      }
+    }
+    catch (Throwable t) {
+      // left to the garbage collector.
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.io.paging;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of {@link PageFile}s in a directory. Page files are acquired by queues when they are paged out, and
+ * released back to the store when they have been drained, so that files (and their mappings) are recycled rather
+ * than a new file being created for every session.
+ */
+public class PageFileStore {
+  public static final int DEFAULT_REGION_SIZE = 1024 * 1024;        /* 1 Megabyte */
+  public static final int DEFAULT_MAX_IDLE_FILES = 64;
+
+  private final File directory;
+  private final int regionSize;
+  private final int maxIdleFiles;
+
+  private final Queue<PageFile> idleFiles = new ConcurrentLinkedQueue<PageFile>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  private final AtomicInteger fileCounter = new AtomicInteger();
+
+  public PageFileStore(final File directory) {
+    this(directory, DEFAULT_REGION_SIZE, DEFAULT_MAX_IDLE_FILES);
+  }
+
+  public PageFileStore(final File directory, final int regionSize, final int maxIdleFiles) {
+    this.directory = directory;
+    this.regionSize = regionSize;
+    this.maxIdleFiles = maxIdleFiles;
+  }
+
+  /**
+   * Returns an empty page file, recycling an idle file if one is available.
+   *
+   * @return an empty page file.
+   * @throws IOException thrown if a new file cannot be created.
+   */
+  public PageFile acquire() throws IOException {
+    final PageFile pageFile = idleFiles.poll();
+    if (pageFile != null) {
+      idleCount.decrementAndGet();
+      return pageFile;
+    }
+
+    return new PageFile(new File(directory, "page" + fileCounter.incrementAndGet()), regionSize);
+  }
+
+  /**
+   * Returns a page file to the store. The file is reset and kept for reuse, unless the store already has the
+   * maximum number of idle files, in which case it is deleted.
+   *
+   * @param pageFile the page file to release.
+   */
+  public void release(final PageFile pageFile) {
+    pageFile.reset();
+
+    if (idleCount.incrementAndGet() <= maxIdleFiles) {
+      idleFiles.add(pageFile);
+    }
+    else {
+      idleCount.decrementAndGet();
+      pageFile.delete();
+    }
+  }
+
+  public int getIdleCount() {
+    return idleCount.get();
+  }
+}
@@ -1,17 +1,112 @@
 package org.jboss.errai.bus.server.io.websockets;
 
+import io.netty.buffer.ChannelBuffer;
+import io.netty.buffer.ChannelBuffers;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
-import org.jboss.errai.bus.server.io.QueueChannel;
+import io.netty.util.CharsetUtil;
+import org.jboss.errai.bus.server.io.BatchingQueueChannel;
+import org.jboss.errai.marshalling.server.util.UTF8Encoder;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.slf4j.LoggerFactory.getLogger;
 
 /**
+ * A queue channel over a Netty websocket. Messages are encoded as UTF-8 straight into a channel buffer, and the
+ * messages written while the previous frame is still being sent are coalesced into the next frame, so that there is
+ * at most one frame in flight on the channel at a time. A single message written to an idle channel is sent
+ * straight away.
+ * <p/>
+ * The data waiting to be sent is bounded: once it reaches {@link #MAX_PENDING_BYTES}, {@link #isWritable()} returns
+ * false, so the queue holds its messages in the bus buffer, and the queue is woken through the drain callback once
+ * the channel has caught up.
+ * <p/>
+ * Frames are still sent as text frames, since that is what the client bus reads.
+ *
  * @author Mike Brock
  */
-public class NettyQueueChannel implements QueueChannel {
+public class NettyQueueChannel implements BatchingQueueChannel {
+  private static final Logger log = getLogger(NettyQueueChannel.class);
+
+  /**
+   * The most messages that are sent in one frame.
+   */
+  private static final int MAX_BATCH_SIZE = 256;
+
+  /**
+   * Frame buffers up to this size are kept for the next frame once they have been sent.
+   */
+  private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * The most data held waiting to be sent before the channel stops accepting writes. Messages are counted in
+   * characters, which is close enough to their encoded size for a bound.
+   */
+  static final int MAX_PENDING_BYTES = 1024 * 1024;
+
   final Channel channel;
 
+  /**
+   * The messages and pre-assembled frames waiting to be sent. A message is a <tt>String</tt>, and a frame is a
+   * <tt>ChannelBuffer</tt>.
+   */
+  private final Queue<Object> pending = new ConcurrentLinkedQueue<Object>();
+
+  /**
+   * The size of everything in {@link #pending}.
+   */
+  private final AtomicInteger pendingBytes = new AtomicInteger();
+
+  /**
+   * Set once the pending data has reached its bound, until the drain callback has been run.
+   */
+  private final AtomicBoolean full = new AtomicBoolean();
+
+  /**
+   * Run once the pending data has drained below its bound, after having reached it.
+   */
+  private final Runnable drained;
+
+  /**
+   * Held by the thread assembling a frame, and then until that frame has been written to the socket.
+   */
+  private final AtomicBoolean sending = new AtomicBoolean();
+
+  /**
+   * A frame buffer which has been sent, kept to assemble the next frame into.
+   */
+  private final AtomicReference<ChannelBuffer> spareBuffer = new AtomicReference<ChannelBuffer>();
+
+  /**
+   * Why the channel failed, once a frame could not be written.
+   */
+  private volatile Throwable failure;
+
   public NettyQueueChannel(Channel channel) {
+    this(channel, null);
+  }
+
+  /**
+   * @param channel the websocket channel.
+   * @param drained run once the channel is writable again after {@link #isWritable()} returned false because too
+   *                much data was waiting to be sent, or null.
+   */
+  public NettyQueueChannel(Channel channel, Runnable drained) {
     this.channel = channel;
+    this.drained = drained;
   }
 
   @Override
@@ -20,12 +115,186 @@ public class NettyQueueChannel implements QueueChannel {
   }
 
   @Override
-  public void write(String data) {
-    channel.write(new TextWebSocketFrame(data));
+  public boolean isWritable() {
+    return pendingBytes.get() < MAX_PENDING_BYTES && channel.isWritable();
+  }
+
+  /**
+   * Writes a frame which has already been assembled, in order with the messages and frames written before it.
+   */
+  @Override
+  public void write(final String data) throws IOException {
+    enqueue(ChannelBuffers.copiedBuffer(data, CharsetUtil.UTF_8));
+  }
+
+  @Override
+  public void writeMessage(final String payload) throws IOException {
+    enqueue(payload);
+  }
+
+  @Override
+  public void write(final byte[] data, final int offset, final int length) throws IOException {
+    enqueue(ChannelBuffers.copiedBuffer(data, offset, length));
+  }
+
+  private void enqueue(final Object item) throws IOException {
+    checkFailure();
+    pending.offer(item);
+    if (pendingBytes.addAndGet(sizeOf(item)) >= MAX_PENDING_BYTES) {
+      full.set(true);
+    }
+    flush();
+    checkFailure();
+  }
+
+  private Object dequeue() {
+    final Object item = pending.poll();
+    if (item != null) {
+      pendingBytes.addAndGet(-sizeOf(item));
+    }
+    return item;
+  }
+
+  private static int sizeOf(final Object item) {
+    return item instanceof String ? ((String) item).length() : ((ChannelBuffer) item).readableBytes();
   }
 
   @Override
   public String getId() {
     return String.valueOf(channel.getId());
   }
+
+  /**
+   * Once a frame has failed to be written, everything written afterwards fails too, so the queue stops writing to
+   * this channel rather than losing its messages.
+   */
+  private void checkFailure() throws IOException {
+    final Throwable cause = failure;
+    if (cause != null) {
+      throw new IOException("a previous write to the websocket failed: " + cause, cause);
+    }
+  }
+
+  /**
+   * Sends frames until there is nothing left to send, another thread is assembling one, or a frame is still in flight.
+   * The pending messages are picked up by whichever thread finishes that frame.
+   * <p/>
+   * Frames whose write completes before this method has registered for the completion are followed on in this loop,
+   * rather than from the completion listener, so a channel which completes writes inline never recurses.
+   */
+  private void flush() {
+    while (!pending.isEmpty() && failure == null && sending.compareAndSet(false, true)) {
+      final ChannelBuffer frame;
+      final boolean reusable;
+      if (pending.peek() instanceof ChannelBuffer) {
+        // a pre-assembled frame is sent on its own, so it ends the batch.
+        frame = (ChannelBuffer) dequeue();
+        reusable = false;
+      }
+      else {
+        frame = nextBatch();
+        if (frame == null) {
+          sending.set(false);
+          continue;
+        }
+        reusable = true;
+      }
+
+      // whichever of this thread and the completion listener gets here second carries on sending.
+      final AtomicBoolean handOff = new AtomicBoolean();
+      channel.write(new TextWebSocketFrame(frame)).addListener(new ChannelFutureListener() {
+        @Override
+        public void operationComplete(final ChannelFuture future) throws Exception {
+          sent(frame, reusable, future);
+          if (!handOff.compareAndSet(false, true)) {
+            flush();
+          }
+        }
+      });
+
+      if (handOff.compareAndSet(false, true)) {
+        return;
+      }
+    }
+  }
+
+  private void sent(final ChannelBuffer frame, final boolean reusable, final ChannelFuture future) {
+    if (!future.isSuccess()) {
+      fail(future.getCause() != null ? future.getCause() : new IOException("websocket write was cancelled"));
+    }
+    else if (reusable) {
+      recycle(frame);
+    }
+    sending.set(false);
+
+    if (drained != null && failure == null && pendingBytes.get() < MAX_PENDING_BYTES
+        && full.compareAndSet(true, false)) {
+      drained.run();
+    }
+  }
+
+  /**
+   * Fails the channel. The messages which were still waiting to be sent are counted in the log, and every later
+   * write throws, which makes the queue close this channel.
+   */
+  private void fail(final Throwable cause) {
+    failure = cause;
+
+    int lost = 0;
+    Object next;
+    while ((next = dequeue()) != null) {
+      lost += next instanceof String ? 1 : 0;
+    }
+    log.warn("write to websocket " + getId() + " failed; " + lost + " pending message(s) not sent", cause);
+  }
+
+  /**
+   * Assembles the pending messages, up to the next pre-assembled frame, into a single frame.
+   */
+  private ChannelBuffer nextBatch() {
+    ChannelBuffer frame = spareBuffer.getAndSet(null);
+    if (frame == null) {
+      frame = ChannelBuffers.dynamicBuffer(INITIAL_CAPACITY);
+    }
+
+    int count = 0;
+    Object next;
+    while (count < MAX_BATCH_SIZE && (next = pending.peek()) instanceof String) {
+      dequeue();
+
+      final String payload = (String) next;
+      frame.writeByte(count++ == 0 ? '[' : ',');
+      // encode into whatever room the frame has, and only grow it if the payload turns out not to fit.
+      frame.ensureWritableBytes(payload.length() + 1);
+      try {
+        encodeInto(frame, payload);
+      }
+      catch (BufferOverflowException e) {
+        frame.ensureWritableBytes(payload.length() * 3 + 1);
+        encodeInto(frame, payload);
+      }
+    }
+
+    if (count == 0) {
+      recycle(frame);
+      return null;
+    }
+
+    frame.writeByte(']');
+    return frame;
+  }
+
+  private static void encodeInto(final ChannelBuffer frame, final String payload) {
+    final ByteBuffer region = frame.toByteBuffer(frame.writerIndex(), frame.writableBytes());
+    final int start = region.position();
+    UTF8Encoder.encode(payload, region);
+    frame.writerIndex(frame.writerIndex() + region.position() - start);
+  }
+
+  private void recycle(final ChannelBuffer frame) {
+    if (frame.capacity() <= MAX_RETAINED_CAPACITY) {
+      frame.clear();
+      spareBuffer.compareAndSet(null, frame);
+    }
+  }
 }
@@ -20,12 +20,16 @@ package org.jboss.errai.bus.server.io.websockets;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.errai.bus.server.service.ErraiConfigAttribs;
 import org.jboss.errai.bus.server.service.ErraiService;
 import org.jboss.errai.bus.server.service.ErraiServiceConfigurator;
 import org.slf4j.Logger;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -39,18 +43,49 @@ public class WebSocketServer {
 
   private static final int DEFAULT_PORT = 8085;
 
+  /**
+   * The length of the queue of incoming connections waiting to be accepted.
+   */
+  private static final int ACCEPT_BACKLOG = 1024;
+
+  /**
+   * The number of channels which may be waiting for a decoder thread.
+   */
+  private static final int DECODER_QUEUE_SIZE = 1024;
+
   public WebSocketServer(ErraiService svc) {
     this.svc = svc;
   }
 
   public void start() {
-    int port = getWebSocketPort(svc.getConfiguration());
+    final ErraiServiceConfigurator config = svc.getConfiguration();
+    int port = getWebSocketPort(config);
 
-    // Configure the server.
+    // Configure the server. the factory only ever starts a single boss thread for the one bound socket, and the
+    // configured number of workers, so the executors are not otherwise bounded.
+    final int workerThreads = getWorkerThreads(config);
     final ServerBootstrap bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
-            Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+            Executors.newCachedThreadPool(), Executors.newCachedThreadPool(), workerThreads));
+
+    bootstrap.setOption("backlog", ACCEPT_BACKLOG);
+    bootstrap.setOption("reuseAddress", true);
+    bootstrap.setOption("child.tcpNoDelay", true);
+    bootstrap.setOption("child.keepAlive", true);
+
+    // a socket stops being writable above the high water mark, at which point the bus holds messages for it in the
+    // buffer, until it drains below the low water mark.
+    bootstrap.setOption("child.writeBufferHighWaterMark",
+            ErraiConfigAttribs.WEB_SOCKET_SERVER_WRITE_BUFFER_HIGH_WATER_MARK.getInt(config));
+    bootstrap.setOption("child.writeBufferLowWaterMark",
+            ErraiConfigAttribs.WEB_SOCKET_SERVER_WRITE_BUFFER_LOW_WATER_MARK.getInt(config));
 
-    final WebSocketServerPipelineFactory factory = new WebSocketServerPipelineFactory(svc);
+    // inbound frames are decoded off the I/O threads. when the decoders fall behind, the I/O thread decodes the
+    // frame itself, which stops it reading from its sockets until it has.
+    final int decoderThreads = Runtime.getRuntime().availableProcessors();
+    final ThreadPoolExecutor decoder = new ThreadPoolExecutor(decoderThreads, decoderThreads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(DECODER_QUEUE_SIZE), new ThreadPoolExecutor.CallerRunsPolicy());
+
+    final WebSocketServerPipelineFactory factory = new WebSocketServerPipelineFactory(svc, decoder);
 
     // Set up the event pipeline factory.
     bootstrap.setPipelineFactory(factory);
@@ -64,12 +99,21 @@ public class WebSocketServer {
         bootstrap.releaseExternalResources();
         factory.getWebSocketServerHandler().stop();
         server.close();
+        decoder.shutdown();
         svc = null;
         log.info("web socket server stopped.");
       }
     });
 
-    log.info("started web socket server on port: " + port);
+    log.info("started web socket server on port: " + port + " (" + workerThreads + " worker threads)");
+  }
+
+  private static int getWorkerThreads(ErraiServiceConfigurator config) {
+    Integer workerThreads = ErraiConfigAttribs.WEB_SOCKET_SERVER_WORKER_THREADS.getInt(config);
+    if (workerThreads == null || workerThreads < 1) {
+      workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+    }
+    return workerThreads;
   }
 
   public static int getWebSocketPort(ErraiServiceConfigurator config) {
@@ -20,6 +20,7 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelStateEvent;
 import io.netty.channel.ExceptionEvent;
 import io.netty.channel.MessageEvent;
 import io.netty.channel.SimpleChannelUpstreamHandler;
@@ -38,6 +39,7 @@ import io.netty.util.CharsetUtil;
 import org.jboss.errai.bus.client.api.Message;
 import org.jboss.errai.bus.client.api.QueueSession;
 import org.jboss.errai.bus.client.protocols.BusCommands;
+import org.jboss.errai.bus.server.api.MessageQueue;
 import org.jboss.errai.bus.server.io.MessageFactory;
 import org.jboss.errai.bus.server.service.ErraiService;
 import org.jboss.errai.bus.server.util.LocalContext;
@@ -47,7 +49,13 @@ import org.jboss.errai.marshalling.client.api.json.EJString;
 import org.jboss.errai.marshalling.server.JSONDecoder;
 
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.netty.handler.codec.http.HttpHeaders.isKeepAlive;
 import static io.netty.handler.codec.http.HttpHeaders.setContentLength;
@@ -66,13 +74,30 @@ public class WebSocketServerHandler extends SimpleChannelUpstreamHandler {
 
   public static final String WEBSOCKET_PATH = "/websocket.bus";
 
-  private final Map<Channel, QueueSession> activeChannels = new ConcurrentHashMap<Channel, QueueSession>();
+  /**
+   * The most inbound frames decoded for one channel before its decoder yields the worker to other channels.
+   */
+  private static final int DECODE_BATCH_SIZE = 64;
 
-  private WebSocketServerHandshaker handshaker = null;
-  private ErraiService svc;
+  /**
+   * The most inbound frames held for one channel waiting to be decoded. Once there are this many, reading from the
+   * channel is suspended until the decoder has caught up.
+   */
+  static final int MAX_PENDING_FRAMES = 1024;
+
+  private final Map<Channel, ActiveChannel> activeChannels = new ConcurrentHashMap<Channel, ActiveChannel>();
 
-  public WebSocketServerHandler(ErraiService bus) {
+  private ErraiService svc;
+  private final Executor decoder;
+
+  /**
+   * @param bus     the service.
+   * @param decoder the executor on which the frames received from active channels are decoded and stored to the bus,
+   *                so that the I/O threads are not held up by them.
+   */
+  public WebSocketServerHandler(ErraiService bus, Executor decoder) {
     this.svc = bus;
+    this.decoder = decoder;
   }
 
   @Override
@@ -93,25 +118,49 @@ public class WebSocketServerHandler extends SimpleChannelUpstreamHandler {
       return;
     }
 
-    // Handshake
+    // Handshake. this handler is shared by every channel, so the handshaker for the channel's protocol version is
+    // kept on the channel's context.
     WebSocketServerHandshakerFactory wsFactory = new WebSocketServerHandshakerFactory(
             this.getWebSocketLocation(req), null, false);
-    this.handshaker = wsFactory.newHandshaker(req);
-    if (this.handshaker == null) {
+    final WebSocketServerHandshaker handshaker = wsFactory.newHandshaker(req);
+    if (handshaker == null) {
       wsFactory.sendUnsupportedWebSocketVersionResponse(ctx.getChannel());
     }
     else {
-      this.handshaker.handshake(ctx.getChannel(), req);
+      ctx.setAttachment(handshaker);
+      handshaker.handshake(ctx.getChannel(), req);
     }
   }
 
+  /**
+   * Wakes the queue of a channel which has drained below its write buffer low water mark, so that the messages held
+   * in the bus buffer while it was above the high water mark are sent.
+   */
+  @Override
+  public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    final Channel channel = ctx.getChannel();
+    if (channel.isWritable()) {
+      final ActiveChannel active = activeChannels.get(channel);
+      if (active != null) {
+        svc.getBus().getQueue(active.session).wake();
+      }
+    }
+    super.channelInterestChanged(ctx, e);
+  }
+
+  @Override
+  public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    activeChannels.remove(ctx.getChannel());
+    super.channelClosed(ctx, e);
+  }
+
   private void handleWebSocketFrame(ChannelHandlerContext ctx, WebSocketFrame frame) {
 
     // Check for closing frame
     if (frame instanceof CloseWebSocketFrame) {
       activeChannels.remove(ctx.getChannel());
 
-      this.handshaker.close(ctx.getChannel(), (CloseWebSocketFrame) frame);
+      ((WebSocketServerHandshaker) ctx.getAttachment()).close(ctx.getChannel(), (CloseWebSocketFrame) frame);
       return;
     }
     if (frame instanceof PingWebSocketFrame) {
@@ -123,73 +172,77 @@ public class WebSocketServerHandler extends SimpleChannelUpstreamHandler {
               .getName()));
     }
 
+    final ActiveChannel active = activeChannels.get(ctx.getChannel());
+    if (active != null) {
+      // this is an active session. the frame is decoded and sent to the bus on a decoder thread rather than on
+      // this I/O thread.
+      active.receive(((TextWebSocketFrame) frame).getText());
+      return;
+    }
+
+    // this is not an active channel.
     @SuppressWarnings("unchecked") EJObject val = JSONDecoder.decode(((TextWebSocketFrame) frame).getText()).isObject();
 
     QueueSession session;
 
-    // this is not an active channel.
-    if (!activeChannels.containsKey(ctx.getChannel())) {
-      String commandType =  val.get(MessageParts.CommandType.name()).isString().stringValue();
-
-      // this client apparently wants to connect.
-      if (BusCommands.ConnectToQueue.name().equals(commandType)) {
-        String sessionKey = val.get(MessageParts.ConnectionSessionKey.name()).isString().stringValue();
+    String commandType =  val.get(MessageParts.CommandType.name()).isString().stringValue();
 
-        // has this client already attempted a connection, and is in a wait verify state
-        if (sessionKey != null && (session = svc.getBus().getSessionBySessionId(sessionKey)) != null) {
-          LocalContext localContext = LocalContext.get(session);
+    // this client apparently wants to connect.
+    if (BusCommands.ConnectToQueue.name().equals(commandType)) {
+      String sessionKey = val.get(MessageParts.ConnectionSessionKey.name()).isString().stringValue();
 
-          if (localContext.hasAttribute(SESSION_ATTR_WS_STATUS) &&
-                  WEBSOCKET_ACTIVE.equals(localContext.getAttribute(String.class, SESSION_ATTR_WS_STATUS))) {
+      // has this client already attempted a connection, and is in a wait verify state
+      if (sessionKey != null && (session = svc.getBus().getSessionBySessionId(sessionKey)) != null) {
+        LocalContext localContext = LocalContext.get(session);
 
-            // open the channel
-            activeChannels.put(ctx.getChannel(), session);
+        if (localContext.hasAttribute(SESSION_ATTR_WS_STATUS) &&
+                WEBSOCKET_ACTIVE.equals(localContext.getAttribute(String.class, SESSION_ATTR_WS_STATUS))) {
 
-            // set the session queue into direct channel mode.
-            svc.getBus().getQueueBySession(sessionKey).setDirectSocketChannel(new NettyQueueChannel(ctx.getChannel()));
+          // open the channel
+          activeChannels.put(ctx.getChannel(), new ActiveChannel(ctx.getChannel(), session));
 
-            // remove the web socket token so it cannot be re-used for authentication.
-            localContext.removeAttribute(MessageParts.WebSocketToken.name());
-            localContext.removeAttribute(SESSION_ATTR_WS_STATUS);
+          // set the session queue into direct channel mode. the queue is woken when the channel has drained.
+          final MessageQueue queue = svc.getBus().getQueueBySession(sessionKey);
+          queue.setDirectSocketChannel(new NettyQueueChannel(ctx.getChannel(), new Runnable() {
+            @Override
+            public void run() {
+              queue.wake();
+            }
+          }));
 
-            return;
-          }
+          // remove the web socket token so it cannot be re-used for authentication.
+          localContext.removeAttribute(MessageParts.WebSocketToken.name());
+          localContext.removeAttribute(SESSION_ATTR_WS_STATUS);
 
-          // check the activation key matches.
-          EJString activationKey = val.get(MessageParts.WebSocketToken.name()).isString();
-          if (activationKey == null || !WebSocketTokenManager.verifyOneTimeToken(session, activationKey.stringValue())) {
-            // nope. go away!
-            sendMessage(ctx, getFailedNegotiation("bad negotiation key"));
-          }
-          else {
-            // the key matches. now we send the reverse challenge to prove this client is actually
-            // already talking to the bus over the COMET channel.
-            String reverseToken = WebSocketTokenManager.getNewOneTimeToken(session);
-            localContext.setAttribute(MessageParts.WebSocketToken.name(), reverseToken);
-            localContext.setAttribute(SESSION_ATTR_WS_STATUS, WEBSOCKET_AWAIT_ACTIVATION);
-
-            // send the challenge.
-            sendMessage(ctx, getReverseChallenge(reverseToken));
-            return;
-          }
+          return;
+        }
 
-          sendMessage(ctx, getSuccessfulNegotiation());
+        // check the activation key matches.
+        EJString activationKey = val.get(MessageParts.WebSocketToken.name()).isString();
+        if (activationKey == null || !WebSocketTokenManager.verifyOneTimeToken(session, activationKey.stringValue())) {
+          // nope. go away!
+          sendMessage(ctx, getFailedNegotiation("bad negotiation key"));
         }
         else {
-          sendMessage(ctx, getFailedNegotiation("bad session id"));
+          // the key matches. now we send the reverse challenge to prove this client is actually
+          // already talking to the bus over the COMET channel.
+          String reverseToken = WebSocketTokenManager.getNewOneTimeToken(session);
+          localContext.setAttribute(MessageParts.WebSocketToken.name(), reverseToken);
+          localContext.setAttribute(SESSION_ATTR_WS_STATUS, WEBSOCKET_AWAIT_ACTIVATION);
+
+          // send the challenge.
+          sendMessage(ctx, getReverseChallenge(reverseToken));
+          return;
         }
+
+        sendMessage(ctx, getSuccessfulNegotiation());
       }
       else {
-        sendMessage(ctx, getFailedNegotiation("bad command"));
+        sendMessage(ctx, getFailedNegotiation("bad session id"));
       }
-
     }
     else {
-      // this is an active session. send the message.
-
-      session = activeChannels.get(ctx.getChannel());
-      Message msg = MessageFactory.createCommandMessage(session, ((TextWebSocketFrame) frame).getText());
-      svc.store(msg);
+      sendMessage(ctx, getFailedNegotiation("bad command"));
     }
   }
 
@@ -239,6 +292,91 @@ public class WebSocketServerHandler extends SimpleChannelUpstreamHandler {
             token + "\"}]";
   }
   
+  /**
+   * An open channel in direct mode. Its inbound frames are decoded and stored to the bus in the order they arrived,
+   * by one decoder thread at a time. At most {@link #MAX_PENDING_FRAMES} frames are held for the channel: beyond that,
+   * the channel stops being read, so a client sending faster than its frames are decoded is held back by TCP rather
+   * than filling the heap.
+   */
+  private class ActiveChannel implements Runnable {
+    private final Channel channel;
+    private final QueueSession session;
+    private final Queue<String> frames = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger frameCount = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Whether reading from the channel has been suspended. Only changed while holding the lock on this object.
+     */
+    private volatile boolean suspended;
+
+    private ActiveChannel(final Channel channel, final QueueSession session) {
+      this.channel = channel;
+      this.session = session;
+    }
+
+    private void receive(final String text) {
+      frames.offer(text);
+      if (frameCount.incrementAndGet() >= MAX_PENDING_FRAMES) {
+        suspendReading();
+      }
+      if (scheduled.compareAndSet(false, true)) {
+        schedule();
+      }
+    }
+
+    private void schedule() {
+      try {
+        decoder.execute(this);
+      }
+      catch (RejectedExecutionException e) {
+        // the server is shutting down.
+        frames.clear();
+        frameCount.set(0);
+      }
+    }
+
+    private synchronized void suspendReading() {
+      if (!suspended && frameCount.get() >= MAX_PENDING_FRAMES) {
+        suspended = true;
+        channel.setReadable(false);
+      }
+    }
+
+    /**
+     * Starts reading again once the decoder has caught up with half of the frames held.
+     */
+    private synchronized void resumeReading() {
+      if (suspended && frameCount.get() <= MAX_PENDING_FRAMES / 2) {
+        suspended = false;
+        channel.setReadable(true);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        String text;
+        int decoded = 0;
+        while (decoded++ < DECODE_BATCH_SIZE && (text = frames.poll()) != null) {
+          if (frameCount.decrementAndGet() <= MAX_PENDING_FRAMES / 2 && suspended) {
+            resumeReading();
+          }
+          final Message msg = MessageFactory.createCommandMessage(session, text);
+          if (msg != null) {
+            svc.store(msg);
+          }
+        }
+      }
+      finally {
+        scheduled.set(false);
+        if (!frames.isEmpty() && scheduled.compareAndSet(false, true)) {
+          schedule();
+        }
+      }
+    }
+  }
+
   public void stop() {
     for (Channel channel : activeChannels.keySet()) {
       channel.close();
@@ -25,6 +25,8 @@ import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
 import org.jboss.errai.bus.server.service.ErraiService;
 
+import java.util.concurrent.Executor;
+
 /**
  * @author Mike Brock
  */
@@ -32,9 +34,9 @@ public class WebSocketServerPipelineFactory implements ChannelPipelineFactory {
   private ErraiService svc;
   private WebSocketServerHandler webSocketServerHandler;
 
-  public WebSocketServerPipelineFactory(ErraiService service) {
+  public WebSocketServerPipelineFactory(ErraiService service, Executor decoder) {
     this.svc = service;
-    this.webSocketServerHandler = new WebSocketServerHandler(svc);
+    this.webSocketServerHandler = new WebSocketServerHandler(svc, decoder);
   }
 
   public ChannelPipeline getPipeline() throws Exception {
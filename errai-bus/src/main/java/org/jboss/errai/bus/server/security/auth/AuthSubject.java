@@ -18,16 +18,30 @@ package org.jboss.errai.bus.server.security.auth;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <tt>AuthSubject</tt> creates an entity that requires authentication. It contains the username, full name of the user,
  * and the roles of the user
+ * <p/>
+ * The subject also remembers the decisions that access rules have made for it, so that a rule only has to look at
+ * the subject's roles the first time it sees the subject. A new subject is created on every login, so a login or a
+ * logout always starts with no remembered decisions. If the roles of a subject are changed, call
+ * {@link #invalidateDecisions()}.
  */
 public class AuthSubject {
+  private static final long[] NO_DECISIONS = new long[0];
+
   protected String username;
   protected String fullname;
   protected Collection<Object> roles;
 
+  /**
+   * The remembered decisions, two bits per rule index: the low bit is set once the rule has decided, and the high
+   * bit if it granted access.
+   */
+  private final AtomicReference<long[]> decisions = new AtomicReference<long[]>(NO_DECISIONS);
+
   /**
    * Initializes the subject
    *
@@ -83,4 +97,52 @@ public class AuthSubject {
 
     return builder.toString();
   }
+
+  /**
+   * Gets the remembered decision of an access rule for this subject
+   *
+   * @param ruleIndex - the index of the rule
+   * @return true if the rule granted access, false if it denied access, or null if the rule has not decided yet
+   */
+  public Boolean getDecision(int ruleIndex) {
+    final long[] words = decisions.get();
+    final int word = ruleIndex >>> 5;
+    if (word >= words.length) {
+      return null;
+    }
+
+    final long bits = words[word] >>> ((ruleIndex & 31) << 1);
+    if ((bits & 1) == 0) {
+      return null;
+    }
+    return (bits & 2) != 0 ? Boolean.TRUE : Boolean.FALSE;
+  }
+
+  /**
+   * Remembers the decision of an access rule for this subject
+   *
+   * @param ruleIndex - the index of the rule
+   * @param granted   - true if the rule granted access
+   */
+  public void setDecision(int ruleIndex, boolean granted) {
+    final int word = ruleIndex >>> 5;
+    final long bits = (granted ? 3L : 1L) << ((ruleIndex & 31) << 1);
+
+    long[] current;
+    long[] updated;
+    do {
+      current = decisions.get();
+      updated = new long[Math.max(current.length, word + 1)];
+      System.arraycopy(current, 0, updated, 0, current.length);
+      updated[word] = (updated[word] & ~(3L << ((ruleIndex & 31) << 1))) | bits;
+    }
+    while (!decisions.compareAndSet(current, updated));
+  }
+
+  /**
+   * Forgets all remembered decisions, so that every rule looks at the roles of this subject again
+   */
+  public void invalidateDecisions() {
+    decisions.set(NO_DECISIONS);
+  }
 }
@@ -158,6 +158,10 @@ public class JAASAdapter implements AuthenticationAdapter {
 
   private void addAuthenticationToken(Message message, AuthSubject loginSubject) {
     QueueSession session = message.getResource(QueueSession.class, "Session");
+    AuthSubject previous = session.getAttribute(AuthSubject.class, ErraiService.SESSION_AUTH_DATA);
+    if (previous != null) {
+      previous.invalidateDecisions();
+    }
     session.setAttribute(ErraiService.SESSION_AUTH_DATA, loginSubject);
   }
 
@@ -170,7 +174,12 @@ public class JAASAdapter implements AuthenticationAdapter {
     boolean sessionEnded = isAuthenticated(message);
     if (sessionEnded) {
       getAuthDescriptor(message).remove(new SimpleRole(CredentialTypes.Authenticated.name()));
-      message.getResource(QueueSession.class, "Session").removeAttribute(ErraiService.SESSION_AUTH_DATA);
+      QueueSession session = message.getResource(QueueSession.class, "Session");
+      AuthSubject subject = session.getAttribute(AuthSubject.class, ErraiService.SESSION_AUTH_DATA);
+      if (subject != null) {
+        subject.invalidateDecisions();
+      }
+      session.removeAttribute(ErraiService.SESSION_AUTH_DATA);
       return true;
     }
     else {
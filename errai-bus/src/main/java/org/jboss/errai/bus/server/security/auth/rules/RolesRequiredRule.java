@@ -20,7 +20,6 @@ import org.jboss.errai.bus.client.api.ErrorCallback;
 import org.jboss.errai.bus.client.api.Message;
 import org.jboss.errai.bus.client.api.QueueSession;
 import org.jboss.errai.bus.client.framework.BooleanRoutingRule;
-import org.jboss.errai.bus.server.util.ServerBusTools;
 import org.jboss.errai.common.client.protocols.MessageParts;
 import org.jboss.errai.bus.client.protocols.SecurityCommands;
 import org.jboss.errai.bus.client.protocols.SecurityParts;
@@ -32,6 +31,7 @@ import org.jboss.errai.bus.server.service.ErraiService;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.jboss.errai.bus.client.api.base.MessageBuilder.createConversation;
 import static org.jboss.errai.bus.client.api.base.MessageBuilder.createMessage;
@@ -39,8 +39,18 @@ import static org.jboss.errai.bus.client.api.base.MessageBuilder.createMessage;
 /**
  * This routing rule specifies a set of required roles that a message must posess in order for this routing rule
  * to return true.
+ * <p/>
+ * The decision for a subject is remembered on the {@link AuthSubject} itself, so the roles of a subject are only
+ * checked against the rule the first time the subject sends a message to the service.
  */
 public class RolesRequiredRule implements BooleanRoutingRule {
+  private static final AtomicInteger ruleCounter = new AtomicInteger();
+
+  /**
+   * Identifies this rule's decision among those remembered by an {@link AuthSubject}.
+   */
+  private final int ruleIndex = ruleCounter.getAndIncrement();
+
   private Set<Object> requiredRoles;
   private ServerMessageBus bus;
 
@@ -83,7 +93,6 @@ public class RolesRequiredRule implements BooleanRoutingRule {
             .command(SecurityCommands.SecurityChallenge)
             .with(SecurityParts.CredentialsRequired, "Name,Password")
             .with(MessageParts.ReplyTo, ErraiService.AUTHORIZATION_SVC_SUBJECT)
-            .with(SecurityParts.RejectedMessage, ServerBusTools.encodeMessage(message))
             .copyResource("Session", message)
             .errorsHandledBy(new ErrorCallback() {
               public boolean error(Message message, Throwable throwable) {
@@ -96,7 +105,7 @@ public class RolesRequiredRule implements BooleanRoutingRule {
         return false;
       }
 
-      if (!subject.getRoles().containsAll(requiredRoles)) {
+      if (!isGranted(subject)) {
         createConversation(message)
             .toSubject("ClientErrorService")
             .with(MessageParts.ErrorMessage, "Access denied to service: "
@@ -113,6 +122,16 @@ public class RolesRequiredRule implements BooleanRoutingRule {
     }
   }
 
+  private boolean isGranted(final AuthSubject subject) {
+    if (requiredRoles.isEmpty()) return true;
+
+    Boolean granted = subject.getDecision(ruleIndex);
+    if (granted == null) {
+      subject.setDecision(ruleIndex, granted = subject.getRoles().containsAll(requiredRoles));
+    }
+    return granted;
+  }
+
   public String getRequiredRolesString() {
     StringBuilder builder = new StringBuilder();
     Iterator<Object> iter = requiredRoles.iterator();
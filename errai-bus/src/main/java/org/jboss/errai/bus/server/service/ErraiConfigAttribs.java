@@ -58,6 +58,59 @@ public enum ErraiConfigAttribs {
    */
   BUS_BUFFER_ALLOCATION_MODE("errai.bus.buffer_allocation_mode", "direct"),
 
+  /**
+   * The policy applied to the slowest queue when the amount of unread data in the buffer for it exceeds the
+   * {@link #BUS_BUFFER_HIGH_WATER_MARK}, before the buffer wraps around onto its unread data:
+   * <ul>
+   * <li>'page' - page the slow queue's waiting data to disk early.</li>
+   * <li>'drop' - disconnect the slow queue.</li>
+   * <li>'block' - block the sender of a message to a single client until the slow queue catches up, shedding the
+   * message if it does not do so within {@link #BUS_BUFFER_BLOCK_TIMEOUT}. Broadcasts are never blocked, since one slow
+   * client would hold them up for every client; the slow queue is paged to disk instead, as under 'page'.</li>
+   * <li>'none' - apply no backpressure.</li>
+   * </ul>
+   * <p/>
+   * Default value: 'page'
+   */
+  BUS_BUFFER_BACKPRESSURE_POLICY("errai.bus.buffer_backpressure_policy", "page"),
+
+  /**
+   * The percentage of the buffer which may be occupied by data not yet read by the slowest queue before the
+   * {@link #BUS_BUFFER_BACKPRESSURE_POLICY} is applied.
+   * <p/>
+   * Default value: 75
+   */
+  BUS_BUFFER_HIGH_WATER_MARK("errai.bus.buffer_high_water_mark", "75"),
+
+  /**
+   * The maximum time in milliseconds a producer is blocked under the 'block' backpressure policy.
+   * <p/>
+   * Default value: 1000
+   */
+  BUS_BUFFER_BLOCK_TIMEOUT("errai.bus.buffer_block_timeout", "1000"),
+
+  /**
+   * The number of I/O worker threads used by the embedded web socket server. Each worker services many sockets.
+   * <p/>
+   * Default value: twice the number of available processors
+   */
+  WEB_SOCKET_SERVER_WORKER_THREADS("errai.bus.web_socket_server.worker_threads"),
+
+  /**
+   * The number of bytes which may be waiting to be written to a web socket before the bus stops writing to it
+   * directly, and holds the messages for that client in the buffer instead.
+   * <p/>
+   * Default value: 65536
+   */
+  WEB_SOCKET_SERVER_WRITE_BUFFER_HIGH_WATER_MARK("errai.bus.web_socket_server.write_buffer_high_water_mark", "65536"),
+
+  /**
+   * The number of bytes a paused web socket must drain to before the bus resumes writing to it.
+   * <p/>
+   * Default value: 32768
+   */
+  WEB_SOCKET_SERVER_WRITE_BUFFER_LOW_WATER_MARK("errai.bus.web_socket_server.write_buffer_low_water_mark", "32768"),
+
   WEBSOCKET_SERVLET_ENABLED("errai.bus.websocket.servlet.enabled", "false"),
   WEBSOCKET_SERVLET_CONTEXT_PATH("errai.bus.websocket.servlet.path", "in.erraiBusWebSocket"),
 
@@ -83,12 +136,14 @@ public enum ErraiConfigAttribs {
 
   public Integer getInt(final ErraiServiceConfigurator configurator) {
     setDefaultValue(configurator);
-    return configurator.getIntProperty(getAttributeName());
+    final Integer value = configurator.getIntProperty(getAttributeName());
+    return value == null && defaultValue != null ? Integer.valueOf(defaultValue) : value;
   }
 
   public String get(final ErraiServiceConfigurator configurator) {
     setDefaultValue(configurator);
-    return configurator.getProperty(getAttributeName());
+    final String value = configurator.getProperty(getAttributeName());
+    return value == null ? defaultValue : value;
   }
 
   public void set(final ErraiServiceConfigurator configurator, final String value) {
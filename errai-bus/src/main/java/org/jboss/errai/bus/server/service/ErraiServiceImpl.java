@@ -25,11 +25,13 @@ import org.jboss.errai.bus.client.api.builder.DefaultRemoteCallBuilder;
 import org.jboss.errai.bus.client.framework.RequestDispatcher;
 import org.jboss.errai.bus.client.util.ErrorHelper;
 import org.jboss.errai.bus.server.DefaultTaskManager;
+import org.jboss.errai.bus.server.api.BatchRequestDispatcher;
 import org.jboss.errai.bus.server.api.ServerMessageBus;
 import org.jboss.errai.bus.server.api.SessionProvider;
 import org.jboss.errai.bus.server.io.websockets.WebSocketServer;
 import org.jboss.errai.bus.server.service.bootstrap.BootstrapContext;
 import org.jboss.errai.bus.server.service.bootstrap.OrderedBootstrap;
+import org.jboss.errai.common.client.protocols.MessageParts;
 import org.slf4j.Logger;
 
 import java.util.ArrayList;
@@ -102,10 +104,62 @@ public class ErraiServiceImpl<S> implements ErraiService<S> {
     }
   }
 
+  /**
+   * Passes off all the messages to the bus for handling. If the dispatcher supports it, the messages are dispatched
+   * in batches: messages flagged for priority processing are stored one at a time, and each run of messages between
+   * them is handed off as a single batch. If a hand-off fails, the error is reported for the messages of that batch
+   * and for the messages after it, which are not delivered; the messages before it are unaffected.
+   *
+   * @param messages - the messages to store/deliver
+   */
   @Override
   public void store(Collection<Message> messages) {
+    if (messages.size() < 2 || !(getDispatcher() instanceof BatchRequestDispatcher)) {
+      for (Message m : messages) {
+        store(m);
+      }
+      return;
+    }
+
+    final List<Message> pending = new ArrayList<Message>(messages.size());
     for (Message m : messages) {
-      store(m);
+      if (m != null) {
+        pending.add(m);
+      }
+    }
+
+    int start = 0;
+    while (start < pending.size()) {
+      if (pending.get(start).hasPart(MessageParts.PriorityProcessing)) {
+        store(pending.get(start++));
+        continue;
+      }
+
+      int end = start + 1;
+      while (end < pending.size() && !pending.get(end).hasPart(MessageParts.PriorityProcessing)) {
+        end++;
+      }
+
+      final List<Message> batch = pending.subList(start, end);
+      for (Message m : batch) {
+        m.addResources(config.getResourceProviders());
+      }
+
+      try {
+        ((BatchRequestDispatcher) getDispatcher()).dispatchGlobal(new ArrayList<Message>(batch));
+      }
+      catch (Throwable t) {
+        t.printStackTrace();
+        // the batch was not handed off, so neither it nor anything after it is delivered.
+        for (Message message : pending.subList(start, pending.size())) {
+          if (!message.hasResource("Exception")) {
+            message.setResource("Exception", t.getCause());
+            ErrorHelper.sendClientError(bus, message, t.getMessage(), t);
+          }
+        }
+        return;
+      }
+      start = end;
     }
   }
 
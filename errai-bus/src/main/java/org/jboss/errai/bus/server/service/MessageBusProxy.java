@@ -53,6 +53,25 @@ public class MessageBusProxy implements ServerMessageBus {
     }
   }
 
+  @Override
+  public void sendGlobal(List<Message> messages) {
+    Assert.notNull("messages cannot be null", messages);
+
+    if (proxyClosed) {
+      if (proxied instanceof ServerMessageBus) {
+        ((ServerMessageBus) proxied).sendGlobal(messages);
+      }
+      else {
+        for (Message message : messages) {
+          proxied.sendGlobal(message);
+        }
+      }
+    }
+    else {
+      heldGlobalMessages.addAll(messages);
+    }
+  }
+
   @Override
   public void send(Message message) {
     Assert.notNull("message cannot be null", message);
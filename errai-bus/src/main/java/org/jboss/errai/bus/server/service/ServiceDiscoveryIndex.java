@@ -0,0 +1,226 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent index of the services discovered by the {@link ServiceProcessor}: the name each service is
+ * subscribed under, its command endpoints and its remote interface. It is written to the Errai cache directory
+ * after services have been discovered, and read back on the next start with the same key, so that an unchanged
+ * deployment does not have to reflect on every service class again.
+ * <p/>
+ * The index is only a cache. If it is missing, was written for another key, or names a class or method which can
+ * no longer be resolved, it is ignored and the services are discovered from scratch.
+ */
+class ServiceDiscoveryIndex {
+  private static final Logger log = LoggerFactory.getLogger(ServiceDiscoveryIndex.class);
+
+  private static final String KEY = "key";
+  private static final String COUNT = "count";
+
+  private ServiceDiscoveryIndex() {
+  }
+
+  /**
+   * A discovered service.
+   */
+  static class Entry {
+    final Class<?> type;
+    final String name;
+    final boolean local;
+    final Map<String, Method> commandPoints;
+    final Class<?> remoteInterface;
+
+    Entry(final Class<?> type, final String name, final boolean local, final Map<String, Method> commandPoints,
+          final Class<?> remoteInterface) {
+      this.type = type;
+      this.name = name;
+      this.local = local;
+      this.commandPoints = commandPoints;
+      this.remoteInterface = remoteInterface;
+    }
+  }
+
+  /**
+   * Reads the index.
+   *
+   * @param file        the index file.
+   * @param key         the key the index must have been written with.
+   * @param classLoader the class loader with which to resolve the services.
+   * @return the services in the index, or null if there is no usable index.
+   */
+  static List<Entry> load(final File file, final String key, final ClassLoader classLoader) {
+    if (!file.exists()) {
+      return null;
+    }
+
+    final Properties index = new Properties();
+    try {
+      final InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+      try {
+        index.load(inputStream);
+      }
+      finally {
+        inputStream.close();
+      }
+    }
+    catch (IOException e) {
+      log.warn("could not read service index: " + file, e);
+      return null;
+    }
+
+    if (!key.equals(index.getProperty(KEY))) {
+      return null;
+    }
+
+    try {
+      final int count = Integer.parseInt(index.getProperty(COUNT));
+      final List<Entry> entries = new ArrayList<Entry>(count);
+
+      for (int i = 0; i < count; i++) {
+        final String prefix = "service." + i + ".";
+        final Class<?> type = Class.forName(index.getProperty(prefix + "class"), false, classLoader);
+
+        final String remote = index.getProperty(prefix + "remote");
+        final Class<?> remoteInterface = remote == null ? null : Class.forName(remote, false, classLoader);
+
+        final int commandCount = Integer.parseInt(index.getProperty(prefix + "commands"));
+        final Map<String, Method> commandPoints = new LinkedHashMap<String, Method>();
+        for (int c = 0; c < commandCount; c++) {
+          final String commandPrefix = prefix + "command." + c + ".";
+          final String params = index.getProperty(commandPrefix + "params");
+
+          final Class<?>[] parameterTypes;
+          if (params.length() == 0) {
+            parameterTypes = new Class<?>[0];
+          }
+          else {
+            final String[] names = params.split(",");
+            parameterTypes = new Class<?>[names.length];
+            for (int p = 0; p < names.length; p++) {
+              parameterTypes[p] = resolve(names[p], classLoader);
+            }
+          }
+
+          commandPoints.put(index.getProperty(commandPrefix + "name"),
+              type.getDeclaredMethod(index.getProperty(commandPrefix + "method"), parameterTypes));
+        }
+
+        entries.add(new Entry(type, index.getProperty(prefix + "name"),
+            Boolean.parseBoolean(index.getProperty(prefix + "local")), commandPoints, remoteInterface));
+      }
+
+      return Collections.unmodifiableList(entries);
+    }
+    catch (Exception e) {
+      log.info("service index is out of date and will be rebuilt (" + e + ")");
+      return null;
+    }
+  }
+
+  /**
+   * Writes the index, replacing any existing index.
+   *
+   * @param file    the index file.
+   * @param key     the key to write the index with.
+   * @param entries the discovered services.
+   */
+  static void store(final File file, final String key, final List<Entry> entries) {
+    final Properties index = new Properties();
+    index.setProperty(KEY, key);
+    index.setProperty(COUNT, String.valueOf(entries.size()));
+
+    int i = 0;
+    for (Entry entry : entries) {
+      final String prefix = "service." + i++ + ".";
+      index.setProperty(prefix + "class", entry.type.getName());
+      index.setProperty(prefix + "name", entry.name);
+      index.setProperty(prefix + "local", String.valueOf(entry.local));
+      if (entry.remoteInterface != null) {
+        index.setProperty(prefix + "remote", entry.remoteInterface.getName());
+      }
+
+      index.setProperty(prefix + "commands", String.valueOf(entry.commandPoints.size()));
+      int c = 0;
+      for (Map.Entry<String, Method> command : entry.commandPoints.entrySet()) {
+        final String commandPrefix = prefix + "command." + c++ + ".";
+        index.setProperty(commandPrefix + "name", command.getKey());
+        index.setProperty(commandPrefix + "method", command.getValue().getName());
+
+        final StringBuilder params = new StringBuilder();
+        for (Class<?> parameterType : command.getValue().getParameterTypes()) {
+          if (params.length() != 0) params.append(',');
+          params.append(parameterType.getName());
+        }
+        index.setProperty(commandPrefix + "params", params.toString());
+      }
+    }
+
+    // write to a temporary file first, so a concurrent start never reads a partly written index.
+    final File tmp = new File(file.getPath() + ".tmp");
+    try {
+      final OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tmp));
+      try {
+        index.store(outputStream, "errai service discovery index");
+      }
+      finally {
+        outputStream.close();
+      }
+
+      if (!tmp.renameTo(file)) {
+        file.delete();
+        if (!tmp.renameTo(file)) {
+          log.warn("could not write service index: " + file);
+        }
+      }
+    }
+    catch (IOException e) {
+      log.warn("could not write service index: " + file, e);
+      tmp.delete();
+    }
+  }
+
+  private static Class<?> resolve(final String name, final ClassLoader classLoader) throws ClassNotFoundException {
+    if ("boolean".equals(name)) return boolean.class;
+    if ("byte".equals(name)) return byte.class;
+    if ("char".equals(name)) return char.class;
+    if ("short".equals(name)) return short.class;
+    if ("int".equals(name)) return int.class;
+    if ("long".equals(name)) return long.class;
+    if ("float".equals(name)) return float.class;
+    if ("double".equals(name)) return double.class;
+    return Class.forName(name, false, classLoader);
+  }
+}
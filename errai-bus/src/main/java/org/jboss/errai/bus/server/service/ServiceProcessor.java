@@ -15,11 +15,19 @@
  */
 package org.jboss.errai.bus.server.service;
 
+import java.io.File;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.jboss.errai.bus.client.api.Local;
 import org.jboss.errai.bus.client.api.Message;
@@ -29,13 +37,17 @@ import org.jboss.errai.bus.client.framework.MessageBus;
 import org.jboss.errai.bus.client.framework.ProxyFactory;
 import org.jboss.errai.bus.client.framework.RequestDispatcher;
 import org.jboss.errai.bus.rebind.RebindUtils;
+import org.jboss.errai.bus.server.ErraiBootstrapFailure;
+import org.jboss.errai.bus.server.WorkerFactory;
 import org.jboss.errai.bus.server.annotations.Command;
 import org.jboss.errai.bus.server.annotations.Remote;
 import org.jboss.errai.bus.server.annotations.Service;
 import org.jboss.errai.bus.server.annotations.security.RequireAuthentication;
 import org.jboss.errai.bus.server.annotations.security.RequireRoles;
+import org.jboss.errai.bus.server.api.ServerMessageBus;
 import org.jboss.errai.bus.server.io.CommandBindingsCallback;
 import org.jboss.errai.bus.server.io.ConversationalEndpointCallback;
+import org.jboss.errai.bus.server.io.EndpointInvoker;
 import org.jboss.errai.bus.server.io.RemoteServiceCallback;
 import org.jboss.errai.bus.server.io.ServiceInstanceProvider;
 import org.jboss.errai.bus.server.security.auth.rules.RolesRequiredRule;
@@ -64,121 +76,251 @@ public class ServiceProcessor implements MetaDataProcessor<BootstrapContext> {
   // TODO need to exclude client classes based on GWT module definition
   private static final String CLIENT_PKG_REGEX = ".*(\\.client\\.).*";
 
+  private static final String INDEX_FILE_NAME = "errai-services.idx";
+
   @Override
   public void process(final BootstrapContext context, MetaDataScanner reflections) {
     final ErraiServiceConfiguratorImpl config = (ErraiServiceConfiguratorImpl) context.getConfig();
-    final Set<Class<?>> services = reflections.getTypesAnnotatedWithExcluding(Service.class, CLIENT_PKG_REGEX);
-
-    for (Class<?> loadClass : services) {
-      Object svc = null;
-
-      Service svcAnnotation = loadClass.getAnnotation(Service.class);
-      if (null == svcAnnotation) {
-        // Diagnose Errai-111
-        StringBuffer sb = new StringBuffer();
-        sb.append("Service annotation cannot be loaded. (See https://jira.jboss.org/browse/ERRAI-111)\n");
-        sb.append(loadClass.getSimpleName()).append(" loader: ").append(loadClass.getClassLoader()).append("\n");
-        sb.append("@Service loader:").append(Service.class.getClassLoader()).append("\n");
-        log.warn(sb.toString());
-        continue;
-      }
 
-      boolean local = loadClass.isAnnotationPresent(Local.class);
+    final List<ServiceDiscoveryIndex.Entry> services = discoverServices(reflections);
+    if (services.isEmpty()) return;
 
-      String svcName = svcAnnotation.value();
+    // one injector holds the bindings shared by every service. each service gets a child injector of its own.
+    final Injector parent = Guice.createInjector(new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(MessageBus.class).toInstance(context.getBus());
+        bind(RequestDispatcher.class).toInstance(context.getService().getDispatcher());
+        bind(TaskManager.class).toInstance(TaskManagerFactory.get());
 
-      // If no name is specified, just use the class name as the service by default.
-      if ("".equals(svcName)) {
-        svcName = loadClass.getSimpleName();
+        // Add any extension bindings.
+        for (Map.Entry<Class<?>, ResourceProvider> entry : config.getExtensionBindings().entrySet()) {
+          bind(entry.getKey()).toProvider(new GuiceProviderProxy(entry.getValue()));
+        }
       }
+    });
 
-      Map<String, Method> commandPoints = new HashMap<String, Method>();
-      for (final Method method : loadClass.getDeclaredMethods()) {
-        if (method.isAnnotationPresent(Command.class)) {
-          Command command = method.getAnnotation(Command.class);
-          for (String cmdName : command.value()) {
-            if (cmdName.equals("")) cmdName = method.getName();
-            commandPoints.put(cmdName, method);
-          }
+    final long replyTimeout = WorkerFactory.getWorkerTimeout(config);
+
+    // services are instantiated in parallel, but are subscribed to the bus one at a time, in the order in which they
+    // were discovered.
+    final List<Callable<ServiceRegistration>> tasks = new ArrayList<Callable<ServiceRegistration>>(services.size());
+    for (final ServiceDiscoveryIndex.Entry service : services) {
+      tasks.add(new Callable<ServiceRegistration>() {
+        @Override
+        public ServiceRegistration call() throws Exception {
+          return createService(service, parent, context, replyTimeout);
         }
-      }
+      });
+    }
+
+    boolean rpc = false;
+    for (ServiceRegistration registration : createServices(tasks)) {
+      registration.register(context.getBus());
+      rpc |= registration.rpcEndpoints != null;
+    }
+
+    if (rpc) {
+      // note: this method just exists because we want AbstractRemoteCallBuilder to be package private.
+      DefaultRemoteCallBuilder.setProxyFactory(Assert.notNull(new ProxyFactory() {
+        @Override
+        public <T> T getRemoteProxy(Class<T> proxyType) {
+          throw new RuntimeException("There is not yet an available Errai RPC implementation for the server-side environment.");
+        }
+      }));
+    }
+  }
+
+  /**
+   * Returns the services to start, from the discovery index if it is up to date, and otherwise by reflecting on
+   * the services found by the scanner, in which case the index is rewritten.
+   */
+  private List<ServiceDiscoveryIndex.Entry> discoverServices(final MetaDataScanner reflections) {
+    final File indexFile = new File(org.jboss.errai.common.metadata.RebindUtils.getErraiCacheDir(), INDEX_FILE_NAME);
+    final String key = org.jboss.errai.common.metadata.RebindUtils.getClasspathHash() + ":"
+        + reflections.getHashForTypesAnnotatedWith(null, Service.class);
+
+    List<ServiceDiscoveryIndex.Entry> services = ServiceDiscoveryIndex.load(indexFile, key, getClassLoader());
+    if (services != null) {
+      log.debug("loaded " + services.size() + " services from the service index");
+      return services;
+    }
 
-      Class remoteImpl = getRemoteImplementation(loadClass);
-      if (remoteImpl != null) {
-        svc = createRPCScaffolding(remoteImpl, loadClass, context);
+    services = new ArrayList<ServiceDiscoveryIndex.Entry>();
+    for (Class<?> loadClass : reflections.getTypesAnnotatedWithExcluding(Service.class, CLIENT_PKG_REGEX)) {
+      final ServiceDiscoveryIndex.Entry service = describeService(loadClass);
+      if (service != null) {
+        services.add(service);
       }
+    }
 
-      if (MessageCallback.class.isAssignableFrom(loadClass)) {
-        final Class<? extends MessageCallback> clazz = loadClass.asSubclass(MessageCallback.class);
-        log.debug("discovered service: " + clazz.getName());
-        try {
-          svc = Guice.createInjector(new AbstractModule() {
-            @Override
-            protected void configure() {
-              bind(MessageCallback.class).to(clazz);
-              bind(MessageBus.class).toInstance(context.getBus());
-              bind(RequestDispatcher.class).toInstance(context.getService().getDispatcher());
-              bind(TaskManager.class).toInstance(TaskManagerFactory.get());
-
-              // Add any extension bindings.
-              for (Map.Entry<Class<?>, ResourceProvider> entry : config.getExtensionBindings().entrySet()) {
-                bind(entry.getKey()).toProvider(new GuiceProviderProxy(entry.getValue()));
-              }
-            }
-          }).getInstance(MessageCallback.class);
+    ServiceDiscoveryIndex.store(indexFile, key, services);
+    return services;
+  }
+
+  private ServiceDiscoveryIndex.Entry describeService(final Class<?> loadClass) {
+    Service svcAnnotation = loadClass.getAnnotation(Service.class);
+    if (null == svcAnnotation) {
+      // Diagnose Errai-111
+      StringBuffer sb = new StringBuffer();
+      sb.append("Service annotation cannot be loaded. (See https://jira.jboss.org/browse/ERRAI-111)\n");
+      sb.append(loadClass.getSimpleName()).append(" loader: ").append(loadClass.getClassLoader()).append("\n");
+      sb.append("@Service loader:").append(Service.class.getClassLoader()).append("\n");
+      log.warn(sb.toString());
+      return null;
+    }
+
+    boolean local = loadClass.isAnnotationPresent(Local.class);
+
+    String svcName = svcAnnotation.value();
+
+    // If no name is specified, just use the class name as the service by default.
+    if ("".equals(svcName)) {
+      svcName = loadClass.getSimpleName();
+    }
+
+    Map<String, Method> commandPoints = new LinkedHashMap<String, Method>();
+    for (final Method method : loadClass.getDeclaredMethods()) {
+      if (method.isAnnotationPresent(Command.class)) {
+        Command command = method.getAnnotation(Command.class);
+        for (String cmdName : command.value()) {
+          if (cmdName.equals("")) cmdName = method.getName();
+          commandPoints.put(cmdName, method);
         }
-        catch (Throwable t) {
-          t.printStackTrace();
+      }
+    }
+
+    return new ServiceDiscoveryIndex.Entry(loadClass, svcName, local, commandPoints,
+        getRemoteImplementation(loadClass));
+  }
+
+  /**
+   * Runs the tasks which create the services, in parallel if there is more than one.
+   */
+  private static List<ServiceRegistration> createServices(final List<Callable<ServiceRegistration>> tasks) {
+    final List<ServiceRegistration> registrations = new ArrayList<ServiceRegistration>(tasks.size());
+    final int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+
+    try {
+      if (threads <= 1) {
+        for (Callable<ServiceRegistration> task : tasks) {
+          registrations.add(task.call());
         }
+        return registrations;
+      }
 
-        if (commandPoints.isEmpty()) {
-          // Subscribe the service to the bus.
-          if (local) {
-            context.getBus().subscribeLocal(svcName, (MessageCallback) svc);
+      final ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        for (Future<ServiceRegistration> future : executor.invokeAll(tasks)) {
+          try {
+            registrations.add(future.get());
           }
-          else {
-            context.getBus().subscribe(svcName, (MessageCallback) svc);
+          catch (ExecutionException e) {
+            throw e.getCause();
           }
         }
+        return registrations;
       }
+      finally {
+        executor.shutdownNow();
+      }
+    }
+    catch (RuntimeException e) {
+      throw e;
+    }
+    catch (Error e) {
+      throw e;
+    }
+    catch (Throwable t) {
+      throw new ErraiBootstrapFailure("could not create services", t);
+    }
+  }
+
+  private ServiceRegistration createService(final ServiceDiscoveryIndex.Entry service, final Injector parent,
+                                            final BootstrapContext context, final long replyTimeout) {
+    final Class<?> loadClass = service.type;
+    final ServiceRegistration registration = new ServiceRegistration(service);
+
+    Object svc = null;
 
-      if (svc == null) {
-        svc = Guice.createInjector(new AbstractModule() {
+    if (service.remoteInterface != null) {
+      svc = parent.createChildInjector().getInstance(loadClass);
+      registration.rpcEndpoints = createRPCEndpoints(service.remoteInterface, svc, context.getBus(), replyTimeout);
+    }
+
+    if (MessageCallback.class.isAssignableFrom(loadClass)) {
+      final Class<? extends MessageCallback> clazz = loadClass.asSubclass(MessageCallback.class);
+      log.debug("discovered service: " + clazz.getName());
+      try {
+        svc = parent.createChildInjector(new AbstractModule() {
           @Override
           protected void configure() {
-            bind(MessageBus.class).toInstance(context.getBus());
-            bind(RequestDispatcher.class).toInstance(context.getService().getDispatcher());
-            bind(TaskManager.class).toInstance(TaskManagerFactory.get());
-
-            // Add any extension bindings.
-            for (Map.Entry<Class<?>, ResourceProvider> entry : config.getExtensionBindings().entrySet()) {
-              bind(entry.getKey()).toProvider(new GuiceProviderProxy(entry.getValue()));
-            }
+            bind(MessageCallback.class).to(clazz);
           }
-        }).getInstance(loadClass);
+        }).getInstance(MessageCallback.class);
+      }
+      catch (Throwable t) {
+        t.printStackTrace();
       }
 
-      final Object targetService = svc;
-
-      RolesRequiredRule rule = null;
-      if (loadClass.isAnnotationPresent(RequireRoles.class)) {
-        rule = new RolesRequiredRule(loadClass.getAnnotation(RequireRoles.class).value(), context.getBus());
+      if (service.commandPoints.isEmpty()) {
+        registration.callback = (MessageCallback) svc;
       }
-      else if (loadClass.isAnnotationPresent(RequireAuthentication.class)) {
-        rule = new RolesRequiredRule(new HashSet<Object>(), context.getBus());
+    }
+
+    if (svc == null) {
+      svc = parent.createChildInjector().getInstance(loadClass);
+    }
+
+    if (!service.commandPoints.isEmpty()) {
+      registration.callback = new CommandBindingsCallback(service.commandPoints, svc, context.getBus());
+    }
+
+    if (loadClass.isAnnotationPresent(RequireRoles.class)) {
+      registration.rule = new RolesRequiredRule(loadClass.getAnnotation(RequireRoles.class).value(), context.getBus());
+    }
+    else if (loadClass.isAnnotationPresent(RequireAuthentication.class)) {
+      registration.rule = new RolesRequiredRule(new HashSet<Object>(), context.getBus());
+    }
+
+    return registration;
+  }
+
+  private static ClassLoader getClassLoader() {
+    final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    return classLoader != null ? classLoader : ServiceProcessor.class.getClassLoader();
+  }
+
+  /**
+   * A service which has been created, and is waiting to be subscribed to the bus.
+   */
+  private static class ServiceRegistration {
+    private final ServiceDiscoveryIndex.Entry service;
+    private Map<String, MessageCallback> rpcEndpoints;
+    private MessageCallback callback;
+    private RolesRequiredRule rule;
+
+    private ServiceRegistration(final ServiceDiscoveryIndex.Entry service) {
+      this.service = service;
+    }
+
+    private void register(final ServerMessageBus bus) {
+      if (rpcEndpoints != null) {
+        bus.subscribe(service.remoteInterface.getName() + ":RPC", new RemoteServiceCallback(rpcEndpoints));
       }
 
-      if (!commandPoints.isEmpty()) {
-        if (local) {
-          context.getBus().subscribeLocal(svcName, new CommandBindingsCallback(commandPoints, svc, context.getBus()));
+      if (callback != null) {
+        // Subscribe the service to the bus.
+        if (service.local) {
+          bus.subscribeLocal(service.name, callback);
         }
         else {
-          context.getBus().subscribe(svcName, new CommandBindingsCallback(commandPoints, svc, context.getBus()));
+          bus.subscribe(service.name, callback);
         }
       }
 
       if (rule != null) {
-        context.getBus().addRule(svcName, rule);
+        bus.addRule(service.name, rule);
       }
     }
   }
@@ -195,52 +337,26 @@ public class ServiceProcessor implements MetaDataProcessor<BootstrapContext> {
     return null;
   }
 
-  private static Object createRPCScaffolding(final Class remoteIface, final Class<?> type, final BootstrapContext context) {
-
-    final ErraiServiceConfiguratorImpl config = (ErraiServiceConfiguratorImpl) context.getConfig();
-    final Injector injector = Guice.createInjector(new AbstractModule() {
-      @Override
-      protected void configure() {
-        bind(MessageBus.class).toInstance(context.getBus());
-        bind(RequestDispatcher.class).toInstance(context.getService().getDispatcher());
-        bind(TaskManager.class).toInstance(TaskManagerFactory.get());
-
-        // Add any extension bindings.
-        for (Map.Entry<Class<?>, ResourceProvider> entry : config.getExtensionBindings().entrySet()) {
-          bind(entry.getKey()).toProvider(new GuiceProviderProxy(entry.getValue()));
-        }
-      }
-    });
-
-    final Object svc = injector.getInstance(type);
-
+  private static Map<String, MessageCallback> createRPCEndpoints(final Class<?> remoteIface, final Object svc,
+                                                                final MessageBus bus, final long replyTimeout) {
     final Map<String, MessageCallback> epts = new HashMap<String, MessageCallback>();
 
     // beware of classloading issues. better reflect on the actual instance
     for (Class<?> intf : svc.getClass().getInterfaces()) {
       for (final Method method : intf.getMethods()) {
         if (RebindUtils.isMethodInInterface(remoteIface, method)) {
-          epts.put(RebindUtils.createCallSignature(intf, method), new ConversationalEndpointCallback(new ServiceInstanceProvider() {
+          final ConversationalEndpointCallback endpoint = new ConversationalEndpointCallback(new ServiceInstanceProvider() {
             @Override
             public Object get(Message message) {
               return svc;
             }
-          }, method, context.getBus()));
+          }, EndpointInvoker.forMethod(method), bus);
+          endpoint.setReplyTimeout(replyTimeout);
+          epts.put(RebindUtils.createCallSignature(intf, method), endpoint);
         }
       }
     }
 
-    context.getBus().subscribe(remoteIface.getName() + ":RPC", new RemoteServiceCallback(epts));
-
-
-    // note: this method just exists because we want AbstractRemoteCallBuilder to be package private.
-    DefaultRemoteCallBuilder.setProxyFactory(Assert.notNull(new ProxyFactory() {
-      @Override
-      public <T> T getRemoteProxy(Class<T> proxyType) {
-        throw new RuntimeException("There is not yet an available Errai RPC implementation for the server-side environment.");
-      }
-    }));
-
-    return svc;
+    return epts;
   }
 }
@@ -28,7 +28,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import org.jboss.errai.bus.client.api.QueueSession;
 import org.jboss.errai.bus.client.api.base.DefaultErrorCallback;
+import org.jboss.errai.bus.client.framework.ClientMessageBus;
 import org.jboss.errai.bus.client.framework.MarshalledMessage;
 import org.jboss.errai.bus.client.protocols.BusCommands;
 import org.jboss.errai.bus.server.api.SessionProvider;
@@ -41,6 +43,11 @@ import org.jboss.errai.bus.server.service.ErraiService;
 public abstract class AbstractErraiServlet extends HttpServlet {
   private static final Charset UTF_8 = Charset.forName("UTF-8");
 
+  /**
+   * The request attribute under which the queue session for a request is kept, once it has been resolved.
+   */
+  public static final String QUEUE_SESSION_ATTRIBUTE = "org.jboss.errai.bus.QueueSession";
+
   /* New and configured errai service */
   protected ErraiService service;
 
@@ -83,6 +90,24 @@ public abstract class AbstractErraiServlet extends HttpServlet {
     service.stopService();
   }
 
+  /**
+   * Returns the queue session for the request. The session is resolved from the http session and the remote queue
+   * id header the first time, and kept on the request, so that a request which is dispatched more than once (a
+   * resumed continuation, or a series of comet events) resolves it only once.
+   *
+   * @param request - the request
+   * @return the queue session of the remote bus which made the request
+   */
+  protected QueueSession getQueueSession(final HttpServletRequest request) {
+    QueueSession session = (QueueSession) request.getAttribute(QUEUE_SESSION_ATTRIBUTE);
+    if (session == null || !session.isValid()) {
+      session = sessionProvider.getSession(request.getSession(),
+              request.getHeader(ClientMessageBus.REMOTE_QUEUE_ID_HEADER));
+      request.setAttribute(QUEUE_SESSION_ATTRIBUTE, session);
+    }
+    return session;
+  }
+
   /**
    * Writes the message to the output stream
    *
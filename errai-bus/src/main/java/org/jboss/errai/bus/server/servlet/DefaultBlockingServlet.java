@@ -31,7 +31,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.jboss.errai.bus.client.api.QueueSession;
-import org.jboss.errai.bus.client.framework.ClientMessageBus;
 import org.jboss.errai.bus.server.api.MessageQueue;
 import org.jboss.errai.bus.server.service.ErraiServiceConfigurator;
 
@@ -94,8 +93,7 @@ public class DefaultBlockingServlet extends AbstractErraiServlet implements Filt
   @Override
   protected void doGet(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse)
           throws ServletException, IOException {
-    pollForMessages(sessionProvider.getSession(httpServletRequest.getSession(),
-            httpServletRequest.getHeader(ClientMessageBus.REMOTE_QUEUE_ID_HEADER)),
+    pollForMessages(getQueueSession(httpServletRequest),
             httpServletRequest, httpServletResponse, ErraiServiceConfigurator.LONG_POLLING);
   }
 
@@ -111,8 +109,7 @@ public class DefaultBlockingServlet extends AbstractErraiServlet implements Filt
   @Override
   protected void doPost(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse)
           throws ServletException, IOException {
-    final QueueSession session = sessionProvider.getSession(httpServletRequest.getSession(),
-            httpServletRequest.getHeader(ClientMessageBus.REMOTE_QUEUE_ID_HEADER));
+    final QueueSession session = getQueueSession(httpServletRequest);
 
     service.store(createCommandMessage(session, httpServletRequest));
 
@@ -16,7 +16,6 @@
 
 package org.jboss.errai.bus.server.servlet;
 
-import static org.jboss.errai.bus.client.framework.ClientMessageBus.REMOTE_QUEUE_ID_HEADER;
 import static org.jboss.errai.bus.server.io.MessageFactory.createCommandMessage;
 
 import java.io.BufferedReader;
@@ -67,7 +66,7 @@ public class JBossCometServlet extends AbstractErraiServlet implements HttpEvent
   @Override
   public void event(final HttpEvent event) throws IOException, ServletException {
     final HttpServletRequest request = event.getHttpServletRequest();
-    final QueueSession session = sessionProvider.getSession(request.getSession(), request.getHeader("RemoteQueueID"));
+    final QueueSession session = getQueueSession(request);
 
     MessageQueue queue;
     switch (event.getType()) {
@@ -234,8 +233,7 @@ public class JBossCometServlet extends AbstractErraiServlet implements HttpEvent
       buffer.rewind();
     }
 
-    Message msg = createCommandMessage(sessionProvider.getSession(request.getSession(),
-        request.getHeader(REMOTE_QUEUE_ID_HEADER)), request, sb.toString());
+    Message msg = createCommandMessage(getQueueSession(request), request, sb.toString());
     if (msg != null) {
       try {
         service.store(msg);
@@ -27,7 +27,6 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.jboss.errai.bus.client.api.QueueSession;
 import org.jboss.errai.bus.client.api.base.DefaultErrorCallback;
-import org.jboss.errai.bus.client.framework.ClientMessageBus;
 import org.jboss.errai.bus.client.framework.MarshalledMessage;
 import org.jboss.errai.bus.server.api.MessageQueue;
 import org.jboss.errai.bus.server.api.QueueActivationCallback;
@@ -52,8 +51,7 @@ public class JettyContinuationsServlet extends AbstractErraiServlet {
   @Override
   protected void doGet(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse)
           throws ServletException, IOException {
-    pollForMessages(sessionProvider.getSession(httpServletRequest.getSession(),
-            httpServletRequest.getHeader(ClientMessageBus.REMOTE_QUEUE_ID_HEADER)),
+    pollForMessages(getQueueSession(httpServletRequest),
             httpServletRequest, httpServletResponse, true);
   }
 
@@ -70,8 +68,7 @@ public class JettyContinuationsServlet extends AbstractErraiServlet {
   protected void doPost(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse)
           throws ServletException, IOException {
 
-    final QueueSession session = sessionProvider.getSession(httpServletRequest.getSession(),
-            httpServletRequest.getHeader(ClientMessageBus.REMOTE_QUEUE_ID_HEADER));
+    final QueueSession session = getQueueSession(httpServletRequest);
 
     try {
       service.store(createCommandMessage(session, httpServletRequest));
@@ -28,7 +28,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.jboss.errai.bus.client.api.QueueSession;
-import org.jboss.errai.bus.client.framework.ClientMessageBus;
 import org.jboss.errai.bus.server.api.MessageQueue;
 import org.jboss.errai.bus.server.api.QueueActivationCallback;
 
@@ -44,8 +43,7 @@ public class StandardAsyncServlet extends AbstractErraiServlet {
   protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException,
       IOException {
 
-    final QueueSession session = sessionProvider.getSession(request.getSession(),
-        request.getHeader(ClientMessageBus.REMOTE_QUEUE_ID_HEADER));
+    final QueueSession session = getQueueSession(request);
 
     final MessageQueue queue = service.getBus().getQueue(session);
     if (queue == null) {
@@ -105,8 +103,7 @@ public class StandardAsyncServlet extends AbstractErraiServlet {
 
   @Override
   protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-    final QueueSession session = sessionProvider.getSession(request.getSession(),
-            request.getHeader(ClientMessageBus.REMOTE_QUEUE_ID_HEADER));
+    final QueueSession session = getQueueSession(request);
     try {
       service.store(createCommandMessage(session, request));
     }
@@ -32,6 +32,23 @@ public class SecureHashUtil {
 
   final static long[] saltTable;
 
+  /**
+   * The number of ids a thread's generator produces before it is reseeded from the shared generator.
+   */
+  private static final int RESEED_INTERVAL = 1 << 16;
+
+  /**
+   * A generator for each thread, so that threads creating ids do not contend for the shared generator, and never
+   * block waiting for the operating system's entropy pool. Each is seeded from the shared generator, which is seeded
+   * from the entropy pool once, when this class is loaded.
+   */
+  private static final ThreadLocal<ThreadGenerator> threadGenerator = new ThreadLocal<ThreadGenerator>() {
+    @Override
+    protected ThreadGenerator initialValue() {
+      return new ThreadGenerator();
+    }
+  };
+
   static {
     try {
       random = SecureRandom.getInstance(secureRandomAlgorithm);
@@ -82,7 +99,59 @@ public class SecureHashUtil {
    * @return a hex string representation of the hash.
    */
   public static String nextSecureHash(final String algorithm) {
-    return nextSecureHash(algorithm, SecureRandom.getSeed(128));
+    return nextSecureHash(algorithm, threadGenerator.get().nextBytes(new byte[128]));
+  }
+
+  /**
+   * Returns a new, random id of 256 bits, such as a session id, from a per-thread SHA1PRNG generator. Unlike
+   * {@link #nextSecureHash(String, byte[]...)}, this does no hashing, and never blocks for entropy, so it is cheap
+   * enough to call for every new session.
+   *
+   * @return a hex string representation of the id.
+   */
+  public static String nextSecureId() {
+    final byte[] bytes = threadGenerator.get().nextBytes(new byte[32]);
+
+    final char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+      hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+    }
+    return new String(hex);
+  }
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private static final class ThreadGenerator {
+    private final SecureRandom generator;
+    private int remaining;
+
+    private ThreadGenerator() {
+      try {
+        generator = SecureRandom.getInstance(secureRandomAlgorithm);
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException("runtime does not support secure random algorithm: " + secureRandomAlgorithm);
+      }
+      reseed();
+    }
+
+    private void reseed() {
+      final byte[] seed = new byte[32];
+      synchronized (random) {
+        random.nextBytes(seed);
+      }
+      generator.setSeed(seed);
+      remaining = RESEED_INTERVAL;
+    }
+
+    private byte[] nextBytes(final byte[] bytes) {
+      if (--remaining == 0) {
+        reseed();
+      }
+      generator.nextBytes(bytes);
+      return bytes;
+    }
   }
 
   /**
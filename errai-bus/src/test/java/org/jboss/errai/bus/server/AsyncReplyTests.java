@@ -0,0 +1,256 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.jboss.errai.bus.client.api.Message;
+import org.jboss.errai.bus.client.api.base.CommandMessage;
+import org.jboss.errai.bus.client.api.base.DefaultErrorCallback;
+import org.jboss.errai.bus.server.api.AsyncReply;
+import org.jboss.errai.bus.server.api.RpcContext;
+import org.jboss.errai.bus.server.io.ConversationalEndpointCallback;
+import org.jboss.errai.bus.server.io.ServiceInstanceProvider;
+import org.jboss.errai.bus.server.mock.MockErraiServiceConfigurator;
+import org.jboss.errai.common.client.protocols.MessageParts;
+
+/**
+ * Tests the replies sent by {@link ConversationalEndpointCallback}, including replies deferred with
+ * {@link RpcContext#deferReply()}.
+ */
+public class AsyncReplyTests extends TestCase {
+  private static final String REPLY_SUBJECT = "AsyncReplyTests.reply";
+
+  private ServerMessageBusImpl bus;
+  private final List<Message> replies = Collections.synchronizedList(new ArrayList<Message>());
+  private final List<Message> errors = Collections.synchronizedList(new ArrayList<Message>());
+
+  public static class Endpoints {
+    volatile AsyncReply deferred;
+    volatile boolean deferredDuringCall;
+    volatile ConversationalEndpointCallback nested;
+
+    public String echo(String value) {
+      return value;
+    }
+
+    public String defer(String value) {
+      deferred = RpcContext.deferReply();
+      deferredDuringCall = RpcContext.isReplyDeferred();
+      return "ignored";
+    }
+
+    public String callNested(String value) {
+      nested.callback(call("nested"));
+      return value;
+    }
+
+    public String deferAndCallNested(String value) {
+      deferred = RpcContext.deferReply();
+      nested.callback(call("nested"));
+      deferredDuringCall = RpcContext.isReplyDeferred();
+      return "ignored";
+    }
+  }
+
+  /**
+   * Replies and client errors are conversations with the client that made the call, which has no queue here, so
+   * they are recorded instead of being routed.
+   */
+  @Override
+  protected void setUp() throws Exception {
+    bus = new ServerMessageBusImpl(new MockErraiServiceConfigurator()) {
+      @Override
+      public void send(Message message) {
+        if (DefaultErrorCallback.CLIENT_ERROR_SUBJECT.equals(message.getSubject())) {
+          errors.add(message);
+        }
+        else {
+          replies.add(message);
+        }
+      }
+    };
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    bus.stop();
+  }
+
+  private static Message call(final String parm) {
+    return CommandMessage.createWithParts(new HashMap<String, Object>())
+        .toSubject("AsyncReplyTests:RPC")
+        .set(MessageParts.ReplyTo, REPLY_SUBJECT)
+        .set("MethodParms", new Object[]{parm});
+  }
+
+  private ConversationalEndpointCallback endpoint(final Endpoints svc, final String method) throws Exception {
+    return new ConversationalEndpointCallback(new ServiceInstanceProvider() {
+      @Override
+      public Object get(Message message) {
+        return svc;
+      }
+    }, Endpoints.class.getMethod(method, String.class), bus);
+  }
+
+  private static void waitFor(final List<Message> messages, final int count) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (messages.size() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  public void testReplySentWhenEndpointReturns() throws Exception {
+    endpoint(new Endpoints(), "echo").callback(call("hello"));
+
+    assertEquals(1, replies.size());
+    assertEquals("hello", replies.get(0).get(String.class, "MethodReply"));
+    assertFalse(RpcContext.isReplyDeferred());
+  }
+
+  public void testDeferredReplySentLater() throws Exception {
+    final Endpoints svc = new Endpoints();
+    endpoint(svc, "defer").callback(call("x"));
+
+    assertTrue(svc.deferredDuringCall);
+    assertTrue(replies.isEmpty());
+    assertFalse(svc.deferred.isDone());
+    assertFalse("deferral leaked out of the call", RpcContext.isReplyDeferred());
+
+    svc.deferred.send("later");
+    assertTrue(svc.deferred.isDone());
+    assertEquals(1, replies.size());
+    assertEquals("later", replies.get(0).get(String.class, "MethodReply"));
+
+    svc.deferred.send("again");
+    svc.deferred.fail(new RuntimeException("too late"));
+    assertEquals(1, replies.size());
+    assertTrue(errors.isEmpty());
+  }
+
+  public void testDeferredReplyFails() throws Exception {
+    final Endpoints svc = new Endpoints();
+    endpoint(svc, "defer").callback(call("x"));
+
+    svc.deferred.fail(new RuntimeException("backend down"));
+    assertTrue(svc.deferred.isDone());
+    assertTrue(replies.isEmpty());
+    assertEquals(1, errors.size());
+
+    svc.deferred.send("too late");
+    assertTrue(replies.isEmpty());
+  }
+
+  public void testDeferredReplyTimesOut() throws Exception {
+    final Endpoints svc = new Endpoints();
+    final ConversationalEndpointCallback endpoint = endpoint(svc, "defer");
+    endpoint.setReplyTimeout(50);
+    endpoint.callback(call("x"));
+
+    waitFor(errors, 1);
+    assertEquals(1, errors.size());
+    assertTrue(errors.get(0).get(String.class, "ErrorMessage").contains("timed out"));
+    assertTrue(svc.deferred.isDone());
+
+    svc.deferred.send("too late");
+    assertTrue(replies.isEmpty());
+  }
+
+  public void testCompletedReplyDoesNotTimeOut() throws Exception {
+    final Endpoints svc = new Endpoints();
+    final ConversationalEndpointCallback endpoint = endpoint(svc, "defer");
+    endpoint.setReplyTimeout(50);
+    endpoint.callback(call("x"));
+
+    svc.deferred.send("in time");
+    Thread.sleep(200);
+
+    assertEquals(1, replies.size());
+    assertTrue(errors.isEmpty());
+  }
+
+  public void testNestedCallDoesNotDeferOuterReply() throws Exception {
+    final Endpoints svc = new Endpoints();
+    svc.nested = endpoint(svc, "echo");
+    endpoint(svc, "callNested").callback(call("outer"));
+
+    assertEquals(2, replies.size());
+    assertEquals("nested", replies.get(0).get(String.class, "MethodReply"));
+    assertEquals("outer", replies.get(1).get(String.class, "MethodReply"));
+  }
+
+  public void testNestedCallKeepsOuterReplyDeferred() throws Exception {
+    final Endpoints svc = new Endpoints();
+    svc.nested = endpoint(svc, "echo");
+    endpoint(svc, "deferAndCallNested").callback(call("outer"));
+
+    assertTrue(svc.deferredDuringCall);
+    assertEquals(1, replies.size());
+    assertEquals("nested", replies.get(0).get(String.class, "MethodReply"));
+
+    svc.deferred.send("later");
+    assertEquals(2, replies.size());
+    assertEquals("later", replies.get(1).get(String.class, "MethodReply"));
+  }
+
+  public void testDeferReplyOutsideCall() {
+    try {
+      RpcContext.deferReply();
+      fail("expected an IllegalStateException");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+    assertFalse(RpcContext.isReplyDeferred());
+  }
+
+  public void testDeferReplyTwice() throws Exception {
+    final AsyncReply reply = new AsyncReply() {
+      @Override
+      public void send(Object value) {
+      }
+
+      @Override
+      public void fail(Throwable t) {
+      }
+
+      @Override
+      public boolean isDone() {
+        return false;
+      }
+    };
+
+    RpcContext.setReply(reply);
+    try {
+      assertSame(reply, RpcContext.deferReply());
+      assertTrue(RpcContext.isReplyDeferred());
+      RpcContext.deferReply();
+      fail("expected an IllegalStateException");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+    finally {
+      RpcContext.remove();
+    }
+    assertFalse(RpcContext.isReplyDeferred());
+  }
+}
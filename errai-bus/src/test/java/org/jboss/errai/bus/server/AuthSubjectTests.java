@@ -0,0 +1,72 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import junit.framework.TestCase;
+import org.jboss.errai.bus.server.security.auth.AuthSubject;
+
+import java.util.Arrays;
+
+public class AuthSubjectTests extends TestCase {
+  private static AuthSubject createSubject() {
+    return new AuthSubject("john", "John Doe", Arrays.<Object>asList("user", "admin"));
+  }
+
+  public void testUndecidedRulesHaveNoDecision() {
+    final AuthSubject subject = createSubject();
+    assertNull(subject.getDecision(0));
+    assertNull(subject.getDecision(100));
+  }
+
+  public void testDecisionsAreRememberedPerRule() {
+    final AuthSubject subject = createSubject();
+    subject.setDecision(0, true);
+    subject.setDecision(1, false);
+    subject.setDecision(31, true);
+    subject.setDecision(32, false);
+    subject.setDecision(200, true);
+
+    assertEquals(Boolean.TRUE, subject.getDecision(0));
+    assertEquals(Boolean.FALSE, subject.getDecision(1));
+    assertNull(subject.getDecision(2));
+    assertEquals(Boolean.TRUE, subject.getDecision(31));
+    assertEquals(Boolean.FALSE, subject.getDecision(32));
+    assertNull(subject.getDecision(33));
+    assertEquals(Boolean.TRUE, subject.getDecision(200));
+  }
+
+  public void testDecisionCanBeReplaced() {
+    final AuthSubject subject = createSubject();
+    subject.setDecision(5, true);
+    subject.setDecision(5, false);
+    assertEquals(Boolean.FALSE, subject.getDecision(5));
+
+    subject.setDecision(5, true);
+    assertEquals(Boolean.TRUE, subject.getDecision(5));
+  }
+
+  public void testInvalidateForgetsDecisions() {
+    final AuthSubject subject = createSubject();
+    subject.setDecision(3, true);
+    subject.setDecision(70, false);
+
+    subject.invalidateDecisions();
+
+    assertNull(subject.getDecision(3));
+    assertNull(subject.getDecision(70));
+  }
+}
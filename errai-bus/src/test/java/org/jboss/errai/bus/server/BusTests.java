@@ -17,15 +17,22 @@
 package org.jboss.errai.bus.server;
 
 import junit.framework.TestCase;
+import org.jboss.errai.bus.client.api.Message;
+import org.jboss.errai.bus.client.api.MessageCallback;
 import org.jboss.errai.bus.client.api.QueueSession;
 import org.jboss.errai.bus.client.api.SessionEndListener;
+import org.jboss.errai.bus.client.api.base.MessageBuilder;
+import org.jboss.errai.bus.client.framework.RoutingFlag;
+import org.jboss.errai.bus.server.mock.MockErraiServiceConfigurator;
 import org.jboss.errai.bus.server.io.buffers.BufferColor;
 import org.jboss.errai.bus.server.io.buffers.TransmissionBuffer;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * @author Mike Brock
@@ -95,4 +102,56 @@ public class BusTests extends TestCase {
 
     assertEquals("[]", new String(outputStream.toByteArray()));
   }
+
+  public void testBatchedSendDoesNotReachLocalOnlySubscribers() {
+    final List<Message> received = new ArrayList<Message>();
+    final ServerMessageBusImpl bus = new ServerMessageBusImpl(new MockErraiServiceConfigurator());
+    try {
+      bus.subscribeLocal("LocalOnly", new MessageCallback() {
+        @Override
+        public void callback(Message message) {
+          received.add(message);
+        }
+      });
+
+      final List<Message> batch = new ArrayList<Message>();
+      for (int i = 0; i < 3; i++) {
+        batch.add(MessageBuilder.createMessage().toSubject("LocalOnly").done().getMessage());
+      }
+      bus.sendGlobal(batch);
+
+      assertTrue("a local-only subscriber received a global message", received.isEmpty());
+      for (Message message : batch) {
+        // each message takes the same path as a single global send, and is held back for redelivery.
+        assertTrue(message.isFlagSet(RoutingFlag.RetryDelivery));
+      }
+    }
+    finally {
+      bus.stop();
+    }
+  }
+
+  public void testBatchedSendReachesGlobalSubscribers() {
+    final List<Message> received = new ArrayList<Message>();
+    final ServerMessageBusImpl bus = new ServerMessageBusImpl(new MockErraiServiceConfigurator());
+    try {
+      bus.subscribe("Global", new MessageCallback() {
+        @Override
+        public void callback(Message message) {
+          received.add(message);
+        }
+      });
+
+      final List<Message> batch = new ArrayList<Message>();
+      for (int i = 0; i < 3; i++) {
+        batch.add(MessageBuilder.createMessage().toSubject("Global").done().getMessage());
+      }
+      bus.sendGlobal(batch);
+
+      assertEquals(batch, received);
+    }
+    finally {
+      bus.stop();
+    }
+  }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import junit.framework.TestCase;
+import org.jboss.errai.bus.client.api.base.MessageDeliveryFailure;
+import org.jboss.errai.bus.server.io.EndpointInvoker;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+public class EndpointInvokerTests extends TestCase {
+  static class Endpoints {
+    int add(int a, int b) {
+      return a + b;
+    }
+
+    String join(String[] parts) {
+      return Arrays.toString(parts);
+    }
+
+    void ping() {
+    }
+  }
+
+  public static class PublicEndpoints {
+    public long multiply(long a, int b) {
+      return a * b;
+    }
+
+    public String caller() {
+      return new Throwable().getStackTrace()[1].getClassName();
+    }
+
+    public void fail(String message) {
+      throw new IllegalStateException(message);
+    }
+  }
+
+  private static EndpointInvoker invoker(final String name, final Class<?>... parameterTypes) throws Exception {
+    final Method method = Endpoints.class.getDeclaredMethod(name, parameterTypes);
+    return EndpointInvoker.forMethod(method);
+  }
+
+  public void testInvokesNonPublicEndpoint() throws Exception {
+    final EndpointInvoker invoker = invoker("add", int.class, int.class);
+    final Object[] parms = invoker.coerceArguments(new Object[]{1, 2});
+    assertEquals(3, invoker.invoke(new Endpoints(), parms));
+    assertFalse(invoker.returnsVoid());
+  }
+
+  public void testNoArguments() throws Exception {
+    final EndpointInvoker invoker = invoker("ping");
+    assertTrue(invoker.returnsVoid());
+    assertNull(invoker.invoke(new Endpoints(), invoker.coerceArguments(null)));
+  }
+
+  public void testWrongNumberOfArguments() throws Exception {
+    try {
+      invoker("add", int.class, int.class).coerceArguments(new Object[]{1});
+      fail("expected a delivery failure");
+    }
+    catch (MessageDeliveryFailure e) {
+      assertEquals("wrong number of arguments sent to endpoint. (received: 1; required: 2)", e.getMessage());
+    }
+  }
+
+  public void testCollectionAndArrayArguments() throws Exception {
+    final EndpointInvoker invoker = invoker("join", String[].class);
+
+    Object[] parms = invoker.coerceArguments(new Object[]{Arrays.asList("a", "b")});
+    assertEquals("[a, b]", invoker.invoke(new Endpoints(), parms));
+
+    parms = invoker.coerceArguments(new Object[]{new Object[]{"c", "d"}});
+    assertEquals("[c, d]", invoker.invoke(new Endpoints(), parms));
+  }
+
+  public void testPublicEndpointIsCalledDirectly() throws Exception {
+    final EndpointInvoker invoker = EndpointInvoker.forMethod(PublicEndpoints.class.getMethod("caller"));
+    final String caller = (String) invoker.invoke(new PublicEndpoints(), invoker.coerceArguments(null));
+    assertFalse(caller, caller.contains("reflect"));
+
+    final EndpointInvoker multiply =
+        EndpointInvoker.forMethod(PublicEndpoints.class.getMethod("multiply", long.class, int.class));
+    assertEquals(12L, multiply.invoke(new PublicEndpoints(), multiply.coerceArguments(new Object[]{3L, 4})));
+  }
+
+  public void testDirectCallWrapsExceptions() throws Exception {
+    final EndpointInvoker invoker = EndpointInvoker.forMethod(PublicEndpoints.class.getMethod("fail", String.class));
+    try {
+      invoker.invoke(new PublicEndpoints(), invoker.coerceArguments(new Object[]{"bad"}));
+      fail("expected the endpoint's exception");
+    }
+    catch (InvocationTargetException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+      assertEquals("bad", e.getCause().getMessage());
+    }
+  }
+
+  public void testDirectCallRejectsNullPrimitive() throws Exception {
+    final EndpointInvoker invoker =
+        EndpointInvoker.forMethod(PublicEndpoints.class.getMethod("multiply", long.class, int.class));
+    try {
+      invoker.invoke(new PublicEndpoints(), invoker.coerceArguments(new Object[]{3L, null}));
+      fail("expected the null to be rejected");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import org.jboss.errai.bus.client.api.Message;
+import org.jboss.errai.bus.client.api.MessageListener;
+import org.jboss.errai.bus.client.api.QueueSession;
+import org.jboss.errai.bus.client.api.base.CommandMessage;
+import org.jboss.errai.bus.client.framework.RoutingFlag;
+import org.jboss.errai.bus.server.api.MessageQueue;
+import org.jboss.errai.bus.server.io.BufferHelper;
+import org.jboss.errai.bus.server.mock.MockErraiServiceConfigurator;
+import org.jboss.errai.common.client.protocols.Resources;
+import org.jboss.errai.marshalling.server.MappingContextSingleton;
+
+/**
+ * Tests delivering a message which is not broadcast to several remote queues, which encodes it once for all of them.
+ */
+public class FanOutEncodingTests extends TestCase {
+  private static final String SUBJECT = "FanOutEncodingTests";
+
+  private ServerMessageBusImpl bus;
+  private final List<String> payloads = Collections.synchronizedList(new ArrayList<String>());
+  private final List<String> stampsAtOffer = Collections.synchronizedList(new ArrayList<String>());
+  private volatile String lastStamp;
+
+  @Override
+  protected void setUp() throws Exception {
+    MappingContextSingleton.get();
+    bus = new ServerMessageBusImpl(new MockErraiServiceConfigurator());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    bus.stop();
+  }
+
+  /**
+   * A queue which records the encoded payload of each message it is offered.
+   */
+  private MessageQueue queue(final String sessionId) {
+    final QueueSession session = (QueueSession) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class[]{QueueSession.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("getSessionId")) {
+              return sessionId;
+            }
+            return defaultValue(proxy, method, args);
+          }
+        });
+
+    return (MessageQueue) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{MessageQueue.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("offer")) {
+              payloads.add(BufferHelper.getEncodedPayload((Message) args[0]));
+              stampsAtOffer.add(lastStamp);
+              return true;
+            }
+            else if (method.getName().equals("getSession")) {
+              return session;
+            }
+            else if (method.getName().equals("isInitialized")) {
+              return true;
+            }
+            return defaultValue(proxy, method, args);
+          }
+        });
+  }
+
+  private static Object defaultValue(final Object proxy, final Method method, final Object[] args) {
+    if (method.getName().equals("hashCode")) {
+      return System.identityHashCode(proxy);
+    }
+    else if (method.getName().equals("equals")) {
+      return proxy == args[0];
+    }
+    else if (method.getReturnType() == boolean.class) {
+      return false;
+    }
+    else if (method.getReturnType() == long.class) {
+      return 0L;
+    }
+    else if (method.getReturnType() == int.class) {
+      return 0;
+    }
+    return null;
+  }
+
+  /**
+   * The global listeners run for the message as a whole, and then once for the whole fan-out rather than once for each
+   * queue. They run before the message is encoded, so the encoded payload includes their changes. The encoding is not kept with the message once every queue has been offered it.
+   */
+  public void testPayloadIsEncodedAfterGlobalListeners() throws Exception {
+    final MessageQueue a = queue("a");
+    final MessageQueue b = queue("b");
+    bus.remoteSubscribe(a.getSession(), a, SUBJECT);
+    bus.remoteSubscribe(b.getSession(), b, SUBJECT);
+
+    final AtomicInteger runs = new AtomicInteger();
+    bus.addGlobalListener(new MessageListener() {
+      @Override
+      public boolean handleMessage(Message message) {
+        lastStamp = "stamp" + runs.incrementAndGet();
+        message.set("Stamp", lastStamp);
+        return true;
+      }
+    });
+
+    final Message message = CommandMessage.createWithParts(new HashMap<String, Object>())
+        .toSubject(SUBJECT)
+        .set("Value", "hello");
+    message.setFlag(RoutingFlag.NonGlobalRouting);
+    bus.sendGlobal(message);
+
+    assertEquals("the listeners did not run once for the fan-out", 2, runs.get());
+    assertEquals(2, payloads.size());
+    assertEquals("the payload was not encoded once for both queues", payloads.get(0), payloads.get(1));
+    assertTrue(payloads.get(0), payloads.get(0).contains("hello"));
+    assertTrue("the listener's change was not encoded: " + payloads.get(0),
+        payloads.get(0).contains(stampsAtOffer.get(0)));
+    assertFalse("the encoded payload was kept after the fan-out",
+        message.hasResource(Resources.EncodedPayload.name()));
+  }
+
+  /**
+   * A message refused by the global listeners is not offered to any of the queues.
+   */
+  public void testRefusedMessageIsNotDelivered() throws Exception {
+    final MessageQueue a = queue("a");
+    final MessageQueue b = queue("b");
+    bus.remoteSubscribe(a.getSession(), a, SUBJECT);
+    bus.remoteSubscribe(b.getSession(), b, SUBJECT);
+
+    bus.addGlobalListener(new MessageListener() {
+      @Override
+      public boolean handleMessage(Message message) {
+        return false;
+      }
+    });
+
+    final Message message = CommandMessage.createWithParts(new HashMap<String, Object>())
+        .toSubject(SUBJECT)
+        .set("Value", "hello");
+    message.setFlag(RoutingFlag.NonGlobalRouting);
+    bus.sendGlobal(message);
+
+    assertTrue(payloads.isEmpty());
+    assertFalse(message.hasResource(Resources.EncodedPayload.name()));
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultChannelFuture;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import junit.framework.TestCase;
+import org.jboss.errai.bus.server.io.websockets.NettyQueueChannel;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the framing of messages written to a {@link NettyQueueChannel}, over a channel whose writes complete when the
+ * test says so.
+ */
+public class NettyQueueChannelTests extends TestCase {
+  private final List<String> frames = new ArrayList<String>();
+  private final List<DefaultChannelFuture> futures = new ArrayList<DefaultChannelFuture>();
+  private boolean completeInline;
+  private int maxStackDepth;
+
+  private Channel channel;
+
+  @Override
+  protected void setUp() throws Exception {
+    channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Channel.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("write")) {
+              frames.add(((TextWebSocketFrame) args[0]).getText());
+              maxStackDepth = Math.max(maxStackDepth, Thread.currentThread().getStackTrace().length);
+
+              final DefaultChannelFuture future = new DefaultChannelFuture((Channel) proxy, false);
+              if (completeInline) {
+                future.setSuccess();
+              }
+              else {
+                futures.add(future);
+              }
+              return future;
+            }
+            else if (method.getName().equals("isWritable")) {
+              return true;
+            }
+            else if (method.getName().equals("getId")) {
+              return 1;
+            }
+            else if (method.getName().equals("hashCode")) {
+              return System.identityHashCode(proxy);
+            }
+            else if (method.getName().equals("equals")) {
+              return proxy == args[0];
+            }
+            return null;
+          }
+        });
+  }
+
+  private static byte[] utf8(String s) throws IOException {
+    return s.getBytes("UTF-8");
+  }
+
+  public void testMessageToIdleChannelIsSentStraightAway() throws Exception {
+    final NettyQueueChannel queueChannel = new NettyQueueChannel(channel);
+    queueChannel.writeMessage("{\"a\":1}");
+
+    assertEquals(1, frames.size());
+    assertEquals("[{\"a\":1}]", frames.get(0));
+  }
+
+  public void testMessagesWrittenWhileFrameInFlightAreCoalesced() throws Exception {
+    final NettyQueueChannel queueChannel = new NettyQueueChannel(channel);
+    queueChannel.writeMessage("1");
+    queueChannel.writeMessage("2");
+    queueChannel.writeMessage("3");
+    assertEquals(1, frames.size());
+
+    futures.get(0).setSuccess();
+    assertEquals(2, frames.size());
+    assertEquals("[2,3]", frames.get(1));
+
+    futures.get(1).setSuccess();
+    assertEquals(2, frames.size());
+  }
+
+  public void testAssembledFramesAreSentInOrder() throws Exception {
+    final NettyQueueChannel queueChannel = new NettyQueueChannel(channel);
+    queueChannel.writeMessage("1");
+    queueChannel.writeMessage("2");
+    final byte[] assembled = utf8("[\"x\",\"y\"]");
+    queueChannel.write(assembled, 0, assembled.length);
+    queueChannel.writeMessage("3");
+
+    futures.get(0).setSuccess();
+    futures.get(1).setSuccess();
+    futures.get(2).setSuccess();
+
+    assertEquals(4, frames.size());
+    assertEquals("[1]", frames.get(0));
+    assertEquals("[2]", frames.get(1));
+    assertEquals("[\"x\",\"y\"]", frames.get(2));
+    assertEquals("[3]", frames.get(3));
+  }
+
+  public void testInlineCompletionDoesNotRecurse() throws Exception {
+    final NettyQueueChannel queueChannel = new NettyQueueChannel(channel);
+    queueChannel.writeMessage("first");
+    final int depth = maxStackDepth;
+
+    final byte[] assembled = utf8("[1]");
+    final int count = 10000;
+    for (int i = 0; i < count; i++) {
+      queueChannel.write(assembled, 0, assembled.length);
+    }
+
+    completeInline = true;
+    futures.get(0).setSuccess();
+
+    assertEquals(count + 1, frames.size());
+    assertTrue("writes nested " + (maxStackDepth - depth) + " frames deep", maxStackDepth - depth < 20);
+  }
+
+  public void testWriteFailureFailsChannel() throws Exception {
+    final NettyQueueChannel queueChannel = new NettyQueueChannel(channel);
+    queueChannel.writeMessage("1");
+    queueChannel.writeMessage("2");
+
+    futures.get(0).setFailure(new IOException("connection reset"));
+    assertEquals(1, frames.size());
+
+    try {
+      queueChannel.writeMessage("3");
+      fail("expected the write to fail");
+    }
+    catch (IOException e) {
+      // expected
+    }
+
+    try {
+      final byte[] assembled = utf8("[4]");
+      queueChannel.write(assembled, 0, assembled.length);
+      fail("expected the write to fail");
+    }
+    catch (IOException e) {
+      // expected
+    }
+    assertEquals(1, frames.size());
+  }
+
+  public void testPendingDataIsBounded() throws Exception {
+    final int[] drained = new int[1];
+    final NettyQueueChannel queueChannel = new NettyQueueChannel(channel, new Runnable() {
+      @Override
+      public void run() {
+        drained[0]++;
+      }
+    });
+    queueChannel.writeMessage("first");
+    assertTrue(queueChannel.isWritable());
+
+    final char[] chars = new char[1024];
+    Arrays.fill(chars, 'x');
+    final String payload = "\"" + new String(chars) + "\"";
+    while (queueChannel.isWritable()) {
+      queueChannel.writeMessage(payload);
+    }
+    assertEquals(1, frames.size());
+
+    // the frames in flight complete, draining the pending messages.
+    for (int i = 0; i < futures.size(); i++) {
+      futures.get(i).setSuccess();
+    }
+    assertTrue(queueChannel.isWritable());
+    assertEquals(1, drained[0]);
+  }
+
+  public void testStringFramesAreSentInOrder() throws Exception {
+    final NettyQueueChannel queueChannel = new NettyQueueChannel(channel);
+    queueChannel.writeMessage("1");
+    queueChannel.write("[\"x\"]");
+    queueChannel.writeMessage("2");
+    assertEquals(1, frames.size());
+
+    futures.get(0).setSuccess();
+    futures.get(1).setSuccess();
+
+    assertEquals(3, frames.size());
+    assertEquals("[\"x\"]", frames.get(1));
+    assertEquals("[2]", frames.get(2));
+  }
+
+  /**
+   * A payload which encodes to more bytes than it has characters grows the frame, rather than being truncated.
+   */
+  public void testMultiByteMessagesAreEncoded() throws Exception {
+    final StringBuilder payload = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      payload.append("\u00e9\u20ac\ud83d\ude00");
+    }
+
+    final NettyQueueChannel queueChannel = new NettyQueueChannel(channel);
+    queueChannel.writeMessage("\"first\"");
+    queueChannel.writeMessage("\"" + payload + "\"");
+    queueChannel.writeMessage("\"" + payload + "\"");
+    futures.get(0).setSuccess();
+
+    assertEquals(2, frames.size());
+    assertEquals("[\"" + payload + "\",\"" + payload + "\"]", frames.get(1));
+  }
+}
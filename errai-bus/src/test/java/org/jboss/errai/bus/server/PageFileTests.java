@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import junit.framework.TestCase;
+import org.jboss.errai.bus.server.io.buffers.BufferColor;
+import org.jboss.errai.bus.server.io.buffers.TransmissionBuffer;
+import org.jboss.errai.bus.server.io.paging.PageFile;
+import org.jboss.errai.bus.server.io.paging.PageFileStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+public class PageFileTests extends TestCase {
+  private static final File pageDirectory = new File(System.getProperty("java.io.tmpdir"), "pageFileTests");
+
+  public void testAppendAndPartialDrain() throws IOException {
+    // use a tiny region size, so records and headers straddle regions.
+    final PageFile pageFile = new PageFile(new File(pageDirectory, "partialDrain"), 7);
+    try {
+      for (int i = 0; i < 100; i++) {
+        final byte[] bytes = ("{" + i + "}").getBytes();
+        pageFile.append(bytes, 0, bytes.length);
+      }
+      assertEquals(100, pageFile.getRecordCount());
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertEquals(10, pageFile.drainTo(Channels.newChannel(out), 10, (byte) ','));
+      assertEquals("{0},{1},{2},{3},{4},{5},{6},{7},{8},{9}", new String(out.toByteArray()));
+      assertFalse(pageFile.isDrained());
+
+      out = new ByteArrayOutputStream();
+      assertEquals(90, pageFile.drainTo(Channels.newChannel(out), 1000, (byte) ','));
+      assertTrue(new String(out.toByteArray()).startsWith("{10},{11}"));
+      assertTrue(new String(out.toByteArray()).endsWith("{98},{99}"));
+      assertTrue(pageFile.isDrained());
+    }
+    finally {
+      pageFile.delete();
+    }
+  }
+
+  public void testPageFromTransmissionBuffer() throws IOException {
+    final TransmissionBuffer buffer = TransmissionBuffer.create(10, 20);
+    final BufferColor color = BufferColor.getNewColor();
+    final PageFile pageFile = new PageFile(new File(pageDirectory, "fromBuffer"), 1024);
+
+    try {
+      final StringBuilder expected = new StringBuilder();
+      for (int round = 0; round < 100; round++) {
+        for (int i = 0; i < 3; i++) {
+          final String s = "{" + round + ":" + i + "}";
+          buffer.write(new ByteArrayInputStream(s.getBytes()), color);
+          if (expected.length() > 0) expected.append(',');
+          expected.append(s);
+        }
+        // empty writes (such as a wake-up no-op) are skipped when draining.
+        buffer.write(new ByteArrayInputStream(new byte[0]), color);
+
+        buffer.readChunks(pageFile, color);
+      }
+
+      pageFile.append(new ByteArrayInputStream("{direct}".getBytes()));
+      expected.append(",{direct}");
+
+      assertEquals(401, pageFile.getRecordCount());
+
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      pageFile.drainTo(Channels.newChannel(out), Integer.MAX_VALUE, (byte) ',');
+      assertEquals(expected.toString(), new String(out.toByteArray()));
+      assertTrue(pageFile.isDrained());
+    }
+    finally {
+      pageFile.delete();
+    }
+  }
+
+  public void testStoreRecyclesFiles() throws IOException {
+    final PageFileStore store = new PageFileStore(pageDirectory, 1024, 1);
+
+    final PageFile a = store.acquire();
+    final PageFile b = store.acquire();
+    assertNotSame(a, b);
+
+    a.append("{a}".getBytes(), 0, 3);
+    store.release(a);
+    store.release(b);
+    assertEquals(1, store.getIdleCount());
+    assertFalse(b.isOpen());
+
+    final PageFile recycled = store.acquire();
+    assertSame(a, recycled);
+    assertTrue(recycled.isDrained());
+    assertEquals(0, store.getIdleCount());
+
+    recycled.delete();
+  }
+
+  public void testFileWhichIsNeverDrainedIsCompacted() throws IOException {
+    final File file = new File(pageDirectory, "compacted");
+    final PageFile pageFile = new PageFile(file, 64);
+    try {
+      // the reader keeps up, but always leaves a record behind, so the file is never empty and never reset.
+      int next = 0;
+      int expected = 0;
+      pageFile.append("{0}".getBytes(), 0, 3);
+      next++;
+
+      for (int round = 0; round < 1000; round++) {
+        for (int i = 0; i < 5; i++) {
+          final byte[] bytes = ("{" + next++ + "}").getBytes();
+          pageFile.append(bytes, 0, bytes.length);
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pageFile.drainTo(Channels.newChannel(out), 5, (byte) ',');
+        for (String record : new String(out.toByteArray()).split(",")) {
+          assertEquals("{" + expected++ + "}", record);
+        }
+        assertFalse(pageFile.isDrained());
+      }
+
+      assertTrue("file grew to " + file.length() + " bytes", file.length() <= 64 * 4);
+      assertTrue(pageFile.getMappedRegionCount() <= 4);
+
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      pageFile.drainTo(Channels.newChannel(out), Integer.MAX_VALUE, (byte) ',');
+      for (String record : new String(out.toByteArray()).split(",")) {
+        assertEquals("{" + expected++ + "}", record);
+      }
+      assertEquals(next, expected);
+      assertTrue(pageFile.isDrained());
+    }
+    finally {
+      pageFile.delete();
+    }
+  }
+
+  public void testDrainedFileReleasesRegions() throws IOException {
+    final File file = new File(pageDirectory, "released");
+    final PageFile pageFile = new PageFile(file, 16);
+    try {
+      for (int i = 0; i < 100; i++) {
+        final byte[] bytes = ("{" + i + "}").getBytes();
+        pageFile.append(bytes, 0, bytes.length);
+      }
+      assertTrue(pageFile.getMappedRegionCount() > 1);
+
+      pageFile.drainTo(Channels.newChannel(new ByteArrayOutputStream()), Integer.MAX_VALUE, (byte) ',');
+      assertTrue(pageFile.isDrained());
+      assertEquals(1, pageFile.getMappedRegionCount());
+      assertEquals(16, file.length());
+
+      // the file is still usable once its regions have been released.
+      pageFile.append("{again}".getBytes(), 0, 7);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      pageFile.drainTo(Channels.newChannel(out), Integer.MAX_VALUE, (byte) ',');
+      assertEquals("{again}", new String(out.toByteArray()));
+    }
+    finally {
+      pageFile.delete();
+    }
+    assertFalse(file.exists());
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import junit.framework.TestCase;
+import org.jboss.errai.bus.server.api.MessageQueue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class QueueExpiryIndexTests extends TestCase {
+  private static MessageQueue createQueue(final int id) {
+    return (MessageQueue) Proxy.newProxyInstance(MessageQueue.class.getClassLoader(), new Class[]{MessageQueue.class},
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("hashCode")) return id;
+                if (method.getName().equals("equals")) return proxy == args[0];
+                if (method.getName().equals("toString")) return "queue" + id;
+                throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  public void testOnlyDueQueuesArePolled() {
+    final QueueExpiryIndex index = new QueueExpiryIndex();
+    final long now = System.nanoTime();
+
+    final List<MessageQueue> due = new ArrayList<MessageQueue>();
+    for (int i = 0; i < 100; i++) {
+      final MessageQueue queue = createQueue(i);
+      if (i % 2 == 0) {
+        index.schedule(queue, now - TimeUnit.SECONDS.toNanos(i % 10 + 2));
+        due.add(queue);
+      }
+      else {
+        index.schedule(queue, now + TimeUnit.SECONDS.toNanos(i % 10 + 2));
+      }
+    }
+    assertEquals(100, index.size());
+
+    final List<MessageQueue> polled = index.pollDue(now);
+    assertEquals(new HashSet<MessageQueue>(due), new HashSet<MessageQueue>(polled));
+    assertEquals(50, index.size());
+
+    assertTrue(index.pollDue(now).isEmpty());
+    assertEquals(50, index.pollDue(now + TimeUnit.SECONDS.toNanos(20)).size());
+    assertEquals(0, index.size());
+  }
+
+  public void testRescheduledQueueComesDueAgain() {
+    final QueueExpiryIndex index = new QueueExpiryIndex();
+    final long now = System.nanoTime();
+    final MessageQueue queue = createQueue(0);
+
+    index.schedule(queue, now);
+    assertEquals(1, index.pollDue(now + TimeUnit.SECONDS.toNanos(2)).size());
+
+    index.schedule(queue, now + TimeUnit.SECONDS.toNanos(10));
+    assertTrue(index.pollDue(now + TimeUnit.SECONDS.toNanos(5)).isEmpty());
+    assertSame(queue, index.pollDue(now + TimeUnit.SECONDS.toNanos(12)).get(0));
+  }
+}
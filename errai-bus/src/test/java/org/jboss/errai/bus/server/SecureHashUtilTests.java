@@ -0,0 +1,57 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import junit.framework.TestCase;
+import org.jboss.errai.bus.server.util.SecureHashUtil;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class SecureHashUtilTests extends TestCase {
+  public void testSecureIdsAreFixedLengthHex() {
+    for (int i = 0; i < 1000; i++) {
+      final String id = SecureHashUtil.nextSecureId();
+      assertEquals(64, id.length());
+      assertTrue(id, id.matches("[0-9a-f]+"));
+    }
+  }
+
+  public void testSecureIdsAreUniqueAcrossThreads() throws Exception {
+    final int threads = 4;
+    final int idsPerThread = 10000;
+    final Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+    final CountDownLatch done = new CountDownLatch(threads);
+
+    for (int i = 0; i < threads; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < idsPerThread; j++) {
+            ids.add(SecureHashUtil.nextSecureId());
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+
+    done.await();
+    assertEquals(threads * idsPerThread, ids.size());
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import junit.framework.TestCase;
+import org.jboss.errai.bus.client.api.Message;
+import org.jboss.errai.bus.client.api.base.CommandMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ShardedDispatchQueueTests extends TestCase {
+  private static Message createMessage(final String subject, final int sequence) {
+    final Map<String, Object> parts = new HashMap<String, Object>();
+    parts.put("ToSubject", subject);
+    parts.put("Sequence", sequence);
+    return CommandMessage.createWithParts(parts);
+  }
+
+  public void testOrderingPreservedPerShard() throws InterruptedException {
+    final int workerCount = 4;
+    final int subjects = 32;
+    final int messagesPerSubject = 5000;
+
+    final ShardedDispatchQueue queue
+            = new ShardedDispatchQueue(workerCount, 1000, 16, ShardedDispatchQueue.ShardKey.Subject);
+
+    final ConcurrentHashMap<String, Integer> lastSeen = new ConcurrentHashMap<String, Integer>();
+    final AtomicInteger outOfOrder = new AtomicInteger();
+    final CountDownLatch latch = new CountDownLatch(subjects * messagesPerSubject);
+
+    final Thread[] workers = new Thread[workerCount];
+    for (int i = 0; i < workerCount; i++) {
+      final ShardedDispatchQueue.Cursor cursor = queue.newCursor(i);
+      workers[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            while (!isInterrupted()) {
+              final Message message = cursor.poll(1, TimeUnit.SECONDS);
+              if (message == null) continue;
+
+              final Integer sequence = message.get(Integer.class, "Sequence");
+              final Integer last = lastSeen.put(message.getSubject(), sequence);
+              if ((last == null ? -1 : last) != sequence - 1) {
+                outOfOrder.incrementAndGet();
+              }
+              latch.countDown();
+            }
+          }
+          catch (InterruptedException e) {
+            // stopped.
+          }
+        }
+      };
+      queue.attach(i, workers[i]);
+      workers[i].start();
+    }
+
+    for (int i = 0; i < messagesPerSubject; i++) {
+      for (int s = 0; s < subjects; s++) {
+        assertTrue(queue.offer(createMessage("Subject" + s, i), 30, TimeUnit.SECONDS));
+      }
+    }
+
+    assertTrue("timed out waiting for delivery", latch.await(60, TimeUnit.SECONDS));
+
+    for (Thread worker : workers) {
+      worker.interrupt();
+      worker.join();
+    }
+
+    assertEquals(0, outOfOrder.get());
+    assertEquals(0, queue.size());
+  }
+
+  public void testIdleWorkerStealsFromBusyWorker() throws InterruptedException {
+    final ShardedDispatchQueue queue
+            = new ShardedDispatchQueue(2, 100, 1, ShardedDispatchQueue.ShardKey.Subject);
+
+    // the first worker is busy and never polls, so the second worker must take every message, including those
+    // in the lanes homed on the first worker.
+    final ShardedDispatchQueue.Cursor idle = queue.newCursor(1);
+
+    for (int i = 0; i < 32; i++) {
+      assertTrue(queue.offer(createMessage("Subject" + i, 0), 1, TimeUnit.SECONDS));
+    }
+
+    int taken = 0;
+    while (idle.poll(100, TimeUnit.MILLISECONDS) != null) {
+      taken++;
+    }
+    assertEquals(32, taken);
+    assertEquals(0, queue.size());
+  }
+
+  public void testOfferTimesOutWhenFull() throws InterruptedException {
+    final ShardedDispatchQueue queue
+            = new ShardedDispatchQueue(1, 2, 1, ShardedDispatchQueue.ShardKey.Subject);
+
+    assertTrue(queue.offer(createMessage("A", 0), 10, TimeUnit.MILLISECONDS));
+    assertTrue(queue.offer(createMessage("A", 1), 10, TimeUnit.MILLISECONDS));
+    assertFalse(queue.offer(createMessage("A", 2), 10, TimeUnit.MILLISECONDS));
+
+    assertNotNull(queue.newCursor(0).poll(10, TimeUnit.MILLISECONDS));
+    assertTrue(queue.offer(createMessage("A", 2), 10, TimeUnit.MILLISECONDS));
+  }
+
+  public void testBatchOfferPreservesOrder() throws InterruptedException {
+    final ShardedDispatchQueue queue
+            = new ShardedDispatchQueue(2, 64, 8, ShardedDispatchQueue.ShardKey.Subject);
+
+    final List<Message> batch = new ArrayList<Message>();
+    for (int i = 0; i < 32; i++) {
+      batch.add(createMessage("Subject" + (i / 8), i));
+    }
+    assertTrue(queue.offer(batch, 10, TimeUnit.MILLISECONDS));
+    assertEquals(32, queue.size());
+
+    final Map<String, Integer> lastSeen = new HashMap<String, Integer>();
+    final ShardedDispatchQueue.Cursor cursor = queue.newCursor(0);
+    Message message;
+    int taken = 0;
+    while ((message = cursor.poll(100, TimeUnit.MILLISECONDS)) != null) {
+      final Integer sequence = message.get(Integer.class, "Sequence");
+      final Integer last = lastSeen.put(message.getSubject(), sequence);
+      assertTrue(last == null || last == sequence - 1);
+      taken++;
+    }
+    assertEquals(32, taken);
+  }
+
+  public void testBatchOfferWaitsForWholeBatch() throws InterruptedException {
+    final ShardedDispatchQueue queue
+            = new ShardedDispatchQueue(1, 4, 1, ShardedDispatchQueue.ShardKey.Subject);
+
+    assertTrue(queue.offer(createMessage("A", 0), 10, TimeUnit.MILLISECONDS));
+    assertFalse(queue.offer(Arrays.asList(createMessage("A", 1), createMessage("A", 2), createMessage("A", 3),
+            createMessage("A", 4)), 10, TimeUnit.MILLISECONDS));
+    assertEquals(1, queue.size());
+
+    try {
+      queue.offer(Arrays.asList(createMessage("A", 1), createMessage("A", 2), createMessage("A", 3),
+              createMessage("A", 4), createMessage("A", 5)), 10, TimeUnit.MILLISECONDS);
+      fail("batch larger than the queue should be rejected");
+    }
+    catch (IllegalArgumentException e) {
+      // expected.
+    }
+  }
+}
@@ -18,12 +18,15 @@ package org.jboss.errai.bus.server;
 
 import junit.framework.TestCase;
 import org.jboss.errai.bus.client.tests.support.RandomProvider;
+import org.jboss.errai.bus.server.io.buffers.BackpressureHandler;
+import org.jboss.errai.bus.server.io.buffers.Buffer;
 import org.jboss.errai.bus.server.io.buffers.BufferColor;
 import org.jboss.errai.bus.server.io.buffers.TransmissionBuffer;
 
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -32,7 +35,10 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -100,6 +106,159 @@ public class TransmissionBufferTests extends TestCase {
   }
 
 
+  public void testBulkWriteCycle() throws IOException {
+    final TransmissionBuffer[] buffers = {TransmissionBuffer.create(10, 10), TransmissionBuffer.createDirect(10, 10)};
+
+    final String s = "12345789012345";
+    final byte[] bytes = s.getBytes();
+
+    for (TransmissionBuffer buffer : buffers) {
+      final BufferColor color = BufferColor.getNewColor();
+
+      for (int i = 0; i < 100000; i++) {
+        final ByteArrayOutputStream bOutputStream = new ByteArrayOutputStream();
+
+        if (i % 2 == 0) {
+          buffer.write(bytes, 0, bytes.length, color);
+        }
+        else {
+          final ByteBuffer source = ByteBuffer.allocateDirect(bytes.length);
+          source.put(bytes).flip();
+          buffer.write(source, color);
+          assertFalse(source.hasRemaining());
+        }
+
+        buffer.read(bOutputStream, color);
+
+        assertEquals(s, new String(bOutputStream.toByteArray()));
+      }
+    }
+  }
+
+  public void testEncodedWriteCycle() throws IOException {
+    final TransmissionBuffer[] buffers = {TransmissionBuffer.create(10, 10), TransmissionBuffer.createDirect(10, 10)};
+
+    // ascii, two and three byte characters, a surrogate pair, and an unpaired surrogate.
+    final String[] strings = {"{\"a\":1}", "{\"\u00e9\u00df\":\"\u20ac\u4e2d\"}", "\ud83d\ude00!", "a\ud800b"};
+
+    for (TransmissionBuffer buffer : buffers) {
+      final BufferColor color = BufferColor.getNewColor();
+
+      for (int i = 0; i < 10000; i++) {
+        final String s = strings[i % strings.length];
+        final ByteArrayOutputStream bOutputStream = new ByteArrayOutputStream();
+
+        buffer.write(s, color);
+        buffer.read(bOutputStream, color);
+
+        assertTrue(Arrays.equals(s.getBytes("UTF-8"), bOutputStream.toByteArray()));
+      }
+    }
+  }
+
+  public void testReadToChannel() throws IOException {
+    final TransmissionBuffer[] buffers = {TransmissionBuffer.create(10, 20), TransmissionBuffer.createDirect(10, 20)};
+
+    final String stringA = "12345678";
+    final String stringB = "ABCDEFGH";
+    final String stringC = "IJKLMNOP";
+
+    for (TransmissionBuffer buffer : buffers) {
+      final BufferColor colorA = BufferColor.getNewColor();
+      final BufferColor colorB = BufferColor.getNewColor();
+
+      for (int i = 0; i < 100000; i++) {
+        buffer.write(new ByteArrayInputStream(stringA.getBytes()), colorA);
+        buffer.write(new ByteArrayInputStream(stringB.getBytes()), colorB);
+        buffer.write(new ByteArrayInputStream(stringC.getBytes()), BufferColor.getAllBuffersColor());
+
+        ByteArrayOutputStream bOutputStream = new ByteArrayOutputStream();
+        assertTrue(buffer.read(Channels.newChannel(bOutputStream), colorA));
+        assertEquals(stringA + stringC, new String(bOutputStream.toByteArray()));
+
+        bOutputStream = new ByteArrayOutputStream();
+        assertTrue(buffer.read(Channels.newChannel(bOutputStream), colorB));
+        assertEquals(stringB + stringC, new String(bOutputStream.toByteArray()));
+      }
+    }
+  }
+
+  public void testTruncatedStreamIsDiscarded() throws IOException {
+    final TransmissionBuffer[] buffers = {TransmissionBuffer.create(10, 20), TransmissionBuffer.createDirect(10, 20)};
+
+    for (TransmissionBuffer buffer : buffers) {
+      final BufferColor color = BufferColor.getNewColor();
+      buffer.write(new ByteArrayInputStream("before".getBytes()), color);
+
+      try {
+        buffer.write(64, new ByteArrayInputStream("short".getBytes()), color);
+        fail("expected the write to fail");
+      }
+      catch (EOFException e) {
+        // expected
+      }
+
+      buffer.write(new ByteArrayInputStream("after".getBytes()), color);
+
+      final ByteArrayOutputStream bOutputStream = new ByteArrayOutputStream();
+      buffer.read(bOutputStream, color);
+      assertEquals("beforeafter", new String(bOutputStream.toByteArray()));
+    }
+  }
+
+  public void testStalledWriterDoesNotHoldUpOtherWriters() throws Exception {
+    final TransmissionBuffer buffer = TransmissionBuffer.create(10, 20);
+    final BufferColor colorA = BufferColor.getNewColor();
+    final BufferColor colorB = BufferColor.getNewColor();
+
+    final CountDownLatch reading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final InputStream stalled = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        reading.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          throw new IOException("interrupted");
+        }
+        return 'A';
+      }
+    };
+
+    final Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          buffer.write(1, stalled, colorA);
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    writer.start();
+    assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+    // the write behind the stalled one returns, although its chunk is not visible until the stalled one publishes.
+    buffer.write(new ByteArrayInputStream("B".getBytes()), colorB);
+    ByteArrayOutputStream bOutputStream = new ByteArrayOutputStream();
+    buffer.read(bOutputStream, colorB);
+    assertEquals("", new String(bOutputStream.toByteArray()));
+
+    release.countDown();
+    writer.join(5000);
+
+    bOutputStream = new ByteArrayOutputStream();
+    buffer.read(bOutputStream, colorB);
+    assertEquals("B", new String(bOutputStream.toByteArray()));
+
+    bOutputStream = new ByteArrayOutputStream();
+    buffer.read(bOutputStream, colorA);
+    assertEquals("A", new String(bOutputStream.toByteArray()));
+  }
+
   public void testColorInterleaving() throws IOException {
     TransmissionBuffer buffer = TransmissionBuffer.create(10, 20);
 
@@ -729,6 +888,81 @@ public class TransmissionBufferTests extends TestCase {
 
   }
 
+  public void testBackpressureOnSlowestColor() throws IOException {
+    final TransmissionBuffer buffer = TransmissionBuffer.create(10, 100);
+
+    final BufferColor slow = BufferColor.getNewColorFromHead(buffer);
+    final BufferColor fast = BufferColor.getNewColorFromHead(buffer);
+    buffer.registerColor(slow);
+    buffer.registerColor(fast);
+
+    final List<BufferColor> handled = new ArrayList<BufferColor>();
+    final ByteArrayOutputStream pagedOut = new ByteArrayOutputStream();
+
+    buffer.setBackpressureHandler(new BackpressureHandler() {
+      @Override
+      public void onHighWaterMark(Buffer buf, BufferColor slowestColor, BufferColor writeColor, long lag)
+              throws IOException {
+        handled.add(slowestColor);
+        assertSame(BufferColor.getAllBuffersColor(), writeColor);
+        assertTrue(lag >= 50);
+        // drain the slow color elsewhere, as the bus does when paging a queue to disk.
+        buf.read(pagedOut, slowestColor);
+      }
+    }, 0.5f);
+
+    final StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      final String s = "<" + (i % 10) + ">";
+      expected.append(s);
+      buffer.write(new ByteArrayInputStream(s.getBytes()), BufferColor.getAllBuffersColor());
+
+      final ByteArrayOutputStream bOutputStream = new ByteArrayOutputStream();
+      buffer.read(bOutputStream, fast);
+      assertEquals(s, new String(bOutputStream.toByteArray()));
+
+      assertTrue(buffer.getLag(slow) <= 50);
+    }
+
+    buffer.read(pagedOut, slow);
+
+    assertFalse(handled.isEmpty());
+    for (BufferColor color : handled) {
+      assertSame(slow, color);
+    }
+    assertEquals(expected.toString(), new String(pagedOut.toByteArray()));
+  }
+
+  public void testBackpressureShedsWrite() throws IOException {
+    final TransmissionBuffer buffer = TransmissionBuffer.create(10, 100);
+
+    final BufferColor slow = BufferColor.getNewColorFromHead(buffer);
+    buffer.registerColor(slow);
+
+    buffer.setBackpressureHandler(new BackpressureHandler() {
+      @Override
+      public void onHighWaterMark(Buffer buf, BufferColor slowestColor, BufferColor writeColor, long lag)
+              throws IOException {
+        throw new IOException("shed");
+      }
+    }, 0.5f);
+
+    for (int i = 0; i < 50; i++) {
+      buffer.write(new ByteArrayInputStream("<x>".getBytes()), slow);
+    }
+
+    try {
+      buffer.write(new ByteArrayInputStream("<x>".getBytes()), slow);
+      fail("write should have been shed");
+    }
+    catch (IOException e) {
+      assertEquals("shed", e.getMessage());
+    }
+
+    buffer.unregisterColor(slow);
+    buffer.write(new ByteArrayInputStream("<x>".getBytes()), slow);
+  }
+
   public void testBufferOverFlowCondition() throws IOException {
     final TransmissionBuffer buffer = TransmissionBuffer.create(100, 2);
 
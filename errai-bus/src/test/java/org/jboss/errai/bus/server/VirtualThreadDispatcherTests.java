@@ -0,0 +1,306 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import org.jboss.errai.bus.client.api.Message;
+import org.jboss.errai.bus.client.api.base.CommandMessage;
+import org.jboss.errai.bus.server.async.VirtualThreads;
+import org.jboss.errai.bus.server.mock.MockErraiServiceConfigurator;
+
+/**
+ * Tests the bound on deliveries in flight in {@link VirtualThreadDispatcher}, and the creation of threads by
+ * {@link VirtualThreads} on JVMs with and without virtual threads.
+ */
+public class VirtualThreadDispatcherTests extends TestCase {
+  private ServerMessageBusImpl bus;
+
+  private final AtomicInteger delivered = new AtomicInteger();
+  private final List<Thread> deliveryThreads = new CopyOnWriteArrayList<Thread>();
+  private volatile CountDownLatch release = new CountDownLatch(0);
+  private final List<String> errors = new CopyOnWriteArrayList<String>();
+
+  /**
+   * Records the deliveries, which block until the test releases them, and the errors sent to the client.
+   */
+  @Override
+  protected void setUp() throws Exception {
+    bus = new ServerMessageBusImpl(new MockErraiServiceConfigurator()) {
+      @Override
+      public void sendGlobal(Message message) {
+        deliver(1);
+      }
+
+      @Override
+      public void sendGlobal(List<Message> messages) {
+        deliver(messages.size());
+      }
+
+      @Override
+      public void send(Message message) {
+        errors.add(message.get(String.class, "ErrorMessage"));
+      }
+    };
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    release.countDown();
+    bus.stop();
+  }
+
+  private void deliver(final int count) {
+    deliveryThreads.add(Thread.currentThread());
+    try {
+      release.await();
+    }
+    catch (InterruptedException e) {
+      return;
+    }
+    delivered.addAndGet(count);
+  }
+
+  private static Message message() {
+    return message("VirtualThreadDispatcherTests");
+  }
+
+  private static Message message(final String subject) {
+    return CommandMessage.createWithParts(new HashMap<String, Object>()).toSubject(subject);
+  }
+
+  private VirtualThreadDispatcher platformDispatcher(final int maxInFlight) {
+    return platformDispatcher(maxInFlight, 30000);
+  }
+
+  /**
+   * A dispatcher which delivers on platform threads, so the bound can be tested on any JVM.
+   */
+  private VirtualThreadDispatcher platformDispatcher(final int maxInFlight, final long timeout) {
+    return new VirtualThreadDispatcher(bus, maxInFlight, timeout) {
+      @Override
+      protected Thread newThread(Runnable delivery) {
+        final Thread thread = new Thread(delivery);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  private static void waitFor(final AtomicInteger value, final int expected) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (value.get() < expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, value.get());
+  }
+
+  private static void waitForInFlight(final VirtualThreadDispatcher dispatcher, final int expected)
+          throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (dispatcher.getInFlightCount() != expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, dispatcher.getInFlightCount());
+  }
+
+  public void testInFlightDeliveriesAreBounded() throws Exception {
+    release = new CountDownLatch(1);
+    final VirtualThreadDispatcher dispatcher = platformDispatcher(2);
+
+    assertTrue(dispatcher.dispatch(message(), 1, TimeUnit.SECONDS));
+    assertTrue(dispatcher.dispatch(Arrays.asList(message(), message()), 1, TimeUnit.SECONDS));
+    waitForInFlight(dispatcher, 2);
+
+    assertFalse(dispatcher.dispatch(message(), 50, TimeUnit.MILLISECONDS));
+    assertFalse(dispatcher.dispatch(Arrays.asList(message()), 50, TimeUnit.MILLISECONDS));
+
+    release.countDown();
+    waitFor(delivered, 3);
+    waitForInFlight(dispatcher, 0);
+
+    assertTrue(dispatcher.dispatch(message(), 1, TimeUnit.SECONDS));
+    assertTrue(dispatcher.dispatch(message(), 1, TimeUnit.SECONDS));
+    waitFor(delivered, 5);
+  }
+
+  public void testWaitingDeliveryStartsWhenOneFinishes() throws Exception {
+    release = new CountDownLatch(1);
+    final VirtualThreadDispatcher dispatcher = platformDispatcher(1);
+    assertTrue(dispatcher.dispatch(message(), 1, TimeUnit.SECONDS));
+
+    new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        }
+        catch (InterruptedException e) {
+          // fall through
+        }
+        release.countDown();
+      }
+    }.start();
+
+    assertTrue(dispatcher.dispatch(message(), 5, TimeUnit.SECONDS));
+    waitFor(delivered, 2);
+  }
+
+  public void testTimeoutInBatchOnlyAffectsExpiredMessage() throws Exception {
+    release = new CountDownLatch(1);
+    final VirtualThreadDispatcher dispatcher = platformDispatcher(1, 200);
+    assertTrue(dispatcher.dispatch(Arrays.asList(message("First"), message("Second")), 1, TimeUnit.SECONDS));
+    waitForInFlight(dispatcher, 1);
+
+    Thread.sleep(300);
+    dispatcher.interruptExpired();
+    waitForInFlight(dispatcher, 1);
+
+    // the second message has a fresh expiry, and is not interrupted by the timeout of the first.
+    dispatcher.interruptExpired();
+    release.countDown();
+    waitFor(delivered, 1);
+    waitForInFlight(dispatcher, 0);
+
+    assertEquals(1, errors.size());
+    assertTrue(errors.get(0), errors.get(0).contains("'First'"));
+  }
+
+  public void testStoppedDispatcherRejectsDeliveries() throws Exception {
+    final VirtualThreadDispatcher dispatcher = platformDispatcher(2);
+    dispatcher.stop();
+    assertFalse(dispatcher.dispatch(message(), 50, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * A delivery which cannot be started gives back its place, so the bound is not used up by failures.
+   */
+  public void testFailedThreadCreationReleasesPermit() throws Exception {
+    final VirtualThreadDispatcher dispatcher = new VirtualThreadDispatcher(bus, 1, 30000) {
+      @Override
+      protected Thread newThread(Runnable delivery) {
+        throw new UnsupportedOperationException("no threads");
+      }
+    };
+
+    for (int i = 0; i < 3; i++) {
+      try {
+        dispatcher.dispatch(message(), 50, TimeUnit.MILLISECONDS);
+        fail("expected an UnsupportedOperationException");
+      }
+      catch (UnsupportedOperationException e) {
+        // expected
+      }
+    }
+    assertEquals(0, dispatcher.getInFlightCount());
+  }
+
+  public void testDeliveryOnVirtualThread() throws Exception {
+    final VirtualThreadDispatcher dispatcher = new VirtualThreadDispatcher(bus, 1, 30000);
+    if (!VirtualThreads.isSupported()) {
+      try {
+        dispatcher.dispatch(message(), 50, TimeUnit.MILLISECONDS);
+        fail("expected an UnsupportedOperationException");
+      }
+      catch (UnsupportedOperationException e) {
+        // expected
+      }
+      return;
+    }
+
+    assertTrue(dispatcher.dispatch(message(), 1, TimeUnit.SECONDS));
+    waitFor(delivered, 1);
+    assertTrue(isVirtual(deliveryThreads.get(0)));
+  }
+
+  public void testNewThreadFallsBackToPlatformThread() throws Exception {
+    final String enabled = System.getProperty(VirtualThreads.VIRTUAL_THREADS_PROPERTY);
+    System.setProperty(VirtualThreads.VIRTUAL_THREADS_PROPERTY, "true");
+    try {
+      final Thread thread = VirtualThreads.newThread(new Runnable() {
+        @Override
+        public void run() {
+        }
+      }, "VirtualThreadDispatcherTests");
+
+      assertEquals("VirtualThreadDispatcherTests", thread.getName());
+      assertEquals(Thread.State.NEW, thread.getState());
+      assertEquals(VirtualThreads.isSupported(), VirtualThreads.isEnabled());
+      if (VirtualThreads.isSupported()) {
+        assertTrue(isVirtual(thread));
+      }
+      else {
+        assertTrue(thread.isDaemon());
+      }
+    }
+    finally {
+      if (enabled == null) {
+        System.clearProperty(VirtualThreads.VIRTUAL_THREADS_PROPERTY);
+      }
+      else {
+        System.setProperty(VirtualThreads.VIRTUAL_THREADS_PROPERTY, enabled);
+      }
+    }
+  }
+
+  public void testNewThreadWithoutPropertyIsPlatformThread() throws Exception {
+    if (Boolean.getBoolean(VirtualThreads.VIRTUAL_THREADS_PROPERTY)) {
+      return;
+    }
+
+    assertFalse(VirtualThreads.isEnabled());
+    final Thread thread = VirtualThreads.newThread(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }, "VirtualThreadDispatcherTests");
+    assertTrue(thread.isDaemon());
+    assertFalse(isVirtual(thread));
+  }
+
+  public void testNewVirtualThreadWithoutSupport() throws Exception {
+    if (VirtualThreads.isSupported()) {
+      return;
+    }
+
+    try {
+      VirtualThreads.newVirtualThread(new Runnable() {
+        @Override
+        public void run() {
+        }
+      }, "VirtualThreadDispatcherTests");
+      fail("expected an UnsupportedOperationException");
+    }
+    catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  private static boolean isVirtual(final Thread thread) throws Exception {
+    if (!VirtualThreads.isSupported()) {
+      return false;
+    }
+    return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.bus.server.service;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ServiceDiscoveryIndexTests extends TestCase {
+  public interface Greeter {
+    String greet(String name);
+  }
+
+  static class GreeterService implements Greeter {
+    public String greet(String name) {
+      return "hello " + name;
+    }
+
+    void reset(int count, String[] names) {
+    }
+
+    void ping() {
+    }
+  }
+
+  private File file;
+
+  @Override
+  protected void setUp() throws Exception {
+    file = File.createTempFile("errai-services", ".idx");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+  }
+
+  private static ServiceDiscoveryIndex.Entry entry() throws Exception {
+    final Map<String, Method> commands = new LinkedHashMap<String, Method>();
+    commands.put("Reset", GreeterService.class.getDeclaredMethod("reset", int.class, String[].class));
+    commands.put("Ping", GreeterService.class.getDeclaredMethod("ping"));
+    return new ServiceDiscoveryIndex.Entry(GreeterService.class, "Greeter", true, commands, Greeter.class);
+  }
+
+  public void testRoundTrip() throws Exception {
+    ServiceDiscoveryIndex.store(file, "key1", Arrays.asList(entry()));
+
+    final List<ServiceDiscoveryIndex.Entry> entries
+        = ServiceDiscoveryIndex.load(file, "key1", getClass().getClassLoader());
+
+    assertNotNull(entries);
+    assertEquals(1, entries.size());
+
+    final ServiceDiscoveryIndex.Entry loaded = entries.get(0);
+    final ServiceDiscoveryIndex.Entry original = entry();
+    assertEquals(GreeterService.class, loaded.type);
+    assertEquals("Greeter", loaded.name);
+    assertTrue(loaded.local);
+    assertEquals(Greeter.class, loaded.remoteInterface);
+    assertEquals(original.commandPoints, loaded.commandPoints);
+  }
+
+  public void testIndexWithAnotherKeyIsIgnored() throws Exception {
+    ServiceDiscoveryIndex.store(file, "key1", Arrays.asList(entry()));
+    assertNull(ServiceDiscoveryIndex.load(file, "key2", getClass().getClassLoader()));
+  }
+
+  public void testMissingIndexIsIgnored() throws Exception {
+    file.delete();
+    assertNull(ServiceDiscoveryIndex.load(file, "key1", getClass().getClassLoader()));
+  }
+}
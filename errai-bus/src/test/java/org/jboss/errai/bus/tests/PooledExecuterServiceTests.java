@@ -17,6 +17,7 @@
 package org.jboss.errai.bus.tests;
 
 import junit.framework.TestCase;
+import org.jboss.errai.common.client.api.tasks.AsyncTask;
 import org.jboss.errai.common.client.util.TimeUnit;
 import org.jboss.errai.bus.server.async.scheduling.PooledExecutorService;
 
@@ -24,9 +25,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class PooledExecuterServiceTests extends TestCase {
@@ -269,4 +272,60 @@ public class PooledExecuterServiceTests extends TestCase {
       e.printStackTrace();
     }
   }
+
+  public void testDelayedTasksNeverRunEarly() throws InterruptedException {
+    PooledExecutorService svc = new PooledExecutorService(1000, PooledExecutorService.SaturationPolicy.CallerRuns);
+    svc.start();
+
+    final int count = 5000;
+    final CountDownLatch latch = new CountDownLatch(count);
+    final AtomicInteger early = new AtomicInteger();
+
+    for (int i = 0; i < count; i++) {
+      final long delay = i % 250;
+      final long due = System.currentTimeMillis() + delay;
+      svc.schedule(new Runnable() {
+        public void run() {
+          if (System.currentTimeMillis() < due) {
+            early.incrementAndGet();
+          }
+          latch.countDown();
+        }
+      }, TimeUnit.MILLISECONDS, delay);
+    }
+
+    assertTrue("timed out waiting for delayed tasks", latch.await(10, java.util.concurrent.TimeUnit.SECONDS));
+    assertEquals(0, early.get());
+    svc.shutdown();
+  }
+
+  public void testCancelledTasksDoNotRun() throws InterruptedException {
+    PooledExecutorService svc = new PooledExecutorService(1000, PooledExecutorService.SaturationPolicy.CallerRuns);
+    svc.start();
+
+    final AtomicInteger runs = new AtomicInteger();
+    final List<AsyncTask> tasks = new ArrayList<AsyncTask>();
+    for (int i = 0; i < 1000; i++) {
+      tasks.add(svc.schedule(new Runnable() {
+        public void run() {
+          runs.incrementAndGet();
+        }
+      }, TimeUnit.MILLISECONDS, 100));
+    }
+    final AsyncTask repeating = svc.scheduleRepeating(new Runnable() {
+      public void run() {
+        runs.incrementAndGet();
+      }
+    }, TimeUnit.MILLISECONDS, 50, 10);
+
+    for (AsyncTask task : tasks) {
+      task.cancel(false);
+    }
+    repeating.cancel(false);
+
+    Thread.sleep(300);
+    assertEquals(0, runs.get());
+    assertEquals(0, svc.getScheduledTaskCount());
+    svc.shutdown();
+  }
 }
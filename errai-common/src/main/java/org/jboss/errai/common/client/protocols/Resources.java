@@ -20,5 +20,5 @@ package org.jboss.errai.common.client.protocols;
  * @author Mike Brock
  */
 public enum Resources {
-  Session, SessionID, RetryAttempts
+  Session, SessionID, RetryAttempts, EncodedPayload
 }
@@ -15,19 +15,22 @@
  */
 package org.jboss.errai.common.metadata;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.annotation.Annotation;
 import java.lang.annotation.Inherited;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -36,7 +39,14 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Pattern;
 
 import javassist.bytecode.ClassFile;
@@ -60,7 +70,10 @@ import org.jboss.errai.reflections.vfs.Vfs;
  * href="http://code.google.com/p/reflections/">Reflections</a> library.
  * <p/>
  * <p/>
- * The initial set of config Url's (entry points) is discovered through ErraiApp.properties.
+ * The initial set of config Url's (entry points) is discovered through ErraiApp.properties. Each of them is scanned
+ * on its own, in parallel, and the results for a jar or directory are kept in the Errai cache directory, so that on
+ * the next start only the roots which have changed are scanned again (see {@link ScanIndex}). Setting
+ * <tt>errai.devel.nocache</tt> turns this off.
  *
  * @author Heiko Braun <hbraun@redhat.com>
  * @author Mike Brock <cbrock@redhat.com>
@@ -69,80 +82,263 @@ import org.jboss.errai.reflections.vfs.Vfs;
 public class MetaDataScanner extends Reflections {
   public static final String ERRAI_CONFIG_STUB_NAME = "ErraiApp.properties";
 
+  private static final Predicate<String> PROPERTY_FILES = new Predicate<String>() {
+    public boolean apply(String file) {
+      return file.endsWith(".properties");
+    }
+  };
 
-  private static final PropertyScanner propScanner = new PropertyScanner(
-          new Predicate<String>() {
-            public boolean apply(String file) {
-              return file.endsWith(".properties");
-            }
-          }
-  );
+  private static final String FIELDS = "fields";
+  private static final String METHODS = "methods";
+  private static final String TYPES = "types";
+
+  private static final boolean nocache = Boolean.getBoolean("errai.devel.nocache");
+
+  private final Scanners scanners;
+
+  /**
+   * Annotation name to the digests of the classes annotated with it, sorted by class name.
+   */
+  private final Map<String, Map<String, byte[]>> classDigests = new HashMap<String, Map<String, byte[]>>();
+
+  private final Map<String, Properties> properties = new HashMap<String, Properties>();
 
   MetaDataScanner(List<URL> urls) {
-    super(getConfiguration(urls));
-    scan();
+    this(urls, new Scanners());
+    index(urls);
   }
 
-  private static final Map<String, Set<SortableClassFileWrapper>> annotationsToClassFile =
-          new TreeMap<String, Set<SortableClassFileWrapper>>();
+  private MetaDataScanner(List<URL> urls, Scanners scanners) {
+    super(scanners.configure(urls));
+    this.scanners = scanners;
+  }
 
-  private static class SortableClassFileWrapper implements Comparable<SortableClassFileWrapper> {
-    private String name;
-    private ClassFile classFile;
+  /**
+   * Scans each of the roots in parallel, or reads back its index if it has not changed since it was last scanned,
+   * and merges the results in the order the roots were given.
+   */
+  private void index(final List<URL> urls) {
+    final List<Callable<ScanIndex>> tasks = new ArrayList<Callable<ScanIndex>>(urls.size());
+    for (final URL url : urls) {
+      tasks.add(new Callable<ScanIndex>() {
+        @Override
+        public ScanIndex call() throws Exception {
+          return indexOf(url);
+        }
+      });
+    }
 
-    private SortableClassFileWrapper(String name, ClassFile classFile) {
-      this.name = name;
-      this.classFile = classFile;
+    final int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+    if (threads <= 1) {
+      for (Callable<ScanIndex> task : tasks) {
+        try {
+          merge(task.call());
+        }
+        catch (RuntimeException e) {
+          throw e;
+        }
+        catch (Exception e) {
+          throw new RuntimeException("failed to scan class metadata", e);
+        }
+      }
+      return;
     }
 
-    public ClassFile getClassFile() {
-      return classFile;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        final Thread thread = new Thread(r, "errai-metadata-scanner");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    try {
+      for (Future<ScanIndex> future : executor.invokeAll(tasks)) {
+        merge(future.get());
+      }
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException("failed to scan class metadata", e.getCause());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted while scanning class metadata", e);
+    }
+    finally {
+      executor.shutdownNow();
     }
+  }
 
-    @Override
-    public int compareTo(SortableClassFileWrapper o) {
-      return name.compareTo(o.name);
+  private static ScanIndex indexOf(final URL url) {
+    final String key = nocache ? null : ScanIndex.fingerprint(url);
+
+    File indexFile = null;
+    if (key != null) {
+      indexFile = ScanIndex.indexFileFor(url);
+      final ScanIndex cached = ScanIndex.load(indexFile, key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    final Scanners scanners = new Scanners();
+    new MetaDataScanner(Collections.singletonList(url), scanners).scan();
+    final ScanIndex index = scanners.toIndex();
+
+    if (key != null) {
+      index.store(indexFile, key);
+    }
+    return index;
+  }
+
+  private void merge(final ScanIndex index) {
+    scanners.fields.merge(index.stores.get(FIELDS));
+    scanners.methods.merge(index.stores.get(METHODS));
+    scanners.types.merge(index.stores.get(TYPES));
+
+    for (Map.Entry<String, Map<String, byte[]>> entry : index.classDigests.entrySet()) {
+      Map<String, byte[]> digests = classDigests.get(entry.getKey());
+      if (digests == null) {
+        classDigests.put(entry.getKey(), digests = new TreeMap<String, byte[]>());
+      }
+      digests.putAll(entry.getValue());
+    }
+
+    for (Map.Entry<String, Properties> entry : index.properties.entrySet()) {
+      final Properties merged = properties.get(entry.getKey());
+      if (merged == null) {
+        properties.put(entry.getKey(), entry.getValue());
+      }
+      else {
+        merged.putAll(entry.getValue());
+      }
     }
   }
 
-  private static Configuration getConfiguration(List<URL> urls) {
-
-    return new ConfigurationBuilder()
-            .setUrls(urls)
-            .setScanners(
-                    new FieldAnnotationsScanner(),
-                    new MethodAnnotationsScanner(),
-                    new TypeAnnotationsScanner() {
-                      @Override
-                      public void scan(Object cls) {
-                        @SuppressWarnings("unchecked")
-                        MetadataAdapter adapter = getMetadataAdapter();
-
-                        final String className = adapter.getClassName(cls);
-
-                        // noinspection unchecked
-                        for (String annotationType : (List<String>) adapter.getClassAnnotationNames(cls)) {
-                          if (acceptResult(annotationType) ||
-                                  annotationType.equals(Inherited.class.getName())) { // as an exception, accept
-                            // Inherited as well
-                            getStore().put(annotationType, className);
-
-                            if (cls instanceof ClassFile) {
-                              Set<SortableClassFileWrapper> classes = annotationsToClassFile.get(annotationType);
-                              if (classes == null) {
-                                annotationsToClassFile.put(annotationType, classes =
-                                        new TreeSet<SortableClassFileWrapper>());
-                              }
-                              classes.add(new SortableClassFileWrapper(className, (ClassFile) cls));
-                            }
-                          }
-                        }
-
-                      }
-                    },
-                    propScanner
-            );
+  /**
+   * The scanners for one scan. Their results are copied out into a {@link ScanIndex} once the scan is done, so
+   * nothing read from the class files, javassist's <tt>ClassFile</tt>s included, outlives the scan.
+   */
+  private static class Scanners {
+    private final ScanIndex index = new ScanIndex();
+
+    private final FieldScanner fields = new FieldScanner();
+    private final MethodScanner methods = new MethodScanner();
+    private final TypeScanner types = new TypeScanner(index);
+    private final PropertyScanner properties = new PropertyScanner(PROPERTY_FILES);
+
+    private Configuration configure(final List<URL> urls) {
+      return new ConfigurationBuilder()
+              .setUrls(urls)
+              .setScanners(fields, methods, types, properties);
+    }
 
+    private ScanIndex toIndex() {
+      index.addResults(FIELDS, fields.results());
+      index.addResults(METHODS, methods.results());
+      index.addResults(TYPES, types.results());
+      index.properties.putAll(properties.getProperties());
+      return index;
+    }
+  }
+
+  private static class FieldScanner extends FieldAnnotationsScanner {
+    private Map<String, Collection<String>> results() {
+      return getStore().asMap();
+    }
+
+    private void merge(final Map<String, Set<String>> results) {
+      if (results == null) return;
+      for (Map.Entry<String, Set<String>> entry : results.entrySet()) {
+        getStore().putAll(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private static class MethodScanner extends MethodAnnotationsScanner {
+    private Map<String, Collection<String>> results() {
+      return getStore().asMap();
+    }
+
+    private void merge(final Map<String, Set<String>> results) {
+      if (results == null) return;
+      for (Map.Entry<String, Set<String>> entry : results.entrySet()) {
+        getStore().putAll(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Indexes type annotations, and records a digest of each annotated class, which
+   * {@link #getHashForTypesAnnotatedWith(String, Class)} is computed from.
+   */
+  private static class TypeScanner extends TypeAnnotationsScanner {
+    private final ScanIndex index;
+
+    private TypeScanner(final ScanIndex index) {
+      this.index = index;
+    }
+
+    @Override
+    public void scan(Object cls) {
+      @SuppressWarnings("unchecked")
+      MetadataAdapter adapter = getMetadataAdapter();
+
+      final String className = adapter.getClassName(cls);
+      byte[] digest = null;
+
+      // noinspection unchecked
+      for (String annotationType : (List<String>) adapter.getClassAnnotationNames(cls)) {
+        if (acceptResult(annotationType) ||
+                annotationType.equals(Inherited.class.getName())) { // as an exception, accept
+          // Inherited as well
+          getStore().put(annotationType, className);
+
+          if (cls instanceof ClassFile) {
+            if (digest == null) {
+              digest = digest((ClassFile) cls);
+            }
+            index.addClassDigest(annotationType, className, digest);
+          }
+        }
+      }
+    }
+
+    private Map<String, Collection<String>> results() {
+      return getStore().asMap();
+    }
+
+    private void merge(final Map<String, Set<String>> results) {
+      if (results == null) return;
+      for (Map.Entry<String, Set<String>> entry : results.entrySet()) {
+        getStore().putAll(entry.getKey(), entry.getValue());
+      }
+    }
+
+    private static byte[] digest(final ClassFile classFile) {
+      try {
+        final MessageDigest md = MessageDigest.getInstance("SHA-256");
+        final DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+          @Override
+          public void write(int b) {
+          }
+
+          @Override
+          public void write(byte[] b, int off, int len) {
+          }
+        }, md));
+        classFile.write(out);
+        out.flush();
+        return md.digest();
+      }
+      catch (Exception e) {
+        throw new RuntimeException("could not generate hash for " + classFile.getName(), e);
+      }
+    }
   }
 
   public static MetaDataScanner createInstance() {
@@ -184,15 +380,39 @@ public class MetaDataScanner extends Reflections {
   }
 
   public Set<Class<?>> getTypesAnnotatedWith(Class<? extends Annotation> annotation, Collection<String> packages) {
+    Map<String, Set<Class<?>>> byPackage = _packageCache.get(annotation);
+    if (byPackage == null) {
+      byPackage = new HashMap<String, Set<Class<?>>>();
+      for (Class<?> cls : getTypesAnnotatedWith(annotation)) {
+        final String packageName = packageOf(cls);
+        Set<Class<?>> types = byPackage.get(packageName);
+        if (types == null) {
+          byPackage.put(packageName, types = new HashSet<Class<?>>());
+        }
+        types.add(cls);
+      }
+
+      final Map<String, Set<Class<?>>> existing = _packageCache.putIfAbsent(annotation, byPackage);
+      if (existing != null) {
+        byPackage = existing;
+      }
+    }
+
     Set<Class<?>> results = new HashSet<Class<?>>();
-    for (Class<?> cls : getTypesAnnotatedWith(annotation)) {
-      if (packages.contains(cls.getPackage().getName())) {
-        results.add(cls);
+    for (String packageName : packages) {
+      final Set<Class<?>> types = byPackage.get(packageName);
+      if (types != null) {
+        results.addAll(types);
       }
     }
     return results;
   }
 
+  private static String packageOf(Class<?> cls) {
+    final int idx = cls.getName().lastIndexOf('.');
+    return idx == -1 ? "" : cls.getName().substring(0, idx);
+  }
+
   public Set<Method> getMethodsAnnotatedWith(Class<? extends Annotation> annotation, Collection<String> packages) {
     Set<Method> results = new HashSet<Method>();
     for (Method method : getMethodsAnnotatedWith(annotation)) {
@@ -213,21 +433,29 @@ public class MetaDataScanner extends Reflections {
     return results;
   }
 
-  private Map<Class<? extends Annotation>, Set<Class<?>>> _annotationCache =
-          new HashMap<Class<? extends Annotation>, Set<Class<?>>>();
+  private final ConcurrentMap<Class<? extends Annotation>, Set<Class<?>>> _annotationCache =
+          new ConcurrentHashMap<Class<? extends Annotation>, Set<Class<?>>>();
+
+  private final ConcurrentMap<Class<? extends Annotation>, Map<String, Set<Class<?>>>> _packageCache =
+          new ConcurrentHashMap<Class<? extends Annotation>, Map<String, Set<Class<?>>>>();
 
   @Override
   public Set<Class<?>> getTypesAnnotatedWith(Class<? extends Annotation> annotation) {
     Set<Class<?>> types = _annotationCache.get(annotation);
     if (types == null) {
-      _annotationCache.put(annotation, types = super.getTypesAnnotatedWith(annotation));
+      types = super.getTypesAnnotatedWith(annotation);
+      final Set<Class<?>> existing = _annotationCache.putIfAbsent(annotation, types);
+      if (existing != null) {
+        types = existing;
+      }
     }
 
     return types;
   }
 
   public String getHashForTypesAnnotatedWith(String seed, Class<? extends Annotation> annotation) {
-    if (!annotationsToClassFile.containsKey(annotation.getName())) {
+    final Map<String, byte[]> digests = classDigests.get(annotation.getName());
+    if (digests == null) {
       return "0";
     }
     else {
@@ -238,13 +466,8 @@ public class MetaDataScanner extends Reflections {
           md.update(seed.getBytes());
         }
 
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        for (SortableClassFileWrapper classFileWrapper : annotationsToClassFile.get(annotation.getName())) {
-          byteArrayOutputStream.reset();
-          DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
-          classFileWrapper.getClassFile().write(dataOutputStream);
-          dataOutputStream.flush();
-          md.update(byteArrayOutputStream.toByteArray());
+        for (byte[] digest : digests.values()) {
+          md.update(digest);
         }
 
         return RebindUtils.hashToHexString(md.digest());
@@ -307,6 +530,6 @@ public class MetaDataScanner extends Reflections {
   }
 
   public Properties getProperties(String name) {
-    return propScanner.getProperties().get(name);
+    return properties.get(name);
   }
 }
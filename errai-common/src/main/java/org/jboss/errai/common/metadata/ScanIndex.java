@@ -0,0 +1,313 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.common.metadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The results of scanning a single classpath root (a jar or a directory): the annotation indexes built by each
+ * scanner, a digest of every class carrying an indexed annotation, and the property files found. An index can be
+ * written to the Errai cache directory, keyed by a fingerprint of the root, so that on the next start a root that has
+ * not changed is read back rather than scanned again.
+ * <p/>
+ * Only roots on the local file system are fingerprinted. A jar is identified by its size and modification time, and
+ * a directory by the names, sizes and modification times of the files in it.
+ */
+class ScanIndex {
+  private static final Logger log = LoggerFactory.getLogger(ScanIndex.class);
+
+  private static final int FORMAT_VERSION = 1;
+
+  /**
+   * The results of each scanner, by scanner name: annotation name to annotated elements.
+   */
+  final Map<String, Map<String, Set<String>>> stores = new HashMap<String, Map<String, Set<String>>>();
+
+  /**
+   * Annotation name to the digests of the classes annotated with it, by class name.
+   */
+  final Map<String, Map<String, byte[]>> classDigests = new HashMap<String, Map<String, byte[]>>();
+
+  /**
+   * The property files found, by file name.
+   */
+  final Map<String, Properties> properties = new HashMap<String, Properties>();
+
+  void addResults(final String store, final Map<String, Collection<String>> results) {
+    Map<String, Set<String>> target = stores.get(store);
+    if (target == null) {
+      stores.put(store, target = new HashMap<String, Set<String>>());
+    }
+
+    for (Map.Entry<String, Collection<String>> entry : results.entrySet()) {
+      Set<String> values = target.get(entry.getKey());
+      if (values == null) {
+        target.put(entry.getKey(), values = new LinkedHashSet<String>());
+      }
+      values.addAll(entry.getValue());
+    }
+  }
+
+  void addClassDigest(final String annotation, final String className, final byte[] digest) {
+    Map<String, byte[]> digests = classDigests.get(annotation);
+    if (digests == null) {
+      classDigests.put(annotation, digests = new TreeMap<String, byte[]>());
+    }
+    digests.put(className, digest);
+  }
+
+  /**
+   * Fingerprints a classpath root.
+   *
+   * @param url the root.
+   * @return the fingerprint, or null if the root is not on the local file system and cannot be indexed.
+   */
+  static String fingerprint(final URL url) {
+    if (!"file".equals(url.getProtocol())) {
+      return null;
+    }
+
+    try {
+      final File root = new File(url.toURI());
+      if (!root.exists()) {
+        return null;
+      }
+
+      final MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(String.valueOf(FORMAT_VERSION).getBytes("UTF-8"));
+      md.update(root.getAbsolutePath().getBytes("UTF-8"));
+      fingerprint(md, root, "");
+      return RebindUtils.hashToHexString(md.digest());
+    }
+    catch (Exception e) {
+      log.debug("could not fingerprint " + url, e);
+      return null;
+    }
+  }
+
+  private static void fingerprint(final MessageDigest md, final File file, final String path) throws IOException {
+    if (file.isDirectory()) {
+      final File[] children = file.listFiles();
+      if (children == null) {
+        return;
+      }
+
+      // the order files are listed in is unspecified, so sort them to keep the fingerprint stable.
+      final TreeMap<String, File> sorted = new TreeMap<String, File>();
+      for (File child : children) {
+        sorted.put(child.getName(), child);
+      }
+      for (Map.Entry<String, File> child : sorted.entrySet()) {
+        fingerprint(md, child.getValue(), path + "/" + child.getKey());
+      }
+    }
+    else {
+      md.update(path.getBytes("UTF-8"));
+      md.update(longToBytes(file.length()));
+      md.update(longToBytes(file.lastModified()));
+    }
+  }
+
+  private static byte[] longToBytes(final long value) {
+    final byte[] bytes = new byte[8];
+    for (int i = 0; i < 8; i++) {
+      bytes[i] = (byte) (value >>> (56 - i * 8));
+    }
+    return bytes;
+  }
+
+  /**
+   * @param url the classpath root.
+   * @return the file the index for the root is kept in.
+   */
+  static File indexFileFor(final URL url) {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(url.toExternalForm().getBytes("UTF-8"));
+      return new File(RebindUtils.getErraiCacheDir(), "scan-" + RebindUtils.hashToHexString(md.digest()) + ".idx");
+    }
+    catch (Exception e) {
+      throw new RuntimeException("could not name scan index for " + url, e);
+    }
+  }
+
+  /**
+   * Reads an index.
+   *
+   * @param file the index file.
+   * @param key  the fingerprint the index must have been written with.
+   * @return the index, or null if there is no index for that fingerprint.
+   */
+  static ScanIndex load(final File file, final String key) {
+    if (!file.exists()) {
+      return null;
+    }
+
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+          return null;
+        }
+
+        final ScanIndex index = new ScanIndex();
+
+        for (int s = readCount(in); s > 0; s--) {
+          final Map<String, Set<String>> store = new HashMap<String, Set<String>>();
+          index.stores.put(in.readUTF(), store);
+          for (int k = readCount(in); k > 0; k--) {
+            final String annotation = in.readUTF();
+            final Set<String> values = new LinkedHashSet<String>();
+            for (int v = readCount(in); v > 0; v--) {
+              values.add(in.readUTF());
+            }
+            store.put(annotation, values);
+          }
+        }
+
+        for (int a = readCount(in); a > 0; a--) {
+          final String annotation = in.readUTF();
+          for (int c = readCount(in); c > 0; c--) {
+            final String className = in.readUTF();
+            final byte[] digest = new byte[readCount(in)];
+            in.readFully(digest);
+            index.addClassDigest(annotation, className, digest);
+          }
+        }
+
+        for (int p = readCount(in); p > 0; p--) {
+          final Properties properties = new Properties();
+          index.properties.put(in.readUTF(), properties);
+          for (int e = readCount(in); e > 0; e--) {
+            properties.setProperty(in.readUTF(), in.readUTF());
+          }
+        }
+
+        if (in.read() != -1) {
+          throw new IOException("trailing data");
+        }
+        return index;
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      log.info("scan index is unreadable and will be rebuilt: " + file + " (" + e + ")");
+      return null;
+    }
+  }
+
+  /**
+   * Reads a count or length, rejecting values which cannot have been written, so a corrupt index is rebuilt rather
+   * than read as partial results. Every counted element takes at least one byte, so a count can never exceed the
+   * bytes left in the file.
+   */
+  private static int readCount(final DataInputStream in) throws IOException {
+    final int count = in.readInt();
+    if (count < 0 || count > in.available()) {
+      throw new IOException("bad count: " + count);
+    }
+    return count;
+  }
+
+  /**
+   * Writes the index, replacing any existing index.
+   *
+   * @param file the index file.
+   * @param key  the fingerprint of the root the index was built from.
+   */
+  void store(final File file, final String key) {
+    // write to a temporary file first, so a concurrent start never reads a partly written index.
+    final File tmp = new File(file.getPath() + ".tmp");
+    try {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(key);
+
+        out.writeInt(stores.size());
+        for (Map.Entry<String, Map<String, Set<String>>> store : stores.entrySet()) {
+          out.writeUTF(store.getKey());
+          out.writeInt(store.getValue().size());
+          for (Map.Entry<String, Set<String>> entry : store.getValue().entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String value : entry.getValue()) {
+              out.writeUTF(value);
+            }
+          }
+        }
+
+        out.writeInt(classDigests.size());
+        for (Map.Entry<String, Map<String, byte[]>> annotation : classDigests.entrySet()) {
+          out.writeUTF(annotation.getKey());
+          out.writeInt(annotation.getValue().size());
+          for (Map.Entry<String, byte[]> digest : annotation.getValue().entrySet()) {
+            out.writeUTF(digest.getKey());
+            out.writeInt(digest.getValue().length);
+            out.write(digest.getValue());
+          }
+        }
+
+        out.writeInt(properties.size());
+        for (Map.Entry<String, Properties> propertyFile : properties.entrySet()) {
+          out.writeUTF(propertyFile.getKey());
+          final Set<String> names = propertyFile.getValue().stringPropertyNames();
+          out.writeInt(names.size());
+          for (String name : names) {
+            out.writeUTF(name);
+            out.writeUTF(propertyFile.getValue().getProperty(name));
+          }
+        }
+      }
+      finally {
+        out.close();
+      }
+
+      if (!tmp.renameTo(file)) {
+        file.delete();
+        if (!tmp.renameTo(file)) {
+          log.warn("could not write scan index: " + file);
+        }
+      }
+    }
+    catch (IOException e) {
+      log.warn("could not write scan index: " + file, e);
+      tmp.delete();
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.common.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ScanIndex}.
+ */
+public class ScanIndexTest {
+  private File dir;
+
+  @Before
+  public void setup() {
+    dir = new File(System.getProperty("java.io.tmpdir"), "ScanIndexTest " + System.nanoTime());
+    dir.mkdirs();
+  }
+
+  @After
+  public void teardown() {
+    delete(dir);
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static File write(final File file, final String content) throws IOException {
+    file.getParentFile().mkdirs();
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private static URL urlOf(final File file) throws Exception {
+    return file.toURI().toURL();
+  }
+
+  private static ScanIndex sampleIndex() {
+    final ScanIndex index = new ScanIndex();
+
+    final Map<String, Collection<String>> results = new HashMap<String, Collection<String>>();
+    results.put("org.example.Portable", Arrays.asList("org.example.A", "org.example.B"));
+    index.addResults("TypeAnnotationsScanner", results);
+    index.addClassDigest("org.example.Portable", "org.example.A", new byte[]{1, 2, 3});
+
+    final Properties properties = new Properties();
+    properties.setProperty("errai.marshalling.serializableTypes", "org.example.C");
+    index.properties.put("ErraiApp.properties", properties);
+
+    return index;
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    final File file = new File(dir, "index.idx");
+    sampleIndex().store(file, "key");
+
+    final ScanIndex loaded = ScanIndex.load(file, "key");
+    assertNotNull(loaded);
+    assertEquals(new LinkedHashSet<String>(Arrays.asList("org.example.A", "org.example.B")),
+        loaded.stores.get("TypeAnnotationsScanner").get("org.example.Portable"));
+    assertArrayEquals(new byte[]{1, 2, 3}, loaded.classDigests.get("org.example.Portable").get("org.example.A"));
+    assertEquals("org.example.C",
+        loaded.properties.get("ErraiApp.properties").getProperty("errai.marshalling.serializableTypes"));
+    assertFalse("temporary file left behind", new File(file.getPath() + ".tmp").exists());
+  }
+
+  @Test
+  public void testIndexIsNotLoadedForAnotherFingerprint() throws Exception {
+    final File file = new File(dir, "index.idx");
+    sampleIndex().store(file, "key");
+
+    assertNull(ScanIndex.load(file, "other"));
+    assertNull(ScanIndex.load(new File(dir, "missing.idx"), "key"));
+  }
+
+  @Test
+  public void testFingerprintOfJarChangesWithSizeAndModificationTime() throws Exception {
+    final File jar = write(new File(dir, "lib.jar"), "content");
+    jar.setLastModified(1000000000L);
+    final String fingerprint = ScanIndex.fingerprint(urlOf(jar));
+    assertNotNull(fingerprint);
+    assertEquals(fingerprint, ScanIndex.fingerprint(urlOf(jar)));
+
+    jar.setLastModified(2000000000L);
+    final String touched = ScanIndex.fingerprint(urlOf(jar));
+    assertFalse(fingerprint.equals(touched));
+
+    write(jar, "longer content");
+    jar.setLastModified(2000000000L);
+    assertFalse(touched.equals(ScanIndex.fingerprint(urlOf(jar))));
+  }
+
+  @Test
+  public void testFingerprintOfDirectoryChangesWithItsFiles() throws Exception {
+    final File root = new File(dir, "classes");
+    final File cls = write(new File(root, "org/example/A.class"), "A");
+    cls.setLastModified(1000000000L);
+    final String fingerprint = ScanIndex.fingerprint(urlOf(root));
+    assertNotNull(fingerprint);
+
+    cls.setLastModified(2000000000L);
+    final String touched = ScanIndex.fingerprint(urlOf(root));
+    assertFalse(fingerprint.equals(touched));
+
+    write(new File(root, "org/example/B.class"), "B");
+    assertFalse(touched.equals(ScanIndex.fingerprint(urlOf(root))));
+  }
+
+  @Test
+  public void testFingerprintOfPathWithEscapedCharacters() throws Exception {
+    // the directory name contains a space, which is escaped in the URL.
+    final File jar = write(new File(dir, "lib.jar"), "content");
+    assertNotNull(ScanIndex.fingerprint(urlOf(jar)));
+  }
+
+  @Test
+  public void testNonFileRootIsNotFingerprinted() throws Exception {
+    assertNull(ScanIndex.fingerprint(new URL("http://localhost/lib.jar")));
+    assertNull(ScanIndex.fingerprint(urlOf(new File(dir, "missing.jar"))));
+  }
+
+  @Test
+  public void testTruncatedIndexIsRebuilt() throws Exception {
+    final File file = new File(dir, "index.idx");
+    sampleIndex().store(file, "key");
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(raf.length() - 5);
+    }
+    finally {
+      raf.close();
+    }
+    assertNull(ScanIndex.load(file, "key"));
+
+    sampleIndex().store(file, "key");
+    assertNotNull(ScanIndex.load(file, "key"));
+  }
+
+  @Test
+  public void testCorruptIndexIsRebuilt() throws Exception {
+    final File file = new File(dir, "index.idx");
+    sampleIndex().store(file, "key");
+
+    // overwrite everything after the header with 0xFF, which reads back as negative counts and lengths.
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      final int header = 4 + 2 + "key".length();
+      final byte[] garbage = new byte[(int) raf.length() - header];
+      Arrays.fill(garbage, (byte) 0xFF);
+      raf.seek(header);
+      raf.write(garbage);
+    }
+    finally {
+      raf.close();
+    }
+    assertNull(ScanIndex.load(file, "key"));
+
+    write(file, "not an index");
+    assertNull(ScanIndex.load(file, "key"));
+
+    sampleIndex().store(file, "key");
+    assertNotNull(ScanIndex.load(file, "key"));
+  }
+
+  @Test
+  public void testTrailingDataIsRejected() throws Exception {
+    final File file = new File(dir, "index.idx");
+    sampleIndex().store(file, "key");
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(raf.length());
+      raf.writeInt(0);
+    }
+    finally {
+      raf.close();
+    }
+    assertNull(ScanIndex.load(file, "key"));
+  }
+
+  @Test
+  public void testCorruptDigestLengthIsRejected() throws Exception {
+    final ScanIndex index = new ScanIndex();
+    index.addClassDigest("org.example.Portable", "org.example.A", new byte[]{1, 2, 3});
+    final File file = new File(dir, "index.idx");
+    index.store(file, "key");
+
+    // the digest length is the int in front of the last 3 digest bytes and the empty properties section.
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(raf.length() - 4 - 3 - 4);
+      raf.writeInt(Integer.MAX_VALUE);
+    }
+    finally {
+      raf.close();
+    }
+    assertNull(ScanIndex.load(file, "key"));
+  }
+}
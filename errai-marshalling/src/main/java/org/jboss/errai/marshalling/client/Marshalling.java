@@ -49,7 +49,7 @@ public abstract class Marshalling {
       return NumbersUtils.qualifiedNumericEncoding(obj);
     }
     else {
-      return session.getMarshallerInstance(obj.getClass().getName()).marshall(obj, session);
+      return session.getMarshallerInstance(obj.getClass()).marshall(obj, session);
     }
   }
 
@@ -16,34 +16,93 @@
 
 package org.jboss.errai.marshalling.client.api;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
+ * Tracks the objects of a graph being marshalled, so that an object seen a second time is written as a reference to
+ * the first, and the objects of a graph being demarshalled, so that such references can be resolved.
+ * <p/>
+ * Nothing is allocated until the first object is tracked, so a message with no objects that can be referenced costs
+ * no more than the session itself. Objects recorded under the ids this class hands out, which count up from 1, are
+ * kept in a list indexed by id; any other id goes in a map.
+ *
  * @author Mike Brock
  */
 public abstract class AbstractMarshallingSession implements MarshallingSession {
-  private Map<Object, Integer> objects = new IdentityHashMap<Object, Integer>();
-  private Map<String, Object> objectMap = new HashMap<String, Object>();
+  /**
+   * The string forms of the lowest ids, so that the ids of most graphs never have to be converted.
+   */
+  private static final String[] IDS = new String[256];
+
+  static {
+    for (int i = 0; i < IDS.length; i++) {
+      IDS[i] = String.valueOf(i);
+    }
+  }
+
+  private Map<Object, Integer> objects;
+  private List<Object> objectsById;
+  private Map<String, Object> objectMap;
+
+  @Override
+  public Marshaller<Object> getMarshallerInstance(Class<?> type) {
+    return getMarshallerInstance(type.getName());
+  }
 
   @Override
   public boolean hasObjectHash(String hashCode) {
-    return objectMap.containsKey(hashCode);
+    final int id = parseId(hashCode);
+    if (id > 0 && objectsById != null && id < objectsById.size() && objectsById.get(id) != null) {
+      return true;
+    }
+    return objectMap != null && objectMap.containsKey(hashCode);
   }
 
   @Override
   public boolean hasObjectHash(Object reference) {
-    return reference != null && objects.containsKey(reference);
+    return reference != null && objects != null && objects.containsKey(reference);
   }
 
   @Override
   public <T> T getObject(Class<T> type, String hashCode) {
-    return (T) objectMap.get(hashCode);
+    final int id = parseId(hashCode);
+    if (id > 0 && objectsById != null && id < objectsById.size()) {
+      final Object o = objectsById.get(id);
+      if (o != null) {
+        return (T) o;
+      }
+    }
+    return objectMap == null ? null : (T) objectMap.get(hashCode);
   }
 
   @Override
   public void recordObjectHash(String hashCode, Object instance) {
+    final int id = parseId(hashCode);
+    if (id > 0 && instance != null) {
+      if (objectsById == null) {
+        objectsById = new ArrayList<Object>();
+        // ids count up from 1.
+        objectsById.add(null);
+      }
+
+      // only the next id extends the list, so an id read off the wire can never make it grow by more than one.
+      if (id < objectsById.size()) {
+        objectsById.set(id, instance);
+        return;
+      }
+      else if (id == objectsById.size()) {
+        objectsById.add(instance);
+        return;
+      }
+    }
+
+    if (objectMap == null) {
+      objectMap = new HashMap<String, Object>();
+    }
     objectMap.put(hashCode, instance);
   }
 
@@ -54,17 +113,45 @@ public abstract class AbstractMarshallingSession implements MarshallingSession {
 
   @Override
   public String getObjectHash(Object o) {
+    if (objects == null) {
+      objects = new IdentityHashMap<Object, Integer>();
+    }
+
     Integer i = objects.get(o);
     String s;
-    
+
     if (i == null) {
       objects.put(o, (i = objects.size() + 1));
-      recordObjectHash(s = i.toString(), o);
+      recordObjectHash(s = idToString(i), o);
     }
     else {
-      s = i.toString();
+      s = idToString(i);
     }
 
     return s;
   }
+
+  private static String idToString(int id) {
+    return id < IDS.length ? IDS[id] : String.valueOf(id);
+  }
+
+  /**
+   * @return the id as a positive number, or -1 if it is not in the form this class hands out.
+   */
+  private static int parseId(String hashCode) {
+    final int length = hashCode == null ? 0 : hashCode.length();
+    if (length == 0 || length > 9 || hashCode.charAt(0) == '0') {
+      return -1;
+    }
+
+    int id = 0;
+    for (int i = 0; i < length; i++) {
+      final char c = hashCode.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      id = id * 10 + (c - '0');
+    }
+    return id;
+  }
 }
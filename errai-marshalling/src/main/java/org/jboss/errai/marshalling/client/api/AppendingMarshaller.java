@@ -0,0 +1,31 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.marshalling.client.api;
+
+/**
+ * A marshaller which appends its JSON to a buffer shared by the whole object graph being marshalled, instead of
+ * returning a string for its caller to copy into the enclosing value. Nested values are appended to the same buffer,
+ * so each value of a graph is copied once, however deeply it is nested.
+ * <p/>
+ * {@link #marshall(Object, MarshallingSession)} returns the same JSON as {@link #marshallTo} appends, and is usually
+ * implemented by marshalling into an empty buffer. Callers which are handed an arbitrary {@link Marshaller} should
+ * go through {@link org.jboss.errai.marshalling.client.util.MarshallUtil#marshallTo}, which falls back to the string
+ * form for marshallers that do not implement this interface.
+ */
+public interface AppendingMarshaller<T> extends Marshaller<T> {
+  void marshallTo(StringBuilder buf, T o, MarshallingSession ctx);
+}
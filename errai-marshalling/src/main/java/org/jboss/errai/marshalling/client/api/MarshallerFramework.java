@@ -27,6 +27,7 @@ import org.jboss.errai.marshalling.client.api.json.EJValue;
 import org.jboss.errai.marshalling.client.api.json.impl.gwt.GWTJSON;
 import org.jboss.errai.marshalling.client.protocols.MarshallingSessionProvider;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -108,6 +109,24 @@ public class MarshallerFramework implements EntryPoint {
       return mappingContext;
     }
 
+    /**
+     * The marshallers resolved so far, by the class they were resolved for.
+     */
+    private static final Map<Class<?>, Marshaller<Object>> marshallersByClass = new HashMap<Class<?>, Marshaller<Object>>();
+
+    @Override
+    public Marshaller<Object> getMarshallerInstance(Class<?> type) {
+      Marshaller<Object> m = marshallersByClass.get(type);
+      if (m == null) {
+        m = marshallerFactory.getMarshaller(null, type.getName());
+        if (m == null) {
+          return getMarshallerInstance(type.getName());
+        }
+        marshallersByClass.put(type, m);
+      }
+      return m;
+    }
+
     @Override
     public Marshaller<Object> getMarshallerInstance(String fqcn) {
       if (automarshal) {
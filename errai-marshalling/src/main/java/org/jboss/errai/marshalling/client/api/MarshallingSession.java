@@ -25,6 +25,13 @@ public interface MarshallingSession {
   public MappingContext getMappingContext();
   
   public Marshaller<Object> getMarshallerInstance(String fqcn);
+
+  /**
+   * Returns the marshaller for the specified class, as {@link #getMarshallerInstance(String)} does for its name.
+   * Sessions may answer this from a cache keyed by the class, so it should be preferred when marshalling a value
+   * whose class is at hand.
+   */
+  public Marshaller<Object> getMarshallerInstance(Class<?> type);
   
   public String determineTypeFor(String formatType, Object o);
   
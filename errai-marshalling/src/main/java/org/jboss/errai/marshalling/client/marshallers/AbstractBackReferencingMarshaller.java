@@ -17,7 +17,7 @@
 package org.jboss.errai.marshalling.client.marshallers;
 
 import org.jboss.errai.common.client.protocols.SerializationParts;
-import org.jboss.errai.marshalling.client.api.Marshaller;
+import org.jboss.errai.marshalling.client.api.AppendingMarshaller;
 import org.jboss.errai.marshalling.client.api.MarshallingSession;
 import org.jboss.errai.marshalling.client.api.json.EJObject;
 import org.jboss.errai.marshalling.client.api.json.EJValue;
@@ -25,7 +25,7 @@ import org.jboss.errai.marshalling.client.api.json.EJValue;
 /**
  * @author Mike Brock
  */
-public abstract class AbstractBackReferencingMarshaller<C> implements Marshaller<C> {
+public abstract class AbstractBackReferencingMarshaller<C> implements AppendingMarshaller<C> {
 
   @Override
   public final String marshall(C o, MarshallingSession ctx) {
@@ -33,20 +33,29 @@ public abstract class AbstractBackReferencingMarshaller<C> implements Marshaller
       return "null";
     }
 
+    final StringBuilder buf = new StringBuilder();
+    marshallTo(buf, o, ctx);
+    return buf.toString();
+  }
+
+  @Override
+  public final void marshallTo(StringBuilder buf, C o, MarshallingSession ctx) {
+    if (o == null) {
+      buf.append("null");
+      return;
+    }
+
     final boolean isNew = !ctx.isEncoded(o);
     final String objId = ctx.getObjectHash(o);
 
-    final StringBuilder buf = new StringBuilder("{\"").append(SerializationParts.ENCODED_TYPE).append("\":\"")
+    buf.append("{\"").append(SerializationParts.ENCODED_TYPE).append("\":\"")
             .append(o.getClass().getName()).append("\",\"").append(SerializationParts.OBJECT_ID).append("\":\"")
             .append(objId).append("\"");
 
-    if (!isNew) {
-      return buf.append("}").toString();
-    }
-    else {
+    if (isNew) {
       doMarshall(buf.append(",\"").append(SerializationParts.QUALIFIED_VALUE).append("\":"), o, ctx);
-      return buf.append("}").toString();
     }
+    buf.append("}");
   }
 
   public abstract void doMarshall(StringBuilder buf, C o, MarshallingSession ctx);
@@ -1,6 +1,6 @@
 package org.jboss.errai.marshalling.client.marshallers;
 
-import org.jboss.errai.marshalling.client.api.Marshaller;
+import org.jboss.errai.marshalling.client.api.AppendingMarshaller;
 import org.jboss.errai.marshalling.client.api.MarshallingSession;
 import org.jboss.errai.marshalling.client.api.json.EJValue;
 
@@ -9,7 +9,7 @@ import org.jboss.errai.marshalling.client.api.json.EJValue;
  *
  * @author Mike Brock
  */
-public abstract class AbstractNullableMarshaller<T> implements Marshaller<T> {
+public abstract class AbstractNullableMarshaller<T> implements AppendingMarshaller<T> {
   @Override
   public final T demarshall(EJValue o, MarshallingSession ctx) {
     if (o.isNull()) {
@@ -30,7 +30,26 @@ public abstract class AbstractNullableMarshaller<T> implements Marshaller<T> {
     }
   }
 
+  @Override
+  public final void marshallTo(StringBuilder buf, T o, MarshallingSession ctx) {
+    if (o == null) {
+      buf.append("null");
+    }
+    else {
+      doNotNullMarshall(buf, o, ctx);
+    }
+  }
+
   public abstract T doNotNullDemarshall(EJValue o, MarshallingSession ctx);
 
   public abstract String doNotNullMarshall(T o, MarshallingSession ctx);
+
+  /**
+   * Appends the JSON for a value which is not null. Marshallers of composite or string values override this to
+   * write into the buffer directly; by default the result of {@link #doNotNullMarshall(Object, MarshallingSession)}
+   * is appended.
+   */
+  public void doNotNullMarshall(StringBuilder buf, T o, MarshallingSession ctx) {
+    buf.append(doNotNullMarshall(o, ctx));
+  }
 }
@@ -48,4 +48,11 @@ public class CharacterMarshaller extends AbstractNullableMarshaller<Character> {
   public String doNotNullMarshall(Character o, MarshallingSession ctx) {
     return "\"" + MarshallUtil.jsonStringEscape(o) + "\"";
   }
+
+  @Override
+  public void doNotNullMarshall(StringBuilder buf, Character o, MarshallingSession ctx) {
+    buf.append('"');
+    MarshallUtil.jsonStringEscape(buf, o.charValue());
+    buf.append('"');
+  }
 }
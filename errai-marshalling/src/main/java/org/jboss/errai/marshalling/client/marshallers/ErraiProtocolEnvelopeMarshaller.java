@@ -17,11 +17,12 @@
 package org.jboss.errai.marshalling.client.marshallers;
 
 import org.jboss.errai.common.client.protocols.MessageParts;
-import org.jboss.errai.marshalling.client.api.Marshaller;
+import org.jboss.errai.marshalling.client.api.AppendingMarshaller;
 import org.jboss.errai.marshalling.client.api.MarshallingSession;
 import org.jboss.errai.marshalling.client.api.json.EJObject;
 import org.jboss.errai.marshalling.client.api.json.EJValue;
 import org.jboss.errai.marshalling.client.util.MarshallUtil;
+import org.jboss.errai.marshalling.client.util.NumbersUtils;
 import org.jboss.errai.marshalling.client.util.SimpleTypeLiteral;
 
 import java.math.BigDecimal;
@@ -33,7 +34,7 @@ import java.util.Map;
  * @author Mike Brock
  * @author Christian Sadilek <csadilek@redhat.com>
  */
-public class ErraiProtocolEnvelopeMarshaller implements Marshaller<Map<String, Object>> {
+public class ErraiProtocolEnvelopeMarshaller implements AppendingMarshaller<Map<String, Object>> {
   public static final ErraiProtocolEnvelopeMarshaller INSTANCE = new ErraiProtocolEnvelopeMarshaller();
 
   @Override
@@ -65,7 +66,12 @@ public class ErraiProtocolEnvelopeMarshaller implements Marshaller<Map<String, O
   @Override
   public String marshall(Map<String, Object> o, MarshallingSession ctx) {
     StringBuilder buf = new StringBuilder();
+    marshallTo(buf, o, ctx);
+    return buf.toString();
+  }
 
+  @Override
+  public void marshallTo(StringBuilder buf, Map<String, Object> o, MarshallingSession ctx) {
     buf.append("{");
     Object key, val;
     int i = 0;
@@ -80,7 +86,6 @@ public class ErraiProtocolEnvelopeMarshaller implements Marshaller<Map<String, O
       }
 
 
-      Marshaller<Object> valueMarshaller;
       buf.append("\"" + key + "\"").append(":");
 
       if (val == null) {
@@ -90,16 +95,15 @@ public class ErraiProtocolEnvelopeMarshaller implements Marshaller<Map<String, O
         if ((val instanceof Number && !(val instanceof BigInteger || val instanceof BigDecimal))
                 || val instanceof Boolean || val instanceof Character) {
 
-          valueMarshaller = MarshallUtil.getQualifiedNumberMarshaller(val);
+          buf.append(NumbersUtils.qualifiedNumericEncoding(val));
         }
         else {
-          valueMarshaller = ctx.getMarshallerInstance(val.getClass().getName());
+          MarshallUtil.marshallTo(buf, ctx.getMarshallerInstance(val.getClass()), val, ctx);
         }
-        buf.append(valueMarshaller.marshall(val, ctx));
       }
     }
 
-    return buf.append("}").toString();
+    buf.append("}");
   }
 
 
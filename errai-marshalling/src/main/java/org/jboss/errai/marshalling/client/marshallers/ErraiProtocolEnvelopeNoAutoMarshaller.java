@@ -16,6 +16,7 @@
 
 package org.jboss.errai.marshalling.client.marshallers;
 
+import org.jboss.errai.marshalling.client.api.AppendingMarshaller;
 import org.jboss.errai.marshalling.client.api.Marshaller;
 import org.jboss.errai.marshalling.client.api.MarshallingSession;
 import org.jboss.errai.marshalling.client.api.json.EJObject;
@@ -33,7 +34,7 @@ import java.util.Map;
  * @author Mike Brock
  * @author Christian Sadilek <csadilek@redhat.com>
  */
-public class ErraiProtocolEnvelopeNoAutoMarshaller implements Marshaller<Map<String, Object>> {
+public class ErraiProtocolEnvelopeNoAutoMarshaller implements AppendingMarshaller<Map<String, Object>> {
   public static final ErraiProtocolEnvelopeNoAutoMarshaller INSTANCE = new ErraiProtocolEnvelopeNoAutoMarshaller();
 
   @Override
@@ -73,7 +74,12 @@ public class ErraiProtocolEnvelopeNoAutoMarshaller implements Marshaller<Map<Str
   @Override
   public String marshall(Map<String, Object> o, MarshallingSession ctx) {
     StringBuilder buf = new StringBuilder();
+    marshallTo(buf, o, ctx);
+    return buf.toString();
+  }
 
+  @Override
+  public void marshallTo(StringBuilder buf, Map<String, Object> o, MarshallingSession ctx) {
     buf.append("{");
     Object key, val;
     int i = 0;
@@ -104,14 +110,14 @@ public class ErraiProtocolEnvelopeNoAutoMarshaller implements Marshaller<Map<Str
             valueMarshaller = (Marshaller) StringMarshaller.INSTANCE;
           }
           else {
-            valueMarshaller = ctx.getMarshallerInstance(val.getClass().getName());
+            valueMarshaller = ctx.getMarshallerInstance(val.getClass());
           }
         }
-        buf.append(valueMarshaller.marshall(val, ctx));
+        MarshallUtil.marshallTo(buf, valueMarshaller, val, ctx);
       }
     }
 
-    return buf.append("}").toString();
+    buf.append("}");
   }
 
 
@@ -17,6 +17,7 @@
 package org.jboss.errai.marshalling.client.marshallers;
 
 import org.jboss.errai.common.client.protocols.SerializationParts;
+import org.jboss.errai.marshalling.client.api.AppendingMarshaller;
 import org.jboss.errai.marshalling.client.api.Marshaller;
 import org.jboss.errai.marshalling.client.api.MarshallingSession;
 import org.jboss.errai.marshalling.client.api.ParserFactory;
@@ -27,6 +28,7 @@ import org.jboss.errai.marshalling.client.api.annotations.ServerMarshaller;
 import org.jboss.errai.marshalling.client.api.json.EJObject;
 import org.jboss.errai.marshalling.client.api.json.EJValue;
 import org.jboss.errai.marshalling.client.util.MarshallUtil;
+import org.jboss.errai.marshalling.client.util.NumbersUtils;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -43,7 +45,7 @@ import java.util.Map;
 @ServerMarshaller
 @AlwaysQualify
 @ImplementationAliases({AbstractMap.class, HashMap.class, LinkedHashMap.class})
-public class MapMarshaller<T extends Map> implements Marshaller<T> {
+public class MapMarshaller<T extends Map> implements AppendingMarshaller<T> {
   public static final MapMarshaller INSTANCE = new MapMarshaller();
 
   @Override
@@ -84,6 +86,12 @@ public class MapMarshaller<T extends Map> implements Marshaller<T> {
   @Override
   public String marshall(T o, MarshallingSession ctx) {
     StringBuilder buf = new StringBuilder();
+    marshallTo(buf, o, ctx);
+    return buf.toString();
+  }
+
+  @Override
+  public void marshallTo(StringBuilder buf, T o, MarshallingSession ctx) {
     buf.append("{");
     Object key, val;
     int i = 0;
@@ -95,20 +103,20 @@ public class MapMarshaller<T extends Map> implements Marshaller<T> {
       val = entry.getValue();
 
       Marshaller<Object> keyMarshaller;
-      Marshaller<Object> valueMarshaller;
       if (key instanceof String) {
-        buf.append("\"" + key + "\"");
+        buf.append("\"").append(key).append("\"");
       }
       else if (key != null) {
         if (key instanceof Number || key instanceof Boolean || key instanceof Character) {
           keyMarshaller = MarshallUtil.getQualifiedNumberMarshaller(key);
         }
         else {
-          keyMarshaller = ctx.getMarshallerInstance(key.getClass().getName());
+          keyMarshaller = ctx.getMarshallerInstance(key.getClass());
         }
-        buf.append(("\"" + SerializationParts.EMBEDDED_JSON))
-                .append(MarshallUtil.jsonStringEscape(keyMarshaller.marshall(key, ctx)))
-                .append("\"");
+        // the key is embedded as a string, so it has to be escaped as a whole.
+        buf.append("\"" + SerializationParts.EMBEDDED_JSON);
+        MarshallUtil.jsonStringEscape(buf, keyMarshaller.marshall(key, ctx));
+        buf.append("\"");
       }
 
       buf.append(":");
@@ -120,16 +128,14 @@ public class MapMarshaller<T extends Map> implements Marshaller<T> {
         if ((val instanceof Number && !(val instanceof BigInteger || val instanceof BigDecimal))
                 || val instanceof Boolean || val instanceof Character) {
 
-          valueMarshaller = MarshallUtil.getQualifiedNumberMarshaller(val);
+          buf.append(NumbersUtils.qualifiedNumericEncoding(val));
         }
         else {
-          valueMarshaller = ctx.getMarshallerInstance(val.getClass().getName());
+          MarshallUtil.marshallTo(buf, ctx.getMarshallerInstance(val.getClass()), val, ctx);
         }
-        buf.append(valueMarshaller.marshall(val, ctx));
       }
     }
 
-    return buf.append("}").toString();
+    buf.append("}");
   }
-
 }
\ No newline at end of file
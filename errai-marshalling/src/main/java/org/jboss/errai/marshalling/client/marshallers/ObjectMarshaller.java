@@ -24,6 +24,7 @@ import org.jboss.errai.marshalling.client.api.annotations.ServerMarshaller;
 import org.jboss.errai.marshalling.client.api.json.EJObject;
 import org.jboss.errai.marshalling.client.api.json.EJString;
 import org.jboss.errai.marshalling.client.api.json.EJValue;
+import org.jboss.errai.marshalling.client.util.MarshallUtil;
 import org.jboss.errai.marshalling.client.util.NumbersUtils;
 
 /**
@@ -72,17 +73,25 @@ public class ObjectMarshaller extends AbstractNullableMarshaller<Object> {
 
   @Override
   public String doNotNullMarshall(Object o, MarshallingSession ctx) {
+    final StringBuilder buf = new StringBuilder();
+    doNotNullMarshall(buf, o, ctx);
+    return buf.toString();
+  }
+
+  @Override
+  public void doNotNullMarshall(StringBuilder buf, Object o, MarshallingSession ctx) {
     if ((o instanceof Number && !o.getClass().getName().startsWith("java.math.Big")) || o instanceof Boolean) {
-      return NumbersUtils.qualifiedNumericEncoding(o);
+      buf.append(NumbersUtils.qualifiedNumericEncoding(o));
+      return;
     }
 
-    Marshaller<Object> marshaller = ctx.getMarshallerInstance(o.getClass().getName());
+    Marshaller<Object> marshaller = ctx.getMarshallerInstance(o.getClass());
 
     if (marshaller == null) {
       throw new RuntimeException("marshalled type is unknown to the marshalling framework: " + o.getClass().getName());
     }
 
-    return marshaller.marshall(o, ctx);
+    MarshallUtil.marshallTo(buf, marshaller, o, ctx);
   }
 
 }
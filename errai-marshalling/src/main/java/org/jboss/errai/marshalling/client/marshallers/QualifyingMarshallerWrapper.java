@@ -21,6 +21,7 @@ import org.jboss.errai.marshalling.client.api.Marshaller;
 import org.jboss.errai.marshalling.client.api.MarshallingSession;
 import org.jboss.errai.marshalling.client.api.json.EJObject;
 import org.jboss.errai.marshalling.client.api.json.EJValue;
+import org.jboss.errai.marshalling.client.util.MarshallUtil;
 
 /**
  * Used to wrap marshallers annotated with {@link org.jboss.errai.marshalling.client.api.annotations.AlwaysQualify}
@@ -55,19 +56,24 @@ public class QualifyingMarshallerWrapper<T> extends AbstractNullableMarshaller<T
 
   @Override
   public String doNotNullMarshall(T o, MarshallingSession ctx) {
+    final StringBuilder buf = new StringBuilder();
+    doNotNullMarshall(buf, o, ctx);
+    return buf.toString();
+  }
+
+  @Override
+  public void doNotNullMarshall(StringBuilder buf, T o, MarshallingSession ctx) {
     final boolean isNew = !ctx.isEncoded(o);
     final String objId = ctx.getObjectHash(o);
 
-    final StringBuilder buf = new StringBuilder("{\"").append(SerializationParts.ENCODED_TYPE).append("\":\"")
+    buf.append("{\"").append(SerializationParts.ENCODED_TYPE).append("\":\"")
             .append(o.getClass().getName()).append("\",\"").append(SerializationParts.OBJECT_ID).append("\":\"")
             .append(objId).append("\"");
 
-    if (!isNew) {
-      return buf.append("}").toString();
-    }
-    else {
-      return buf.append(",\"").append(SerializationParts.QUALIFIED_VALUE).append("\":").append(delegate.marshall(o, ctx))
-              .append("}").toString();
+    if (isNew) {
+      buf.append(",\"").append(SerializationParts.QUALIFIED_VALUE).append("\":");
+      MarshallUtil.marshallTo(buf, delegate, o, ctx);
     }
+    buf.append("}");
   }
 }
@@ -43,4 +43,11 @@ public class StringBufferMarshaller extends AbstractNullableMarshaller<StringBuf
   public String doNotNullMarshall(StringBuffer o, MarshallingSession ctx) {
     return "\"" + MarshallUtil.jsonStringEscape(o.toString())  + "\"";
   }
+
+  @Override
+  public void doNotNullMarshall(StringBuilder buf, StringBuffer o, MarshallingSession ctx) {
+    buf.append('"');
+    MarshallUtil.jsonStringEscape(buf, o.toString());
+    buf.append('"');
+  }
 }
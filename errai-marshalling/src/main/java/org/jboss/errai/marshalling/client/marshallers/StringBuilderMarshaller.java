@@ -45,4 +45,11 @@ public class StringBuilderMarshaller extends AbstractNullableMarshaller<StringBu
   public String doNotNullMarshall(StringBuilder o, MarshallingSession ctx) {
     return "\"" + MarshallUtil.jsonStringEscape(o.toString()) + "\"";
   }
+
+  @Override
+  public void doNotNullMarshall(StringBuilder buf, StringBuilder o, MarshallingSession ctx) {
+    buf.append('"');
+    MarshallUtil.jsonStringEscape(buf, o.toString());
+    buf.append('"');
+  }
 }
@@ -44,4 +44,11 @@ public class StringMarshaller extends AbstractNullableMarshaller<String> {
   public String doNotNullMarshall(String o, MarshallingSession ctx) {
     return "\"" + MarshallUtil.jsonStringEscape(o) + "\"";
   }
+
+  @Override
+  public void doNotNullMarshall(StringBuilder buf, String o, MarshallingSession ctx) {
+    buf.append('"');
+    MarshallUtil.jsonStringEscape(buf, o);
+    buf.append('"');
+  }
 }
@@ -41,15 +41,12 @@ public class EncDecUtil {
       elem = iter.next();
       
       if (elem != null) {
-        Marshaller<Object> marshaller;
         if (elem instanceof Number || elem instanceof Boolean || elem instanceof Character) {
-          marshaller = MarshallUtil.getQualifiedNumberMarshaller(elem);
+          buf.append(NumbersUtils.qualifiedNumericEncoding(elem));
         }
         else {
-          marshaller = ctx.getMarshallerInstance(elem.getClass().getName());
+          MarshallUtil.marshallTo(buf, ctx.getMarshallerInstance(elem.getClass()), elem, ctx);
         }
-  
-        buf.append(marshaller.marshall(elem, ctx));
       } 
       else {
         buf.append("null");
@@ -17,6 +17,7 @@
 package org.jboss.errai.marshalling.client.util;
 
 import org.jboss.errai.common.client.protocols.SerializationParts;
+import org.jboss.errai.marshalling.client.api.AppendingMarshaller;
 import org.jboss.errai.marshalling.client.api.Marshaller;
 import org.jboss.errai.marshalling.client.api.MarshallingSession;
 import org.jboss.errai.marshalling.client.api.json.EJObject;
@@ -51,13 +52,18 @@ public class MarshallUtil {
   public static Marshaller<Object> getQualifiedNumberMarshaller(Object o) {
     final Class<Object> type = (Class<Object>) o.getClass();
 
-    return new Marshaller<Object>() {
+    return new AppendingMarshaller<Object>() {
 
       @Override
       public String marshall(Object o, MarshallingSession ctx) {
         return NumbersUtils.qualifiedNumericEncoding(o);
       }
 
+      @Override
+      public void marshallTo(StringBuilder buf, Object o, MarshallingSession ctx) {
+        buf.append(NumbersUtils.qualifiedNumericEncoding(o));
+      }
+
       @Override
       public Object demarshall(EJValue o, MarshallingSession ctx) {
         return null;
@@ -71,12 +77,34 @@ public class MarshallUtil {
   }
 
 
+  /**
+   * Appends the JSON for the value, produced by the specified marshaller, to the buffer.
+   *
+   * @param buf        the buffer to append to.
+   * @param marshaller the marshaller for the value, which need not be an {@link AppendingMarshaller}.
+   * @param o          the value to marshall.
+   * @param ctx        the marshalling session.
+   */
+  @SuppressWarnings("unchecked")
+  public static void marshallTo(StringBuilder buf, Marshaller marshaller, Object o, MarshallingSession ctx) {
+    if (marshaller instanceof AppendingMarshaller) {
+      ((AppendingMarshaller<Object>) marshaller).marshallTo(buf, o, ctx);
+    }
+    else {
+      buf.append(marshaller.marshall(o, ctx));
+    }
+  }
+
   public static String jsonStringEscape(final String s) {
     StringBuilder sb = new StringBuilder(s.length());
+    jsonStringEscape(sb, s);
+    return sb.toString();
+  }
+
+  public static void jsonStringEscape(StringBuilder sb, final String s) {
     for (int i = 0; i < s.length(); i++) {
       jsonStringEscape(sb, s.charAt(i));
     }
-    return sb.toString();
   }
 
   public static String jsonStringEscape(final char ch) {
@@ -17,19 +17,24 @@
 package org.jboss.errai.marshalling.rebind;
 
 import org.jboss.errai.codegen.Context;
+import org.jboss.errai.codegen.InnerClass;
+import org.jboss.errai.codegen.Modifier;
 import org.jboss.errai.codegen.Parameter;
 import org.jboss.errai.codegen.Statement;
 import org.jboss.errai.codegen.builder.AnonymousClassStructureBuilder;
 import org.jboss.errai.codegen.builder.BlockBuilder;
+import org.jboss.errai.codegen.builder.CaseBlockBuilder;
 import org.jboss.errai.codegen.builder.ClassStructureBuilder;
-import org.jboss.errai.codegen.builder.ConstructorBlockBuilder;
+import org.jboss.errai.codegen.builder.impl.ClassBuilder;
 import org.jboss.errai.codegen.meta.MetaClass;
 import org.jboss.errai.codegen.meta.MetaClassFactory;
+import org.jboss.errai.codegen.meta.impl.build.BuildMetaClass;
 import org.jboss.errai.codegen.util.Bool;
 import org.jboss.errai.codegen.util.GenUtil;
 import org.jboss.errai.codegen.util.Stmt;
 import org.jboss.errai.common.client.api.annotations.Portable;
 import org.jboss.errai.common.metadata.RebindUtils;
+import org.jboss.errai.marshalling.client.api.AppendingMarshaller;
 import org.jboss.errai.marshalling.client.api.Marshaller;
 import org.jboss.errai.marshalling.client.api.MarshallerFactory;
 import org.jboss.errai.marshalling.client.api.MarshallingSession;
@@ -37,45 +42,57 @@ import org.jboss.errai.marshalling.client.api.annotations.AlwaysQualify;
 import org.jboss.errai.marshalling.client.api.json.EJArray;
 import org.jboss.errai.marshalling.client.api.json.EJValue;
 import org.jboss.errai.marshalling.client.marshallers.QualifyingMarshallerWrapper;
+import org.jboss.errai.marshalling.client.util.MarshallUtil;
 import org.jboss.errai.marshalling.rebind.api.ArrayMarshallerCallback;
 import org.jboss.errai.marshalling.rebind.api.GeneratorMappingContext;
 import org.jboss.errai.marshalling.rebind.api.MappingStrategy;
 import org.jboss.errai.marshalling.rebind.api.model.MappingDefinition;
-import org.jboss.errai.marshalling.rebind.util.MarshallingGenUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.enterprise.util.TypeLiteral;
 import java.io.File;
 import java.lang.annotation.Annotation;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import static org.jboss.errai.codegen.meta.MetaClassFactory.parameterizedAs;
 import static org.jboss.errai.codegen.meta.MetaClassFactory.typeParametersOf;
 import static org.jboss.errai.codegen.util.Implementations.autoForLoop;
-import static org.jboss.errai.codegen.util.Implementations.autoInitializedField;
 import static org.jboss.errai.codegen.util.Implementations.implement;
 import static org.jboss.errai.codegen.util.Stmt.loadVariable;
+import static org.jboss.errai.marshalling.rebind.util.MarshallingGenUtil.getAccessorName;
 import static org.jboss.errai.marshalling.rebind.util.MarshallingGenUtil.getVarName;
 
 /**
  * @author Mike Brock <cbrock@redhat.com>
  */
 public class MarshallerGeneratorFactory {
-  private static final String MARSHALLERS_VAR = "marshallers";
+  /**
+   * The most names which are matched by a single generated lookup class. The lookup is split across as many classes
+   * as it takes, to keep each of them well under the JVM's limits on the size of a method and of a class.
+   */
+  static final int NAMES_PER_LOOKUP_CLASS = 500;
+
+  static final String LOOKUP_CLASS_PREFIX = "_Lookup";
+
   private final MarshallerOuputTarget target;
 
   private GeneratorMappingContext mappingContext;
 
   ClassStructureBuilder<?> classStructureBuilder;
-  ConstructorBlockBuilder<?> constructor;
   Context classContext;
 
   private final Set<String> arrayMarshallers = new HashSet<String>();
 
+  /**
+   * Every name a marshaller can be looked up under, mapped to the name of the method which returns that marshaller.
+   */
+  private final Map<String, String> lookupNames = new LinkedHashMap<String, String>();
+
   private static final Logger log = LoggerFactory.getLogger(MarshallerGeneratorFactory.class);
 
   long startTime;
@@ -129,7 +146,8 @@ public class MarshallerGeneratorFactory {
       public Statement demarshall(MetaClass type, Statement value) {
         String variable = createDemarshallerIfNeeded(type);
 
-        return Stmt.loadVariable(variable).invoke("demarshall", value, Stmt.loadVariable("a1"));
+        return Stmt.invokeStatic(classStructureBuilder.getClassDefinition(), getAccessorName(variable))
+                .invoke("demarshall", value, Stmt.loadVariable("a1"));
       }
 
       private String createDemarshallerIfNeeded(MetaClass type) {
@@ -137,15 +155,6 @@ public class MarshallerGeneratorFactory {
       }
     });
 
-    final MetaClass javaUtilMap = MetaClassFactory.get(
-            new TypeLiteral<Map<String, Marshaller>>() {
-            }
-    );
-
-    autoInitializedField(classStructureBuilder, javaUtilMap, MARSHALLERS_VAR, HashMap.class);
-
-    constructor = classStructureBuilder.publicConstructor();
-
     for (Class<?> cls : mappingContext.getDefinitionsFactory().getExposedClasses()) {
       String clsName = cls.getName();
 
@@ -164,42 +173,25 @@ public class MarshallerGeneratorFactory {
 
 
       if (marshallerCls.isAnnotationPresent(AlwaysQualify.class)) {
-        classStructureBuilder.privateField(varName,
-                MetaClassFactory.parameterizedAs(QualifyingMarshallerWrapper.class,
-                        MetaClassFactory.typeParametersOf(cls)))
-                .finish();
-
-        constructor.append(Stmt.create(classContext)
-                .loadVariable(varName).assignValue(
-                        Stmt.newObject(QualifyingMarshallerWrapper.class)
-                                .withParameters(Stmt.newObject(marshallerCls))));
+        addLazyMarshaller(varName, MetaClassFactory.parameterizedAs(QualifyingMarshallerWrapper.class,
+                MetaClassFactory.typeParametersOf(cls)),
+                Stmt.newObject(QualifyingMarshallerWrapper.class).withParameters(Stmt.newObject(marshallerCls)));
       }
       else {
-        classStructureBuilder.privateField(varName, marshallerCls).finish();
-
-        constructor.append(Stmt.create(classContext)
-                .loadVariable(varName).assignValue(Stmt.newObject(marshallerCls)));
+        addLazyMarshaller(varName, MetaClassFactory.get(marshallerCls), Stmt.newObject(marshallerCls));
       }
 
-      constructor.append(Stmt.create(classContext).loadVariable(MARSHALLERS_VAR)
-              .invoke("put", clsName, loadVariable(varName)));
+      addLookupName(clsName, varName);
 
       for (Map.Entry<String, String> aliasEntry : mappingContext.getDefinitionsFactory().getMappingAliases().entrySet()) {
         if (aliasEntry.getValue().equals(clsName)) {
-          constructor.append(Stmt.create(classContext).loadVariable(MARSHALLERS_VAR)
-                  .invoke("put", aliasEntry.getKey(), loadVariable(varName)));
+          addLookupName(aliasEntry.getKey(), varName);
         }
       }
     }
 
     generateMarshallers();
 
-    classStructureBuilder.publicMethod(parameterizedAs(Marshaller.class, typeParametersOf(Object.class)),
-            "getMarshaller").parameters(String.class, String.class)
-            .body()
-            .append(loadVariable(MARSHALLERS_VAR).invoke("get", loadVariable("a1")).returnValue())
-            .finish();
-
     // special support for Object[]
     addArrayMarshaller(MetaClassFactory.get(Object[].class));
     addArrayMarshaller(MetaClassFactory.get(String[].class));
@@ -219,9 +211,110 @@ public class MarshallerGeneratorFactory {
     addArrayMarshaller(MetaClassFactory.get(Boolean[].class));
     addArrayMarshaller(MetaClassFactory.get(Byte[].class));
 
+    generateLookup(classStructureBuilder, lookupNames, NAMES_PER_LOOKUP_CLASS);
+
     return classStructureBuilder.toJavaString();
   }
 
+  /**
+   * Adds a marshaller to the factory. The marshaller is held in a static field, and is only created when the
+   * accessor method for it is first called, either by another marshaller or by a lookup of one of its names.
+   *
+   * @param varName    the name of the field to hold the marshaller.
+   * @param type       the type of the field.
+   * @param marshaller the statement which creates the marshaller.
+   */
+  private void addLazyMarshaller(String varName, MetaClass type, Statement marshaller) {
+    classStructureBuilder.privateField(varName, type).modifiers(Modifier.Static, Modifier.Volatile).finish();
+
+    classStructureBuilder.privateMethod(type, getAccessorName(varName)).modifiers(Modifier.Static)
+            .body()
+            .append(Stmt.if_(Bool.isNull(loadVariable(varName)))
+                    .append(loadVariable(varName).assignValue(marshaller))
+                    .finish())
+            .append(loadVariable(varName).returnValue())
+            .finish();
+  }
+
+  private void addLookupName(String name, String varName) {
+    lookupNames.put(name, getAccessorName(varName));
+  }
+
+  /**
+   * Generates <tt>getMarshaller()</tt>, which switches on the hash code of the name it is given to find the
+   * accessor for the marshaller.
+   *
+   * @param builder      the factory class, which declares the accessors.
+   * @param lookupNames  every name a marshaller can be looked up under, mapped to the name of its accessor.
+   * @param namesPerClass the most names to match in each nested lookup class. The names are divided among as many of
+   *                     them as needed, each of which falls through to the next when it does not recognise the name,
+   *                     so a class is only loaded once a lookup reaches it.
+   */
+  static void generateLookup(final ClassStructureBuilder<?> builder, final Map<String, String> lookupNames,
+                             final int namesPerClass) {
+    final List<Map<Integer, List<String>>> chunks = new ArrayList<Map<Integer, List<String>>>();
+
+    Map<Integer, List<String>> chunk = null;
+    int count = 0;
+    for (String name : lookupNames.keySet()) {
+      if (count++ % namesPerClass == 0) {
+        chunks.add(chunk = new LinkedHashMap<Integer, List<String>>());
+      }
+
+      List<String> names = chunk.get(name.hashCode());
+      if (names == null) {
+        chunk.put(name.hashCode(), names = new ArrayList<String>());
+      }
+      names.add(name);
+    }
+
+    // each lookup class falls through to the one after it, so they are built from the last one back.
+    BuildMetaClass next = null;
+    for (int i = chunks.size() - 1; i >= 0; i--) {
+      CaseBlockBuilder switchBlock = Stmt.switch_(loadVariable("a0").invoke("hashCode"));
+
+      for (Map.Entry<Integer, List<String>> bucket : chunks.get(i).entrySet()) {
+        final BlockBuilder<CaseBlockBuilder> caseBlock = switchBlock.case_(bucket.getKey());
+        for (String name : bucket.getValue()) {
+          caseBlock.append(Stmt.if_(Bool.expr(Stmt.load(name).invoke("equals", loadVariable("a0"))))
+                  .append(Stmt.invokeStatic(builder.getClassDefinition(), lookupNames.get(name)).returnValue())
+                  .finish());
+        }
+        switchBlock = caseBlock.append(Stmt.break_()).finish();
+      }
+
+      final ClassStructureBuilder<?> lookup = ClassBuilder.define(LOOKUP_CLASS_PREFIX + i)
+              .privateScope().staticClass().body();
+      lookup.packageMethod(Marshaller.class, "get").modifiers(Modifier.Static)
+              .parameters(String.class)
+              .body()
+              .append(switchBlock)
+              .append(next != null
+                      ? Stmt.invokeStatic(next, "get", loadVariable("a0")).returnValue()
+                      : Stmt.load(null).returnValue())
+              .finish();
+
+      next = lookup.getClassDefinition();
+      builder.getClassDefinition().addInnerClass(new InnerClass(next));
+    }
+
+    final BlockBuilder<?> getMarshaller = builder.publicMethod(
+            parameterizedAs(Marshaller.class, typeParametersOf(Object.class)), "getMarshaller")
+            .parameters(String.class, String.class)
+            .body()
+            .append(Stmt.if_(Bool.isNull(loadVariable("a1")))
+                    .append(Stmt.load(null).returnValue())
+                    .finish());
+
+    if (next == null) {
+      getMarshaller.append(Stmt.load(null).returnValue());
+    }
+    else {
+      getMarshaller.append(Stmt.invokeStatic(next, "get", loadVariable("a1")).returnValue());
+    }
+    getMarshaller.finish();
+  }
+
   private void generateMarshallers() {
     final Set<Class<?>> exposed = mappingContext.getDefinitionsFactory().getExposedClasses();
 
@@ -240,34 +333,26 @@ public class MarshallerGeneratorFactory {
       final MetaClass type = marshaller.getType();
       final String varName = getVarName(clazz);
 
-      classStructureBuilder.privateField(varName, type).finish();
-
       if (clazz.isAnnotationPresent(AlwaysQualify.class)) {
-        constructor.append(loadVariable(varName).assignValue(
-                Stmt.newObject(QualifyingMarshallerWrapper.class).withParameters(marshaller)));
+        addLazyMarshaller(varName, type,
+                Stmt.newObject(QualifyingMarshallerWrapper.class).withParameters(marshaller));
       }
       else {
-        constructor.append(loadVariable(varName).assignValue(marshaller));
+        addLazyMarshaller(varName, type, marshaller);
       }
 
-
-      constructor.append(Stmt.create(classContext).loadVariable(MARSHALLERS_VAR)
-              .invoke("put", clazz.getName(), loadVariable(varName)));
+      addLookupName(clazz.getName(), varName);
 
       if (!clazz.getName().equals(clazz.getCanonicalName())) {
-        constructor.append(Stmt.create(classContext).loadVariable(MARSHALLERS_VAR)
-                .invoke("put", clazz.getCanonicalName(), loadVariable(varName)));
+        addLookupName(clazz.getCanonicalName(), varName);
       }
 
       for (Map.Entry<String, String> aliasEntry : mappingContext.getDefinitionsFactory().getMappingAliases().entrySet()) {
         if (aliasEntry.getValue().equals(clazz.getName())) {
-          constructor.append(Stmt.create(classContext).loadVariable(MARSHALLERS_VAR)
-                  .invoke("put", aliasEntry.getKey(), loadVariable(varName)));
+          addLookupName(aliasEntry.getKey(), varName);
         }
       }
     }
-
-    constructor.finish();
   }
 
   private Statement marshal(MetaClass cls) {
@@ -285,18 +370,12 @@ public class MarshallerGeneratorFactory {
     if (!arrayMarshallers.contains(varName)) {
       final Statement marshaller = generateArrayMarshaller(type);
 
-      classStructureBuilder.privateField(varName,
+      addLazyMarshaller(varName,
               MetaClassFactory.parameterizedAs(QualifyingMarshallerWrapper.class,
-                      MetaClassFactory.typeParametersOf(type)))
-              .finish();
-
-      constructor.append(loadVariable(varName).assignValue(
-              Stmt.newObject(QualifyingMarshallerWrapper.class)
-                      .withParameters(marshaller)));
-
-      constructor.append(Stmt.create(classContext).loadVariable(MARSHALLERS_VAR)
-              .invoke("put", type.getFullyQualifiedName(), loadVariable(varName)));
+                      MetaClassFactory.typeParametersOf(type)),
+              Stmt.newObject(QualifyingMarshallerWrapper.class).withParameters(marshaller));
 
+      addLookupName(type.getFullyQualifiedName(), varName);
 
       arrayMarshallers.add(varName);
     }
@@ -313,7 +392,7 @@ public class MarshallerGeneratorFactory {
 
     final AnonymousClassStructureBuilder classStructureBuilder
             = Stmt.create(mappingContext.getCodegenContext())
-            .newObject(parameterizedAs(Marshaller.class, typeParametersOf(arrayType))).extend();
+            .newObject(parameterizedAs(AppendingMarshaller.class, typeParametersOf(arrayType))).extend();
 
     classStructureBuilder.publicOverridesMethod("getTypeHandled")
             .append(Stmt.load(toMap).returnValue())
@@ -344,13 +423,32 @@ public class MarshallerGeneratorFactory {
                     .append(Stmt.load(null).returnValue())
                     .finish()
                     .else_()
+                    .append(Stmt.declareVariable(StringBuilder.class).named("a2")
+                            .initializeWith(Stmt.newObject(StringBuilder.class)))
                     .append(Stmt.nestedCall(Stmt.loadVariable("this")).invoke("_marshall" + dimensions,
-                            loadVariable("a0"), loadVariable("a1")).returnValue())
+                            loadVariable("a0"), loadVariable("a1"), loadVariable("a2")))
+                    .append(loadVariable("a2").invoke("toString").returnValue())
                     .finish()
     );
 
     marshallMethodBlock.finish();
 
+    BlockBuilder<?> marshallToMethodBlock = classStructureBuilder.publicOverridesMethod("marshallTo",
+            Parameter.of(StringBuilder.class, "a2"), Parameter.of(toMap.asArrayOf(dimensions), "a0"),
+            Parameter.of(MarshallingSession.class, "a1"));
+
+    marshallToMethodBlock.append(
+            Stmt.if_(Bool.isNull(loadVariable("a0")))
+                    .append(loadVariable("a2").invoke("append", "null"))
+                    .finish()
+                    .else_()
+                    .append(Stmt.nestedCall(Stmt.loadVariable("this")).invoke("_marshall" + dimensions,
+                            loadVariable("a0"), loadVariable("a1"), loadVariable("a2")))
+                    .finish()
+    );
+
+    marshallToMethodBlock.finish();
+
     return classStructureBuilder.finish();
   }
 
@@ -366,7 +464,8 @@ public class MarshallerGeneratorFactory {
     }
 
     final Statement demarshallerStatement =
-            Stmt.loadVariable(getVarName(outerType)).invoke("demarshall", loadVariable("a0")
+            Stmt.invokeStatic(classStructureBuilder.getClassDefinition(), getAccessorName(getVarName(outerType)))
+                    .invoke("demarshall", loadVariable("a0")
                     .invoke("get", loadVariable("i")), Stmt.loadVariable("a1"));
 
     final Statement outerAccessorStatement =
@@ -396,24 +495,26 @@ public class MarshallerGeneratorFactory {
 
     dmBuilder.finish();
 
-    final BlockBuilder<?> mBuilder = anonBuilder.privateMethod(String.class, "_marshall" + dim)
-            .parameters(arrayType, MarshallingSession.class).body();
+    // the elements, and the arrays nested in them, are all appended to the one buffer.
+    final BlockBuilder<?> mBuilder = anonBuilder.privateMethod(void.class, "_marshall" + dim)
+            .parameters(arrayType, MarshallingSession.class, StringBuilder.class).body();
 
-    mBuilder.append(Stmt.declareVariable(StringBuilder.class).named("sb")
-            .initializeWith(Stmt.newObject(StringBuilder.class).withParameters("[")))
+    mBuilder.append(Stmt.loadVariable("a2").invoke("append", "["))
             .append(autoForLoop("i", Stmt.loadVariable("a0").loadField("length"))
                     .append(Stmt.if_(Bool.greaterThan(Stmt.loadVariable("i"), 0))
-                            .append(Stmt.loadVariable("sb").invoke("append", ",")).finish())
-                    .append(Stmt.loadVariable("sb").invoke("append", dim == 1 ?
-                            Stmt.loadVariable(MarshallingGenUtil.getVarName(outerType))
-                                    .invoke("marshall",
-                                            Stmt.loadVariable("a0", Stmt.loadVariable("i")),
-                                            Stmt.loadVariable("a1"))
+                            .append(Stmt.loadVariable("a2").invoke("append", ",")).finish())
+                    .append(dim == 1 ?
+                            Stmt.invokeStatic(MarshallUtil.class, "marshallTo", Stmt.loadVariable("a2"),
+                                    Stmt.invokeStatic(classStructureBuilder.getClassDefinition(),
+                                            getAccessorName(getVarName(outerType))),
+                                    Stmt.loadVariable("a0", Stmt.loadVariable("i")),
+                                    Stmt.loadVariable("a1"))
                             :
                             Stmt.loadVariable("this").invoke(
-                                    "_marshall" + (dim - 1), Stmt.loadVariable("a0", Stmt.loadVariable("i")), loadVariable("a1"))))
+                                    "_marshall" + (dim - 1), Stmt.loadVariable("a0", Stmt.loadVariable("i")),
+                                    loadVariable("a1"), loadVariable("a2")))
                     .finish())
-            .append(Stmt.loadVariable("sb").invoke("append", "]").invoke("toString").returnValue())
+            .append(Stmt.loadVariable("a2").invoke("append", "]"))
             .finish();
 
     if (dim > 1) {
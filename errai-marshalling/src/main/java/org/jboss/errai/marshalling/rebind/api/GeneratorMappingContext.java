@@ -81,6 +81,11 @@ public class GeneratorMappingContext implements ServerMappingContext {
     return null;
   }
 
+  @Override
+  public Marshaller<Object> getMarshaller(Class<?> type) {
+    return null;
+  }
+
   private boolean hasGeneratedMarshaller(String clazzName) {
     return generatedMarshallers.contains(clazzName);
   }
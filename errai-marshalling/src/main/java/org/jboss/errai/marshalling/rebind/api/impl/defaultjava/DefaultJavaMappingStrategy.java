@@ -35,13 +35,14 @@ import org.jboss.errai.codegen.util.Implementations;
 import org.jboss.errai.codegen.util.PrivateAccessUtil;
 import org.jboss.errai.codegen.util.Stmt;
 import org.jboss.errai.common.client.protocols.SerializationParts;
-import org.jboss.errai.marshalling.client.api.Marshaller;
+import org.jboss.errai.marshalling.client.api.AppendingMarshaller;
 import org.jboss.errai.marshalling.client.api.MarshallingSession;
 import org.jboss.errai.marshalling.client.api.exceptions.InvalidMappingException;
 import org.jboss.errai.marshalling.client.api.exceptions.MarshallingException;
 import org.jboss.errai.marshalling.client.api.exceptions.NoAvailableMarshallerException;
 import org.jboss.errai.marshalling.client.api.json.EJObject;
 import org.jboss.errai.marshalling.client.api.json.EJValue;
+import org.jboss.errai.marshalling.client.util.MarshallUtil;
 import org.jboss.errai.marshalling.rebind.api.GeneratorMappingContext;
 import org.jboss.errai.marshalling.rebind.api.MappingStrategy;
 import org.jboss.errai.marshalling.rebind.api.ObjectMapper;
@@ -58,7 +59,6 @@ import java.util.List;
 
 import static org.jboss.errai.codegen.meta.MetaClassFactory.parameterizedAs;
 import static org.jboss.errai.codegen.meta.MetaClassFactory.typeParametersOf;
-import static org.jboss.errai.codegen.util.Implementations.newStringBuilder;
 import static org.jboss.errai.codegen.util.Stmt.declareVariable;
 import static org.jboss.errai.codegen.util.Stmt.loadVariable;
 
@@ -99,7 +99,7 @@ public class DefaultJavaMappingStrategy implements MappingStrategy {
       public Statement getMarshaller() {
         AnonymousClassStructureBuilder classStructureBuilder
                 = Stmt.create(context.getCodegenContext())
-                .newObject(parameterizedAs(Marshaller.class, typeParametersOf(toMap))).extend();
+                .newObject(parameterizedAs(AppendingMarshaller.class, typeParametersOf(toMap))).extend();
 
         classStructureBuilder.publicOverridesMethod("getTypeHandled")
                 .append(Stmt.load(toMap).returnValue())
@@ -278,10 +278,27 @@ public class DefaultJavaMappingStrategy implements MappingStrategy {
         BlockBuilder<?> marshallMethodBlock = classStructureBuilder.publicOverridesMethod("marshall",
                 Parameter.of(toMap, "a0"), Parameter.of(MarshallingSession.class, "a1"));
 
-        marshallToJSON(marshallMethodBlock, toMap, mapping);
+        marshallMethodBlock.append(
+                Stmt.if_(Bool.isNull(loadVariable("a0")))
+                        .append(Stmt.load("null").returnValue()).finish());
+
+        marshallMethodBlock.append(declareVariable(StringBuilder.class).named("a2")
+                .initializeWith(Stmt.newObject(StringBuilder.class)
+                        .withParameters(toMap.isEnum() ? 256 : calcBufferSize(new ArrayList<MappingDefinition>(), mapping))));
+        marshallMethodBlock.append(Stmt.loadVariable("this").invoke("marshallTo",
+                loadVariable("a2"), loadVariable("a0"), loadVariable("a1")));
+        marshallMethodBlock.append(loadVariable("a2").invoke("toString").returnValue());
 
         marshallMethodBlock.finish();
 
+        BlockBuilder<?> marshallToMethodBlock = classStructureBuilder.publicOverridesMethod("marshallTo",
+                Parameter.of(StringBuilder.class, "a2"), Parameter.of(toMap, "a0"),
+                Parameter.of(MarshallingSession.class, "a1"));
+
+        marshallToJSON(marshallToMethodBlock, toMap, mapping);
+
+        marshallToMethodBlock.finish();
+
         return classStructureBuilder.finish();
       }
     };
@@ -344,6 +361,10 @@ public class DefaultJavaMappingStrategy implements MappingStrategy {
     return bufSize;
   }
 
+  /**
+   * Generates the body of a <tt>marshallTo</tt> method, which appends the JSON for <tt>a0</tt> to the buffer
+   * <tt>a2</tt>.
+   */
   public void marshallToJSON(BlockBuilder<?> builder, MetaClass toType, MappingDefinition definition) {
     if (!context.canMarshal(toType.getFullyQualifiedName())) {
       throw new NoAvailableMarshallerException(toType.getName());
@@ -351,33 +372,24 @@ public class DefaultJavaMappingStrategy implements MappingStrategy {
 
     builder.append(
             Stmt.if_(Bool.isNull(loadVariable("a0")))
-                    .append(Stmt.load("null").returnValue()).finish()
+                    .append(loadVariable("a2").invoke("append", "null"))
+                    .append(Stmt.returnVoid()).finish()
     );
 
     if (toMap.isEnum()) {
-      builder.append(Stmt.nestedCall(marshallEnum(newStringBuilder(256), Stmt.loadVariable("a0"), toMap))
-              .invoke("toString").returnValue());
+      builder.append(loadVariable("a2").invoke("append", enumJSON(Stmt.loadVariable("a0"), toMap)));
       return;
     }
 
-
-    // builder.append(Stmt.declareVariable(String.class).named("objId").finish());
-
-    int bufSize = calcBufferSize(new ArrayList<MappingDefinition>(), definition);
-
-
-    Implementations.StringBuilderBuilder sb = newStringBuilder(bufSize)
-            .append("{" + keyValue(SerializationParts.ENCODED_TYPE, string(toType.getFullyQualifiedName())) + "," +
-                    string(SerializationParts.OBJECT_ID) + ":\"").append(loadVariable("objId")).append("\"");
-
     builder.append(
             Stmt.if_(Bool.expr(loadVariable("a1").invoke("hasObjectHash", loadVariable("a0"))))
                     .append(declareVariable(String.class).named("objId").initializeWith(loadVariable("a1").invoke("getObjectHash", Stmt.loadVariable("a0"))))
-                    .append(Stmt.nestedCall(newStringBuilder(128).append("{"
-                            + keyValue(SerializationParts.ENCODED_TYPE, string(toType.getFullyQualifiedName()))).append(",")
-                            .append(string(SerializationParts.OBJECT_ID) + ":\"")
-                            .append(loadVariable("objId"))
-                            .append("\"}")).invoke("toString").returnValue())
+                    .append(loadVariable("a2").invoke("append", "{"
+                            + keyValue(SerializationParts.ENCODED_TYPE, string(toType.getFullyQualifiedName())) + ","
+                            + string(SerializationParts.OBJECT_ID) + ":\"")
+                            .invoke("append", loadVariable("objId"))
+                            .invoke("append", "\"}"))
+                    .append(Stmt.returnVoid())
                     .finish());
 
     builder.append(declareVariable(String.class).named("objId").initializeWith(loadVariable("a1").invoke("getObjectHash", Stmt.loadVariable("a0"))));
@@ -385,7 +397,8 @@ public class DefaultJavaMappingStrategy implements MappingStrategy {
     builder.append(loadVariable("a1").invoke("recordObjectHash", loadVariable("objId"),
             loadVariable("objId")));
 
-    boolean hasEncoded = false;
+    builder.append(loadVariable("a2").invoke("append", "{" + keyValue(SerializationParts.ENCODED_TYPE, string(toType.getFullyQualifiedName())) + "," +
+            string(SerializationParts.OBJECT_ID) + ":\"").invoke("append", loadVariable("objId")).invoke("append", "\""));
 
     int i = 0;
     for (MemberMapping mapping : definition.getMemberMappings()) {
@@ -393,14 +406,6 @@ public class DefaultJavaMappingStrategy implements MappingStrategy {
         continue;
       }
 
-      if (!hasEncoded) {
-        sb.append(",");
-        hasEncoded = true;
-      }
-      else if (i > 0) {
-        sb.append(",");
-      }
-
       MetaClass targetType = GenUtil.getPrimitiveWrapper(mapping.getType());
 
       MetaClass compType = targetType.isArray() ? targetType.getOuterComponentType().asBoxed() : targetType.asBoxed();
@@ -413,26 +418,27 @@ public class DefaultJavaMappingStrategy implements MappingStrategy {
       if (targetType.isArray()) {
         valueStatement = context.getArrayMarshallerCallback().marshal(targetType, valueStatement);
       }
-      sb.append("\"" + mapping.getKey() + "\" : ");
+      builder.append(loadVariable("a2").invoke("append", ",\"" + mapping.getKey() + "\" : "));
 
       if (targetType.isEnum()) {
-        marshallEnum(sb, valueStatement, targetType);
+        builder.append(loadVariable("a2").invoke("append", enumJSON(valueStatement, targetType)));
       }
       else {
-        sb.append(loadVariable(MarshallingGenUtil.getVarName(targetType))
-                .invoke("marshall", valueStatement, loadVariable("a1")));
+        // members are appended straight to the buffer, rather than each being built as a string of its own.
+        builder.append(Stmt.invokeStatic(MarshallUtil.class, "marshallTo", loadVariable("a2"),
+                Stmt.invokeStatic(context.getGeneratedBootstrapClass(),
+                        MarshallingGenUtil.getAccessorName(MarshallingGenUtil.getVarName(targetType))),
+                valueStatement, loadVariable("a1")));
       }
 
       i++;
     }
 
     if (i == 0) {
-      sb.append(",\"" + SerializationParts.INSTANTIATE_ONLY + "\":true");
+      builder.append(loadVariable("a2").invoke("append", ",\"" + SerializationParts.INSTANTIATE_ONLY + "\":true"));
     }
 
-    sb.append("}");
-
-    builder.append(Stmt.nestedCall(sb).invoke("toString").returnValue());
+    builder.append(loadVariable("a2").invoke("append", "}"));
   }
 
   private static String keyValue(String key, String value) {
@@ -485,16 +491,17 @@ public class DefaultJavaMappingStrategy implements MappingStrategy {
   public Implementations.StringBuilderBuilder marshallEnum(Implementations.StringBuilderBuilder sb,
                                                            Statement valueStatement,
                                                            MetaClass toType) {
+    return sb.append(enumJSON(valueStatement, toType));
+  }
 
+  private Statement enumJSON(Statement valueStatement, MetaClass toType) {
     Implementations.StringBuilderBuilder internalSBB = Implementations.newStringBuilder()
             .append("{\"" + SerializationParts.ENCODED_TYPE
                     + "\":\"" + toType.getFullyQualifiedName() + "\",\"" + SerializationParts.ENUM_STRING_VALUE + "\":\"")
             .append(Stmt.nestedCall(valueStatement).invoke("name")).append("\"}");
 
-    TernaryStatement ternaryStatement = new TernaryStatement(
+    return new TernaryStatement(
             Bool.isNotNull(valueStatement), internalSBB, Stmt.load("null"));
-
-    return sb.append(ternaryStatement);
   }
 
 
@@ -503,8 +510,8 @@ public class DefaultJavaMappingStrategy implements MappingStrategy {
       return demarshallEnum(Stmt.nestedCall(valueStatement).invoke("isObject"), toType);
     }
     else {
-      return Stmt.create(context.getCodegenContext())
-              .loadVariable(MarshallingGenUtil.getVarName(toType))
+      return Stmt.invokeStatic(context.getGeneratedBootstrapClass(),
+              MarshallingGenUtil.getAccessorName(MarshallingGenUtil.getVarName(toType)))
               .invoke("demarshall", valueStatement, loadVariable("a1"));
     }
   }
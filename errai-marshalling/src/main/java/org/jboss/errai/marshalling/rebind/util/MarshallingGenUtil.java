@@ -46,6 +46,7 @@ public class MarshallingGenUtil {
   }
 
   private static final String ARRAY_VAR_PREFIX = "arrayOf_";
+  private static final String ACCESSOR_PREFIX = "get_";
 
   public static String getArrayVarName(String clazz) {
     char[] newName = new char[clazz.length() + ARRAY_VAR_PREFIX.length()];
@@ -54,6 +55,14 @@ public class MarshallingGenUtil {
     return new String(newName);
   }
 
+  /**
+   * @param varName the name of the variable holding a marshaller in the generated marshaller factory.
+   * @return the name of the factory method which returns that marshaller, creating it the first time it is called.
+   */
+  public static String getAccessorName(String varName) {
+    return ACCESSOR_PREFIX + varName;
+  }
+
   public static String getVarName(String clazz) {
     char[] newName = new char[clazz.length()];
     _replaceAllDotsWithUnderscores(clazz, newName, 0);
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.marshalling.server;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An insertion-ordered map for decoded JSON objects, which keeps its keys and values in a pair of arrays. The objects
+ * in the Errai wire protocol rarely have more than a handful of members, so a linear scan of the (usually interned)
+ * keys is cheaper than hashing into a table, and there are no entry objects to allocate. Larger objects are indexed
+ * by a hash map once they grow past {@link #INDEX_THRESHOLD} members.
+ * <p/>
+ * A value may be a {@link Deferred}, which is decoded the first time it is read from the map.
+ */
+class CompactObjectMap extends AbstractMap<Object, Object> {
+  private static final int INDEX_THRESHOLD = 16;
+
+  /**
+   * A value whose decoding has been deferred until it is first accessed.
+   */
+  interface Deferred {
+    Object resolve();
+  }
+
+  private Object[] keys;
+  private Object[] values;
+  private int size;
+
+  private Map<Object, Integer> index;
+
+  CompactObjectMap() {
+    this(8);
+  }
+
+  CompactObjectMap(final int capacity) {
+    this.keys = new Object[capacity];
+    this.values = new Object[capacity];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return indexOf(key) != -1;
+  }
+
+  @Override
+  public Object get(final Object key) {
+    final int i = indexOf(key);
+    return i == -1 ? null : valueAt(i);
+  }
+
+  @Override
+  public Object put(final Object key, final Object value) {
+    final int i = indexOf(key);
+    if (i != -1) {
+      final Object old = valueAt(i);
+      values[i] = value;
+      return old;
+    }
+
+    if (size == keys.length) {
+      final int capacity = size < 4 ? 4 : size * 2;
+      final Object[] newKeys = new Object[capacity];
+      final Object[] newValues = new Object[capacity];
+      System.arraycopy(keys, 0, newKeys, 0, size);
+      System.arraycopy(values, 0, newValues, 0, size);
+      keys = newKeys;
+      values = newValues;
+    }
+
+    keys[size] = key;
+    values[size] = value;
+    if (index != null) {
+      index.put(key, size);
+    }
+    else if (size == INDEX_THRESHOLD) {
+      rebuildIndex(size + 1);
+    }
+    size++;
+    return null;
+  }
+
+  @Override
+  public Object remove(final Object key) {
+    final int i = indexOf(key);
+    if (i == -1) {
+      return null;
+    }
+    final Object old = valueAt(i);
+    removeAt(i);
+    return old;
+  }
+
+  @Override
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      keys[i] = values[i] = null;
+    }
+    size = 0;
+    index = null;
+  }
+
+  @Override
+  public Set<Entry<Object, Object>> entrySet() {
+    return new AbstractSet<Entry<Object, Object>>() {
+      @Override
+      public Iterator<Entry<Object, Object>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private int indexOf(final Object key) {
+    if (index != null) {
+      final Integer i = index.get(key);
+      return i == null ? -1 : i;
+    }
+
+    // keys decoded from the wire are usually interned, so try an identity match before calling equals().
+    for (int i = 0; i < size; i++) {
+      if (keys[i] == key) return i;
+    }
+    if (key != null) {
+      for (int i = 0; i < size; i++) {
+        if (key.equals(keys[i])) return i;
+      }
+    }
+    return -1;
+  }
+
+  private Object valueAt(final int i) {
+    final Object value = values[i];
+    if (value instanceof Deferred) {
+      return values[i] = ((Deferred) value).resolve();
+    }
+    return value;
+  }
+
+  private void removeAt(final int i) {
+    final int moved = size - i - 1;
+    if (moved > 0) {
+      System.arraycopy(keys, i + 1, keys, i, moved);
+      System.arraycopy(values, i + 1, values, i, moved);
+    }
+    size--;
+    keys[size] = values[size] = null;
+
+    if (index != null) {
+      rebuildIndex(size);
+    }
+  }
+
+  private void rebuildIndex(final int count) {
+    if (count <= INDEX_THRESHOLD) {
+      index = null;
+      return;
+    }
+    index = new HashMap<Object, Integer>(count * 2);
+    for (int i = 0; i < count; i++) {
+      index.put(keys[i], i);
+    }
+  }
+
+  private class EntryIterator implements Iterator<Entry<Object, Object>> {
+    private int next;
+    private int last = -1;
+
+    @Override
+    public boolean hasNext() {
+      return next < size;
+    }
+
+    @Override
+    public Entry<Object, Object> next() {
+      if (next >= size) {
+        throw new NoSuchElementException();
+      }
+      last = next++;
+      return new CompactEntry(last);
+    }
+
+    @Override
+    public void remove() {
+      if (last == -1) {
+        throw new IllegalStateException();
+      }
+      removeAt(last);
+      next = last;
+      last = -1;
+    }
+  }
+
+  private class CompactEntry implements Entry<Object, Object> {
+    private final int i;
+
+    private CompactEntry(final int i) {
+      this.i = i;
+    }
+
+    @Override
+    public Object getKey() {
+      return keys[i];
+    }
+
+    @Override
+    public Object getValue() {
+      return valueAt(i);
+    }
+
+    @Override
+    public Object setValue(final Object value) {
+      final Object old = valueAt(i);
+      values[i] = value;
+      return old;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Entry)) return false;
+      final Entry<?, ?> e = (Entry<?, ?>) o;
+      final Object value = getValue();
+      return (getKey() == null ? e.getKey() == null : getKey().equals(e.getKey()))
+              && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+    }
+
+    @Override
+    public int hashCode() {
+      final Object value = getValue();
+      return (getKey() == null ? 0 : getKey().hashCode()) ^ (value == null ? 0 : value.hashCode());
+    }
+
+    @Override
+    public String toString() {
+      return getKey() + "=" + getValue();
+    }
+  }
+}
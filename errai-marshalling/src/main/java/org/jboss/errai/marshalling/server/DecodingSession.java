@@ -35,6 +35,15 @@ public class DecodingSession extends AbstractMarshallingSession {
     return m;
   }
 
+  @Override
+  public Marshaller<Object> getMarshallerInstance(Class<?> type) {
+    final Marshaller<Object> m = context.getMarshaller(type);
+    if (m == null) {
+      throw new RuntimeException("no marshalling definition available for type:" + type.getName());
+    }
+    return m;
+  }
+
   @Override
   public String determineTypeFor(String formatType, Object o) {
     EJValue jsonValue = (EJValue) o;
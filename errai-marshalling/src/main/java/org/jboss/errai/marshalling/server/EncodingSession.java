@@ -62,6 +62,15 @@ public class EncodingSession extends AbstractMarshallingSession {
     return m;
   }
 
+  @Override
+  public Marshaller<Object> getMarshallerInstance(Class<?> type) {
+    final Marshaller<Object> m = context.getMarshaller(type);
+    if (m == null) {
+      throw new RuntimeException("no marshaller available for: " + type.getName());
+    }
+    return m;
+  }
+
   @Override
   public ServerMappingContext getMappingContext() {
     return context;
@@ -0,0 +1,602 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.marshalling.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.errai.common.client.protocols.MessageParts;
+import org.jboss.errai.common.client.protocols.SerializationParts;
+import org.jboss.errai.marshalling.client.api.json.EJValue;
+import org.jboss.errai.marshalling.server.json.impl.ErraiJSONValue;
+
+/**
+ * Single-pass JSON parser for the Errai Wire Protocol, which decodes UTF-8 directly from a byte array instead of
+ * through a <tt>Reader</tt>. It produces the same values as {@link JSONStreamDecoder}: maps, lists, strings, doubles,
+ * booleans and nulls.
+ * <p/>
+ * Strings which are pure ASCII, and contain no escapes, are built straight from the input without any intermediate
+ * buffer. Short strings are interned for the duration of the parse, and the well-known protocol keys, such as
+ * <tt>ToSubject</tt> and <tt>^EncodedType</tt>, always decode to the same instance. Objects are decoded into compact,
+ * insertion-ordered maps.
+ * <p/>
+ * When decoding lazily, the members of an object which are themselves objects or arrays are only decoded when they
+ * are first read from the map. The input array must not be modified until every such member has been read, and a
+ * lazily decoded value must not be read by more than one thread at a time.
+ */
+public class JSONByteDecoder {
+  /**
+   * Strings longer than this are never looked up in, or added to, the string caches.
+   */
+  private static final int MAX_CACHED_LENGTH = 64;
+
+  private static final String[] KNOWN_STRINGS = new String[512];
+
+  static {
+    for (MessageParts part : MessageParts.values()) {
+      addKnownString(part.name());
+    }
+    addKnownString(SerializationParts.MARSHALLED_TYPES);
+    addKnownString(SerializationParts.ENCODED_TYPE);
+    addKnownString(SerializationParts.OBJECT_ID);
+    addKnownString(SerializationParts.INSTANTIATE_ONLY);
+    addKnownString(SerializationParts.NUMERIC_VALUE);
+    addKnownString(SerializationParts.QUALIFIED_VALUE);
+    addKnownString(SerializationParts.ENUM_STRING_VALUE);
+  }
+
+  private final byte[] bytes;
+  private final int end;
+  private final boolean lazy;
+  private int pos;
+
+  private char[] chars = new char[64];
+  private int length;
+  private final String[] stringCache = new String[128];
+
+  private JSONByteDecoder(final byte[] bytes, final int offset, final int length, final boolean lazy) {
+    this.bytes = bytes;
+    this.pos = offset;
+    this.end = offset + length;
+    this.lazy = lazy;
+  }
+
+  public static EJValue decode(final byte[] bytes) {
+    return decode(bytes, 0, bytes.length);
+  }
+
+  public static EJValue decode(final byte[] bytes, final int offset, final int length) {
+    return new JSONByteDecoder(bytes, offset, length, false).parse();
+  }
+
+  /**
+   * Decodes the remaining bytes of the buffer, leaving its position at its limit.
+   */
+  public static EJValue decode(final ByteBuffer buffer) {
+    final int length = buffer.remaining();
+    if (buffer.hasArray()) {
+      final EJValue value = decode(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+      buffer.position(buffer.limit());
+      return value;
+    }
+
+    final byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return decode(bytes, 0, length);
+  }
+
+  /**
+   * Decodes the JSON payload by reading the given stream of UTF-8 encoded characters to its end.
+   */
+  public static EJValue decode(final InputStream inStream) throws IOException {
+    // size the buffer to hold the whole payload if the stream knows how much is waiting.
+    final int available = inStream.available();
+    byte[] buf = new byte[available > 0 ? available + 1 : 1024 * 4];
+    int length = 0;
+    int read;
+    while ((read = inStream.read(buf, length, buf.length - length)) != -1) {
+      length += read;
+      if (length == buf.length) {
+        buf = Arrays.copyOf(buf, length * 2);
+      }
+    }
+    return decode(buf, 0, length);
+  }
+
+  /**
+   * Decodes the payload, deferring the decoding of nested objects and arrays until they are accessed. The specified
+   * range of the array must not be modified while any part of the payload remains undecoded.
+   */
+  public static EJValue decodeLazily(final byte[] bytes, final int offset, final int length) {
+    return new JSONByteDecoder(bytes, offset, length, true).parse();
+  }
+
+  private EJValue parse() {
+    skipWhitespace();
+    if (pos >= end) {
+      return new ErraiJSONValue(null);
+    }
+
+    final byte b = bytes[pos];
+    if (b == '{') {
+      return new ErraiJSONValue(parseObject());
+    }
+    else if (b == '[') {
+      return new ErraiJSONValue(parseArray());
+    }
+    else {
+      throw new RuntimeException("expected list or map but found: '" + (char) b + "'");
+    }
+  }
+
+  private Object parseValue(final boolean deferrable) {
+    skipWhitespace();
+    if (pos >= end) {
+      throw new RuntimeException("unexpected end of input");
+    }
+
+    final byte b = bytes[pos];
+    switch (b) {
+      case '{':
+      case '[':
+        if (deferrable) {
+          return defer();
+        }
+        return b == '{' ? parseObject() : parseArray();
+
+      case '"':
+      case '\'':
+        pos++;
+        return parseString(b);
+
+      default:
+        if (isNumberStart(b)) {
+          return parseNumber();
+        }
+        else if (isWordPart(b)) {
+          return parseWord();
+        }
+        throw new RuntimeException("unexpected character '" + (char) b + "' at offset " + pos);
+    }
+  }
+
+  private CompactObjectMap parseObject() {
+    pos++;
+    final CompactObjectMap map = new CompactObjectMap();
+
+    skipWhitespace();
+    if (pos < end && bytes[pos] == '}') {
+      pos++;
+      return map;
+    }
+
+    while (true) {
+      skipWhitespace();
+      if (pos >= end) {
+        throw new RuntimeException("unterminated object");
+      }
+
+      final Object key;
+      final byte b = bytes[pos];
+      if (b == '"' || b == '\'') {
+        pos++;
+        key = parseString(b);
+      }
+      else if (isWordPart(b)) {
+        key = parseWord();
+      }
+      else {
+        throw new RuntimeException("expected an object key but found '" + (char) b + "' at offset " + pos);
+      }
+
+      skipWhitespace();
+      if (pos >= end || bytes[pos] != ':') {
+        throw new RuntimeException("expected ':' after object key: " + key);
+      }
+      pos++;
+
+      map.put(key, parseValue(lazy));
+
+      skipWhitespace();
+      if (pos >= end) {
+        throw new RuntimeException("unterminated object");
+      }
+      switch (bytes[pos++]) {
+        case ',':
+          continue;
+        case '}':
+          return map;
+        default:
+          throw new RuntimeException("expected ',' or '}' at offset " + (pos - 1));
+      }
+    }
+  }
+
+  private List<Object> parseArray() {
+    pos++;
+    final List<Object> list = new ArrayList<Object>();
+
+    skipWhitespace();
+    if (pos < end && bytes[pos] == ']') {
+      pos++;
+      return list;
+    }
+
+    while (true) {
+      list.add(parseValue(false));
+
+      skipWhitespace();
+      if (pos >= end) {
+        throw new RuntimeException("unterminated array");
+      }
+      switch (bytes[pos++]) {
+        case ',':
+          continue;
+        case ']':
+          return list;
+        default:
+          throw new RuntimeException("expected ',' or ']' at offset " + (pos - 1));
+      }
+    }
+  }
+
+  /**
+   * Skips over the object or array at the current position, and returns a placeholder which decodes it on demand.
+   */
+  private CompactObjectMap.Deferred defer() {
+    final int start = pos;
+    int depth = 0;
+    do {
+      final byte b = bytes[pos++];
+      if (b == '{' || b == '[') {
+        depth++;
+      }
+      else if (b == '}' || b == ']') {
+        depth--;
+      }
+      else if (b == '"' || b == '\'') {
+        while (pos < end) {
+          final byte c = bytes[pos++];
+          if (c == '\\') {
+            pos++;
+          }
+          else if (c == b) {
+            break;
+          }
+        }
+      }
+    }
+    while (depth > 0 && pos < end);
+
+    if (depth > 0) {
+      throw new RuntimeException("unterminated " + (bytes[start] == '{' ? "object" : "array"));
+    }
+
+    return new CompactObjectMap.Deferred() {
+      @Override
+      public Object resolve() {
+        final int resume = pos;
+        pos = start;
+        try {
+          return bytes[start] == '{' ? parseObject() : parseArray();
+        }
+        finally {
+          pos = resume;
+        }
+      }
+    };
+  }
+
+  /**
+   * Parses a string literal, starting just after its opening quote.
+   */
+  private String parseString(final byte quote) {
+    final int start = pos;
+    int hash = 0;
+
+    // fast path: ASCII without escapes, whose hash matches String.hashCode().
+    while (pos < end) {
+      final byte b = bytes[pos];
+      if (b == quote) {
+        pos++;
+        return cachedString(hash, start, pos - start - 1);
+      }
+      else if (b == '\\' || b < 0) {
+        break;
+      }
+      hash = 31 * hash + b;
+      pos++;
+    }
+
+    length = 0;
+    for (int i = start; i < pos; i++) {
+      append((char) bytes[i]);
+    }
+
+    while (pos < end) {
+      final byte b = bytes[pos];
+      if (b == quote) {
+        pos++;
+        return new String(chars, 0, length);
+      }
+      else if (b == '\\') {
+        pos++;
+        append(parseEscapeSequence());
+      }
+      else if (b < 0) {
+        appendMultiByte();
+      }
+      else {
+        append((char) b);
+        pos++;
+      }
+    }
+
+    throw new RuntimeException("unterminated string literal");
+  }
+
+  private char parseEscapeSequence() {
+    if (pos >= end) {
+      throw new RuntimeException("unterminated string literal");
+    }
+
+    final byte b = bytes[pos++];
+    switch (b) {
+      case '\\':
+        return '\\';
+      case '/':
+        return '/';
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 't':
+        return '\t';
+      case 'r':
+        return '\r';
+      case 'n':
+        return '\n';
+      case '\'':
+        return '\'';
+      case '"':
+        return '\"';
+      case 'u':
+        int c = 0;
+        for (int i = 0; i < 4; i++) {
+          final int digit = pos < end ? Character.digit(bytes[pos++], 16) : -1;
+          if (digit == -1) {
+            throw new RuntimeException("illegal unicode escape sequence: expected 4 hex characters after \\u");
+          }
+          c = (c << 4) | digit;
+        }
+        return (char) c;
+
+      default:
+        throw new RuntimeException("illegal escape sequence: " + (char) b);
+    }
+  }
+
+  /**
+   * Decodes the UTF-8 sequence at the current position. Malformed sequences are replaced with U+FFFD.
+   */
+  private void appendMultiByte() {
+    final int b = bytes[pos] & 0xFF;
+
+    if (b >= 0xC2 && b <= 0xDF && isContinuation(1)) {
+      append((char) (((b & 0x1F) << 6) | (bytes[pos + 1] & 0x3F)));
+      pos += 2;
+    }
+    else if (b >= 0xE0 && b <= 0xEF && isContinuation(1) && isContinuation(2)) {
+      final int c = ((b & 0x0F) << 12) | ((bytes[pos + 1] & 0x3F) << 6) | (bytes[pos + 2] & 0x3F);
+      append(c < 0x800 || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) ? '\uFFFD' : (char) c);
+      pos += 3;
+    }
+    else if (b >= 0xF0 && b <= 0xF4 && isContinuation(1) && isContinuation(2) && isContinuation(3)) {
+      final int cp = ((b & 0x07) << 18) | ((bytes[pos + 1] & 0x3F) << 12) | ((bytes[pos + 2] & 0x3F) << 6)
+              | (bytes[pos + 3] & 0x3F);
+      if (cp < 0x10000 || cp > Character.MAX_CODE_POINT) {
+        append('\uFFFD');
+      }
+      else {
+        append((char) (Character.MIN_HIGH_SURROGATE + ((cp - Character.MIN_SUPPLEMENTARY_CODE_POINT) >>> 10)));
+        append((char) (Character.MIN_LOW_SURROGATE + (cp & 0x3FF)));
+      }
+      pos += 4;
+    }
+    else {
+      append('\uFFFD');
+      pos++;
+    }
+  }
+
+  private boolean isContinuation(final int offset) {
+    return pos + offset < end && (bytes[pos + offset] & 0xC0) == 0x80;
+  }
+
+  private void append(final char c) {
+    if (length == chars.length) {
+      chars = Arrays.copyOf(chars, length * 2);
+    }
+    chars[length++] = c;
+  }
+
+  /**
+   * Returns the ASCII string in the specified range of the input, reusing a previously decoded instance if possible.
+   */
+  private String cachedString(final int hash, final int start, final int len) {
+    if (len > MAX_CACHED_LENGTH) {
+      return asciiString(start, len);
+    }
+
+    for (int i = hash & (KNOWN_STRINGS.length - 1); KNOWN_STRINGS[i] != null; i = (i + 1) & (KNOWN_STRINGS.length - 1)) {
+      if (matches(KNOWN_STRINGS[i], hash, start, len)) {
+        return KNOWN_STRINGS[i];
+      }
+    }
+
+    final int slot = hash & (stringCache.length - 1);
+    final String cached = stringCache[slot];
+    if (cached != null && matches(cached, hash, start, len)) {
+      return cached;
+    }
+
+    return stringCache[slot] = asciiString(start, len);
+  }
+
+  private boolean matches(final String s, final int hash, final int start, final int len) {
+    if (s.length() != len || s.hashCode() != hash) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (s.charAt(i) != bytes[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String asciiString(final int start, final int len) {
+    if (chars.length < len) {
+      chars = new char[Math.max(len, chars.length * 2)];
+    }
+    for (int i = 0; i < len; i++) {
+      chars[i] = (char) bytes[start + i];
+    }
+    return new String(chars, 0, len);
+  }
+
+  /**
+   * Parses a JSON numeric literal, following the same grammar as {@link JSONStreamDecoder}. Integers of up to 18
+   * digits are accumulated directly, without going through {@link Double#parseDouble(String)}.
+   */
+  private Double parseNumber() {
+    final int start = pos;
+    final boolean negative = bytes[pos] == '-';
+    if (negative) {
+      pos++;
+    }
+
+    long value = 0;
+    int digits = 0;
+    while (pos < end && isDigit(bytes[pos])) {
+      value = value * 10 + (bytes[pos++] - '0');
+      digits++;
+    }
+
+    if (digits == 0) {
+      final char found = pos < end ? (char) bytes[pos] : '?';
+      throw new NumberFormatException("Found '" + found + "' but expected '-' or a digit 1-9");
+    }
+
+    boolean integral = true;
+    if (pos < end && bytes[pos] == '.') {
+      integral = false;
+      pos++;
+      while (pos < end && isDigit(bytes[pos])) {
+        pos++;
+      }
+    }
+
+    if (pos < end && (bytes[pos] == 'e' || bytes[pos] == 'E')) {
+      integral = false;
+      pos++;
+      if (pos < end && (bytes[pos] == '-' || bytes[pos] == '+')) {
+        pos++;
+      }
+      if (pos >= end || !isDigit(bytes[pos])) {
+        throw new NumberFormatException("The numeric literal \"" + asciiString(start, pos - start)
+                + "\" is malformed (can't end with e or E)");
+      }
+      while (pos < end && isDigit(bytes[pos])) {
+        pos++;
+      }
+    }
+
+    if (integral && digits <= 18) {
+      return negative ? (value == 0 ? -0d : (double) -value) : (double) value;
+    }
+    return Double.parseDouble(asciiString(start, pos - start));
+  }
+
+  private Object parseWord() {
+    final int start = pos;
+    while (pos < end && isWordPart(bytes[pos])) {
+      pos++;
+    }
+
+    final int len = pos - start;
+    if (len == 4 && bytes[start] == 'n' && bytes[start + 1] == 'u' && bytes[start + 2] == 'l'
+            && bytes[start + 3] == 'l') {
+      return null;
+    }
+    else if (len == 4 && bytes[start] == 't' && bytes[start + 1] == 'r' && bytes[start + 2] == 'u'
+            && bytes[start + 3] == 'e') {
+      return Boolean.TRUE;
+    }
+    else if (len == 5 && bytes[start] == 'f' && bytes[start + 1] == 'a' && bytes[start + 2] == 'l'
+            && bytes[start + 3] == 's' && bytes[start + 4] == 'e') {
+      return Boolean.FALSE;
+    }
+
+    length = 0;
+    final int wordEnd = pos;
+    pos = start;
+    while (pos < wordEnd) {
+      if (bytes[pos] < 0) {
+        appendMultiByte();
+      }
+      else {
+        append((char) bytes[pos++]);
+      }
+    }
+    return new String(chars, 0, length);
+  }
+
+  private void skipWhitespace() {
+    while (pos < end && bytes[pos] <= ' ' && bytes[pos] >= 0) {
+      pos++;
+    }
+  }
+
+  private static boolean isDigit(final byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private static boolean isNumberStart(final byte b) {
+    return b == '-' || b == '.' || isDigit(b);
+  }
+
+  /**
+   * Returns true if the byte can be part of an unquoted word, such as <tt>true</tt> or <tt>null</tt>. Bytes of
+   * multi-byte UTF-8 sequences are accepted, as {@link JSONStreamDecoder} accepts any Java identifier character.
+   */
+  private static boolean isWordPart(final byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || isDigit(b) || b == '_' || b == '$' || b < 0;
+  }
+
+  private static void addKnownString(final String s) {
+    int i = s.hashCode() & (KNOWN_STRINGS.length - 1);
+    while (KNOWN_STRINGS[i] != null) {
+      i = (i + 1) & (KNOWN_STRINGS.length - 1);
+    }
+    KNOWN_STRINGS[i] = s;
+  }
+}
@@ -16,20 +16,14 @@
 
 package org.jboss.errai.marshalling.server;
 
-import java.io.ByteArrayInputStream;
-import java.io.UnsupportedEncodingException;
-
 import org.jboss.errai.marshalling.client.api.json.EJValue;
+import org.jboss.errai.marshalling.server.util.UTF8Encoder;
 
 /**
  * Decodes a JSON string or character array, and provides a proper collection of elements
  */
 public class JSONDecoder {
   public static EJValue decode(final String o) {
-    try {
-      return new JSONStreamDecoder(new ByteArrayInputStream(o.getBytes("UTF-8"))).parse();
-    } catch (UnsupportedEncodingException e) {
-      throw new AssertionError("UTF-8 not supported by this JRE?");
-    }
+    return JSONByteDecoder.decode(UTF8Encoder.encode(o));
   }
 }
@@ -77,6 +77,9 @@ public class MappingContextSingleton {
       else {
         try {
           sContext = loadPrecompiledMarshallers();
+          if (sContext == null) {
+            sContext = loadDynamicMarshallers();
+          }
         }
         catch (Throwable t) {
           t.printStackTrace();
@@ -94,12 +97,19 @@ public class MappingContextSingleton {
     context = sContext;
   }
 
+  /**
+   * @return a context backed by the precompiled server marshallers, or null if they are not on the classpath.
+   */
   public static ServerMappingContext loadPrecompiledMarshallers() throws Exception {
+    final Class<? extends MarshallerFactory> factoryClass = ServerMarshallUtil.getGeneratedMarshallerFactoryForServer();
+    if (factoryClass == null) {
+      return null;
+    }
 
-    Object o = ServerMarshallUtil.getGeneratedMarshallerFactoryForServer().newInstance();
-    final MarshallerFactory marshallerFactory = (MarshallerFactory) o;
+    final MarshallerFactory marshallerFactory = factoryClass.newInstance();
 
     return new ServerMappingContext() {
+      private final MarshallerCache marshallers = new MarshallerCache(this);
 
       {
         MarshallingSessionProviderFactory.setMarshallingSessionProvider(new MarshallingSessionProvider() {
@@ -136,6 +146,11 @@ public class MappingContextSingleton {
         return marshallerFactory.getMarshaller(null, clazz);
       }
 
+      @Override
+      public Marshaller<Object> getMarshaller(Class<?> type) {
+        return marshallers.get(type);
+      }
+
       @Override
       public boolean hasMarshaller(String clazzName) {
         return marshallerFactory.getMarshaller(null, clazzName) != null;
@@ -153,6 +168,7 @@ public class MappingContextSingleton {
     return new ServerMappingContext() {
 
       private final DefinitionsFactory factory = DefinitionsFactorySingleton.newInstance();
+      private final MarshallerCache marshallers = new MarshallerCache(this);
 
       {
         loadMarshallers();
@@ -303,6 +319,11 @@ public class MappingContextSingleton {
         return def.getMarshallerInstance();
       }
 
+      @Override
+      public Marshaller<Object> getMarshaller(Class<?> type) {
+        return marshallers.get(type);
+      }
+
       @Override
       public boolean hasMarshaller(String clazzName) {
         return factory.hasDefinition(clazzName);
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.marshalling.server;
+
+import org.jboss.errai.marshalling.client.api.MappingContext;
+import org.jboss.errai.marshalling.client.api.Marshaller;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The marshallers of a {@link MappingContext}, by the class they were resolved for. The first lookup for a class
+ * resolves its marshaller by name, which takes in any alias and qualifying wrapper the context maps the name to, and
+ * every later lookup for that class is a single map probe on the class itself.
+ * <p/>
+ * Only resolved marshallers are kept, so a class which could not be resolved is looked up by name again next time.
+ */
+class MarshallerCache {
+  private final MappingContext context;
+  private final ConcurrentMap<Class<?>, Marshaller<Object>> marshallers
+          = new ConcurrentHashMap<Class<?>, Marshaller<Object>>();
+
+  MarshallerCache(final MappingContext context) {
+    this.context = context;
+  }
+
+  /**
+   * @param type the class to be marshalled.
+   * @return the marshaller for the class, or null if the context has none.
+   */
+  Marshaller<Object> get(final Class<?> type) {
+    Marshaller<Object> marshaller = marshallers.get(type);
+    if (marshaller == null) {
+      marshaller = context.getMarshaller(type.getName());
+      if (marshaller != null) {
+        final Marshaller<Object> existing = marshallers.putIfAbsent(type, marshaller);
+        if (existing != null) {
+          marshaller = existing;
+        }
+      }
+    }
+    return marshaller;
+  }
+}
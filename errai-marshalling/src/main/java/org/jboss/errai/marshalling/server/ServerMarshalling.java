@@ -29,7 +29,7 @@ import java.io.InputStream;
 public abstract class ServerMarshalling extends Marshalling {
   public static <T> T fromJSON(InputStream inputStream, Class<T> type) throws IOException {
     MarshallingSession session = MarshallingSessionProviderFactory.getDecoding();
-    return (T) session.getMarshallerInstance(type.getName()).demarshall(JSONStreamDecoder.decode(inputStream), session);
+    return (T) session.getMarshallerInstance(type.getName()).demarshall(JSONByteDecoder.decode(inputStream), session);
   }
 
   public static Object fromJSON(InputStream inputStream) throws IOException {
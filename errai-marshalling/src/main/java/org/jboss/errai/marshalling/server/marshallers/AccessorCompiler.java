@@ -0,0 +1,304 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.marshalling.server.marshallers;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import org.slf4j.Logger;
+
+/**
+ * Compiles {@link MemberAccessor}s and {@link MemberInstantiator}s for the members of one mapped class. The accessors
+ * are generated with javassist and defined straight from memory, so no source is generated and nothing is written to
+ * disk.
+ * <p>
+ * Bytecode can only reach public members of public classes, since the accessors are defined by their own class loader.
+ * Anything else, and anything javassist fails to compile, gets an accessor which uses reflection instead.
+ */
+final class AccessorCompiler {
+  private static final Logger log = getLogger("ErraiMarshalling");
+
+  private static final String ACCESSOR_PACKAGE = "org.jboss.errai.marshalling.server.marshallers.accessors.";
+  private static final AtomicInteger counter = new AtomicInteger();
+
+  private final ClassPool pool;
+  private final AccessorLoader loader;
+
+  AccessorCompiler(final Class<?> type) {
+    final ClassLoader typeLoader = type.getClassLoader() != null
+            ? type.getClassLoader() : AccessorCompiler.class.getClassLoader();
+
+    this.pool = new ClassPool(false);
+    pool.appendClassPath(new ClassClassPath(MemberAccessor.class));
+    pool.appendClassPath(new LoaderClassPath(typeLoader));
+    pool.appendSystemPath();
+
+    this.loader = new AccessorLoader(typeLoader);
+  }
+
+  MemberAccessor forField(final Field field) {
+    if (Modifier.isFinal(field.getModifiers()) || !isAccessible(field, field.getType())) {
+      return reflective(field);
+    }
+
+    final String target = "((" + typeName(field.getDeclaringClass()) + ") $1)." + field.getName();
+
+    final MemberAccessor accessor = compile(MemberAccessor.class, field,
+            "public Object get(Object instance) { return ($w) " + target + "; }",
+            "public void set(Object instance, Object value) { " + target + " = " + unwrap(field.getType(), "$2") + "; }");
+
+    return accessor != null ? accessor : reflective(field);
+  }
+
+  MemberAccessor forGetter(final Method getter) {
+    if (!isAccessible(getter, getter.getReturnType())) {
+      return reflectiveGetter(getter);
+    }
+
+    final MemberAccessor accessor = compile(MemberAccessor.class, getter,
+            "public Object get(Object instance) { return ($w) ((" + typeName(getter.getDeclaringClass()) + ") $1)."
+                    + getter.getName() + "(); }");
+
+    return accessor != null ? accessor : reflectiveGetter(getter);
+  }
+
+  MemberAccessor forSetter(final Method setter) {
+    if (!isAccessible(setter, setter.getParameterTypes())) {
+      return reflectiveSetter(setter);
+    }
+
+    final MemberAccessor accessor = compile(MemberAccessor.class, setter,
+            "public void set(Object instance, Object value) { ((" + typeName(setter.getDeclaringClass()) + ") $1)."
+                    + setter.getName() + "(" + unwrap(setter.getParameterTypes()[0], "$2") + "); }");
+
+    return accessor != null ? accessor : reflectiveSetter(setter);
+  }
+
+  MemberInstantiator forConstructor(final Constructor<?> constructor) {
+    if (Modifier.isAbstract(constructor.getDeclaringClass().getModifiers())
+            || !isAccessible(constructor, constructor.getParameterTypes())) {
+      return reflective(constructor);
+    }
+
+    final MemberInstantiator instantiator = compile(MemberInstantiator.class, constructor,
+            "public Object newInstance(Object[] args) { return new " + typeName(constructor.getDeclaringClass())
+                    + arguments(constructor.getParameterTypes()) + "; }");
+
+    return instantiator != null ? instantiator : reflective(constructor);
+  }
+
+  MemberInstantiator forFactoryMethod(final Method factoryMethod) {
+    if (!isAccessible(factoryMethod, factoryMethod.getParameterTypes())
+            || !isAccessible(factoryMethod.getReturnType())) {
+      return reflective(factoryMethod);
+    }
+
+    final MemberInstantiator instantiator = compile(MemberInstantiator.class, factoryMethod,
+            "public Object newInstance(Object[] args) { return ($w) " + typeName(factoryMethod.getDeclaringClass())
+                    + "." + factoryMethod.getName() + arguments(factoryMethod.getParameterTypes()) + "; }");
+
+    return instantiator != null ? instantiator : reflective(factoryMethod);
+  }
+
+  /**
+   * @return a new instance of a subclass of {@code base} with the given methods, or null if it could not be compiled.
+   */
+  private <T> T compile(final Class<T> base, final Member member, final String... methods) {
+    final String memberName = member instanceof Constructor ? "new" : member.getName();
+    final String className = ACCESSOR_PACKAGE + member.getDeclaringClass().getSimpleName() + "_" + memberName
+            + "_" + counter.incrementAndGet();
+
+    try {
+      final CtClass ctClass = pool.makeClass(className, pool.get(base.getName()));
+      ctClass.addConstructor(CtNewConstructor.defaultConstructor(ctClass));
+      for (final String method : methods) {
+        ctClass.addMethod(CtNewMethod.make(method, ctClass));
+      }
+
+      final byte[] bytecode = ctClass.toBytecode();
+      ctClass.detach();
+
+      return loader.define(className, bytecode).asSubclass(base).newInstance();
+    }
+    catch (Exception e) {
+      log.debug("could not compile accessor for " + member + "; using reflection", e);
+      return null;
+    }
+    catch (LinkageError e) {
+      log.debug("could not load accessor for " + member + "; using reflection", e);
+      return null;
+    }
+  }
+
+  static MemberAccessor reflective(final Field field) {
+    field.setAccessible(true);
+
+    return new MemberAccessor() {
+      @Override
+      public Object get(final Object instance) throws Exception {
+        return field.get(instance);
+      }
+
+      @Override
+      public void set(final Object instance, final Object value) throws Exception {
+        field.set(instance, value);
+      }
+    };
+  }
+
+  static MemberAccessor reflectiveGetter(final Method getter) {
+    getter.setAccessible(true);
+
+    return new MemberAccessor() {
+      @Override
+      public Object get(final Object instance) throws Exception {
+        return getter.invoke(instance);
+      }
+    };
+  }
+
+  static MemberAccessor reflectiveSetter(final Method setter) {
+    setter.setAccessible(true);
+
+    return new MemberAccessor() {
+      @Override
+      public void set(final Object instance, final Object value) throws Exception {
+        setter.invoke(instance, value);
+      }
+    };
+  }
+
+  static MemberInstantiator reflective(final Constructor<?> constructor) {
+    constructor.setAccessible(true);
+
+    return new MemberInstantiator() {
+      @Override
+      public Object newInstance(final Object[] args) throws Exception {
+        return constructor.newInstance(args);
+      }
+    };
+  }
+
+  static MemberInstantiator reflective(final Method factoryMethod) {
+    factoryMethod.setAccessible(true);
+
+    return new MemberInstantiator() {
+      @Override
+      public Object newInstance(final Object[] args) throws Exception {
+        return factoryMethod.invoke(null, args);
+      }
+    };
+  }
+
+  private static boolean isAccessible(final Member member, final Class<?>... types) {
+    if (!Modifier.isPublic(member.getModifiers()) || !isAccessible(member.getDeclaringClass())) {
+      return false;
+    }
+    for (final Class<?> type : types) {
+      if (!isAccessible(type)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isAccessible(Class<?> type) {
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+    for (Class<?> c = type; c != null; c = c.getDeclaringClass()) {
+      if (!c.isPrimitive() && !Modifier.isPublic(c.getModifiers())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String arguments(final Class<?>[] parameterTypes) {
+    final StringBuilder buf = new StringBuilder("(");
+    for (int i = 0; i < parameterTypes.length; i++) {
+      if (i != 0) {
+        buf.append(", ");
+      }
+      buf.append(unwrap(parameterTypes[i], "$1[" + i + "]"));
+    }
+    return buf.append(')').toString();
+  }
+
+  /**
+   * @return an expression which casts {@code expr} to {@code type}, unboxing it if the type is primitive.
+   */
+  private static String unwrap(final Class<?> type, final String expr) {
+    if (!type.isPrimitive()) {
+      return "(" + typeName(type) + ") " + expr;
+    }
+
+    final String wrapper;
+    if (type == boolean.class) wrapper = "Boolean";
+    else if (type == char.class) wrapper = "Character";
+    else if (type == byte.class) wrapper = "Byte";
+    else if (type == short.class) wrapper = "Short";
+    else if (type == int.class) wrapper = "Integer";
+    else if (type == long.class) wrapper = "Long";
+    else if (type == float.class) wrapper = "Float";
+    else wrapper = "Double";
+
+    return "((java.lang." + wrapper + ") " + expr + ")." + type.getName() + "Value()";
+  }
+
+  private static String typeName(final Class<?> type) {
+    return type.isArray() ? typeName(type.getComponentType()) + "[]" : type.getName();
+  }
+
+  /**
+   * Defines the generated accessors on top of the mapped class's loader. The accessor base types always come from
+   * this module's loader, even where the mapped class's loader cannot see them.
+   */
+  private static final class AccessorLoader extends ClassLoader {
+    private AccessorLoader(final ClassLoader parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+      if (name.equals(MemberAccessor.class.getName())) {
+        return MemberAccessor.class;
+      }
+      else if (name.equals(MemberInstantiator.class.getName())) {
+        return MemberInstantiator.class;
+      }
+      return super.loadClass(name, resolve);
+    }
+
+    private Class<?> define(final String name, final byte[] bytecode) {
+      return defineClass(name, bytecode, 0, bytecode.length);
+    }
+  }
+}
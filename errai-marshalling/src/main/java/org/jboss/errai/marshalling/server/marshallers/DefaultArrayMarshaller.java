@@ -17,17 +17,19 @@
 package org.jboss.errai.marshalling.server.marshallers;
 
 import org.jboss.errai.codegen.meta.MetaClass;
+import org.jboss.errai.marshalling.client.api.AppendingMarshaller;
 import org.jboss.errai.marshalling.client.api.Marshaller;
 import org.jboss.errai.marshalling.client.api.MarshallingSession;
 import org.jboss.errai.marshalling.client.api.json.EJArray;
 import org.jboss.errai.marshalling.client.api.json.EJValue;
+import org.jboss.errai.marshalling.client.util.MarshallUtil;
 
 import java.lang.reflect.Array;
 
 /**
  * @author Mike Brock
  */
-public class DefaultArrayMarshaller implements Marshaller<Object> {
+public class DefaultArrayMarshaller implements AppendingMarshaller<Object> {
   private final MetaClass arrayType;
   private final Marshaller<Object> outerMarshaller;
   private final int dimensions;
@@ -71,7 +73,18 @@ public class DefaultArrayMarshaller implements Marshaller<Object> {
       return null;
     }
     else {
-      return _marshall(a0, a1);
+      StringBuilder builder = new StringBuilder();
+      _marshall(builder, a0, a1);
+      return builder.toString();
+    }
+  }
+
+  public void marshallTo(StringBuilder buf, Object a0, MarshallingSession a1) {
+    if (a0 == null) {
+      buf.append("null");
+    }
+    else {
+      _marshall(buf, a0, a1);
     }
   }
 
@@ -92,8 +105,8 @@ public class DefaultArrayMarshaller implements Marshaller<Object> {
     return arrayInstance;
   }
 
-  private String _marshall(Object a0, MarshallingSession a1) {
-    StringBuilder builder = new StringBuilder("[");
+  private void _marshall(StringBuilder builder, Object a0, MarshallingSession a1) {
+    builder.append('[');
 
     int length = Array.getLength(a0);
 
@@ -102,11 +115,11 @@ public class DefaultArrayMarshaller implements Marshaller<Object> {
     for (int i = 0; i < length; i++) {
       element = Array.get(a0, i);
       if (element.getClass().isArray()) {
-        builder.append(_marshall(element, a1));
+        _marshall(builder, element, a1);
 
       }
       else {
-        builder.append(outerMarshaller.marshall(element, a1));
+        MarshallUtil.marshallTo(builder, outerMarshaller, element, a1);
       }
 
       if (i + 1 < length) {
@@ -114,6 +127,6 @@ public class DefaultArrayMarshaller implements Marshaller<Object> {
       }
     }
 
-    return builder.append(']').toString();
+    builder.append(']');
   }
 }
\ No newline at end of file
@@ -16,21 +16,24 @@
 
 package org.jboss.errai.marshalling.server.marshallers;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.nio.charset.Charset;
+import java.util.List;
 
+import org.jboss.errai.codegen.meta.MetaClassMember;
 import org.jboss.errai.codegen.meta.MetaField;
 import org.jboss.errai.codegen.meta.MetaMethod;
 import org.jboss.errai.common.client.protocols.SerializationParts;
+import org.jboss.errai.marshalling.client.api.AppendingMarshaller;
 import org.jboss.errai.marshalling.client.api.Marshaller;
 import org.jboss.errai.marshalling.client.api.MarshallingSession;
 import org.jboss.errai.marshalling.client.api.exceptions.MarshallingException;
 import org.jboss.errai.marshalling.client.api.json.EJObject;
 import org.jboss.errai.marshalling.client.api.json.EJValue;
+import org.jboss.errai.marshalling.client.util.MarshallUtil;
 import org.jboss.errai.marshalling.client.util.NumbersUtils;
 import org.jboss.errai.marshalling.rebind.api.model.ConstructorMapping;
 import org.jboss.errai.marshalling.rebind.api.model.FactoryMapping;
@@ -39,19 +42,25 @@ import org.jboss.errai.marshalling.rebind.api.model.Mapping;
 import org.jboss.errai.marshalling.rebind.api.model.MappingDefinition;
 import org.jboss.errai.marshalling.rebind.api.model.MemberMapping;
 import org.jboss.errai.marshalling.server.EncodingSession;
-import org.jboss.errai.marshalling.server.MappingContextSingleton;
 import org.jboss.errai.marshalling.server.api.ServerMarshaller;
 import org.mvel2.DataConversion;
 
 /**
  * @author Mike Brock
  */
-public class DefaultDefinitionMarshaller implements ServerMarshaller<Object> {
+public class DefaultDefinitionMarshaller implements ServerMarshaller<Object>, AppendingMarshaller<Object> {
 
   Charset UTF_8 = Charset.forName("UTF-8");
 
   private MappingDefinition definition;
 
+  /**
+   * The definition's mappings, bound to the members they read and write the first time the marshaller is used.
+   */
+  private volatile MemberBinding[] _readersCache;
+  private volatile MemberBinding[] _writersCache;
+  private volatile Instantiator _instantiatorCache;
+
   public DefaultDefinitionMarshaller(MappingDefinition definition) {
     this.definition = definition;
   }
@@ -104,43 +113,13 @@ public class DefaultDefinitionMarshaller implements ServerMarshaller<Object> {
                 return newInstance;
               }
 
-              InstantiationMapping cMapping = definition.getInstantiationMapping();
-
-              Object[] parms = new Object[cMapping.getMappings().length];
-              Class[] targetTypes = cMapping.getSignature();
-
-              int i = 0;
-              for (Mapping mapping : cMapping.getMappings()) {
-                Marshaller<Object> marshaller = ctx.getMarshallerInstance(mapping.getType().getFullyQualifiedName());
-                parms[i] = DataConversion.convert(
-                        marshaller.demarshall(oMap.get(mapping.getKey()), ctx), targetTypes[i++]);
-              }
-
-              if (cMapping instanceof ConstructorMapping) {
-                newInstance = ((ConstructorMapping) cMapping).getMember().asConstructor().newInstance(parms);
-              }
-              else {
-                newInstance = ((FactoryMapping) cMapping).getMember().asMethod().invoke(null, parms);
-              }
+              newInstance = getInstantiator().newInstance(oMap, ctx);
 
               ctx.recordObjectHash(hash, newInstance);
             }
 
-            for (MemberMapping mapping : definition.getWritableMemberMappings()) {
-              Marshaller<Object> marshaller = ctx.getMarshallerInstance(mapping.getType().getFullyQualifiedName());
-
-              if (mapping.getBindingMember() instanceof MetaField) {
-                MetaField f = (MetaField) mapping.getBindingMember();
-
-                setProperty(newInstance, f.asField(),
-                        marshaller.demarshall(oMap.get(mapping.getKey()), ctx));
-              }
-              else {
-                Method m = ((MetaMethod) mapping.getBindingMember()).asMethod();
-                m.invoke(newInstance, DataConversion.convert(
-                        marshaller.demarshall(oMap.get(mapping.getKey()), ctx),
-                        m.getParameterTypes()[0]));
-              }
+            for (MemberBinding binding : getWriters()) {
+              binding.write(newInstance, binding.getDemarshaller(ctx).demarshall(oMap.get(binding.key), ctx));
             }
           }
           else {
@@ -168,22 +147,22 @@ public class DefaultDefinitionMarshaller implements ServerMarshaller<Object> {
 
   @Override
   public String marshall(Object o, MarshallingSession ctx) {
-    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
-    try {
-      marshall(byteArrayOutputStream, o, ctx);
-      return new String(byteArrayOutputStream.toByteArray());
-    }
-    catch (Exception e) {
-      throw new RuntimeException(e);
-    }
+    StringBuilder buf = new StringBuilder(128);
+    marshallTo(buf, o, ctx);
+    return buf.toString();
   }
 
 
   @Override
   public void marshall(final OutputStream outstream, Object o, MarshallingSession mSession) throws IOException {
+    outstream.write(marshall(o, mSession).getBytes(UTF_8));
+  }
+
+  @Override
+  public void marshallTo(StringBuilder buf, Object o, MarshallingSession mSession) {
 
     if (o == null) {
-      outstream.write("null".getBytes(UTF_8));
+      buf.append("null");
       return;
     }
 
@@ -193,10 +172,10 @@ public class DefaultDefinitionMarshaller implements ServerMarshaller<Object> {
     if (o instanceof Enum) {
       Enum enumer = (Enum) o;
 
-      outstream.write(("{\"" + SerializationParts.ENCODED_TYPE + "\":\""
-              + enumer.getDeclaringClass().getName() + "\""
-              + ",\"" + SerializationParts.ENUM_STRING_VALUE + "\":\"" + enumer.name() + "\"}")
-              .getBytes(UTF_8));
+      buf.append("{\"").append(SerializationParts.ENCODED_TYPE).append("\":\"")
+              .append(enumer.getDeclaringClass().getName()).append("\"")
+              .append(",\"").append(SerializationParts.ENUM_STRING_VALUE).append("\":\"")
+              .append(enumer.name()).append("\"}");
 
       return;
     }
@@ -210,8 +189,8 @@ public class DefaultDefinitionMarshaller implements ServerMarshaller<Object> {
        * If this object is referencing a duplicate object in the graph, we only provide an ID reference.
        */
 
-      outstream.write(("{\"" + SerializationParts.ENCODED_TYPE + "\":\"" + cls.getName()
-              + "\",\"" + SerializationParts.OBJECT_ID + "\":\"" + hash + "\"}").getBytes(UTF_8));
+      buf.append("{\"").append(SerializationParts.ENCODED_TYPE).append("\":\"").append(cls.getName())
+              .append("\",\"").append(SerializationParts.OBJECT_ID).append("\":\"").append(hash).append("\"}");
 
       return;
     }
@@ -219,56 +198,191 @@ public class DefaultDefinitionMarshaller implements ServerMarshaller<Object> {
     int i = 0;
     boolean first = true;
 
-    outstream.write(("{\"" + SerializationParts.ENCODED_TYPE + "\":\"" + cls.getName() + "\",\""
-            + SerializationParts.OBJECT_ID + "\":\"" + hash + "\",").getBytes(UTF_8));
+    buf.append("{\"").append(SerializationParts.ENCODED_TYPE).append("\":\"").append(cls.getName()).append("\",\"")
+            .append(SerializationParts.OBJECT_ID).append("\":\"").append(hash).append("\",");
 
 
-    for (MemberMapping mapping : definition.getReadableMemberMappings()) {
+    for (MemberBinding binding : getReaders()) {
       if (!first) {
-        outstream.write(',');
+        buf.append(',');
       }
 
       i++;
-      Object v;
 
-      if (mapping.getReadingMember() instanceof MetaField) {
-        Field field = ((MetaField) mapping.getReadingMember()).asField();
+      buf.append('"').append(binding.key).append('"');
 
-        try {
-          v = field.get(o);
-        }
-        catch (Exception e) {
-          throw new RuntimeException("error accessing field: " + field, e);
-        }
+      buf.append(':');
+      MarshallUtil.marshallTo(buf, binding.getMarshaller(ctx), binding.read(o), ctx);
+
+      first = false;
+    }
+
+    if (i == 0) {
+      buf.append("\"").append(SerializationParts.INSTANTIATE_ONLY).append("\":true");
+    }
+
+    buf.append('}');
+  }
+
+  private MemberBinding[] getReaders() {
+    if (_readersCache != null) {
+      return _readersCache;
+    }
+
+    final AccessorCompiler compiler = new AccessorCompiler(getTypeHandled());
+    final List<MemberMapping> mappings = definition.getReadableMemberMappings();
+    final MemberBinding[] readers = new MemberBinding[mappings.size()];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new MemberBinding(compiler, mappings.get(i), mappings.get(i).getReadingMember(), false);
+    }
+    return _readersCache = readers;
+  }
+
+  private MemberBinding[] getWriters() {
+    if (_writersCache != null) {
+      return _writersCache;
+    }
+
+    final AccessorCompiler compiler = new AccessorCompiler(getTypeHandled());
+    final List<MemberMapping> mappings = definition.getWritableMemberMappings();
+    final MemberBinding[] writers = new MemberBinding[mappings.size()];
+    for (int i = 0; i < writers.length; i++) {
+      writers[i] = new MemberBinding(compiler, mappings.get(i), mappings.get(i).getBindingMember(), true);
+    }
+    return _writersCache = writers;
+  }
+
+  private Instantiator getInstantiator() {
+    if (_instantiatorCache != null) {
+      return _instantiatorCache;
+    }
+    return _instantiatorCache =
+            new Instantiator(new AccessorCompiler(getTypeHandled()), definition.getInstantiationMapping());
+  }
+
+  /**
+   * Converts a demarshalled value to the type of the member or parameter it is bound to. Values which are already of
+   * that type are passed through as they are.
+   */
+  static Object convert(final Object value, final Class<?> targetType) {
+    if (value != null && !targetType.isPrimitive() && targetType.isInstance(value)) {
+      return value;
+    }
+    return DataConversion.convert(value, targetType);
+  }
+
+  /**
+   * A member mapping bound to an accessor for the field or method which it reads or writes.
+   */
+  private static final class MemberBinding {
+    private final MemberMapping mapping;
+    private final String key;
+    private final MetaClassMember member;
+    private final MemberAccessor accessor;
+
+    /**
+     * The type a written value is converted to, or null if the binding only reads.
+     */
+    private final Class<?> targetType;
+
+    private volatile Marshaller<Object> marshaller;
+
+    private MemberBinding(final AccessorCompiler compiler, final MemberMapping mapping, final MetaClassMember member,
+                          final boolean writing) {
+      this.mapping = mapping;
+      this.key = mapping.getKey();
+      this.member = member;
+
+      if (member instanceof MetaField) {
+        final Field field = ((MetaField) member).asField();
+        this.accessor = compiler.forField(field);
+        this.targetType = field.getType();
       }
       else {
-        Method method = ((MetaMethod) mapping.getReadingMember()).asMethod();
+        final Method method = ((MetaMethod) member).asMethod();
+        this.accessor = writing ? compiler.forSetter(method) : compiler.forGetter(method);
+        this.targetType = writing ? method.getParameterTypes()[0] : null;
+      }
+    }
 
-        try {
-          v = method.invoke(o);
-        }
-        catch (Exception e) {
-          throw new RuntimeException("error calling getter: " + method, e);
-        }
+    private Object read(final Object instance) {
+      try {
+        return accessor.get(instance);
+      }
+      catch (Exception e) {
+        throw new RuntimeException("error accessing member: " + member, e);
+      }
+    }
+
+    private void write(final Object instance, final Object value) {
+      try {
+        accessor.set(instance, convert(value, targetType));
+      }
+      catch (Exception e) {
+        throw new RuntimeException("could not set member (inst=" + instance + "; member=" + member
+                + "; val=" + value + ")", e);
       }
+    }
 
-      outstream.write(("\"" + mapping.getKey() + "\"").getBytes(UTF_8));
+    /**
+     * @return the marshaller for the member's type, from the definition of that type.
+     */
+    private Marshaller<Object> getMarshaller(final EncodingSession ctx) {
+      if (marshaller != null) {
+        return marshaller;
+      }
 
-      outstream.write(':');
-      outstream.write(
-              MappingContextSingleton.get().getDefinitionsFactory()
-                      .getDefinition(mapping.getType()).getMarshallerInstance().marshall(v, ctx)
-                      .getBytes(UTF_8)
-      );
+      final Marshaller<Object> m = ctx.getMappingContext().getDefinitionsFactory()
+              .getDefinition(mapping.getType()).getMarshallerInstance();
+      if (m != null) {
+        marshaller = m;
+      }
+      return m;
+    }
 
-      first = false;
+    /**
+     * @return the marshaller for the member's type, as the session resolves it.
+     */
+    private Marshaller<Object> getDemarshaller(final MarshallingSession ctx) {
+      return ctx.getMarshallerInstance(mapping.getType().getFullyQualifiedName());
     }
+  }
 
-    if (i == 0) {
-      outstream.write(("\"" + SerializationParts.INSTANTIATE_ONLY + "\":true").getBytes(UTF_8));
+  /**
+   * An instantiation mapping bound to an instantiator for the constructor or factory method which it calls.
+   */
+  private static final class Instantiator {
+    private final String[] keys;
+    private final String[] typeNames;
+    private final Class<?>[] targetTypes;
+    private final MemberInstantiator instantiator;
+
+    private Instantiator(final AccessorCompiler compiler, final InstantiationMapping cMapping) {
+      final Mapping[] mappings = cMapping.getMappings();
+      this.keys = new String[mappings.length];
+      this.typeNames = new String[mappings.length];
+      for (int i = 0; i < mappings.length; i++) {
+        keys[i] = mappings[i].getKey();
+        typeNames[i] = mappings[i].getType().getFullyQualifiedName();
+      }
+      this.targetTypes = cMapping.getSignature();
+
+      if (cMapping instanceof ConstructorMapping) {
+        this.instantiator = compiler.forConstructor(((ConstructorMapping) cMapping).getMember().asConstructor());
+      }
+      else {
+        this.instantiator = compiler.forFactoryMethod(((FactoryMapping) cMapping).getMember().asMethod());
+      }
     }
 
-    outstream.write('}');
+    private Object newInstance(final EJObject oMap, final MarshallingSession ctx) throws Exception {
+      final Object[] parms = new Object[keys.length];
+      for (int i = 0; i < parms.length; i++) {
+        final Marshaller<Object> marshaller = ctx.getMarshallerInstance(typeNames[i]);
+        parms[i] = convert(marshaller.demarshall(oMap.get(keys[i]), ctx), targetTypes[i]);
+      }
+      return instantiator.newInstance(parms);
+    }
   }
 
   public static Class getClassReference(EJObject oMap) {
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.marshalling.server.marshallers;
+
+/**
+ * Reads or writes one mapped member of an instance. Implementations are generated by {@link AccessorCompiler}, which
+ * is why this type has to be public. An accessor only overrides the operations its member supports.
+ */
+public abstract class MemberAccessor {
+  public Object get(Object instance) throws Exception {
+    throw new UnsupportedOperationException("member is not readable");
+  }
+
+  /**
+   * @param value
+   *          the value to write, already converted to the member's type (or its wrapper, if the member is primitive).
+   */
+  public void set(Object instance, Object value) throws Exception {
+    throw new UnsupportedOperationException("member is not writable");
+  }
+}
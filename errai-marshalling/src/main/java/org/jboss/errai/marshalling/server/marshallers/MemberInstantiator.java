@@ -0,0 +1,29 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.marshalling.server.marshallers;
+
+/**
+ * Creates an instance through a mapped constructor or factory method. Implementations are generated by
+ * {@link AccessorCompiler}, which is why this type has to be public.
+ */
+public abstract class MemberInstantiator {
+  /**
+   * @param args
+   *          the arguments, already converted to the parameter types (or their wrappers, for primitive parameters).
+   */
+  public abstract Object newInstance(Object[] args) throws Exception;
+}
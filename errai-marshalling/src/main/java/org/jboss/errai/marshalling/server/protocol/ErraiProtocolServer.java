@@ -17,10 +17,14 @@
 package org.jboss.errai.marshalling.server.protocol;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 import org.jboss.errai.marshalling.client.protocols.ErraiProtocol;
+import org.jboss.errai.marshalling.server.util.UTF8Encoder;
 
 /**
  * @author Mike Brock
@@ -33,4 +37,26 @@ public class ErraiProtocolServer extends ErraiProtocol{
       throw new AssertionError("UTF-8 appears not to be supported by this JRE, but that's impossible");
     }
   }
+
+  /**
+   * Encodes the payload as UTF-8 JSON directly to the output stream.
+   *
+   * @param payload      A map of the key-value pairs to be encoded.
+   * @param outputStream The output stream to write the encoded JSON to.
+   * @throws IOException thrown if the output stream cannot be written to.
+   */
+  public static void encodePayload(Map<String, Object> payload, OutputStream outputStream) throws IOException {
+    UTF8Encoder.encode(encodePayload(payload), outputStream);
+  }
+
+  /**
+   * Encodes the payload as UTF-8 JSON directly into the buffer, starting at its current position.
+   *
+   * @param payload A map of the key-value pairs to be encoded.
+   * @param buffer  The buffer to write the encoded JSON to.
+   * @throws java.nio.BufferOverflowException if the buffer does not have enough space remaining.
+   */
+  public static void encodePayload(Map<String, Object> payload, ByteBuffer buffer) {
+    UTF8Encoder.encode(encodePayload(payload), buffer);
+  }
 }
@@ -19,7 +19,6 @@ package org.jboss.errai.marshalling.server.util;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -29,15 +28,12 @@ import java.util.List;
 import java.util.Set;
 
 import org.jboss.errai.codegen.util.ClassChangeUtil;
-import org.jboss.errai.common.metadata.RebindUtils;
 import org.jboss.errai.marshalling.client.api.MarshallerFactory;
-import org.jboss.errai.marshalling.rebind.MarshallerGeneratorFactory;
-import org.jboss.errai.marshalling.rebind.MarshallerOuputTarget;
 import org.jboss.errai.marshalling.rebind.MarshallersGenerator;
 import org.slf4j.Logger;
 
 /**
- * Utility which provides convenience methods for generating marshallers for the server-side.
+ * Utility which provides convenience methods for locating the generated marshallers for the server-side.
  *
  * @author Mike Brock
  */
@@ -52,6 +48,9 @@ public abstract class ServerMarshallUtil {
     return files;
   }
 
+  /**
+   * @return the precompiled server marshaller factory, or null if there is none on the classpath.
+   */
   public static Class<? extends MarshallerFactory> getGeneratedMarshallerFactoryForServer() {
     String packageName = MarshallersGenerator.SERVER_MARSHALLER_PACKAGE_NAME;
     String className = MarshallersGenerator.SERVER_MARSHALLER_CLASS_NAME;
@@ -92,7 +91,7 @@ public abstract class ServerMarshallUtil {
                   .asSubclass(MarshallerFactory.class);
         }
         catch (ClassNotFoundException e) {
-          log.warn("could not locate marshaller class. will attempt dynamic generation.");
+          log.info("could not locate marshaller class. will use dynamic marshallers.");
         }
       }
       else {
@@ -104,39 +103,6 @@ public abstract class ServerMarshallUtil {
       log.warn("could not read marshaller classes: " + e);
     }
 
-
-    final String classStr = MarshallerGeneratorFactory.getFor(MarshallerOuputTarget.Java)
-            .generate(packageName, className);
-
-    File directory =
-            new File(RebindUtils.getTempDirectory() + "/errai.gen/classes/" + packageName.replaceAll("\\.", "/"));
-
-    File sourceFile = new File(directory.getAbsolutePath() + File.separator + className + ".java");
-
-    try {
-      if (directory.exists()) {
-        for (File file : directory.listFiles()) {
-          file.delete();
-        }
-
-        directory.delete();
-      }
-
-      directory.mkdirs();
-
-      FileOutputStream outputStream = new FileOutputStream(sourceFile);
-
-      outputStream.write(classStr.getBytes("UTF-8"));
-      outputStream.flush();
-      outputStream.close();
-
-      String compiledClassPath = ClassChangeUtil.compileClass(directory.getAbsolutePath(), packageName, className,
-              directory.getAbsolutePath());
-
-      return ClassChangeUtil.loadClassDefinition(compiledClassPath, packageName, className);
-    }
-    catch (IOException e) {
-      throw new RuntimeException("failed to generate class ", e);
-    }
+    return null;
   }
 }
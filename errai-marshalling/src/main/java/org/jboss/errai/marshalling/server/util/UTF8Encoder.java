@@ -0,0 +1,242 @@
+/*
+ * Copyright 2011 JBoss, by Red Hat, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.errai.marshalling.server.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes character data as UTF-8 directly into a caller-supplied sink, without the intermediate byte array
+ * produced by {@link String#getBytes(String)}. Unpaired surrogates are encoded as <tt>'?'</tt>, as the JDK encoder
+ * does.
+ */
+public final class UTF8Encoder {
+  private static final int CHUNK_SIZE = 1024 * 4;
+
+  private UTF8Encoder() {
+  }
+
+  /**
+   * Returns the number of bytes required to encode the specified characters as UTF-8.
+   *
+   * @param chars the characters to measure.
+   * @return the encoded length in bytes.
+   */
+  public static int encodedLength(final CharSequence chars) {
+    final int length = chars.length();
+    int bytes = length;
+
+    for (int i = 0; i < length; i++) {
+      final char c = chars.charAt(i);
+      if (c < 0x80) {
+        continue;
+      }
+      else if (c < 0x800) {
+        bytes += 1;
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+        bytes += 2;
+        i++;
+      }
+      else if (isSurrogate(c)) {
+        continue;
+      }
+      else {
+        bytes += 2;
+      }
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Encodes the specified characters as UTF-8 into the destination buffer, starting at its current position. If the
+   * characters do not fit, the position of the buffer is left unchanged.
+   *
+   * @param chars the characters to encode.
+   * @param dst   the destination buffer.
+   * @throws BufferOverflowException if the destination buffer does not have enough space remaining.
+   */
+  public static void encode(final CharSequence chars, final ByteBuffer dst) {
+    if (dst.hasArray()) {
+      final ArraySink sink = new ArraySink(dst.array(), dst.arrayOffset() + dst.position(),
+          dst.arrayOffset() + dst.limit());
+      encode(chars, 0, chars.length(), sink);
+      dst.position(sink.pos - dst.arrayOffset());
+    }
+    else {
+      // a direct buffer is written to in place, rather than through a scratch array.
+      final int start = dst.position();
+      try {
+        encode(chars, 0, chars.length(), new BufferSink(dst));
+      }
+      catch (BufferOverflowException e) {
+        dst.position(start);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Encodes the specified characters as UTF-8 into a new heap buffer, which is grown as needed rather than sized by
+   * measuring the characters first.
+   *
+   * @param chars the characters to encode.
+   * @return a buffer whose remaining bytes are the encoded characters.
+   */
+  public static ByteBuffer encode(final CharSequence chars) {
+    final GrowableSink sink = new GrowableSink(chars.length());
+    encode(chars, 0, chars.length(), sink);
+    return ByteBuffer.wrap(sink.buf, 0, sink.pos);
+  }
+
+  /**
+   * Encodes the specified characters as UTF-8 to the output stream.
+   *
+   * @param chars        the characters to encode.
+   * @param outputStream the output stream to write to.
+   * @throws IOException thrown if the output stream cannot be written to.
+   */
+  public static void encode(final CharSequence chars, final OutputStream outputStream) throws IOException {
+    final int length = chars.length();
+    final byte[] chunk = new byte[length < CHUNK_SIZE / 4 ? length * 4 + 4 : CHUNK_SIZE];
+    final ArraySink sink = new ArraySink(chunk, 0, chunk.length);
+    int i = 0;
+    while (i < length) {
+      final int next = nextChunkEnd(chars, i, length, chunk.length);
+      sink.pos = 0;
+      encode(chars, i, next, sink);
+      outputStream.write(chunk, 0, sink.pos);
+      i = next;
+    }
+  }
+
+  private static boolean isSurrogate(final char c) {
+    return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+  }
+
+  /**
+   * Returns the end of the next run of characters which is guaranteed to fit in the chunk, without splitting a
+   * surrogate pair.
+   */
+  private static int nextChunkEnd(final CharSequence chars, final int start, final int length, final int chunkSize) {
+    int end = start + chunkSize / 3;
+    if (end >= length) return length;
+    if (Character.isHighSurrogate(chars.charAt(end - 1))) end--;
+    return end;
+  }
+
+  /**
+   * Encodes the characters in the range <tt>[start, end)</tt> into the sink.
+   */
+  private static void encode(final CharSequence chars, final int start, final int end, final ByteSink dst) {
+    for (int i = start; i < end; i++) {
+      final char c = chars.charAt(i);
+      if (c < 0x80) {
+        dst.put((byte) c);
+      }
+      else if (c < 0x800) {
+        dst.put((byte) (0xC0 | (c >> 6)));
+        dst.put((byte) (0x80 | (c & 0x3F)));
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars.charAt(i + 1))) {
+        final int cp = Character.toCodePoint(c, chars.charAt(++i));
+        dst.put((byte) (0xF0 | (cp >> 18)));
+        dst.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+        dst.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+        dst.put((byte) (0x80 | (cp & 0x3F)));
+      }
+      else if (isSurrogate(c)) {
+        dst.put((byte) '?');
+      }
+      else {
+        dst.put((byte) (0xE0 | (c >> 12)));
+        dst.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+        dst.put((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+
+  /**
+   * Where the encoded bytes go.
+   */
+  private static abstract class ByteSink {
+    abstract void put(byte b);
+  }
+
+  /**
+   * Writes into the range <tt>[pos, limit)</tt> of a byte array.
+   */
+  private static class ArraySink extends ByteSink {
+    final byte[] buf;
+    final int limit;
+    int pos;
+
+    ArraySink(final byte[] buf, final int pos, final int limit) {
+      this.buf = buf;
+      this.pos = pos;
+      this.limit = limit;
+    }
+
+    @Override
+    void put(final byte b) {
+      if (pos == limit) {
+        throw new BufferOverflowException();
+      }
+      buf[pos++] = b;
+    }
+  }
+
+  /**
+   * Writes into a byte array, growing it whenever it is full.
+   */
+  private static class GrowableSink extends ByteSink {
+    byte[] buf;
+    int pos;
+
+    GrowableSink(final int initialSize) {
+      buf = new byte[Math.max(initialSize, 16)];
+    }
+
+    @Override
+    void put(final byte b) {
+      if (pos == buf.length) {
+        buf = Arrays.copyOf(buf, buf.length * 2);
+      }
+      buf[pos++] = b;
+    }
+  }
+
+  /**
+   * Writes into a buffer at its current position, which throws {@link BufferOverflowException} once it is full.
+   */
+  private static class BufferSink extends ByteSink {
+    final ByteBuffer buf;
+
+    BufferSink(final ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    void put(final byte b) {
+      buf.put(b);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package org.jboss.errai.marshalling.rebind;
+
+import static org.jboss.errai.codegen.util.Implementations.implement;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.jboss.errai.codegen.Modifier;
+import org.jboss.errai.codegen.builder.ClassStructureBuilder;
+import org.jboss.errai.codegen.util.Stmt;
+import org.jboss.errai.marshalling.client.api.Marshaller;
+import org.jboss.errai.marshalling.client.api.MarshallerFactory;
+import org.jboss.errai.marshalling.client.api.MarshallingSession;
+import org.jboss.errai.marshalling.client.api.json.EJValue;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the <tt>getMarshaller()</tt> lookup generated by {@link MarshallerGeneratorFactory}, by compiling it into a
+ * factory whose accessors return a marshaller named after the accessor.
+ */
+public class MarshallerLookupTest {
+  private static final String PACKAGE = MarshallerLookupTest.class.getPackage().getName();
+
+  private File dir;
+
+  public static class NamedMarshaller implements Marshaller<Object> {
+    private final String name;
+
+    public NamedMarshaller(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Class<Object> getTypeHandled() {
+      return Object.class;
+    }
+
+    @Override
+    public Object demarshall(EJValue o, MarshallingSession ctx) {
+      return null;
+    }
+
+    @Override
+    public String marshall(Object o, MarshallingSession ctx) {
+      return null;
+    }
+  }
+
+  @Before
+  public void setup() {
+    dir = new File(System.getProperty("java.io.tmpdir"), "MarshallerLookupTest" + System.nanoTime());
+    dir.mkdirs();
+  }
+
+  @After
+  public void teardown() {
+    delete(dir);
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * Generates, compiles and loads a factory which looks up the given names.
+   *
+   * @param names         each name to look up, mapped to the name of the marshaller returned for it.
+   * @param namesPerClass the most names to match in each lookup class.
+   */
+  private MarshallerFactory factory(final Map<String, String> names, final int namesPerClass) throws Exception {
+    final String className = "LookupFactory" + namesPerClass;
+    final ClassStructureBuilder<?> builder = implement(MarshallerFactory.class, PACKAGE, className);
+
+    final Map<String, String> lookupNames = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, String> entry : names.entrySet()) {
+      final String accessor = "_" + entry.getValue();
+      if (!lookupNames.containsValue(accessor)) {
+        builder.privateMethod(Marshaller.class, accessor).modifiers(Modifier.Static)
+            .body()
+            .append(Stmt.nestedCall(Stmt.newObject(NamedMarshaller.class).withParameters(entry.getValue()))
+                .returnValue())
+            .finish();
+      }
+      lookupNames.put(entry.getKey(), accessor);
+    }
+    MarshallerGeneratorFactory.generateLookup(builder, lookupNames, namesPerClass);
+
+    final File source = new File(dir, PACKAGE.replace('.', File.separatorChar) + File.separator + className + ".java");
+    source.getParentFile().mkdirs();
+    final FileOutputStream out = new FileOutputStream(source);
+    try {
+      out.write(builder.toJavaString().getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    final int result = compiler.run(null, null, errors, "-classpath", System.getProperty("java.class.path"),
+        "-d", dir.getAbsolutePath(), source.getAbsolutePath());
+    Assert.assertEquals(builder.toJavaString() + "\n" + errors.toString("UTF-8"), 0, result);
+
+    final ClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()}, getClass().getClassLoader());
+    return (MarshallerFactory) loader.loadClass(PACKAGE + "." + className).newInstance();
+  }
+
+  private static String lookup(final MarshallerFactory factory, final String name) {
+    final Marshaller<Object> marshaller = factory.getMarshaller(null, name);
+    return marshaller == null ? null : ((NamedMarshaller) marshaller).name;
+  }
+
+  private static Map<String, String> names() throws IOException {
+    final Map<String, String> names = new LinkedHashMap<String, String>();
+    // "Aa" and "BB" have the same hash code, and so share a case of the switch.
+    Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+    names.put("Aa", "aa");
+    names.put("BB", "bb");
+    names.put("org.example.Outer$Inner", "inner");
+    names.put("org.example.Outer.Inner", "inner");
+    names.put("InnerAlias", "inner");
+    names.put("java.lang.String[]", "strings");
+    names.put("org.example.Last", "last");
+    return names;
+  }
+
+  private static void assertLookups(final MarshallerFactory factory) {
+    Assert.assertEquals("aa", lookup(factory, "Aa"));
+    Assert.assertEquals("bb", lookup(factory, "BB"));
+    Assert.assertEquals("inner", lookup(factory, "org.example.Outer$Inner"));
+    Assert.assertEquals("inner", lookup(factory, "org.example.Outer.Inner"));
+    Assert.assertEquals("inner", lookup(factory, "InnerAlias"));
+    Assert.assertEquals("strings", lookup(factory, "java.lang.String[]"));
+    Assert.assertEquals("last", lookup(factory, "org.example.Last"));
+
+    // "C#" has the same hash code as "Aa" and "BB", but is not one of the names.
+    Assert.assertEquals("Aa".hashCode(), "C#".hashCode());
+    Assert.assertNull(lookup(factory, "C#"));
+    Assert.assertNull(lookup(factory, "org.example.Unknown"));
+    Assert.assertNull(lookup(factory, null));
+  }
+
+  @Test
+  public void testLookupInSingleClass() throws Exception {
+    assertLookups(factory(names(), MarshallerGeneratorFactory.NAMES_PER_LOOKUP_CLASS));
+  }
+
+  @Test
+  public void testLookupFallsThroughToNextClass() throws Exception {
+    // the colliding names end up in the same lookup class, and the last name in a class of its own.
+    final MarshallerFactory factory = factory(names(), 2);
+    assertLookups(factory);
+
+    for (int i = 0; i < 4; i++) {
+      Assert.assertNotNull(factory.getClass().getClassLoader()
+          .loadClass(factory.getClass().getName() + "$" + MarshallerGeneratorFactory.LOOKUP_CLASS_PREFIX + i));
+    }
+  }
+
+  @Test
+  public void testLookupWithoutNames() throws Exception {
+    final MarshallerFactory factory = factory(new LinkedHashMap<String, String>(), 2);
+    Assert.assertNull(lookup(factory, "Aa"));
+    Assert.assertNull(lookup(factory, null));
+  }
+}
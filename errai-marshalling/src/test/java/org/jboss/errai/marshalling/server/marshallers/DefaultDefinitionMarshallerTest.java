@@ -0,0 +1,459 @@
+package org.jboss.errai.marshalling.server.marshallers;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.errai.codegen.meta.MetaClass;
+import org.jboss.errai.codegen.meta.MetaClassFactory;
+import org.jboss.errai.codegen.meta.MetaClassMember;
+import org.jboss.errai.marshalling.client.api.Marshaller;
+import org.jboss.errai.marshalling.client.marshallers.IntegerMarshaller;
+import org.jboss.errai.marshalling.client.marshallers.StringMarshaller;
+import org.jboss.errai.marshalling.rebind.DefinitionsFactory;
+import org.jboss.errai.marshalling.rebind.api.model.MappingDefinition;
+import org.jboss.errai.marshalling.rebind.api.model.MemberMapping;
+import org.jboss.errai.marshalling.rebind.api.model.impl.AccessorMapping;
+import org.jboss.errai.marshalling.rebind.api.model.impl.ReadMapping;
+import org.jboss.errai.marshalling.rebind.api.model.impl.SimpleConstructorMapping;
+import org.jboss.errai.marshalling.rebind.api.model.impl.SimpleFactoryMapping;
+import org.jboss.errai.marshalling.rebind.api.model.impl.SimpleMapping;
+import org.jboss.errai.marshalling.server.DecodingSession;
+import org.jboss.errai.marshalling.server.EncodingSession;
+import org.jboss.errai.marshalling.server.JSONDecoder;
+import org.jboss.errai.marshalling.server.ServerMappingContext;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests that {@link DefaultDefinitionMarshaller} round-trips each kind of mapping through the accessors compiled by
+ * {@link AccessorCompiler}, and through the reflective accessors it falls back to.
+ */
+public class DefaultDefinitionMarshallerTest {
+
+  public static class FieldBean {
+    public String name;
+    public int count;
+  }
+
+  public static class SetterBean {
+    private String name;
+    private Integer count;
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public Integer getCount() {
+      return count;
+    }
+
+    public void setCount(Integer count) {
+      this.count = count;
+    }
+  }
+
+  public static class ConstructorBean {
+    private final String name;
+    private final int count;
+
+    public ConstructorBean(String name, int count) {
+      this.name = name;
+      this.count = count;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getCount() {
+      return count;
+    }
+  }
+
+  public static class FactoryBean {
+    private final String name;
+    private final int count;
+
+    private FactoryBean(String name, int count) {
+      this.name = name;
+      this.count = count;
+    }
+
+    public static FactoryBean create(String name, int count) {
+      return new FactoryBean(name, count);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getCount() {
+      return count;
+    }
+  }
+
+  static class HiddenBean {
+    private String name;
+    private int count;
+
+    public HiddenBean() {
+    }
+  }
+
+  /**
+   * Maps a key straight to a field, as the default Java definition mapper does.
+   */
+  private static class FieldMapping extends SimpleMapping implements MemberMapping {
+    private FieldMapping(Class<?> type, String name) {
+      super(name, MetaClassFactory.get(type).getDeclaredField(name).getType());
+    }
+
+    @Override
+    public MetaClassMember getBindingMember() {
+      return toMap.getDeclaredField(key);
+    }
+
+    @Override
+    public MetaClassMember getReadingMember() {
+      return toMap.getDeclaredField(key);
+    }
+
+    @Override
+    public boolean canRead() {
+      return true;
+    }
+
+    @Override
+    public boolean canWrite() {
+      return true;
+    }
+  }
+
+  private final TestDefinitionsFactory definitions = new TestDefinitionsFactory();
+  private final ServerMappingContext context = new TestMappingContext(definitions);
+
+  @SuppressWarnings("unchecked")
+  private <T> T roundTrip(MappingDefinition definition, T value) {
+    DefaultDefinitionMarshaller marshaller = new DefaultDefinitionMarshaller(definition);
+    definition.setMarshallerInstance(marshaller);
+    definitions.addDefinition(definition);
+
+    String json = marshaller.marshall(value, new EncodingSession(context));
+    return (T) marshaller.demarshall(JSONDecoder.decode(json), new DecodingSession(context));
+  }
+
+  @Test
+  public void testFieldBindingRoundTrip() {
+    MappingDefinition definition = new MappingDefinition(FieldBean.class, true);
+    definition.addMemberMapping(new FieldMapping(FieldBean.class, "name"));
+    definition.addMemberMapping(new FieldMapping(FieldBean.class, "count"));
+
+    FieldBean bean = new FieldBean();
+    bean.name = "field";
+    bean.count = 42;
+
+    FieldBean copy = roundTrip(definition, bean);
+    Assert.assertNotSame(bean, copy);
+    Assert.assertEquals("field", copy.name);
+    Assert.assertEquals(42, copy.count);
+  }
+
+  @Test
+  public void testSetterBindingRoundTrip() {
+    MappingDefinition definition = new MappingDefinition(SetterBean.class, true);
+    definition.addMemberMapping(new AccessorMapping("name", String.class, "setName", "getName"));
+    definition.addMemberMapping(new AccessorMapping("count", Integer.class, "setCount", "getCount"));
+
+    SetterBean bean = new SetterBean();
+    bean.setName("setter");
+    bean.setCount(7);
+
+    SetterBean copy = roundTrip(definition, bean);
+    Assert.assertEquals("setter", copy.getName());
+    Assert.assertEquals(Integer.valueOf(7), copy.getCount());
+  }
+
+  @Test
+  public void testConstructorBindingRoundTrip() {
+    SimpleConstructorMapping constructorMapping = new SimpleConstructorMapping();
+    constructorMapping.mapParmToIndex("name", 0, String.class);
+    constructorMapping.mapParmToIndex("count", 1, int.class);
+    constructorMapping.setConstructor(
+            MetaClassFactory.get(ConstructorBean.class).getConstructor(String.class, int.class));
+
+    MappingDefinition definition = new MappingDefinition(ConstructorBean.class, true);
+    definition.setInstantiationMapping(constructorMapping);
+    definition.addMemberMapping(new ReadMapping("name", String.class, "getName"));
+    definition.addMemberMapping(new ReadMapping("count", int.class, "getCount"));
+
+    ConstructorBean copy = roundTrip(definition, new ConstructorBean("constructor", -3));
+    Assert.assertEquals("constructor", copy.getName());
+    Assert.assertEquals(-3, copy.getCount());
+  }
+
+  @Test
+  public void testFactoryBindingRoundTrip() {
+    SimpleFactoryMapping factoryMapping = new SimpleFactoryMapping();
+    factoryMapping.mapParmToIndex("name", 0, String.class);
+    factoryMapping.mapParmToIndex("count", 1, int.class);
+    factoryMapping.setMethod(MetaClassFactory.get(FactoryBean.class).getMethod("create", String.class, int.class));
+
+    MappingDefinition definition = new MappingDefinition(FactoryBean.class, true);
+    definition.setInstantiationMapping(factoryMapping);
+    definition.addMemberMapping(new ReadMapping("name", String.class, "getName"));
+    definition.addMemberMapping(new ReadMapping("count", int.class, "getCount"));
+
+    FactoryBean copy = roundTrip(definition, FactoryBean.create("factory", Integer.MAX_VALUE));
+    Assert.assertEquals("factory", copy.getName());
+    Assert.assertEquals(Integer.MAX_VALUE, copy.getCount());
+  }
+
+  @Test
+  public void testReflectiveFieldBindingRoundTrip() {
+    MappingDefinition definition = new MappingDefinition(HiddenBean.class, true);
+    definition.addMemberMapping(new FieldMapping(HiddenBean.class, "name"));
+    definition.addMemberMapping(new FieldMapping(HiddenBean.class, "count"));
+
+    HiddenBean bean = new HiddenBean();
+    bean.name = "hidden";
+    bean.count = 9;
+
+    HiddenBean copy = roundTrip(definition, bean);
+    Assert.assertEquals("hidden", copy.name);
+    Assert.assertEquals(9, copy.count);
+  }
+
+  @Test
+  public void testCompilesAccessorsForPublicMembers() throws Exception {
+    AccessorCompiler compiler = new AccessorCompiler(FieldBean.class);
+
+    assertCompiled(compiler.forField(FieldBean.class.getField("count")));
+    assertCompiled(compiler.forGetter(SetterBean.class.getMethod("getCount")));
+    assertCompiled(compiler.forSetter(SetterBean.class.getMethod("setCount", Integer.class)));
+    assertCompiled(compiler.forConstructor(ConstructorBean.class.getConstructor(String.class, int.class)));
+    assertCompiled(compiler.forFactoryMethod(FactoryBean.class.getMethod("create", String.class, int.class)));
+  }
+
+  @Test
+  public void testFallsBackToReflectionForHiddenMembers() throws Exception {
+    AccessorCompiler compiler = new AccessorCompiler(HiddenBean.class);
+
+    MemberAccessor accessor = compiler.forField(HiddenBean.class.getDeclaredField("count"));
+    Assert.assertFalse(isCompiled(accessor));
+
+    HiddenBean bean = new HiddenBean();
+    accessor.set(bean, 5);
+    Assert.assertEquals(5, accessor.get(bean));
+
+    MemberInstantiator instantiator =
+            compiler.forConstructor(FactoryBean.class.getDeclaredConstructor(String.class, int.class));
+    Assert.assertFalse(isCompiled(instantiator));
+
+    FactoryBean created = (FactoryBean) instantiator.newInstance(new Object[]{"private", 2});
+    Assert.assertEquals("private", created.getName());
+    Assert.assertEquals(2, created.getCount());
+  }
+
+  @Test
+  public void testCompiledAccessorsReadAndWrite() throws Exception {
+    AccessorCompiler compiler = new AccessorCompiler(FieldBean.class);
+    MemberAccessor count = compiler.forField(FieldBean.class.getField("count"));
+    MemberAccessor name = compiler.forField(FieldBean.class.getField("name"));
+
+    FieldBean bean = new FieldBean();
+    count.set(bean, 12);
+    name.set(bean, "compiled");
+
+    Assert.assertEquals(12, bean.count);
+    Assert.assertEquals("compiled", bean.name);
+    Assert.assertEquals(12, count.get(bean));
+    Assert.assertEquals("compiled", name.get(bean));
+
+    MemberInstantiator instantiator =
+            compiler.forConstructor(ConstructorBean.class.getConstructor(String.class, int.class));
+    ConstructorBean constructed = (ConstructorBean) instantiator.newInstance(new Object[]{"new", 1});
+    Assert.assertEquals("new", constructed.getName());
+    Assert.assertEquals(1, constructed.getCount());
+  }
+
+  @Test
+  public void testConvertPassesThroughValuesOfTargetType() {
+    List<String> list = new ArrayList<String>();
+    Assert.assertSame(list, DefaultDefinitionMarshaller.convert(list, List.class));
+
+    String s = new String("value");
+    Assert.assertSame(s, DefaultDefinitionMarshaller.convert(s, CharSequence.class));
+
+    Assert.assertEquals(Long.valueOf(5), DefaultDefinitionMarshaller.convert(5, long.class));
+    Assert.assertEquals(Integer.valueOf(5), DefaultDefinitionMarshaller.convert(5L, Integer.class));
+  }
+
+  /**
+   * Compares the cost of writing and reading a field through reflection, through a compiled accessor, and through an
+   * accessor written by hand, which is what the javac-generated marshallers do.
+   */
+  @Test
+  @Ignore
+  public void testAccessorPerformance() throws Exception {
+    final Field field = FieldBean.class.getField("count");
+
+    MemberAccessor direct = new MemberAccessor() {
+      @Override
+      public Object get(Object instance) {
+        return ((FieldBean) instance).count;
+      }
+
+      @Override
+      public void set(Object instance, Object value) {
+        ((FieldBean) instance).count = (Integer) value;
+      }
+    };
+
+    MemberAccessor reflective = AccessorCompiler.reflective(field);
+    MemberAccessor compiled = new AccessorCompiler(FieldBean.class).forField(field);
+
+    for (int round = 0; round < 3; round++) {
+      System.out.println("reflective: " + time(reflective) + "ms");
+      System.out.println("compiled: " + time(compiled) + "ms");
+      System.out.println("direct: " + time(direct) + "ms");
+    }
+  }
+
+  private static long time(MemberAccessor accessor) throws Exception {
+    final FieldBean bean = new FieldBean();
+    long sum = 0;
+
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < 20000000; i++) {
+      accessor.set(bean, i & 1023);
+      sum += (Integer) accessor.get(bean);
+    }
+    long time = System.currentTimeMillis() - start;
+
+    if (sum == 42) {
+      System.out.println();
+    }
+    return time;
+  }
+
+  private static boolean isCompiled(Object accessor) {
+    return accessor.getClass().getName().startsWith("org.jboss.errai.marshalling.server.marshallers.accessors.");
+  }
+
+  private static void assertCompiled(Object accessor) {
+    Assert.assertTrue("not compiled: " + accessor.getClass().getName(), isCompiled(accessor));
+  }
+
+  private static class TestMappingContext implements ServerMappingContext {
+    private final DefinitionsFactory definitions;
+
+    private TestMappingContext(DefinitionsFactory definitions) {
+      this.definitions = definitions;
+    }
+
+    @Override
+    public DefinitionsFactory getDefinitionsFactory() {
+      return definitions;
+    }
+
+    @Override
+    public Marshaller<Object> getMarshaller(Class<?> type) {
+      return getMarshaller(type.getName());
+    }
+
+    @Override
+    public Marshaller<Object> getMarshaller(String clazz) {
+      MappingDefinition definition = definitions.getDefinition(clazz);
+      return definition == null ? null : definition.getMarshallerInstance();
+    }
+
+    @Override
+    public boolean hasMarshaller(String clazzName) {
+      return definitions.hasDefinition(clazzName);
+    }
+
+    @Override
+    public boolean canMarshal(String cls) {
+      return hasMarshaller(cls);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static class TestDefinitionsFactory implements DefinitionsFactory {
+    private final Map<String, MappingDefinition> definitions = new HashMap<String, MappingDefinition>();
+
+    private TestDefinitionsFactory() {
+      addDefinition(new MappingDefinition((Marshaller) new StringMarshaller(), true));
+      addDefinition(new MappingDefinition((Marshaller) new IntegerMarshaller(), true));
+      addDefinition(new MappingDefinition((Marshaller) new IntegerMarshaller(), int.class, true));
+    }
+
+    @Override
+    public boolean hasDefinition(String clazz) {
+      return definitions.containsKey(clazz);
+    }
+
+    @Override
+    public boolean hasDefinition(MetaClass clazz) {
+      return hasDefinition(clazz.getFullyQualifiedName());
+    }
+
+    @Override
+    public boolean hasDefinition(Class<?> clazz) {
+      return hasDefinition(clazz.getName());
+    }
+
+    @Override
+    public void addDefinition(MappingDefinition definition) {
+      definitions.put(definition.getMappingClass().getFullyQualifiedName(), definition);
+    }
+
+    @Override
+    public MappingDefinition getDefinition(String clazz) {
+      return definitions.get(clazz);
+    }
+
+    @Override
+    public MappingDefinition getDefinition(MetaClass clazz) {
+      return getDefinition(clazz.getFullyQualifiedName());
+    }
+
+    @Override
+    public MappingDefinition getDefinition(Class<?> clazz) {
+      return getDefinition(clazz.getName());
+    }
+
+    @Override
+    public void mergeDefinition(MappingDefinition def) {
+    }
+
+    @Override
+    public boolean isExposedClass(Class<?> clazz) {
+      return hasDefinition(clazz);
+    }
+
+    @Override
+    public Set<Class<?>> getExposedClasses() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<String, String> getMappingAliases() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void deleteAllDefinitions() {
+      definitions.clear();
+    }
+  }
+}
@@ -4,12 +4,19 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import org.jboss.errai.marshalling.client.api.json.EJArray;
 import org.jboss.errai.marshalling.client.api.json.EJValue;
+import org.jboss.errai.marshalling.server.JSONByteDecoder;
 import org.jboss.errai.marshalling.server.JSONDecoder;
+import org.jboss.errai.marshalling.server.JSONStreamDecoder;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -251,6 +258,49 @@ public class JSONDecoderTest {
     assertFalse(myValue.isNull());
   }
 
+  @Test
+  public void testDecodeObjectWithEscapesAndSupplementaryCharacters() throws Exception {
+    EJValue ejv = JSONDecoder.decode("{ \"myValue\": \"tab\\t quote\\\" \\u0041 \u00e9 \ud83d\ude00\" }");
+    assertEquals("tab\t quote\" A \u00e9 \ud83d\ude00", ejv.isObject().get("myValue").isString().stringValue());
+  }
+
+  @Test
+  public void testDecodePreservesMemberOrder() throws Exception {
+    EJValue ejv = JSONDecoder.decode("{ \"c\": 1, \"a\": 2, \"b\": 3 }");
+    assertEquals(Arrays.asList("c", "a", "b"), new ArrayList<String>(ejv.isObject().keySet()));
+  }
+
+  @Test
+  public void testDecodeInternsProtocolKeys() throws Exception {
+    String json = "{\"ToSubject\":\"ServerBus\",\"CommandType\":\"ConnectToQueue\"}";
+    String first = JSONDecoder.decode(json).isObject().keySet().iterator().next();
+    String second = JSONDecoder.decode(json).isObject().keySet().iterator().next();
+    assertSame(first, second);
+  }
+
+  @Test
+  public void testDecodeLazilyMatchesEagerDecode() throws Exception {
+    byte[] json = ("[{\"ToSubject\":\"Service\",\"Value\":{\"^EncodedType\":\"java.util.ArrayList\","
+            + "\"^ObjectID\":\"1\",\"^Value\":[{\"a\":\"}]\\\"\"},[1,2,{\"b\":[]}]]}}]").getBytes("UTF-8");
+
+    EJValue lazy = JSONByteDecoder.decodeLazily(json, 0, json.length);
+    EJValue eager = JSONByteDecoder.decode(json);
+    assertEquals(eager.getRawValue(), lazy.getRawValue());
+    assertEquals("}]\"", lazy.isArray().get(0).isObject().get("Value").isObject().get("^Value").isArray().get(0)
+            .isObject().get("a").isString().stringValue());
+  }
+
+  @Test
+  public void testDecodeMatchesStreamDecoder() throws Exception {
+    String json = "[{\"CommandType\":\"ConnectToQueue\",\"ToSubject\":\"ServerBus\",\"PriorityProcessing\":\"1\"},"
+            + "{\"ToSubject\":\"TestService\",\"CommandType\":\"getUser:java.lang.Long:\",\"ReplyTo\":\"TestService.RespondTo:1\","
+            + "\"MethodParms\":{\"^EncodedType\":\"java.util.Arrays$ArrayList\",\"^ObjectID\":\"2\",\"^Value\":["
+            + "{\"^EncodedType\":\"java.lang.Long\",\"^ObjectID\":\"1\",\"^NumVal\":\"12\"}, -0.5e-3, true, null]}}]";
+
+    EJValue expected = new JSONStreamDecoder(new ByteArrayInputStream(json.getBytes("UTF-8"))).parse();
+    assertEquals(expected.getRawValue(), JSONDecoder.decode(json).getRawValue());
+  }
+
   private static Throwable findRootCause(Throwable e) {
     while (e.getCause() != null && e.getCause() != e) {
       e = e.getCause();
@@ -0,0 +1,67 @@
+package org.jboss.errai.marshalling.tests;
+
+import org.jboss.errai.marshalling.client.api.AbstractMarshallingSession;
+import org.jboss.errai.marshalling.client.api.MappingContext;
+import org.jboss.errai.marshalling.client.api.Marshaller;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the object tracking of {@link AbstractMarshallingSession}.
+ */
+public class MarshallingSessionTest {
+
+  private static class TestSession extends AbstractMarshallingSession {
+    @Override
+    public MappingContext getMappingContext() {
+      return null;
+    }
+
+    @Override
+    public Marshaller<Object> getMarshallerInstance(String fqcn) {
+      return null;
+    }
+
+    @Override
+    public String determineTypeFor(String formatType, Object o) {
+      return null;
+    }
+  }
+
+  @Test
+  public void testObjectHashesAreStable() {
+    TestSession session = new TestSession();
+    Object a = new Object();
+    Object b = new Object();
+
+    Assert.assertFalse(session.hasObjectHash(a));
+    Assert.assertEquals("1", session.getObjectHash(a));
+    Assert.assertEquals("2", session.getObjectHash(b));
+    Assert.assertEquals("1", session.getObjectHash(a));
+
+    Assert.assertTrue(session.hasObjectHash(a));
+    Assert.assertTrue(session.hasObjectHash("2"));
+    Assert.assertSame(b, session.getObject(Object.class, "2"));
+  }
+
+  @Test
+  public void testRecordedObjectsInAnyOrder() {
+    TestSession session = new TestSession();
+    Object a = new Object();
+    Object b = new Object();
+    Object c = new Object();
+
+    session.recordObjectHash("3", c);
+    session.recordObjectHash("1", a);
+    session.recordObjectHash("x", b);
+    session.recordObjectHash("01", b);
+
+    Assert.assertSame(c, session.getObject(Object.class, "3"));
+    Assert.assertSame(a, session.getObject(Object.class, "1"));
+    Assert.assertSame(b, session.getObject(Object.class, "x"));
+    Assert.assertSame(b, session.getObject(Object.class, "01"));
+    Assert.assertFalse(session.hasObjectHash("2"));
+    Assert.assertFalse(session.hasObjectHash("999999999"));
+    Assert.assertNull(session.getObject(Object.class, "2"));
+  }
+}
@@ -16,6 +16,7 @@ import java.util.TreeSet;
 import junit.framework.Assert;
 
 import org.jboss.errai.marshalling.client.MarshallingSessionProviderFactory;
+import org.jboss.errai.marshalling.client.api.AppendingMarshaller;
 import org.jboss.errai.marshalling.client.api.Marshaller;
 import org.jboss.errai.marshalling.client.api.MarshallingSession;
 import org.jboss.errai.marshalling.client.api.ParserFactory;
@@ -448,6 +449,33 @@ public class ServerMarshallingTest {
 //    System.out.println(System.currentTimeMillis() - st);
   }
 
+  @Test
+  public void testAppendingMarshallerMatchesStringForm() {
+    SType sType = SType.create(new ServerRandomProvider());
+
+    Marshaller<Object> marshaller = MappingContextSingleton.get().getMarshaller(SType.class.getName());
+    Assert.assertTrue("expected an appending marshaller", marshaller instanceof AppendingMarshaller);
+
+    String expected = marshaller.marshall(sType, MarshallingSessionProviderFactory.getEncoding());
+
+    StringBuilder buf = new StringBuilder("[");
+    ((AppendingMarshaller<Object>) marshaller).marshallTo(buf, sType, MarshallingSessionProviderFactory.getEncoding());
+
+    Assert.assertEquals("[" + expected, buf.toString());
+  }
+
+  @Test
+  public void testMarshallerLookupByClassMatchesLookupByName() {
+    MappingContextSingleton.get();
+    MarshallingSession session = MarshallingSessionProviderFactory.getEncoding();
+
+    // HashMap is an alias of the map marshaller, and SType has a generated marshaller.
+    for (Class<?> type : new Class<?>[]{HashMap.class, SType.class, String.class}) {
+      Assert.assertSame(session.getMarshallerInstance(type.getName()), session.getMarshallerInstance(type));
+      Assert.assertSame(session.getMarshallerInstance(type), session.getMarshallerInstance(type));
+    }
+  }
+
   @Test
   public void testPrimitiveIntRoundTrip() {
     final int val = 1701;